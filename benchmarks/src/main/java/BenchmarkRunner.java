@@ -0,0 +1,48 @@
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks once per thread count and writes the results of each run as JSON, so that
+ * runs of two releases can be compared. Takes {@code -threads 1,4,16} and {@code -out prefix}; every
+ * other argument is passed to JMH, for example a benchmark name pattern or {@code -p engine=HASH}.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> threadCounts = new ArrayList<>();
+    String prefix = "jmh-result";
+    List<String> jmhArgs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-threads".equals(args[i]) && i + 1 < args.length) {
+        for (String count : args[++i].split(",")) {
+          threadCounts.add(Integer.parseInt(count.trim()));
+        }
+      } else if ("-out".equals(args[i]) && i + 1 < args.length) {
+        prefix = args[++i];
+      } else {
+        jmhArgs.add(args[i]);
+      }
+    }
+    if (threadCounts.isEmpty()) {
+      threadCounts.add(1);
+    }
+    Options commandLine = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+    for (int threads : threadCounts) {
+      String result = prefix + "-t" + threads + ".json";
+      Options options = new OptionsBuilder()
+              .parent(commandLine)
+              .threads(threads)
+              .resultFormat(ResultFormatType.JSON)
+              .result(result)
+              .build();
+      new Runner(options).run();
+      System.out.println("Results with " + threads + " threads written to " + result);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package server;
+
+import common.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding proposal values with {@link ProposalCodec}, which every proposal
+ * pays on the proposer and every learner pays again when it applies the value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"1", "64", "1024"})
+  private int batchSize;
+  @Param({"16", "1024"})
+  private int valueSize;
+  private List<Operation> batch;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() {
+    char[] value = new char[valueSize];
+    Arrays.fill(value, 'v');
+    batch = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      // a mix of the operations a batch carries
+      switch (i % 3) {
+        case 0:
+          batch.add(new Operation(Constants.PUT, "key" + i, new String(value)));
+          break;
+        case 1:
+          batch.add(new Operation(Constants.PUT, "key" + i, new String(value), System.currentTimeMillis() + 60000));
+          break;
+        default:
+          batch.add(new Operation(Constants.DELETE, "key" + i));
+          break;
+      }
+    }
+    encoded = ProposalCodec.encode(batch);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return ProposalCodec.encode(batch);
+  }
+
+  @Benchmark
+  public List<Operation> decode() {
+    return ProposalCodec.decode(encoded);
+  }
+}
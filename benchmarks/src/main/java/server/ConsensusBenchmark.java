@@ -0,0 +1,104 @@
+package server;
+
+import common.KeyDistribution;
+import common.KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures committing writes through five replicas in one process, wired to each other directly as
+ * {@code ServerApp} wires them with RMI, so the numbers are the cost of the Paxos rounds, the codec
+ * and applying the values without any network. Every write goes to replica 0, the leader with
+ * Multi-Paxos, through {@code put}, the batcher when enabled, and {@code propose}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsensusBenchmark {
+
+  private static final int REPLICAS = 5;
+  private static final long LEADER_WAIT_MILLIS = 10000;
+  @Param({"false", "true"})
+  private boolean multiPaxos;
+  // 1 proposes every write on its own
+  @Param({"1", "64"})
+  private int maxBatchSize;
+  @Param({"UNIFORM", "ZIPFIAN"})
+  private KeyDistribution keyDistribution;
+  @Param("10000")
+  private int keyCount;
+  @Param("100")
+  private int valueSize;
+  private Server[] servers;
+  private KeyGenerator keys;
+  private String[] keyNames;
+  private String value;
+
+  @Setup
+  public void setUp() throws RemoteException, InterruptedException {
+    // the replicas log elections and failures; keep them out of the results
+    Logger.getLogger("").setLevel(Level.WARNING);
+    ServerConfig config = new ServerConfig();
+    config.setMultiPaxos(multiPaxos);
+    config.setMaxBatchSize(maxBatchSize);
+    servers = new Server[REPLICAS];
+    for (int i = 0; i < REPLICAS; i++) {
+      servers[i] = new Server(i, REPLICAS, config);
+    }
+    for (Server server : servers) {
+      server.setProposers(servers);
+      server.setAcceptors(servers);
+      server.setLearners(servers);
+    }
+    if (multiPaxos) {
+      servers[0].claimLeadership();
+      long deadline = System.currentTimeMillis() + LEADER_WAIT_MILLIS;
+      while (servers[0].getLeader() != 0) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IllegalStateException("Replica 0 did not become the leader");
+        }
+        Thread.sleep(10);
+      }
+    }
+    keys = new KeyGenerator(keyDistribution, keyCount);
+    char[] chars = new char[valueSize];
+    Arrays.fill(chars, 'v');
+    value = new String(chars);
+    keyNames = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "key" + i;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    for (Server server : servers) {
+      server.shutdown();
+    }
+  }
+
+  @Benchmark
+  public boolean put() throws RemoteException {
+    return servers[0].put(keyNames[(int) keys.next(ThreadLocalRandom.current())], value);
+  }
+}
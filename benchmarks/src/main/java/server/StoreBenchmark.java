@@ -0,0 +1,81 @@
+package server;
+
+import common.KeyDistribution;
+import common.KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reads and writes a learner makes to its storage engine, a get for every read and a
+ * put for every applied write, with all benchmark threads contending for the same store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+
+  // LSM also works with -p engine=LSM; it leaves its files in a temporary directory
+  @Param({"HASH", "SORTED", "OFFHEAP"})
+  private Engine engine;
+  @Param({"UNIFORM", "ZIPFIAN"})
+  private KeyDistribution keyDistribution;
+  // share of the operations that are puts, the rest are gets
+  @Param({"0", "0.05", "0.5"})
+  private double writeFraction;
+  @Param("100000")
+  private int keyCount;
+  @Param("100")
+  private int valueSize;
+  private StorageEngine store;
+  private KeyGenerator keys;
+  private String[] keyNames;
+  private String value;
+
+  @Setup
+  public void setUp() throws IOException {
+    store = Server.newStorageEngine(engine, null, "benchmark");
+    keys = new KeyGenerator(keyDistribution, keyCount);
+    char[] chars = new char[valueSize];
+    Arrays.fill(chars, 'v');
+    value = new String(chars);
+    keyNames = new String[keyCount];
+    for (int i = 0; i < keyCount; i++) {
+      keyNames[i] = "key" + i;
+      store.put(keyNames[i], value);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    store.close();
+  }
+
+  @Benchmark
+  public String getOrPut() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String key = keyNames[(int) keys.next(random)];
+    if (random.nextDouble() < writeFraction) {
+      store.put(key, value);
+      return key;
+    }
+    return store.get(key);
+  }
+}
@@ -3,18 +3,21 @@ package client;
 import common.App;
 import common.Constants;
 import common.KVStoreInterface;
+import common.KeyRanges;
+import common.Membership;
+import common.Transport;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.rmi.Naming;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -31,14 +34,23 @@ public class ClientApp implements App {
   private static final String KEY_VALUE_FILE_LOCATION = "key_value.txt";
   private static final String INVALID_PARAMETERS = "Invalid parameters length!!!";
   private static final String CLIENT_LOGGING_PROPERTIES = File.separator + "client-logging.properties";
-  private final int port;
+  private final Membership membership;
+  private final Transport transport;
+  private final int nearCacheEntries;
+  private final long nearCacheTtlMillis;
+  private final Workload workload;
+  private final long maxReadLagMillis;
   private static final int REMOTE_SERVERS_COUNT = 5;
+  private static final int DEFAULT_SCAN_LIMIT = 20;
+  // stands for an open bound of a scan
+  private static final String OPEN_BOUND = "-";
+  private KVStoreClient client;
 
   /**
    * Create the Client App object.
    */
   public ClientApp() {
-    this.port = Constants.DEFAULT_RMI_PORT;
+    this(Constants.DEFAULT_RMI_PORT);
   }
 
   /**
@@ -47,17 +59,87 @@ public class ClientApp implements App {
    * @param port server rmi port number.
    */
   public ClientApp(int port) {
-    this.port = port;
+    this(port, Transport.RMI);
   }
 
-  private KVStoreInterface getServer() throws MalformedURLException, NotBoundException, RemoteException {
-    KVStoreInterface server;
-    Random random = new Random();
-    int randomPortOffset;
-    randomPortOffset = random.nextInt(REMOTE_SERVERS_COUNT) + 1;
-    server = (KVStoreInterface) Naming.lookup("rmi://localhost:" + (port + randomPortOffset) + "/" + Constants.REMOTE_OBJECT + randomPortOffset);
-    LOGGER.info("Connected to Server: " + randomPortOffset + " Port: " + (port + randomPortOffset));
-    return server;
+  /**
+   * Create the Client App object with given server port number and transport.
+   *
+   * @param port      server port number.
+   * @param transport how to call the servers.
+   */
+  public ClientApp(int port, Transport transport) {
+    this(port, transport, 0, NearCache.DEFAULT_TTL_MILLIS);
+  }
+
+  /**
+   * Create the Client App object with given server port number, transport and near cache.
+   *
+   * @param port               server port number.
+   * @param transport          how to call the servers.
+   * @param nearCacheEntries   the number of values cached by the client, 0 for no cache.
+   * @param nearCacheTtlMillis how long a cached value is served.
+   */
+  public ClientApp(int port, Transport transport, int nearCacheEntries, long nearCacheTtlMillis) {
+    this(port, transport, nearCacheEntries, nearCacheTtlMillis, null);
+  }
+
+  /**
+   * Create the Client App object that either takes commands or runs a load generator workload.
+   *
+   * @param port               server port number.
+   * @param transport          how to call the servers.
+   * @param nearCacheEntries   the number of values cached by the client, 0 for no cache.
+   * @param nearCacheTtlMillis how long a cached value is served.
+   * @param workload           the workload to run instead of taking commands, or null.
+   */
+  public ClientApp(int port, Transport transport, int nearCacheEntries, long nearCacheTtlMillis, Workload workload) {
+    this(Membership.local(Constants.LOCAL_HOST, port, REMOTE_SERVERS_COUNT), transport, nearCacheEntries,
+            nearCacheTtlMillis, workload);
+  }
+
+  /**
+   * Create the Client App object for the servers of a cluster.
+   *
+   * @param membership         the servers and the addresses they listen on.
+   * @param transport          how to call the servers.
+   * @param nearCacheEntries   the number of values cached by the client, 0 for no cache.
+   * @param nearCacheTtlMillis how long a cached value is served.
+   * @param workload           the workload to run instead of taking commands, or null.
+   */
+  public ClientApp(Membership membership, Transport transport, int nearCacheEntries, long nearCacheTtlMillis,
+                   Workload workload) {
+    this(membership, transport, nearCacheEntries, nearCacheTtlMillis, workload, -1);
+  }
+
+  /**
+   * Create the Client App object for the servers of a cluster that may read from its observers.
+   *
+   * @param membership         the servers and the addresses they listen on.
+   * @param transport          how to call the servers.
+   * @param nearCacheEntries   the number of values cached by the client, 0 for no cache.
+   * @param nearCacheTtlMillis how long a cached value is served.
+   * @param workload           the workload to run instead of taking commands, or null.
+   * @param maxReadLagMillis   the lag of the observers reads may go to, or -1 to read from voting
+   *                           servers only.
+   */
+  public ClientApp(Membership membership, Transport transport, int nearCacheEntries, long nearCacheTtlMillis,
+                   Workload workload, long maxReadLagMillis) {
+    this.membership = membership;
+    this.maxReadLagMillis = maxReadLagMillis;
+    this.transport = transport;
+    this.nearCacheEntries = nearCacheEntries;
+    this.nearCacheTtlMillis = nearCacheTtlMillis;
+    this.workload = workload;
+  }
+
+  private synchronized KVStoreInterface getServer() throws IOException {
+    if (client == null) {
+      NearCache nearCache = nearCacheEntries > 0 ? new NearCache(nearCacheEntries, nearCacheTtlMillis) : null;
+      client = new KVStoreClient(membership, transport, nearCache, maxReadLagMillis);
+      LOGGER.info("Connected to Servers: " + membership);
+    }
+    return client;
   }
 
   @Override
@@ -65,6 +147,12 @@ public class ClientApp implements App {
 
     try {
       LogManager.getLogManager().readConfiguration(ClientApp.class.getResourceAsStream(CLIENT_LOGGING_PROPERTIES));
+      if (workload != null) {
+        getServer();
+        new LoadGenerator(client, workload, System.out).run();
+        client.close();
+        System.exit(0);
+      }
       prePopulate(getServer());
     } catch (Exception e) {
       LOGGER.severe(e.getMessage());
@@ -74,26 +162,23 @@ public class ClientApp implements App {
 
     displayInstructions();
     Scanner in = new Scanner(System.in);
-    String[] parameters = {};
-    boolean retry = false;
-    int retryCount = 0;
+    String[] parameters;
     while (true) {
-      if (!retry) {
-        System.out.println("Enter command: ");
-        String input = in.nextLine();
-        parameters = input.split(" ");
-        parameters[0] = parameters[0].toUpperCase();
-      } else {
-        LOGGER.info("Retry: Connecting to another server!!!");
-      }
+      System.out.println("Enter command: ");
+      String input = in.nextLine();
+      parameters = input.split(" ");
+      parameters[0] = parameters[0].toUpperCase();
       try {
         switch (parameters[0]) {
           case Constants.PUT:
-            if (parameters.length != 3) {
+            if (parameters.length != 3 && parameters.length != 4) {
               LOGGER.warning("Invalid Command!!!");
               break;
             }
-            if (getServer().put(parameters[1], parameters[2])) {
+            boolean put = parameters.length == 4
+                    ? getServer().put(parameters[1], parameters[2], Long.parseLong(parameters[3]))
+                    : getServer().put(parameters[1], parameters[2]);
+            if (put) {
               LOGGER.info(Constants.PUT + " successful");
             } else {
               LOGGER.info(Constants.PUT + " failed");
@@ -117,6 +202,54 @@ public class ClientApp implements App {
               LOGGER.info(Constants.DELETE + " failed");
             }
             break;
+          case Constants.MULTI_GET:
+            if (parameters.length < 2) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            LOGGER.info(getServer().multiGet(keysOf(parameters)).toString());
+            break;
+          case Constants.MULTI_PUT:
+            if (parameters.length < 3 || parameters.length % 2 == 0) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            LOGGER.info(Constants.MULTI_PUT + " " + getServer().multiPut(pairsOf(parameters)));
+            break;
+          case Constants.MULTI_DELETE:
+            if (parameters.length < 2) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            LOGGER.info(Constants.MULTI_DELETE + " " + getServer().multiDelete(keysOf(parameters)));
+            break;
+          case Constants.SCAN:
+            if (parameters.length != 3 && parameters.length != 4) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            LOGGER.info(getServer().scan(boundOf(parameters[1]), boundOf(parameters[2]), limitOf(parameters, 3)).toString());
+            break;
+          case Constants.PREFIX_SCAN:
+            if (parameters.length != 2 && parameters.length != 3) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            LOGGER.info(getServer().scan(parameters[1], KeyRanges.prefixEnd(parameters[1]), limitOf(parameters, 2)).toString());
+            break;
+          case Constants.STATS:
+            getServer();
+            LOGGER.info(client.getNearCache() != null ? client.getNearCache().toString() : "Near cache disabled");
+            LOGGER.info("Client metrics:\n" + client.getMetrics());
+            break;
+          case Constants.METRICS:
+            if (parameters.length != 2) {
+              LOGGER.warning("Invalid Command!!!");
+              break;
+            }
+            getServer();
+            LOGGER.info("Server" + parameters[1] + " metrics:\n" + client.getServerMetrics(Integer.parseInt(parameters[1])));
+            break;
           case "help":
             displayInstructions();
             break;
@@ -127,22 +260,14 @@ public class ClientApp implements App {
             LOGGER.warning("Invalid Command!!!");
             break;
         }
-        retry = false;
         if ("q".equals(parameters[0]) || "quit".equals(parameters[0])) {
           LOGGER.info("Closing Application!!!");
           System.exit(0);
           break;
         }
       } catch (Exception e) {
-        retryCount++;
-        if (retryCount > REMOTE_SERVERS_COUNT) {
-          LOGGER.info("Max retries!!!");
-          retry = false;
-          retryCount = 0;
-        } else {
-          retry = true;
-          LOGGER.severe(e.getMessage());
-        }
+        // the client already retried the other servers, backing off between attempts
+        LOGGER.severe(e.getMessage());
       }
     }
   }
@@ -206,13 +331,48 @@ public class ClientApp implements App {
     LOGGER.info("Done with Pre Population!!!");
   }
 
+  /**
+   * @param parameters A command followed by keys.
+   * @return The keys.
+   */
+  private static List<String> keysOf(String[] parameters) {
+    return new ArrayList<>(Arrays.asList(parameters).subList(1, parameters.length));
+  }
+
+  /**
+   * @param parameters A command followed by alternating keys and values.
+   * @return The key-value pairs, in command order.
+   */
+  private static Map<String, String> pairsOf(String[] parameters) {
+    Map<String, String> pairs = new LinkedHashMap<>();
+    for (int i = 1; i + 1 < parameters.length; i += 2) {
+      pairs.put(parameters[i], parameters[i + 1]);
+    }
+    return pairs;
+  }
+
+  private static String boundOf(String parameter) {
+    return OPEN_BOUND.equals(parameter) ? null : parameter;
+  }
+
+  private static int limitOf(String[] parameters, int index) {
+    return index < parameters.length ? Integer.parseInt(parameters[index]) : DEFAULT_SCAN_LIMIT;
+  }
+
   private static void displayInstructions() {
     String message = "The following commands are available:\n" +
-            "1. " + Constants.PUT + " key value\n" +
+            "1. " + Constants.PUT + " key value [ttlMillis]\n" +
             "2. " + Constants.GET + " key\n" +
             "3. " + Constants.DELETE + " key\n" +
-            "4. help\n" +
-            "5. q or quit";
+            "4. " + Constants.MULTI_PUT + " key value [key value ...]\n" +
+            "5. " + Constants.MULTI_GET + " key [key ...]\n" +
+            "6. " + Constants.MULTI_DELETE + " key [key ...]\n" +
+            "7. " + Constants.SCAN + " startKey|- endKey|- [limit]\n" +
+            "8. " + Constants.PREFIX_SCAN + " prefix [limit]\n" +
+            "9. " + Constants.STATS + "\n" +
+            "10. " + Constants.METRICS + " serverId\n" +
+            "11. help\n" +
+            "12. q or quit";
     System.out.println(message);
   }
 }
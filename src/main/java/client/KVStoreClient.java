@@ -0,0 +1,869 @@
+package client;
+
+import common.AsyncKVStore;
+import common.Constants;
+import common.Histogram;
+import common.InvalidationListener;
+import common.KVStoreInterface;
+import common.Membership;
+import common.Metrics;
+import common.MetricsInterface;
+import common.MetricsSnapshot;
+import common.NioClient;
+import common.NioKVStore;
+import common.NotLeaderException;
+import common.ScanResult;
+import common.SelectorLoop;
+import common.Shards;
+import common.Transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * The {@code KVStoreClient} class is a reusable client of the replicated key-value store. It keeps
+ * one stub or connection per replica for its whole lifetime and offers every operation both as a
+ * blocking call and as a {@link CompletableFuture}.
+ *
+ * <p>Writes go to the leader of the key's shard reported by the replicas, or, while the shard has
+ * no stable leader, to one replica kept for as long as it answers, so that writes of this client do
+ * not compete with each other on different proposers. Multi-key writes are split by shard and each
+ * part is sent to the leader of its shard. Reads are spread over all replicas, which serve them locally or
+ * under the leader's lease. A replica that could not commit a write because another one leads
+ * redirects the client there at once; other failures are retried on another replica after a
+ * randomized exponential backoff.
+ *
+ * <p>With the binary transport an asynchronous call only queues a request on the replica's
+ * connection, so a single thread can keep any number of requests in flight. RMI calls block, so
+ * with RMI the asynchronous calls run on a bounded pool of client threads.
+ *
+ * <p>With a {@link NearCache} the client subscribes to the invalidations of one replica and reads
+ * keys missing from the cache from that replica, so every value it caches is invalidated when the
+ * replica applies a later write. The subscription is renewed every second; while the client is not
+ * subscribed, and whenever the replica reports the subscription as new, the cache is cleared and
+ * reads go to the replicas as without a cache.
+ *
+ * <p>Non-voting observers of the membership only serve reads, and only to a client given a maximum
+ * read lag. Such a client asks the observers for their lag every {@value #LAG_CHECK_MILLIS} ms and
+ * spreads its reads over those within the maximum, so a read may be as stale as the maximum plus
+ * one check interval. While no observer is fresh enough reads go to the voting replicas. Writes
+ * and the near cache subscription always go to voting replicas.
+ *
+ * <p>The client measures the latency of its GET, PUT and DELETE calls including retries, and
+ * counts the retries; {@link #getServerMetrics(int)} fetches the metrics of a replica.
+ */
+public class KVStoreClient implements KVStoreInterface, AsyncKVStore, Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(KVStoreClient.class.getName());
+  public static final int DEFAULT_REPLICAS = 5;
+  // threads running blocking RMI calls for the asynchronous API
+  private static final int RMI_THREADS = 32;
+  // retry delays grow from the base up to the cap, each drawn at random below its bound
+  private static final long BACKOFF_BASE_MILLIS = 10;
+  private static final long BACKOFF_MAX_MILLIS = 1000;
+  // how often the near cache subscription is renewed, which bounds how long a dropped one goes unnoticed
+  private static final long SUBSCRIPTION_RENEW_MILLIS = 1000;
+  // how often the lag of the observers is checked when reads may go to them
+  private static final long LAG_CHECK_MILLIS = 200;
+  private final Membership membership;
+  private final int replicaCount;
+  private final int voterCount;
+  private final AsyncKVStore[] replicas;
+  private final int maxAttempts;
+  // replica writes of each shard are sent to, -1 until one is chosen; the length is the number of
+  // shards, taken as one until the replicas reported their leaders
+  private volatile AtomicIntegerArray writeReplicas = unknownReplicas(1);
+  private final AtomicInteger nextReadReplica = new AtomicInteger(ThreadLocalRandom.current().nextInt(1 << 16));
+  // replicas reads are spread over: the observers within the maximum lag, else the voting replicas
+  private final int[] voters;
+  private volatile int[] readReplicas;
+  private final long maxReadLagMillis;
+  private final ScheduledExecutorService lagChecker;
+  private final ExecutorService rmiExecutor;
+  private final SelectorLoop nioLoop;
+  private final NearCache nearCache;
+  private final InvalidationListener invalidationListener;
+  private final ScheduledExecutorService subscriber;
+  // replica the near cache is subscribed to and reads missing keys from, -1 while not subscribed
+  private volatile int cacheReplica = -1;
+  // end-to-end latencies in microseconds as seen by the caller, retries included
+  private final Metrics metrics = new Metrics();
+  private final Histogram getMicros = metrics.histogram("client.get.us");
+  private final Histogram putMicros = metrics.histogram("client.put.us");
+  private final Histogram deleteMicros = metrics.histogram("client.delete.us");
+  private final LongAdder retries = metrics.counter("client.retries");
+  private final LongAdder redirects = metrics.counter("client.redirects");
+
+  /**
+   * Create a client of the replicas listening on consecutive ports of the local host.
+   *
+   * @param port      The port of the first replica.
+   * @param transport How to call the replicas.
+   * @throws IOException If the binary transport cannot be started.
+   */
+  public KVStoreClient(int port, Transport transport) throws IOException {
+    this(Constants.LOCAL_HOST, port, DEFAULT_REPLICAS, transport);
+  }
+
+  /**
+   * Create a client of the replicas listening on consecutive ports of a host.
+   *
+   * @param host         The host of the replicas.
+   * @param port         The port of the first replica; replica i listens on port + i.
+   * @param replicaCount The number of replicas.
+   * @param transport    How to call the replicas.
+   * @throws IOException If the binary transport cannot be started.
+   */
+  public KVStoreClient(String host, int port, int replicaCount, Transport transport) throws IOException {
+    this(host, port, replicaCount, transport, null);
+  }
+
+  /**
+   * Create a client of the replicas listening on consecutive ports of a host.
+   *
+   * @param host         The host of the replicas.
+   * @param port         The port of the first replica; replica i listens on port + i.
+   * @param replicaCount The number of replicas.
+   * @param transport    How to call the replicas.
+   * @param nearCache    The cache of values read by this client, or null to read every value remotely.
+   * @throws IOException If the binary transport cannot be started or the invalidation listener
+   *                     cannot be exported.
+   */
+  public KVStoreClient(String host, int port, int replicaCount, Transport transport, NearCache nearCache)
+          throws IOException {
+    this(Membership.local(host, port, replicaCount), transport, nearCache);
+  }
+
+  /**
+   * Create a client of the replicas of a cluster.
+   *
+   * @param membership The replicas and the addresses they listen on.
+   * @param transport  How to call the replicas.
+   * @param nearCache  The cache of values read by this client, or null to read every value remotely.
+   * @throws IOException If the binary transport cannot be started or the invalidation listener
+   *                     cannot be exported.
+   */
+  public KVStoreClient(Membership membership, Transport transport, NearCache nearCache) throws IOException {
+    this(membership, transport, nearCache, -1);
+  }
+
+  /**
+   * Create a client of the replicas of a cluster that may read from its observers.
+   *
+   * @param membership       The replicas and the addresses they listen on.
+   * @param transport        How to call the replicas.
+   * @param nearCache        The cache of values read by this client, or null to read every value remotely.
+   * @param maxReadLagMillis The lag of the observers reads may go to, or -1 to read from voting
+   *                         replicas only.
+   * @throws IOException If the binary transport cannot be started or the invalidation listener
+   *                     cannot be exported.
+   */
+  public KVStoreClient(Membership membership, Transport transport, NearCache nearCache, long maxReadLagMillis)
+          throws IOException {
+    this.membership = membership;
+    int replicaCount = membership.size();
+    this.replicaCount = replicaCount;
+    this.voterCount = membership.getVoterCount();
+    this.voters = new int[voterCount];
+    for (int i = 0; i < voterCount; i++) {
+      voters[i] = i;
+    }
+    this.readReplicas = voters;
+    this.maxReadLagMillis = maxReadLagMillis;
+    this.replicas = new AsyncKVStore[replicaCount];
+    this.maxAttempts = 2 * replicaCount;
+    if (transport == Transport.NIO) {
+      this.nioLoop = new SelectorLoop("client-nio");
+      this.rmiExecutor = null;
+      for (int i = 0; i < replicaCount; i++) {
+        replicas[i] = new NioKVStore(new NioClient(membership.getHost(i), membership.getPort(i), nioLoop));
+      }
+    } else {
+      this.nioLoop = null;
+      this.rmiExecutor = Executors.newFixedThreadPool(RMI_THREADS, task -> {
+        Thread thread = new Thread(task, "client-rmi");
+        thread.setDaemon(true);
+        return thread;
+      });
+      for (int i = 0; i < replicaCount; i++) {
+        replicas[i] = new RmiReplica(i);
+      }
+    }
+    this.nearCache = nearCache;
+    if (nearCache != null) {
+      metrics.gauge("nearcache.entries", nearCache::size);
+      metrics.gauge("nearcache.hits", nearCache::getHits);
+      metrics.gauge("nearcache.misses", nearCache::getMisses);
+      metrics.gauge("nearcache.evictions", nearCache::getEvictions);
+      metrics.gauge("nearcache.invalidations", nearCache::getInvalidations);
+      this.invalidationListener = new Invalidations();
+      if (transport == Transport.RMI) {
+        UnicastRemoteObject.exportObject(invalidationListener, 0);
+      }
+      this.subscriber = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "client-near-cache");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.subscriber.scheduleWithFixedDelay(this::renewSubscription, 0, SUBSCRIPTION_RENEW_MILLIS, TimeUnit.MILLISECONDS);
+    } else {
+      this.invalidationListener = null;
+      this.subscriber = null;
+    }
+    if (maxReadLagMillis >= 0 && voterCount < replicaCount) {
+      this.lagChecker = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "client-lag-check");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.lagChecker.scheduleWithFixedDelay(this::checkObserverLags, 0, LAG_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    } else {
+      this.lagChecker = null;
+    }
+  }
+
+  /**
+   * @return The near cache of this client, or null if it has none.
+   */
+  public NearCache getNearCache() {
+    return nearCache;
+  }
+
+  /**
+   * @return The current metrics of this client.
+   */
+  public MetricsSnapshot getMetrics() {
+    return metrics.snapshot();
+  }
+
+  /**
+   * Fetches the metrics of a replica.
+   *
+   * @param serverId The replica.
+   * @return The metrics of every shard of the replica, added up.
+   * @throws RemoteException If the replica cannot be reached.
+   */
+  public MetricsSnapshot getServerMetrics(int serverId) throws RemoteException {
+    if (serverId < 0 || serverId >= replicaCount) {
+      throw new IllegalArgumentException("No server " + serverId);
+    }
+    return ((MetricsInterface) replicas[serverId]).getMetrics();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putAsync(String key, String value) {
+    return timed(putMicros, () -> invalidating(Collections.singletonList(key),
+            () -> write(shardOf(key), replica -> replica.putAsync(key, value))));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putAsync(String key, String value, long ttlMillis) {
+    return timed(putMicros, () -> invalidating(Collections.singletonList(key),
+            () -> write(shardOf(key), replica -> replica.putAsync(key, value, ttlMillis))));
+  }
+
+  @Override
+  public CompletableFuture<String> getAsync(String key) {
+    return timed(getMicros, () -> readValue(key));
+  }
+
+  private CompletableFuture<String> readValue(String key) {
+    int replica = cacheReplica;
+    if (replica == -1 || key == null) {
+      return read(server -> server.getAsync(key));
+    }
+    String cached = nearCache.get(key);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    Object token = nearCache.startFetch(key);
+    return replicas[replica].getAsync(key).handle((value, e) -> {
+      if (e == null) {
+        nearCache.completeFetch(key, token, value);
+        return CompletableFuture.completedFuture(value);
+      }
+      nearCache.cancelFetch(key, token);
+      return read(server -> server.getAsync(key));
+    }).thenCompose(Function.identity());
+  }
+
+  @Override
+  public CompletableFuture<Boolean> deleteAsync(String key) {
+    return timed(deleteMicros, () -> invalidating(Collections.singletonList(key),
+            () -> write(shardOf(key), replica -> replica.deleteAsync(key))));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, String>> multiGetAsync(List<String> keys) {
+    int replica = cacheReplica;
+    if (replica == -1 || keys.contains(null)) {
+      return read(server -> server.multiGetAsync(keys));
+    }
+    Map<String, String> results = new LinkedHashMap<>();
+    Map<String, Object> tokens = new LinkedHashMap<>();
+    for (String key : keys) {
+      if (results.containsKey(key)) {
+        continue;
+      }
+      String cached = nearCache.get(key);
+      results.put(key, cached);
+      if (cached == null) {
+        tokens.put(key, nearCache.startFetch(key));
+      }
+    }
+    if (tokens.isEmpty()) {
+      return CompletableFuture.completedFuture(results);
+    }
+    List<String> missing = new ArrayList<>(tokens.keySet());
+    return replicas[replica].multiGetAsync(missing).handle((values, e) -> {
+      if (e == null) {
+        for (Map.Entry<String, Object> token : tokens.entrySet()) {
+          nearCache.completeFetch(token.getKey(), token.getValue(), values.get(token.getKey()));
+        }
+        results.putAll(values);
+        return CompletableFuture.completedFuture(results);
+      }
+      for (Map.Entry<String, Object> token : tokens.entrySet()) {
+        nearCache.cancelFetch(token.getKey(), token.getValue());
+      }
+      return read(server -> server.multiGetAsync(missing)).thenApply(fetched -> {
+        results.putAll(fetched);
+        return results;
+      });
+    }).thenCompose(Function.identity());
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> multiPutAsync(Map<String, String> pairs) {
+    return invalidating(pairs.keySet(), () -> writeByShard(pairs.keySet(), (replica, shardKeys) -> {
+      Map<String, String> shardPairs = new LinkedHashMap<>();
+      for (String key : shardKeys) {
+        shardPairs.put(key, pairs.get(key));
+      }
+      return replica.multiPutAsync(shardPairs);
+    }));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> multiDeleteAsync(List<String> keys) {
+    return invalidating(keys, () -> writeByShard(keys, AsyncKVStore::multiDeleteAsync));
+  }
+
+  @Override
+  public CompletableFuture<ScanResult> scanAsync(String startKey, String endKey, int limit) {
+    return read(replica -> replica.scanAsync(startKey, endKey, limit));
+  }
+
+  @Override
+  public CompletableFuture<int[]> getLeadersAsync() {
+    return read(AsyncKVStore::getLeadersAsync);
+  }
+
+  @Override
+  public CompletableFuture<Long> getLagMillisAsync() {
+    return read(AsyncKVStore::getLagMillisAsync);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> subscribeAsync(InvalidationListener listener) {
+    return read(replica -> replica.subscribeAsync(listener));
+  }
+
+  @Override
+  public boolean put(String key, String value) throws RemoteException {
+    return await(putAsync(key, value));
+  }
+
+  @Override
+  public boolean put(String key, String value, long ttlMillis) throws RemoteException {
+    return await(putAsync(key, value, ttlMillis));
+  }
+
+  @Override
+  public String get(String key) throws RemoteException {
+    return await(getAsync(key));
+  }
+
+  @Override
+  public boolean delete(String key) throws RemoteException {
+    return await(deleteAsync(key));
+  }
+
+  @Override
+  public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+    return await(multiGetAsync(keys));
+  }
+
+  @Override
+  public Map<String, Boolean> multiPut(Map<String, String> pairs) throws RemoteException {
+    return await(multiPutAsync(pairs));
+  }
+
+  @Override
+  public Map<String, Boolean> multiDelete(List<String> keys) throws RemoteException {
+    return await(multiDeleteAsync(keys));
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) throws RemoteException {
+    return await(scanAsync(startKey, endKey, limit));
+  }
+
+  @Override
+  public int[] getLeaders() throws RemoteException {
+    return await(getLeadersAsync());
+  }
+
+  @Override
+  public long getLagMillis() throws RemoteException {
+    return await(getLagMillisAsync());
+  }
+
+  @Override
+  public boolean subscribe(InvalidationListener listener) throws RemoteException {
+    return await(subscribeAsync(listener));
+  }
+
+  private int shardOf(String key) {
+    return key != null ? Shards.shardOf(key, writeReplicas.length()) : 0;
+  }
+
+  /**
+   * Runs a write and drops the written keys from the near cache once it completed, so that this
+   * client does not read its own writes from the cache before the invalidations arrive.
+   *
+   * @param keys  The keys of the write.
+   * @param write Starts the write.
+   * @return The result of the write.
+   */
+  private <T> CompletableFuture<T> invalidating(Collection<String> keys, Supplier<CompletableFuture<T>> write) {
+    if (nearCache == null) {
+      return write.get();
+    }
+    List<String> written = new ArrayList<>(keys);
+    return write.get().whenComplete((result, e) -> {
+      for (String key : written) {
+        nearCache.invalidate(key);
+      }
+    });
+  }
+
+  /**
+   * Subscribes the near cache to the replica it is subscribed to, or to another one if it has
+   * none, and clears the cache if invalidations may have been missed.
+   */
+  private void renewSubscription() {
+    int replica = cacheReplica;
+    if (replica == -1) {
+      replica = Math.floorMod(nextReadReplica.getAndIncrement(), voterCount);
+    }
+    try {
+      boolean added = replicas[replica].subscribeAsync(invalidationListener)
+              .get(SUBSCRIPTION_RENEW_MILLIS, TimeUnit.MILLISECONDS);
+      if (added) {
+        // the replica did not know this client, so it did not tell it about every write
+        nearCache.clear();
+        LOGGER.info("Near cache subscribed to Server" + replica);
+      }
+      cacheReplica = replica;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      if (cacheReplica != -1) {
+        LOGGER.info("Server" + replica + " failed, near cache disabled until it subscribes again: " +
+                toRemoteException(e instanceof ExecutionException ? e.getCause() : e).getMessage());
+      }
+      cacheReplica = -1;
+      nearCache.clear();
+    }
+  }
+
+  /**
+   * Spreads the reads over the observers whose lag is within the maximum, or over the voting
+   * replicas while none is. An observer that does not answer in time is left out until it does.
+   */
+  private void checkObserverLags() {
+    List<CompletableFuture<Long>> lags = new ArrayList<>();
+    for (int i = voterCount; i < replicaCount; i++) {
+      lags.add(replicas[i].getLagMillisAsync());
+    }
+    List<Integer> fresh = new ArrayList<>();
+    for (int i = voterCount; i < replicaCount; i++) {
+      try {
+        if (lags.get(i - voterCount).get(LAG_CHECK_MILLIS, TimeUnit.MILLISECONDS) <= maxReadLagMillis) {
+          fresh.add(i);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException | TimeoutException e) {
+        // not fresh as far as this client knows
+      }
+    }
+    int[] targets = voters;
+    if (!fresh.isEmpty()) {
+      targets = new int[fresh.size()];
+      for (int i = 0; i < targets.length; i++) {
+        targets[i] = fresh.get(i);
+      }
+    }
+    if (!Arrays.equals(targets, readReplicas)) {
+      LOGGER.info("Reading from " + (fresh.isEmpty() ? "the voting servers, no observer is within " +
+              maxReadLagMillis + " ms" : "observers " + fresh));
+      readReplicas = targets;
+    }
+  }
+
+  private <T> CompletableFuture<T> write(int shard, Function<AsyncKVStore, CompletableFuture<T>> operation) {
+    return attempt(operation, shard, 1);
+  }
+
+  private <T> CompletableFuture<T> read(Function<AsyncKVStore, CompletableFuture<T>> operation) {
+    return attempt(operation, -1, 1);
+  }
+
+  /**
+   * Runs a multi-key write on the write replica of every shard owning some of the keys, in
+   * parallel.
+   *
+   * @param keys      The keys of the write.
+   * @param operation Runs the write on one replica for the keys of one shard.
+   * @return The results of all shards, in the order of the keys.
+   */
+  private <T> CompletableFuture<Map<String, T>> writeByShard(Collection<String> keys,
+          BiFunction<AsyncKVStore, List<String>, CompletableFuture<Map<String, T>>> operation) {
+    Map<Integer, List<String>> keysByShard = new LinkedHashMap<>();
+    for (String key : keys) {
+      keysByShard.computeIfAbsent(shardOf(key), shard -> new ArrayList<>()).add(key);
+    }
+    if (keysByShard.size() <= 1) {
+      List<String> shardKeys = new ArrayList<>(keys);
+      int shard = keysByShard.isEmpty() ? 0 : keysByShard.keySet().iterator().next();
+      return write(shard, replica -> operation.apply(replica, shardKeys));
+    }
+    List<CompletableFuture<Map<String, T>>> parts = new ArrayList<>();
+    for (Map.Entry<Integer, List<String>> entry : keysByShard.entrySet()) {
+      parts.add(write(entry.getKey(), replica -> operation.apply(replica, entry.getValue())));
+    }
+    return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+      Map<String, T> merged = new HashMap<>();
+      for (CompletableFuture<Map<String, T>> part : parts) {
+        merged.putAll(part.join());
+      }
+      Map<String, T> results = new LinkedHashMap<>();
+      for (String key : keys) {
+        results.put(key, merged.get(key));
+      }
+      return results;
+    });
+  }
+
+  /**
+   * Runs an operation on the replica its kind is routed to, retrying on failure.
+   *
+   * @param operation The operation to run.
+   * @param shard     The shard whose write replica the operation is sent to, -1 for a read.
+   * @param attempt   The number of this attempt, from 1.
+   * @return The result of the first attempt that succeeded, or the failure of the last one.
+   */
+  private <T> CompletableFuture<T> attempt(Function<AsyncKVStore, CompletableFuture<T>> operation, int shard, int attempt) {
+    boolean write = shard >= 0;
+    AtomicIntegerArray targets = writeReplicas;
+    int[] readTargets = readReplicas;
+    int replica = write ? writeTarget(targets, shard)
+            : readTargets[Math.floorMod(nextReadReplica.getAndIncrement(), readTargets.length)];
+    return operation.apply(replicas[replica]).handle((result, e) -> {
+      if (e == null) {
+        return CompletableFuture.completedFuture(result);
+      }
+      RemoteException failure = toRemoteException(e);
+      if (attempt >= maxAttempts) {
+        return CompletableFuture.<T>failedFuture(failure);
+      }
+      if (failure instanceof NotLeaderException) {
+        int leader = ((NotLeaderException) failure).getLeaderId();
+        if (leader >= 0 && leader < voterCount && leader != replica) {
+          LOGGER.info("Server" + replica + " redirected to Leader" + leader);
+          redirects.increment();
+          if (shard < targets.length()) {
+            targets.set(shard, leader);
+          }
+          return attempt(operation, shard, attempt + 1);
+        }
+      }
+      if (write && shard < targets.length()) {
+        targets.compareAndSet(shard, replica, -1);
+      }
+      long delay = ThreadLocalRandom.current().nextLong(1 + Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 20)));
+      LOGGER.info("Server" + replica + " failed, retrying in " + delay + " ms: " + failure.getMessage());
+      retries.increment();
+      return CompletableFuture.supplyAsync(() -> attempt(operation, shard, attempt + 1),
+              CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)).thenCompose(Function.identity());
+    }).thenCompose(Function.identity());
+  }
+
+  /**
+   * Records the time from starting an operation until its result completes.
+   *
+   * @param micros    The histogram to record the time in.
+   * @param operation Starts the operation.
+   * @return The result of the operation.
+   */
+  private static <T> CompletableFuture<T> timed(Histogram micros, Supplier<CompletableFuture<T>> operation) {
+    long start = System.nanoTime();
+    return operation.get().whenComplete((result, e) -> micros.recordMicrosSince(start));
+  }
+
+  /**
+   * @param targets The write replicas of the shards.
+   * @param shard   The shard to write to.
+   * @return The replica to send writes of the shard to. When none is chosen yet, a random replica
+   *     is chosen and asked for the leaders of all shards, which replace it once known.
+   */
+  private int writeTarget(AtomicIntegerArray targets, int shard) {
+    if (shard >= targets.length()) {
+      // the number of shards changed since the key was mapped, send it anywhere to be routed
+      return ThreadLocalRandom.current().nextInt(voterCount);
+    }
+    int replica = targets.get(shard);
+    if (replica != -1) {
+      return replica;
+    }
+    int chosen = ThreadLocalRandom.current().nextInt(voterCount);
+    targets.compareAndSet(shard, -1, chosen);
+    replicas[chosen].getLeadersAsync().thenAccept(this::learnLeaders);
+    return chosen;
+  }
+
+  /**
+   * Takes the leaders reported by a replica as the write replicas of their shards. When the
+   * replicas run more shards than assumed so far, keys are mapped with the reported number from
+   * then on.
+   *
+   * @param leaders The leader of each shard, -1 where a shard has none.
+   */
+  private void learnLeaders(int[] leaders) {
+    if (leaders.length == 0) {
+      return;
+    }
+    AtomicIntegerArray targets = writeReplicas;
+    if (targets.length() != leaders.length) {
+      targets = unknownReplicas(leaders.length);
+      writeReplicas = targets;
+    }
+    for (int shard = 0; shard < leaders.length; shard++) {
+      if (leaders[shard] >= 0 && leaders[shard] < voterCount) {
+        targets.set(shard, leaders[shard]);
+      }
+    }
+  }
+
+  private static AtomicIntegerArray unknownReplicas(int shardCount) {
+    AtomicIntegerArray replicas = new AtomicIntegerArray(shardCount);
+    for (int shard = 0; shard < shardCount; shard++) {
+      replicas.set(shard, -1);
+    }
+    return replicas;
+  }
+
+  private static <T> T await(CompletableFuture<T> result) throws RemoteException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while waiting for the store");
+    } catch (ExecutionException e) {
+      throw toRemoteException(e.getCause());
+    }
+  }
+
+  private static RemoteException toRemoteException(Throwable e) {
+    while (e instanceof CompletionException && e.getCause() != null) {
+      e = e.getCause();
+    }
+    if (e instanceof ServerException && ((ServerException) e).detail instanceof RemoteException) {
+      // RMI wraps a RemoteException thrown by the server, such as a leader redirect
+      return (RemoteException) ((ServerException) e).detail;
+    }
+    if (e instanceof RemoteException) {
+      return (RemoteException) e;
+    }
+    if (e instanceof TimeoutException) {
+      return new RemoteException("Call timed out");
+    }
+    return new RemoteException(e.toString(), e);
+  }
+
+  @Override
+  public void close() {
+    if (lagChecker != null) {
+      lagChecker.shutdownNow();
+    }
+    if (subscriber != null) {
+      subscriber.shutdownNow();
+      cacheReplica = -1;
+      if (rmiExecutor != null) {
+        try {
+          UnicastRemoteObject.unexportObject(invalidationListener, true);
+        } catch (NoSuchObjectException e) {
+          // already unexported
+        }
+      }
+    }
+    if (nioLoop != null) {
+      nioLoop.close();
+    }
+    if (rmiExecutor != null) {
+      rmiExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs blocking RMI calls on the client pool. The stub is looked up once and looked up again
+   * only after a call through it failed.
+   */
+  private class RmiReplica implements AsyncKVStore, MetricsInterface {
+    private final int serverId;
+    private volatile KVStoreInterface stub;
+
+    RmiReplica(int serverId) {
+      this.serverId = serverId;
+    }
+
+    private KVStoreInterface stub() throws Exception {
+      KVStoreInterface current = stub;
+      if (current == null) {
+        current = (KVStoreInterface) Naming.lookup("rmi://" + membership.getHost(serverId) + ":" + membership.getPort(serverId) + "/" +
+                Constants.REMOTE_OBJECT + serverId);
+        stub = current;
+      }
+      return current;
+    }
+
+    private <T> CompletableFuture<T> submit(RmiCall<T> call) {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      rmiExecutor.execute(() -> {
+        try {
+          result.complete(call.apply(stub()));
+        } catch (Exception e) {
+          if (!(e instanceof ServerException)) {
+            // the connection or the lookup failed, the replica may have restarted
+            stub = null;
+          }
+          result.completeExceptionally(e);
+        }
+      });
+      return result;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAsync(String key, String value) {
+      return submit(server -> server.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAsync(String key, String value, long ttlMillis) {
+      return submit(server -> server.put(key, value, ttlMillis));
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String key) {
+      return submit(server -> server.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAsync(String key) {
+      return submit(server -> server.delete(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> multiGetAsync(List<String> keys) {
+      return submit(server -> server.multiGet(keys));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Boolean>> multiPutAsync(Map<String, String> pairs) {
+      return submit(server -> server.multiPut(pairs));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Boolean>> multiDeleteAsync(List<String> keys) {
+      return submit(server -> server.multiDelete(keys));
+    }
+
+    @Override
+    public CompletableFuture<ScanResult> scanAsync(String startKey, String endKey, int limit) {
+      return submit(server -> server.scan(startKey, endKey, limit));
+    }
+
+    @Override
+    public CompletableFuture<int[]> getLeadersAsync() {
+      return submit(KVStoreInterface::getLeaders);
+    }
+
+    @Override
+    public CompletableFuture<Long> getLagMillisAsync() {
+      return submit(KVStoreInterface::getLagMillis);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> subscribeAsync(InvalidationListener listener) {
+      return submit(server -> server.subscribe(listener));
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() throws RemoteException {
+      // the registry stub implements every remote interface of the server's router
+      return await(submit(server -> ((MetricsInterface) server).getMetrics()));
+    }
+  }
+
+  /**
+   * Drops the keys the subscribed replica reports as written from the near cache.
+   */
+  private class Invalidations implements InvalidationListener {
+
+    @Override
+    public void invalidate(List<String> keys) {
+      for (String key : keys) {
+        nearCache.invalidate(key);
+      }
+    }
+  }
+
+  /**
+   * A blocking call on an RMI stub.
+   */
+  private interface RmiCall<T> {
+    T apply(KVStoreInterface server) throws Exception;
+  }
+}
@@ -0,0 +1,242 @@
+package client;
+
+import common.Histogram;
+import common.KeyDistribution;
+import common.KeyGenerator;
+
+import java.io.PrintStream;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code LoadGenerator} class sends a {@link Workload} of GETs and PUTs to the store and reports
+ * the throughput and latency percentiles every second, then for the whole run.
+ *
+ * <p>Without a rate every worker sends its next request as soon as the previous one completed
+ * (closed loop). With a rate the requests are due on a fixed schedule shared by the workers (open
+ * loop), and the latency of a request is counted from the time it was due rather than the time a
+ * worker got to send it. A stalled server therefore shows up in the latency of every request that
+ * should have been sent during the stall, not only the one that was waiting, which avoids
+ * coordinated omission.
+ */
+class LoadGenerator {
+
+  private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int LOAD_BATCH_KEYS = 100;
+  private static final String VALUE_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+  private final KVStoreClient client;
+  private final Workload workload;
+  private final PrintStream out;
+  private final KeyGenerator keys;
+  // values are slices of one random string, so making a value costs no random draws per character
+  private final String valueSource;
+  private final AtomicReference<Interval> interval = new AtomicReference<>(new Interval());
+  private final Interval total = new Interval();
+  private volatile boolean running = true;
+
+  /**
+   * @param client   The client to send the requests with.
+   * @param workload The requests to send.
+   * @param out      Where the report is printed.
+   */
+  LoadGenerator(KVStoreClient client, Workload workload, PrintStream out) {
+    this.client = client;
+    this.workload = workload;
+    this.out = out;
+    this.keys = new KeyGenerator(workload.getDistribution(), workload.getKeyCount());
+    StringBuilder source = new StringBuilder(2 * workload.getMaxValueSize());
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < 2 * workload.getMaxValueSize(); i++) {
+      source.append(VALUE_CHARS.charAt(random.nextInt(VALUE_CHARS.length())));
+    }
+    this.valueSource = source.toString();
+  }
+
+  /**
+   * Loads the keys if asked to, then sends requests for the duration of the workload.
+   *
+   * @throws InterruptedException If interrupted while waiting for the workers.
+   */
+  void run() throws InterruptedException {
+    out.println("Workload: " + workload.getWorkers() + " workers, " +
+            (workload.getRatePerSecond() > 0 ? workload.getRatePerSecond() + " requests/s" : "closed loop") + ", " +
+            Math.round(100 * workload.getReadFraction()) + "% GET, " + workload.getKeyCount() + " " +
+            workload.getDistribution() + " keys, values of " + workload.getMinValueSize() + "-" +
+            workload.getMaxValueSize() + " characters, " + workload.getDurationSeconds() + " s");
+    ExecutorService workers = Executors.newFixedThreadPool(workload.getWorkers(), runnable -> {
+      Thread thread = new Thread(runnable, "bench-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      if (workload.isLoad()) {
+        load(workers);
+      }
+      long start = System.nanoTime();
+      long end = start + TimeUnit.SECONDS.toNanos(workload.getDurationSeconds());
+      AtomicLong schedule = new AtomicLong();
+      Future<?>[] running = new Future<?>[workload.getWorkers()];
+      for (int i = 0; i < running.length; i++) {
+        running[i] = workers.submit(() -> work(start, end, schedule));
+      }
+      out.println(String.format("%6s %9s %8s %8s %8s %8s %8s %8s %7s", "time", "ops/s",
+              "get p50", "p99", "p99.9", "put p50", "p99", "p99.9", "errors"));
+      long nextReport = start + REPORT_INTERVAL_NANOS;
+      while (nextReport <= end) {
+        LockSupport.parkNanos(nextReport - System.nanoTime());
+        if (System.nanoTime() >= nextReport) {
+          report(interval.getAndSet(new Interval()), nextReport - start, REPORT_INTERVAL_NANOS);
+          nextReport += REPORT_INTERVAL_NANOS;
+        }
+      }
+      for (Future<?> worker : running) {
+        try {
+          worker.get();
+        } catch (Exception e) {
+          out.println("Worker failed: " + e.getMessage());
+        }
+      }
+      summarize(System.nanoTime() - start);
+    } finally {
+      this.running = false;
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Writes every key once, in batches.
+   */
+  private void load(ExecutorService workers) throws InterruptedException {
+    long start = System.nanoTime();
+    long keyCount = workload.getKeyCount();
+    LongAdder failed = new LongAdder();
+    List<Future<?>> batches = new ArrayList<>();
+    for (long first = 0; first < keyCount; first += LOAD_BATCH_KEYS) {
+      long from = first;
+      batches.add(workers.submit(() -> {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (long key = from; key < Math.min(keyCount, from + LOAD_BATCH_KEYS); key++) {
+          pairs.put(keyOf(key), nextValue(ThreadLocalRandom.current()));
+        }
+        try {
+          for (boolean written : client.multiPut(pairs).values()) {
+            if (!written) {
+              failed.increment();
+            }
+          }
+        } catch (RemoteException e) {
+          failed.add(pairs.size());
+        }
+      }));
+    }
+    for (Future<?> batch : batches) {
+      try {
+        batch.get();
+      } catch (Exception e) {
+        failed.add(LOAD_BATCH_KEYS);
+      }
+    }
+    out.println(String.format("Loaded %d keys in %.1f s, %d failed", keyCount,
+            (System.nanoTime() - start) / 1e9, failed.sum()));
+  }
+
+  /**
+   * Sends requests until the end of the run, each when it is due.
+   *
+   * @param start    The start of the run.
+   * @param end      The end of the run.
+   * @param schedule The next request number on the shared schedule, used with a rate.
+   */
+  private void work(long start, long end, AtomicLong schedule) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long rate = workload.getRatePerSecond();
+    while (running) {
+      long due;
+      if (rate > 0) {
+        due = start + (long) (schedule.getAndIncrement() * (1e9 / rate));
+        if (due >= end) {
+          return;
+        }
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+      } else {
+        due = System.nanoTime();
+        if (due >= end) {
+          return;
+        }
+      }
+      boolean read = random.nextDouble() < workload.getReadFraction();
+      boolean failed = false;
+      try {
+        if (read) {
+          client.get(keyOf(keys.next(random)));
+        } else {
+          // with the latest distribution writes add keys, which reads then favour
+          long key = workload.getDistribution() == KeyDistribution.LATEST ? keys.insert() : keys.next(random);
+          failed = !client.put(keyOf(key), nextValue(random));
+        }
+      } catch (RemoteException e) {
+        failed = true;
+      }
+      long micros = (System.nanoTime() - due) / 1000;
+      interval.get().record(read, micros, failed);
+      total.record(read, micros, failed);
+    }
+  }
+
+  private String nextValue(ThreadLocalRandom random) {
+    int size = random.nextInt(workload.getMinValueSize(), workload.getMaxValueSize() + 1);
+    int offset = random.nextInt(valueSource.length() - size + 1);
+    return valueSource.substring(offset, offset + size);
+  }
+
+  private static String keyOf(long index) {
+    return "key" + index;
+  }
+
+  private void report(Interval done, long elapsedNanos, long lengthNanos) {
+    out.println(String.format("%5ds %9.0f %8d %8d %8d %8d %8d %8d %7d", TimeUnit.NANOSECONDS.toSeconds(elapsedNanos),
+            (done.reads.getCount() + done.writes.getCount()) * 1e9 / lengthNanos,
+            done.reads.getPercentile(50), done.reads.getPercentile(99), done.reads.getPercentile(99.9),
+            done.writes.getPercentile(50), done.writes.getPercentile(99), done.writes.getPercentile(99.9),
+            done.errors.sum()));
+  }
+
+  private void summarize(long elapsedNanos) {
+    long requests = total.reads.getCount() + total.writes.getCount();
+    out.println(String.format("Total: %d requests in %.1f s, %.0f ops/s, %d errors", requests, elapsedNanos / 1e9,
+            requests * 1e9 / elapsedNanos, total.errors.sum()));
+    out.println("GET us: " + total.reads.summary());
+    out.println("PUT us: " + total.writes.summary());
+  }
+
+  /**
+   * The latencies and errors of the requests completed during one report interval, or the run.
+   */
+  private static final class Interval {
+    final Histogram reads = new Histogram();
+    final Histogram writes = new Histogram();
+    final LongAdder errors = new LongAdder();
+
+    void record(boolean read, long micros, boolean failed) {
+      (read ? reads : writes).record(micros);
+      if (failed) {
+        errors.increment();
+      }
+    }
+  }
+}
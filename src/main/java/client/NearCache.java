@@ -0,0 +1,179 @@
+package client;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code NearCache} class keeps the values a client read recently, so that repeated reads of
+ * hot keys are answered without a remote call. It holds at most a fixed number of entries and
+ * evicts the least recently used one to make room; every entry also expires a fixed time after it
+ * was read, which bounds how stale a value can get if an invalidation is lost.
+ *
+ * <p>A value is only cached if no invalidation of its key arrived while it was being read: every
+ * read of a missing key takes a fetch token, an invalidation cancels the tokens of its key, and
+ * the value is stored only if its token is still current. A value read before a write was applied
+ * can therefore never replace the invalidation of that write.
+ */
+public class NearCache {
+
+  public static final long DEFAULT_TTL_MILLIS = 60000;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final LinkedHashMap<String, Cached> entries;
+  private final Map<String, Object> fetches = new HashMap<>();
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+  private long expirations;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxEntries The maximum number of cached keys.
+   * @param ttlMillis  How long a value is served from the cache after it was read.
+   */
+  public NearCache(int maxEntries, long ttlMillis) {
+    if (maxEntries < 1 || ttlMillis < 1) {
+      throw new IllegalArgumentException("A near cache needs a positive size and time to live");
+    }
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+        if (size() <= NearCache.this.maxEntries) {
+          return false;
+        }
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @param key The key to look up.
+   * @return The cached value of the key, or null if it is not cached or expired.
+   */
+  synchronized String get(String key) {
+    Cached entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    if (System.nanoTime() - entry.expiresAtNanos >= 0) {
+      entries.remove(key);
+      expirations++;
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.value;
+  }
+
+  /**
+   * Starts a read of a key that was not cached.
+   *
+   * @param key The key about to be read.
+   * @return The token to store the value with.
+   */
+  synchronized Object startFetch(String key) {
+    Object token = new Object();
+    fetches.put(key, token);
+    return token;
+  }
+
+  /**
+   * Stores the value of a read unless its key was invalidated since the read started.
+   *
+   * @param key   The key that was read.
+   * @param token The token of the read.
+   * @param value The value that was read.
+   */
+  synchronized void completeFetch(String key, Object token, String value) {
+    if (fetches.remove(key, token)) {
+      entries.put(key, new Cached(value, System.nanoTime() + ttlNanos));
+    }
+  }
+
+  /**
+   * Forgets a fetch that failed.
+   *
+   * @param key   The key that was read.
+   * @param token The token of the read.
+   */
+  synchronized void cancelFetch(String key, Object token) {
+    fetches.remove(key, token);
+  }
+
+  /**
+   * Drops the value of a key that was written and cancels the reads of it in progress.
+   *
+   * @param key The key that changed.
+   */
+  synchronized void invalidate(String key) {
+    fetches.remove(key);
+    if (entries.remove(key) != null) {
+      invalidations++;
+    }
+  }
+
+  /**
+   * Drops every value and cancels every read in progress, when invalidations may have been missed.
+   */
+  synchronized void clear() {
+    fetches.clear();
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getInvalidations() {
+    return invalidations;
+  }
+
+  public synchronized long getExpirations() {
+    return expirations;
+  }
+
+  /**
+   * @return The share of lookups answered from the cache, between 0 and 1.
+   */
+  public synchronized double getHitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("Near cache: %d/%d entries, hit rate %.1f%% (%d hits, %d misses), %d evictions, " +
+                    "%d invalidations, %d expirations", entries.size(), maxEntries, 100 * getHitRate(), hits, misses,
+            evictions, invalidations, expirations);
+  }
+
+  private static final class Cached {
+    final String value;
+    final long expiresAtNanos;
+
+    Cached(String value, long expiresAtNanos) {
+      this.value = value;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package client;
+
+import common.KeyDistribution;
+
+/**
+ * The {@code Workload} class holds the settings of a load generator run: how many workers send
+ * requests and how fast, how reads and writes are mixed, and which keys and values they use.
+ */
+public class Workload {
+
+  private int workers = 16;
+  private long durationSeconds = 60;
+  private long ratePerSecond = 0;
+  private double readFraction = 0.95;
+  private long keyCount = 100000;
+  private KeyDistribution distribution = KeyDistribution.ZIPFIAN;
+  private int minValueSize = 100;
+  private int maxValueSize = 100;
+  private boolean load = true;
+
+  /**
+   * @return The number of concurrent workers, each with one request in flight.
+   */
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * @param workers The number of concurrent workers.
+   */
+  public void setWorkers(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Workers must be positive: " + workers);
+    }
+    this.workers = workers;
+  }
+
+  /**
+   * @return How long requests are sent, after the keys are loaded.
+   */
+  public long getDurationSeconds() {
+    return durationSeconds;
+  }
+
+  /**
+   * @param durationSeconds How long requests are sent.
+   */
+  public void setDurationSeconds(long durationSeconds) {
+    if (durationSeconds < 1) {
+      throw new IllegalArgumentException("Duration must be positive: " + durationSeconds);
+    }
+    this.durationSeconds = durationSeconds;
+  }
+
+  /**
+   * @return The requests per second sent on a fixed schedule, 0 for workers that send the next
+   *     request as soon as the previous one completed.
+   */
+  public long getRatePerSecond() {
+    return ratePerSecond;
+  }
+
+  /**
+   * @param ratePerSecond The requests per second, 0 to send as fast as the servers answer.
+   */
+  public void setRatePerSecond(long ratePerSecond) {
+    if (ratePerSecond < 0) {
+      throw new IllegalArgumentException("Rate must not be negative: " + ratePerSecond);
+    }
+    this.ratePerSecond = ratePerSecond;
+  }
+
+  /**
+   * @return The share of requests that are GETs; the rest are PUTs.
+   */
+  public double getReadFraction() {
+    return readFraction;
+  }
+
+  /**
+   * @param readFraction The share of requests that are GETs, between 0 and 1.
+   */
+  public void setReadFraction(double readFraction) {
+    if (readFraction < 0 || readFraction > 1) {
+      throw new IllegalArgumentException("Read fraction must be between 0 and 1: " + readFraction);
+    }
+    this.readFraction = readFraction;
+  }
+
+  /**
+   * @return The number of keys loaded before the run.
+   */
+  public long getKeyCount() {
+    return keyCount;
+  }
+
+  /**
+   * @param keyCount The number of keys loaded before the run.
+   */
+  public void setKeyCount(long keyCount) {
+    if (keyCount < 1) {
+      throw new IllegalArgumentException("Key count must be positive: " + keyCount);
+    }
+    this.keyCount = keyCount;
+  }
+
+  /**
+   * @return How requests pick their keys. With {@link KeyDistribution#LATEST} every PUT inserts a
+   *     new key.
+   */
+  public KeyDistribution getDistribution() {
+    return distribution;
+  }
+
+  /**
+   * @param distribution How requests pick their keys.
+   */
+  public void setDistribution(KeyDistribution distribution) {
+    this.distribution = distribution;
+  }
+
+  /**
+   * @return The smallest value written, in characters.
+   */
+  public int getMinValueSize() {
+    return minValueSize;
+  }
+
+  /**
+   * @return The largest value written, in characters.
+   */
+  public int getMaxValueSize() {
+    return maxValueSize;
+  }
+
+  /**
+   * @param minValueSize The smallest value written, in characters.
+   * @param maxValueSize The largest value written, in characters.
+   */
+  public void setValueSize(int minValueSize, int maxValueSize) {
+    if (minValueSize < 1 || maxValueSize < minValueSize) {
+      throw new IllegalArgumentException("Invalid value size range: " + minValueSize + "-" + maxValueSize);
+    }
+    this.minValueSize = minValueSize;
+    this.maxValueSize = maxValueSize;
+  }
+
+  /**
+   * @return true to write every key once before the run.
+   */
+  public boolean isLoad() {
+    return load;
+  }
+
+  /**
+   * @param load true to write every key once before the run.
+   */
+  public void setLoad(boolean load) {
+    this.load = load;
+  }
+}
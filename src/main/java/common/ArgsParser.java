@@ -1,7 +1,20 @@
 package common;
 
 import client.ClientApp;
+import client.NearCache;
+import client.Workload;
+import server.Durability;
+import server.Engine;
+import server.EventLogDecoder;
+import server.LocalCluster;
 import server.ServerApp;
+import server.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The `ArgsParser` class is responsible for parsing command-line arguments and creating an instance
@@ -16,62 +29,233 @@ public class ArgsParser {
    * @return An instance of the `App` class based on the parsed arguments.
    */
   public App getApp(String[] args) {
-    if (args.length == 2 || args.length > 4) {
-      System.out.println("Invalid arguments!!!");
-      System.exit(-1);
-    }
-    App app = null;
     if (args.length == 0) {
-      app = new ServerApp();
+      return new ServerApp();
     }
-    if (args.length == 1) {
-      if ("-server".equals(args[0])) {
-        app = new ServerApp();
-      } else if ("-client".equals(args[0])) {
-        app = new ClientApp();
-      } else {
-        System.out.println("Invalid arguments!!!");
-        System.exit(-1);
+    if ("-events".equals(args[0])) {
+      if (args.length < 2) {
+        invalid();
       }
+      return new EventLogDecoder(Arrays.asList(args).subList(1, args.length));
     }
-    if (args.length == 3) {
-      if ("-server".equals(args[0])) {
-        if ("-port".equals(args[1])) {
-          app = new ServerApp(Integer.parseInt(args[2]));
-        } else {
-          System.out.println("Invalid arguments!!!");
-          System.exit(-1);
+    boolean isServer = "-server".equals(args[0]);
+    if (!isServer && !"-client".equals(args[0])) {
+      invalid();
+    }
+    int port = Constants.DEFAULT_RMI_PORT;
+    ServerConfig config = new ServerConfig();
+    boolean serverOption = false;
+    boolean clientOption = false;
+    int nearCacheEntries = 0;
+    long nearCacheTtlMillis = NearCache.DEFAULT_TTL_MILLIS;
+    long maxReadLagMillis = -1;
+    Transport transport = Transport.RMI;
+    boolean bench = false;
+    boolean workloadOption = false;
+    Workload workload = new Workload();
+    boolean processes = false;
+    // the server options every replica process started by -processes gets
+    List<String> replicaArgs = new ArrayList<>();
+    try {
+      for (int i = 1; i < args.length; i++) {
+        int optionStart = i;
+        boolean replicaOption = true;
+        switch (args[i]) {
+          case "-port":
+            port = Integer.parseInt(nextValue(args, ++i));
+            replicaOption = false;
+            break;
+          case "-replicas":
+            config.setReplicaCount(Integer.parseInt(nextValue(args, ++i)));
+            replicaOption = false;
+            break;
+          case "-observers":
+            config.setObserverCount(Integer.parseInt(nextValue(args, ++i)));
+            replicaOption = false;
+            break;
+          case "-cluster":
+            config.setMembershipFile(nextValue(args, ++i));
+            replicaOption = false;
+            break;
+          case "-id":
+            List<Integer> serverIds = new ArrayList<>();
+            for (String serverId : nextValue(args, ++i).split(",")) {
+              serverIds.add(Integer.parseInt(serverId));
+            }
+            config.setServerIds(serverIds);
+            serverOption = true;
+            replicaOption = false;
+            break;
+          case "-processes":
+            processes = true;
+            serverOption = true;
+            replicaOption = false;
+            break;
+          case "-f":
+            config.setFailure(true);
+            serverOption = true;
+            break;
+          case "-multipaxos":
+            config.setMultiPaxos(true);
+            serverOption = true;
+            break;
+          case "-batch":
+            config.setMaxBatchSize(Integer.parseInt(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-batchinflight":
+            config.setMaxBatchesInFlight(Integer.parseInt(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-batchwindow":
+            config.setBatchWindowMillis(Long.parseLong(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-lease":
+            config.setLeaseMillis(Long.parseLong(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-data":
+            config.setDataDirectory(nextValue(args, ++i));
+            serverOption = true;
+            break;
+          case "-eventlog":
+            config.setEventLogDirectory(nextValue(args, ++i));
+            serverOption = true;
+            break;
+          case "-metricsinterval":
+            config.setMetricsIntervalSeconds(Long.parseLong(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-durability":
+            config.setDurability(Durability.valueOf(nextValue(args, ++i).toUpperCase()));
+            serverOption = true;
+            break;
+          case "-syncinterval":
+            config.setSyncIntervalMillis(Long.parseLong(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-transport":
+            transport = Transport.valueOf(nextValue(args, ++i).toUpperCase());
+            config.setTransport(transport);
+            break;
+          case "-shards":
+            config.setShards(Integer.parseInt(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-engine":
+            config.setEngine(Engine.valueOf(nextValue(args, ++i).toUpperCase()));
+            serverOption = true;
+            break;
+          case "-snapshot":
+            config.setSnapshotIntervalSlots(Long.parseLong(nextValue(args, ++i)));
+            serverOption = true;
+            break;
+          case "-nearcache":
+            nearCacheEntries = Integer.parseInt(nextValue(args, ++i));
+            clientOption = true;
+            break;
+          case "-cachettl":
+            nearCacheTtlMillis = Long.parseLong(nextValue(args, ++i));
+            clientOption = true;
+            break;
+          case "-maxlag":
+            maxReadLagMillis = Long.parseLong(nextValue(args, ++i));
+            clientOption = true;
+            break;
+          case "-bench":
+            bench = true;
+            clientOption = true;
+            break;
+          case "-workers":
+            workload.setWorkers(Integer.parseInt(nextValue(args, ++i)));
+            workloadOption = true;
+            break;
+          case "-duration":
+            workload.setDurationSeconds(Long.parseLong(nextValue(args, ++i)));
+            workloadOption = true;
+            break;
+          case "-rate":
+            workload.setRatePerSecond(Long.parseLong(nextValue(args, ++i)));
+            workloadOption = true;
+            break;
+          case "-readfraction":
+            workload.setReadFraction(Double.parseDouble(nextValue(args, ++i)));
+            workloadOption = true;
+            break;
+          case "-keys":
+            workload.setKeyCount(Long.parseLong(nextValue(args, ++i)));
+            workloadOption = true;
+            break;
+          case "-distribution":
+            workload.setDistribution(KeyDistribution.valueOf(nextValue(args, ++i).toUpperCase()));
+            workloadOption = true;
+            break;
+          case "-valuesize":
+            // a size, or a range of sizes as min-max
+            String[] sizes = nextValue(args, ++i).split("-", 2);
+            int minValueSize = Integer.parseInt(sizes[0]);
+            workload.setValueSize(minValueSize, sizes.length == 2 ? Integer.parseInt(sizes[1]) : minValueSize);
+            workloadOption = true;
+            break;
+          case "-noload":
+            workload.setLoad(false);
+            workloadOption = true;
+            break;
+          default:
+            invalid();
         }
-      } else if ("-client".equals(args[0])) {
-        if ("-port".equals(args[1])) {
-          app = new ClientApp(Integer.parseInt(args[2]));
-        } else {
-          System.out.println("Invalid arguments!!!");
-          System.exit(-1);
+        if (replicaOption) {
+          replicaArgs.addAll(Arrays.asList(args).subList(optionStart, i + 1));
         }
-      } else {
-        System.out.println("Invalid Parameter!!!");
-        System.exit(-1);
       }
+    } catch (IllegalArgumentException e) {
+      invalid();
     }
-    if (args.length == 4) {
-      if ("-server".equals(args[0])) {
-        if ("-port".equals(args[1])) {
-          if ("-f".equals(args[3])) {
-            app = new ServerApp(Integer.parseInt(args[2]), true);
-          } else {
-            System.out.println("Invalid arguments!!!");
-            System.exit(-1);
-          }
-        } else {
-          System.out.println("Invalid arguments!!!");
-          System.exit(-1);
+    if (!isServer) {
+      if (serverOption) {
+        invalid();
+      }
+      if (nearCacheEntries < 0 || nearCacheTtlMillis < 1 || maxReadLagMillis < -1) {
+        invalid();
+      }
+      if (workloadOption && !bench) {
+        invalid();
+      }
+      Membership membership = Membership.local(Constants.LOCAL_HOST, port, config.getReplicaCount(),
+              config.getObserverCount());
+      if (config.getMembershipFile() != null) {
+        try {
+          membership = Membership.load(Paths.get(config.getMembershipFile()));
+        } catch (IOException e) {
+          System.out.println("Unable to read membership file: " + e.getMessage());
+          invalid();
         }
-      } else {
-          System.out.println("Invalid arguments!!!");
-          System.exit(-1);
       }
+      return new ClientApp(membership, transport, nearCacheEntries, nearCacheTtlMillis, bench ? workload : null,
+              maxReadLagMillis);
+    }
+    if (clientOption || workloadOption) {
+      invalid();
+    }
+    if (processes) {
+      if (config.getMembershipFile() != null || config.getServerIds() != null) {
+        invalid();
+      }
+      return new LocalCluster(port, config.getReplicaCount(), config.getObserverCount(), replicaArgs);
     }
-    return app;
+    return new ServerApp(port, config);
+  }
+
+  private static String nextValue(String[] args, int index) {
+    if (index >= args.length) {
+      invalid();
+    }
+    return args[index];
+  }
+
+  private static void invalid() {
+    System.out.println("Invalid arguments!!!");
+    System.exit(-1);
   }
 }
@@ -0,0 +1,83 @@
+package common;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code AsyncKVStore} interface is the non-blocking form of {@link KVStoreInterface}: every
+ * operation returns at once and its future completes with the result, or exceptionally if the
+ * call failed or timed out.
+ */
+public interface AsyncKVStore {
+
+  /**
+   * @param key   The key to insert.
+   * @param value The value associated with the key.
+   * @return true once the pair was inserted; false if the write failed.
+   */
+  CompletableFuture<Boolean> putAsync(String key, String value);
+
+  /**
+   * @param key       The key to insert.
+   * @param value     The value associated with the key.
+   * @param ttlMillis How long the key lives, in milliseconds.
+   * @return true once the pair was inserted; false if the write failed.
+   */
+  CompletableFuture<Boolean> putAsync(String key, String value, long ttlMillis);
+
+  /**
+   * @param key The key to retrieve.
+   * @return The value associated with the key, or the key-not-found message.
+   */
+  CompletableFuture<String> getAsync(String key);
+
+  /**
+   * @param key The key to delete.
+   * @return true once the key was deleted; false if the write failed.
+   */
+  CompletableFuture<Boolean> deleteAsync(String key);
+
+  /**
+   * @param keys The keys to retrieve.
+   * @return The value of each key, or the key-not-found message, in the order of the keys.
+   */
+  CompletableFuture<Map<String, String>> multiGetAsync(List<String> keys);
+
+  /**
+   * @param pairs The key-value pairs to insert as one replicated operation.
+   * @return For each key, true if it was inserted.
+   */
+  CompletableFuture<Map<String, Boolean>> multiPutAsync(Map<String, String> pairs);
+
+  /**
+   * @param keys The keys to delete as one replicated operation.
+   * @return For each key, true if it was deleted.
+   */
+  CompletableFuture<Map<String, Boolean>> multiDeleteAsync(List<String> keys);
+
+  /**
+   * @param startKey The first key of the range, or null for the start of the keyspace.
+   * @param endKey   The key after the range, or null for the end of the keyspace.
+   * @param limit    The maximum number of entries of the page.
+   * @return The entries of the page in key order and the start key of the next one.
+   */
+  CompletableFuture<ScanResult> scanAsync(String startKey, String endKey, int limit);
+
+  /**
+   * @return The server ID of the leader of each shard, or -1 where no stable leader is known.
+   */
+  CompletableFuture<int[]> getLeadersAsync();
+
+  /**
+   * @return How far the reads of this server lag behind the committed writes, in milliseconds; 0
+   *     for a voting replica.
+   */
+  CompletableFuture<Long> getLagMillisAsync();
+
+  /**
+   * @param listener The listener to call with the keys of every applied write.
+   * @return true if the listener was not subscribed yet; false if the subscription was renewed.
+   */
+  CompletableFuture<Boolean> subscribeAsync(InvalidationListener listener);
+}
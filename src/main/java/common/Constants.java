@@ -42,6 +42,41 @@ public class Constants {
    */
   public static final String DELETE = "DELETE";
 
+  /**
+   * Represents the batch "GET" request method.
+   */
+  public static final String MULTI_GET = "MGET";
+
+  /**
+   * Represents the batch "PUT" request method.
+   */
+  public static final String MULTI_PUT = "MPUT";
+
+  /**
+   * Represents the batch "DELETE" request method.
+   */
+  public static final String MULTI_DELETE = "MDELETE";
+
+  /**
+   * Represents the key range scan request method.
+   */
+  public static final String SCAN = "SCAN";
+
+  /**
+   * Represents the key prefix scan request method.
+   */
+  public static final String PREFIX_SCAN = "PSCAN";
+
+  /**
+   * Represents the client statistics command.
+   */
+  public static final String STATS = "STATS";
+
+  /**
+   * Represents the server metrics command.
+   */
+  public static final String METRICS = "METRICS";
+
   /**
    * The delimiter used for separating values in data.
    */
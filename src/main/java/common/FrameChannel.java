@@ -0,0 +1,188 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code FrameChannel} class is one connection of the binary transport. Every frame is a
+ * four-byte length followed by that many bytes, at least a request ID and a method code or
+ * status. Frames may be sent from any thread; they are queued and written by the
+ * {@link SelectorLoop} thread, many at a time with one gathering write. A peer that sends a frame
+ * of an invalid length is disconnected.
+ */
+class FrameChannel {
+
+  /**
+   * Receives the frames read from a channel, on the loop thread.
+   */
+  interface Listener {
+
+    /**
+     * @param channel The channel the frame was read from.
+     * @param frame   The frame without its length prefix.
+     */
+    void onFrame(FrameChannel channel, ByteBuffer frame);
+
+    /**
+     * @param channel The closed channel.
+     * @param cause   Why the channel was closed.
+     */
+    void onClose(FrameChannel channel, IOException cause);
+  }
+
+  // the request ID and the method code or status every request and reply starts with
+  static final int MIN_FRAME_BYTES = 9;
+  static final int MAX_FRAME_BYTES = 64 << 20;
+  private static final int READ_BUFFER_BYTES = 64 << 10;
+  // upper bound on the frames written with one system call
+  private static final int MAX_GATHER = 64;
+  private final SocketChannel channel;
+  private final SelectorLoop loop;
+  private final Listener listener;
+  private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+  private SelectionKey key;
+  private volatile boolean closed;
+
+  FrameChannel(SocketChannel channel, SelectorLoop loop, Listener listener) {
+    this.channel = channel;
+    this.loop = loop;
+    this.listener = listener;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+    if (!writeQueue.isEmpty()) {
+      flush();
+    }
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Queues a frame, including its length prefix, for writing.
+   *
+   * @param frame The frame to write.
+   * @return false if the channel is closed and the frame will not be written.
+   */
+  boolean send(ByteBuffer frame) {
+    if (closed) {
+      return false;
+    }
+    writeQueue.add(frame);
+    if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(this::flush);
+    }
+    return true;
+  }
+
+  /**
+   * Writes queued frames until the queue is empty or the socket buffer is full, in which case the
+   * rest is written once the socket is writable again.
+   */
+  void flush() {
+    flushScheduled.set(false);
+    if (closed || key == null) {
+      return;
+    }
+    try {
+      while (!writeQueue.isEmpty()) {
+        int count = 0;
+        Iterator<ByteBuffer> frames = writeQueue.iterator();
+        while (count < MAX_GATHER && frames.hasNext()) {
+          gather[count++] = frames.next();
+        }
+        channel.write(gather, 0, count);
+        for (int i = 0; i < count; i++) {
+          if (gather[i].hasRemaining()) {
+            break;
+          }
+          writeQueue.poll();
+        }
+        boolean full = gather[count - 1].hasRemaining();
+        Arrays.fill(gather, 0, count, null);
+        if (full) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    } catch (IOException e) {
+      close(e);
+    }
+  }
+
+  /**
+   * Reads what the socket has and hands every complete frame to the listener.
+   */
+  void onReadable() {
+    try {
+      if (channel.read(readBuffer) < 0) {
+        close(new IOException("Connection closed by peer"));
+        return;
+      }
+      readBuffer.flip();
+      while (readBuffer.remaining() >= 4) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < MIN_FRAME_BYTES || length > MAX_FRAME_BYTES) {
+          close(new IOException("Invalid frame length: " + length));
+          return;
+        }
+        if (readBuffer.remaining() < 4 + length) {
+          break;
+        }
+        readBuffer.position(readBuffer.position() + 4);
+        byte[] frame = new byte[length];
+        readBuffer.get(frame);
+        listener.onFrame(this, ByteBuffer.wrap(frame));
+      }
+      readBuffer.compact();
+      if (readBuffer.position() >= 4) {
+        int needed = 4 + readBuffer.getInt(0);
+        if (needed > readBuffer.capacity()) {
+          ByteBuffer larger = ByteBuffer.allocate(needed);
+          readBuffer.flip();
+          larger.put(readBuffer);
+          readBuffer = larger;
+        }
+      } else if (readBuffer.capacity() > READ_BUFFER_BYTES && readBuffer.position() == 0) {
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+      }
+    } catch (IOException e) {
+      close(e);
+    }
+  }
+
+  /**
+   * Closes the socket and tells the listener, once.
+   *
+   * @param cause Why the channel is closed.
+   */
+  void close(IOException cause) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // the channel is unusable either way
+    }
+    writeQueue.clear();
+    listener.onClose(this, cause);
+  }
+}
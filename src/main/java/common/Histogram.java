@@ -0,0 +1,188 @@
+package common;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@code Histogram} class records non-negative values without locking, so it can be updated
+ * from many threads on the request path. Like an HDR histogram it covers the whole range of a
+ * long with a fixed relative precision: every power of two is split into 8 linear sub-buckets, so a
+ * value is known to within 12.5% whether it is a microsecond or an hour. Percentiles are reported
+ * as the upper bound of the bucket they fall into.
+ */
+public class Histogram implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values below SUB_BUCKETS get a bucket each, then SUB_BUCKETS per power of two up to 2^62
+  private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   *
+   * @param value The value to record.
+   */
+  public void record(long value) {
+    long v = Math.max(0, value);
+    buckets.incrementAndGet(bucketOf(v));
+    count.increment();
+    sum.add(v);
+    long currentMax = max.get();
+    while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+      currentMax = max.get();
+    }
+  }
+
+  /**
+   * Records the microseconds elapsed since the given time.
+   *
+   * @param startNanos A time from {@link System#nanoTime()}.
+   */
+  public void recordMicrosSince(long startNanos) {
+    record((System.nanoTime() - startNanos) / 1000);
+  }
+
+  /**
+   * Adds the values recorded by another histogram to this one.
+   *
+   * @param other The histogram to add.
+   */
+  public void add(Histogram other) {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long n = other.buckets.get(i);
+      if (n != 0) {
+        buckets.addAndGet(i, n);
+      }
+    }
+    count.add(other.count.sum());
+    sum.add(other.sum.sum());
+    long otherMax = other.max.get();
+    long currentMax = max.get();
+    while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+      currentMax = max.get();
+    }
+  }
+
+  /**
+   * @return The number of recorded values.
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return The mean of the recorded values, 0 if none were recorded.
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * @return The largest recorded value.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns an upper bound for the value at the given percentile.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The upper bound of the bucket holding the percentile, 0 if nothing was recorded.
+   */
+  public long getPercentile(double percentile) {
+    long n = count.sum();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * @return A one-line summary with count, mean, p50, p90, p99, p99.9 and max.
+   */
+  public String summary() {
+    return "count=" + getCount() +
+            " mean=" + String.format("%.1f", getMean()) +
+            " p50=" + getPercentile(50) +
+            " p90=" + getPercentile(90) +
+            " p99=" + getPercentile(99) +
+            " p99.9=" + getPercentile(99.9) +
+            " max=" + getMax();
+  }
+
+  /**
+   * Writes the recorded values, only the buckets that are not empty.
+   *
+   * @param out The payload to write to.
+   */
+  void write(Wire.Writer out) {
+    int used = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      if (buckets.get(i) != 0) {
+        used++;
+      }
+    }
+    out.putInt(used);
+    for (int i = 0; i < BUCKET_COUNT && used > 0; i++) {
+      long n = buckets.get(i);
+      if (n != 0) {
+        out.putInt(i).putLong(n);
+        used--;
+      }
+    }
+    out.putLong(count.sum()).putLong(sum.sum()).putLong(max.get());
+  }
+
+  /**
+   * Reads a histogram written by {@link #write(Wire.Writer)}.
+   *
+   * @param in The payload to read from.
+   * @return The histogram.
+   */
+  static Histogram read(Wire.Reader in) {
+    Histogram histogram = new Histogram();
+    int used = in.getInt();
+    for (int i = 0; i < used; i++) {
+      histogram.buckets.set(in.getInt(), in.getLong());
+    }
+    histogram.count.add(in.getLong());
+    histogram.sum.add(in.getLong());
+    histogram.max.set(in.getLong());
+    return histogram;
+  }
+
+  static int bucketOf(long v) {
+    if (v < SUB_BUCKETS) {
+      return (int) v;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+    // the top SUB_BUCKET_BITS + 1 bits of the value, the highest of which is always set
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) (v >>> shift) - SUB_BUCKETS;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    long lowerBound = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+}
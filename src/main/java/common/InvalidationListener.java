@@ -0,0 +1,21 @@
+package common;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * The {@code InvalidationListener} interface is implemented by clients that cache values, to be
+ * told by a server which keys changed. Over RMI the server calls the listener back; over the
+ * binary transport the keys are pushed on the connection the client subscribed on.
+ */
+public interface InvalidationListener extends Remote {
+
+  /**
+   * Called after a server applied writes to the given keys.
+   *
+   * @param keys The keys that were written or deleted, each once.
+   * @throws RemoteException If the listener cannot be reached; the server then drops it.
+   */
+  void invalidate(List<String> keys) throws RemoteException;
+}
@@ -2,6 +2,8 @@ package common;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The Service interface defines a set of remote methods for key-value service operations.
@@ -19,6 +21,20 @@ public interface KVStoreInterface extends Remote {
    */
   boolean put(String key, String value) throws RemoteException;
 
+  /**
+   * Inserts a key-value pair that expires after the given time. The deadline is fixed when the
+   * server receives the request and replicated with the pair; once it passed the key reads as
+   * missing, and it is removed soon after. Writing the key again replaces its deadline.
+   *
+   * @param key       The key to insert.
+   * @param value     The value associated with the key.
+   * @param ttlMillis How long the key lives, in milliseconds; must be positive, and the
+   *                  deadline it gives must fit in a long.
+   * @return true if the pair was inserted; false if it was invalid or the write failed.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  boolean put(String key, String value, long ttlMillis) throws RemoteException;
+
   /**
    * Retrieves the value associated with a given key from the service.
    *
@@ -36,4 +52,76 @@ public interface KVStoreInterface extends Remote {
    * @throws RemoteException If a remote communication error occurs.
    */
   boolean delete(String key) throws RemoteException;
+
+  /**
+   * Retrieves the values of many keys in one call.
+   *
+   * @param keys The keys to retrieve.
+   * @return The value of each key, or the key-not-found message, in the order of the keys.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  Map<String, String> multiGet(List<String> keys) throws RemoteException;
+
+  /**
+   * Inserts many key-value pairs, committed together as one replicated operation.
+   *
+   * @param pairs The key-value pairs to insert.
+   * @return For each key, true if it was inserted; false if the pair was invalid or the write failed.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  Map<String, Boolean> multiPut(Map<String, String> pairs) throws RemoteException;
+
+  /**
+   * Deletes many keys, committed together as one replicated operation.
+   *
+   * @param keys The keys to delete.
+   * @return For each key, true if it was deleted; false if the key was invalid or the write failed.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  Map<String, Boolean> multiDelete(List<String> keys) throws RemoteException;
+
+  /**
+   * Returns the entries of a key range in key order, one page at a time. Pass the next key of a
+   * page as the start key of the following call to continue the scan; {@link KeyRanges} builds the
+   * bounds of a prefix scan.
+   *
+   * @param startKey The first key of the range, or null for the start of the keyspace.
+   * @param endKey   The key after the range, or null for the end of the keyspace.
+   * @param limit    The maximum number of entries of the page, at most {@link KeyRanges#MAX_SCAN_LIMIT}.
+   * @return The entries of the page and the start key of the next one.
+   * @throws RemoteException If the limit is not positive or a remote communication error occurs.
+   */
+  ScanResult scan(String startKey, String endKey, int limit) throws RemoteException;
+
+  /**
+   * Returns the replica this server knows as the leader of each shard, so that clients can send
+   * writes to it directly. The length of the result is the number of shards, see {@link Shards}.
+   *
+   * @return The server ID of the leader of each shard, or -1 where no stable leader is known.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  int[] getLeaders() throws RemoteException;
+
+  /**
+   * Returns how far the reads of this server may lag behind the writes committed by the cluster.
+   * Voting replicas take part in every commit and report 0. A non-voting observer reports the time
+   * since it last knew it had applied every value chosen so far, in the shard furthest behind, so
+   * that clients can read from the observers that are fresh enough for them.
+   *
+   * @return The lag in milliseconds, 0 for a voting replica; {@link Long#MAX_VALUE} for an observer
+   *     that has not caught up since it started.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  long getLagMillis() throws RemoteException;
+
+  /**
+   * Subscribes a listener to the keys written on this server, in every shard it hosts. The
+   * listener is dropped when a call to it fails, so clients renew their subscription periodically;
+   * a subscription that is new means invalidations may have been missed since the last one.
+   *
+   * @param listener The listener to call with the keys of every applied write.
+   * @return true if the listener was not subscribed yet; false if the subscription was renewed.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  boolean subscribe(InvalidationListener listener) throws RemoteException;
 }
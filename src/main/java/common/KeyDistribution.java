@@ -0,0 +1,20 @@
+package common;
+
+/**
+ * The {@code KeyDistribution} enum lists how workloads pick the keys they read and write.
+ */
+public enum KeyDistribution {
+  /**
+   * Every key is equally likely.
+   */
+  UNIFORM,
+  /**
+   * A few keys are far more popular than the rest, following a Zipf law; the popular keys are
+   * scattered over the key space rather than being its first keys.
+   */
+  ZIPFIAN,
+  /**
+   * The most recently inserted keys are the most popular, following a Zipf law over their age.
+   */
+  LATEST
+}
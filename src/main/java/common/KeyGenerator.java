@@ -0,0 +1,142 @@
+package common;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code KeyGenerator} class picks key indexes in {@code [0, keyCount)} following a
+ * {@link KeyDistribution}, for benchmarks and load generation. It is safe to share between
+ * threads, each passing its own random source. Zipf-distributed indexes are drawn in constant time
+ * with the method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases", as YCSB
+ * does; the key space can grow while keys are inserted, which the {@code LATEST} distribution
+ * follows.
+ */
+public class KeyGenerator {
+
+  // the skew YCSB uses: about 80% of requests go to the most popular 20% of keys or fewer
+  private static final double ZIPF_THETA = 0.99;
+  private static final double ZETA_2 = zeta(0, 2, 0);
+  private final KeyDistribution distribution;
+  private final AtomicLong keyCount;
+  private volatile Zipf zipf;
+
+  /**
+   * Create a generator over a key space.
+   *
+   * @param distribution How keys are picked.
+   * @param keyCount     The number of keys, at least 1.
+   */
+  public KeyGenerator(KeyDistribution distribution, long keyCount) {
+    if (keyCount < 1) {
+      throw new IllegalArgumentException("A key space needs at least one key: " + keyCount);
+    }
+    this.distribution = distribution;
+    this.keyCount = new AtomicLong(keyCount);
+    this.zipf = distribution == KeyDistribution.UNIFORM ? null : new Zipf(keyCount, zeta(0, keyCount, 0));
+  }
+
+  /**
+   * @return The current number of keys.
+   */
+  public long getKeyCount() {
+    return keyCount.get();
+  }
+
+  /**
+   * Adds a key to the key space.
+   *
+   * @return The index of the new key.
+   */
+  public long insert() {
+    return keyCount.getAndIncrement();
+  }
+
+  /**
+   * @param random The random source of the calling thread.
+   * @return The index of the next key to use.
+   */
+  public long next(Random random) {
+    long count = keyCount.get();
+    switch (distribution) {
+      case ZIPFIAN:
+        // spread the popular ranks over the key space, as they would be in real data
+        return Math.floorMod(fnv(zipf(count).next(random)), count);
+      case LATEST:
+        return count - 1 - Math.min(count - 1, zipf(count).next(random));
+      default:
+        return (long) (random.nextDouble() * count);
+    }
+  }
+
+  /**
+   * @param count The current number of keys.
+   * @return The Zipf parameters for a key space of at least the given size, extended if it grew.
+   */
+  private Zipf zipf(long count) {
+    Zipf current = zipf;
+    if (current.count >= count) {
+      return current;
+    }
+    synchronized (this) {
+      current = zipf;
+      if (current.count < count) {
+        // the zeta sum only needs the terms of the new keys
+        current = new Zipf(count, zeta(current.count, count, current.zetaN));
+        zipf = current;
+      }
+      return current;
+    }
+  }
+
+  /**
+   * @return The sum of 1 / i^theta for i from {@code from + 1} to {@code to}, added to the given sum.
+   */
+  private static double zeta(long from, long to, double sum) {
+    for (long i = from + 1; i <= to; i++) {
+      sum += 1 / Math.pow(i, ZIPF_THETA);
+    }
+    return sum;
+  }
+
+  private static long fnv(long value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < 8; i++) {
+      hash ^= value & 0xff;
+      hash *= 0x100000001b3L;
+      value >>>= 8;
+    }
+    return hash;
+  }
+
+  /**
+   * The constants of the Zipf draw for one key space size.
+   */
+  private static final class Zipf {
+    final long count;
+    final double zetaN;
+    final double alpha;
+    final double eta;
+
+    Zipf(long count, double zetaN) {
+      this.count = count;
+      this.zetaN = zetaN;
+      this.alpha = 1 / (1 - ZIPF_THETA);
+      this.eta = (1 - Math.pow(2.0 / count, 1 - ZIPF_THETA)) / (1 - ZETA_2 / zetaN);
+    }
+
+    /**
+     * @return A rank from 0, the most popular, to count - 1.
+     */
+    long next(Random random) {
+      double u = random.nextDouble();
+      double uz = u * zetaN;
+      if (uz < 1) {
+        return 0;
+      }
+      if (uz < 1 + Math.pow(0.5, ZIPF_THETA)) {
+        return 1;
+      }
+      return Math.min(count - 1, (long) (count * Math.pow(eta * u - eta + 1, alpha)));
+    }
+  }
+}
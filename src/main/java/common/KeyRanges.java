@@ -0,0 +1,49 @@
+package common;
+
+/**
+ * The {@code KeyRanges} class builds the bounds of key range scans. Keys are ordered by
+ * {@link String#compareTo(String)}; a range includes its start key and excludes its end key.
+ */
+public final class KeyRanges {
+
+  /**
+   * Largest number of entries a single scan returns; larger scans are paged.
+   */
+  public static final int MAX_SCAN_LIMIT = 1000;
+
+  private KeyRanges() {
+  }
+
+  /**
+   * @param prefix A key prefix.
+   * @return The smallest key greater than every key starting with the prefix, or null if there is
+   *     none and a prefix scan must run to the end of the keyspace.
+   */
+  public static String prefixEnd(String prefix) {
+    for (int i = prefix.length() - 1; i >= 0; i--) {
+      char c = prefix.charAt(i);
+      if (c != Character.MAX_VALUE) {
+        return prefix.substring(0, i) + (char) (c + 1);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param key      A key.
+   * @param startKey The first key of the range, or null for the start of the keyspace.
+   * @param endKey   The key after the range, or null for the end of the keyspace.
+   * @return true if the key lies in the range.
+   */
+  public static boolean contains(String key, String startKey, String endKey) {
+    return (startKey == null || key.compareTo(startKey) >= 0) && (endKey == null || key.compareTo(endKey) < 0);
+  }
+
+  /**
+   * @param limit A requested page size.
+   * @return The page size a scan uses for it.
+   */
+  public static int pageSize(int limit) {
+    return Math.min(limit, MAX_SCAN_LIMIT);
+  }
+}
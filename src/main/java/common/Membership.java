@@ -0,0 +1,212 @@
+package common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The {@code Membership} class lists the replicas of a cluster by server ID, with the host and port
+ * each one listens on. A membership file has one replica per line, as {@code id host:port}; blank
+ * lines and lines starting with {@code #} are ignored. The IDs must be 0 to n-1.
+ *
+ * <p>A replica listed as {@code id host:port observer} is a non-voting observer: it learns the
+ * chosen values and serves reads, but takes no part in prepare and accept, so it does not count
+ * towards the majority. Observers take the highest IDs, after every voting replica.
+ *
+ * <pre>
+ * # three replicas on three machines, and an observer
+ * 0 10.0.0.1:1099
+ * 1 10.0.0.2:1099
+ * 2 10.0.0.3:1099
+ * 3 10.0.0.4:1099 observer
+ * </pre>
+ */
+public class Membership {
+
+  private static final String COMMENT = "#";
+  private static final String OBSERVER = "observer";
+  private final String[] hosts;
+  private final int[] ports;
+  // the replicas with lower IDs vote, the others are observers
+  private final int voterCount;
+
+  private Membership(String[] hosts, int[] ports, int voterCount) {
+    this.hosts = hosts;
+    this.ports = ports;
+    this.voterCount = voterCount;
+  }
+
+  /**
+   * Creates the membership of replicas listening on consecutive ports of one host.
+   *
+   * @param host         The host of the replicas.
+   * @param port         The port of replica 0; replica i listens on port + i.
+   * @param replicaCount The number of replicas.
+   * @return The membership.
+   */
+  public static Membership local(String host, int port, int replicaCount) {
+    return local(host, port, replicaCount, 0);
+  }
+
+  /**
+   * Creates the membership of replicas and observers listening on consecutive ports of one host.
+   *
+   * @param host          The host of the replicas.
+   * @param port          The port of replica 0; replica i listens on port + i.
+   * @param replicaCount  The number of voting replicas.
+   * @param observerCount The number of observers, listening on the ports after the voting replicas.
+   * @return The membership.
+   */
+  public static Membership local(String host, int port, int replicaCount, int observerCount) {
+    if (replicaCount < 1) {
+      throw new IllegalArgumentException("Replica count must be positive: " + replicaCount);
+    }
+    if (observerCount < 0) {
+      throw new IllegalArgumentException("Observer count must not be negative: " + observerCount);
+    }
+    String[] hosts = new String[replicaCount + observerCount];
+    int[] ports = new int[replicaCount + observerCount];
+    for (int i = 0; i < hosts.length; i++) {
+      hosts[i] = host;
+      ports[i] = port + i;
+    }
+    return new Membership(hosts, ports, replicaCount);
+  }
+
+  /**
+   * Reads a membership file.
+   *
+   * @param file The membership file.
+   * @return The membership.
+   * @throws IOException If the file cannot be read or is not a valid membership.
+   */
+  public static Membership load(Path file) throws IOException {
+    Map<Integer, String> addresses = new TreeMap<>();
+    Set<Integer> observers = new HashSet<>();
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i).trim();
+      if (line.isEmpty() || line.startsWith(COMMENT)) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      try {
+        if (fields.length < 2 || fields.length > 3 || fields[1].lastIndexOf(':') < 1
+                || fields.length == 3 && !OBSERVER.equals(fields[2])) {
+          throw new IllegalArgumentException("expected id host:port [" + OBSERVER + "]");
+        }
+        int serverId = Integer.parseInt(fields[0]);
+        if (fields.length == 3) {
+          observers.add(serverId);
+        }
+        parsePort(fields[1]);
+        if (addresses.put(serverId, fields[1]) != null) {
+          throw new IllegalArgumentException("duplicate id " + serverId);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException(file + " line " + (i + 1) + ": " + e.getMessage());
+      }
+    }
+    int replicaCount = addresses.size();
+    int voterCount = replicaCount - observers.size();
+    if (voterCount == 0) {
+      throw new IOException(file + " lists no voting replicas");
+    }
+    String[] hosts = new String[replicaCount];
+    int[] ports = new int[replicaCount];
+    for (Map.Entry<Integer, String> entry : addresses.entrySet()) {
+      int serverId = entry.getKey();
+      if (serverId < 0 || serverId >= replicaCount) {
+        throw new IOException(file + " must number its " + replicaCount + " replicas 0 to " + (replicaCount - 1) +
+                ", found " + serverId);
+      }
+      if (observers.contains(serverId) != serverId >= voterCount) {
+        throw new IOException(file + " must number its observers after its " + voterCount + " voting replicas, found " +
+                (observers.contains(serverId) ? "observer " : "replica ") + serverId);
+      }
+      String address = entry.getValue();
+      hosts[serverId] = address.substring(0, address.lastIndexOf(':'));
+      ports[serverId] = parsePort(address);
+    }
+    return new Membership(hosts, ports, voterCount);
+  }
+
+  /**
+   * Writes this membership as a membership file.
+   *
+   * @param file The file to write.
+   * @throws IOException If the file cannot be written.
+   */
+  public void save(Path file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < size(); i++) {
+      lines.add(i + " " + hosts[i] + ":" + ports[i] + (isObserver(i) ? " " + OBSERVER : ""));
+    }
+    Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return The number of replicas.
+   */
+  public int size() {
+    return hosts.length;
+  }
+
+  /**
+   * @return The number of voting replicas, whose IDs are 0 to this count - 1.
+   */
+  public int getVoterCount() {
+    return voterCount;
+  }
+
+  /**
+   * @param serverId The ID of a replica.
+   * @return true if the replica is a non-voting observer.
+   */
+  public boolean isObserver(int serverId) {
+    return serverId >= voterCount;
+  }
+
+  /**
+   * @param serverId The ID of a replica.
+   * @return The host the replica listens on.
+   */
+  public String getHost(int serverId) {
+    return hosts[serverId];
+  }
+
+  /**
+   * @param serverId The ID of a replica.
+   * @return The port the replica listens on.
+   */
+  public int getPort(int serverId) {
+    return ports[serverId];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < size(); i++) {
+      text.append(i == 0 ? "" : ", ").append(i).append('=').append(hosts[i]).append(':').append(ports[i]);
+      if (isObserver(i)) {
+        text.append(' ').append(OBSERVER);
+      }
+    }
+    return text.toString();
+  }
+
+  private static int parsePort(String address) {
+    int port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    if (port < 1 || port > 65535) {
+      throw new IllegalArgumentException("port out of range: " + port);
+    }
+    return port;
+  }
+}
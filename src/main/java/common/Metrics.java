@@ -0,0 +1,73 @@
+package common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The {@code Metrics} class holds the named counters, gauges and latency histograms of one
+ * component. Counters and histograms are looked up once and kept by the code that updates them,
+ * so updating a metric never touches the registry and never locks. Gauges are read only when a
+ * snapshot is taken.
+ */
+public class Metrics {
+
+  private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  /**
+   * @param name The name of the counter.
+   * @return The counter with the name, created on first use.
+   */
+  public LongAdder counter(String name) {
+    return counters.computeIfAbsent(name, n -> new LongAdder());
+  }
+
+  /**
+   * @param name The name of the histogram, by convention ending in its unit such as {@code .us}.
+   * @return The histogram with the name, created on first use.
+   */
+  public Histogram histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Histogram());
+  }
+
+  /**
+   * Adds a histogram that is updated elsewhere.
+   *
+   * @param name      The name of the histogram.
+   * @param histogram The histogram.
+   */
+  public void register(String name, Histogram histogram) {
+    histograms.put(name, histogram);
+  }
+
+  /**
+   * Adds a gauge, a value computed when a snapshot is taken.
+   *
+   * @param name  The name of the gauge.
+   * @param value The current value of the gauge.
+   */
+  public void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /**
+   * @return A copy of the current values, which later updates do not change.
+   */
+  public MetricsSnapshot snapshot() {
+    MetricsSnapshot snapshot = new MetricsSnapshot();
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      snapshot.addValue(counter.getKey(), counter.getValue().sum());
+    }
+    for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+      snapshot.addValue(gauge.getKey(), gauge.getValue().getAsLong());
+    }
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      snapshot.addHistogram(histogram.getKey(), histogram.getValue());
+    }
+    return snapshot;
+  }
+}
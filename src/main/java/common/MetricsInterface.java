@@ -0,0 +1,19 @@
+package common;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The MetricsInterface defines the remote method that reports the metrics of a server: counters,
+ * gauges such as the store size, and latency histograms of requests and consensus phases.
+ */
+public interface MetricsInterface extends Remote {
+
+  /**
+   * Get the current metrics of the server.
+   *
+   * @return A snapshot of the metrics of every shard of the server, added up.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  MetricsSnapshot getMetrics() throws RemoteException;
+}
@@ -0,0 +1,117 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code MetricsSnapshot} class is a copy of the metrics of a server or client at one point in
+ * time, sorted by name. Snapshots of several components add up: counters and gauges are summed and
+ * histograms merged, so the shards of a server report as one.
+ */
+public class MetricsSnapshot implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private final TreeMap<String, Long> values = new TreeMap<>();
+  private final TreeMap<String, Histogram> histograms = new TreeMap<>();
+
+  /**
+   * @return The counters and gauges by name.
+   */
+  public Map<String, Long> getValues() {
+    return Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * @return The histograms by name.
+   */
+  public Map<String, Histogram> getHistograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+
+  /**
+   * Adds to a counter or gauge, creating it at zero.
+   *
+   * @param name  The name of the value.
+   * @param value The amount to add.
+   */
+  public void addValue(String name, long value) {
+    values.merge(name, value, Long::sum);
+  }
+
+  /**
+   * Adds the values of a histogram to the histogram with the name, creating it empty.
+   *
+   * @param name      The name of the histogram.
+   * @param histogram The values to add.
+   */
+  public void addHistogram(String name, Histogram histogram) {
+    histograms.computeIfAbsent(name, n -> new Histogram()).add(histogram);
+  }
+
+  /**
+   * Adds every value of another snapshot to this one.
+   *
+   * @param other The snapshot to add.
+   */
+  public void add(MetricsSnapshot other) {
+    for (Map.Entry<String, Long> value : other.values.entrySet()) {
+      addValue(value.getKey(), value.getValue());
+    }
+    for (Map.Entry<String, Histogram> histogram : other.histograms.entrySet()) {
+      addHistogram(histogram.getKey(), histogram.getValue());
+    }
+  }
+
+  /**
+   * Writes the snapshot for the binary transport.
+   *
+   * @param out The payload to write to.
+   */
+  public void write(Wire.Writer out) {
+    out.putInt(values.size());
+    for (Map.Entry<String, Long> value : values.entrySet()) {
+      out.putString(value.getKey()).putLong(value.getValue());
+    }
+    out.putInt(histograms.size());
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      out.putString(histogram.getKey());
+      histogram.getValue().write(out);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write(Wire.Writer)}.
+   *
+   * @param in The payload to read from.
+   * @return The snapshot.
+   */
+  public static MetricsSnapshot read(Wire.Reader in) {
+    MetricsSnapshot snapshot = new MetricsSnapshot();
+    int valueCount = in.getInt();
+    for (int i = 0; i < valueCount; i++) {
+      snapshot.values.put(in.getString(), in.getLong());
+    }
+    int histogramCount = in.getInt();
+    for (int i = 0; i < histogramCount; i++) {
+      snapshot.histograms.put(in.getString(), Histogram.read(in));
+    }
+    return snapshot;
+  }
+
+  /**
+   * @return One line per metric: the counters and gauges, then the histograms.
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Long> value : values.entrySet()) {
+      text.append(value.getKey()).append(" = ").append(value.getValue()).append('\n');
+    }
+    for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+      text.append(histogram.getKey()).append(' ').append(histogram.getValue().summary()).append('\n');
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,213 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The {@code NioClient} class calls a {@link NioServer} over one connection. Any number of calls
+ * may be in flight at once; each carries a request ID that matches it with its reply, whatever
+ * order the replies come in. The connection is opened on the first call and again on the next
+ * call after it fails. Frames the server pushes outside of any call go to the push handler.
+ */
+public class NioClient implements Closeable {
+
+  /**
+   * Receives the frames a server pushes, on the loop thread.
+   */
+  public interface PushHandler {
+
+    /**
+     * @param method  The method code of the pushed frame.
+     * @param payload The payload.
+     */
+    void onPush(byte method, Wire.Reader payload);
+  }
+
+  // longest a call waits for its reply, covering a proposal retried over several rounds
+  private static final long CALL_TIMEOUT_MILLIS = 60000;
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final ThreadLocal<Wire.Writer> WRITER = ThreadLocal.withInitial(Wire.Writer::new);
+  private final String host;
+  private final int port;
+  private final SelectorLoop loop;
+  private final AtomicLong nextRequestId = new AtomicLong(0);
+  private Connection connection;
+  private volatile PushHandler pushHandler;
+  private volatile boolean closed;
+
+  /**
+   * Creates a client; no connection is opened until the first call.
+   *
+   * @param host The server host.
+   * @param port The server port.
+   * @param loop The loop that runs the connection, which may be shared with other clients.
+   */
+  public NioClient(String host, int port, SelectorLoop loop) {
+    this.host = host;
+    this.port = port;
+    this.loop = loop;
+  }
+
+  /**
+   * @param pushHandler Receives the frames the server pushes on any connection of this client, or
+   *                    null to drop them.
+   */
+  public void setPushHandler(PushHandler pushHandler) {
+    this.pushHandler = pushHandler;
+  }
+
+  /**
+   * Sends a request without waiting for the reply.
+   *
+   * @param method  The method code.
+   * @param request Writes the request payload.
+   * @return The reply payload, or a {@link RemoteException} if the call failed or timed out.
+   */
+  public CompletableFuture<Wire.Reader> call(byte method, Consumer<Wire.Writer> request) {
+    Connection current;
+    try {
+      current = connect();
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(new RemoteException("Unable to connect to " + host + ":" + port, e));
+    }
+    long requestId = nextRequestId.incrementAndGet();
+    CompletableFuture<Wire.Reader> result = new CompletableFuture<>();
+    current.pending.put(requestId, result);
+    result.orTimeout(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+            .whenComplete((reply, e) -> current.pending.remove(requestId));
+    ByteBuffer frame;
+    Wire.Writer out = WRITER.get();
+    try {
+      out.putInt(0).putLong(requestId).putByte(method);
+      request.accept(out);
+      out.setInt(0, out.size() - 4);
+      frame = out.toByteBuffer();
+    } finally {
+      out.reset();
+    }
+    if (!current.channel.send(frame) || current.channel.isClosed()) {
+      // the connection closed before or while the request was queued
+      result.completeExceptionally(new RemoteException("Connection to " + host + ":" + port + " closed"));
+    }
+    return result;
+  }
+
+  /**
+   * Sends a request and waits for the reply.
+   *
+   * @param method  The method code.
+   * @param request Writes the request payload.
+   * @return The reply payload.
+   * @throws RemoteException If the call failed, timed out or the server returned an error.
+   */
+  public Wire.Reader invoke(byte method, Consumer<Wire.Writer> request) throws RemoteException {
+    try {
+      return call(method, request).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Interrupted while calling " + host + ":" + port);
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    }
+  }
+
+  /**
+   * @param cause The failure of a call.
+   * @return The failure as thrown by remote interfaces.
+   */
+  public RemoteException unwrap(Throwable cause) {
+    if (cause instanceof RemoteException) {
+      return (RemoteException) cause;
+    }
+    if (cause instanceof TimeoutException) {
+      return new RemoteException("Call to " + host + ":" + port + " timed out");
+    }
+    return new RemoteException("Call to " + host + ":" + port + " failed", cause);
+  }
+
+  private synchronized Connection connect() throws IOException {
+    if (closed) {
+      throw new IOException("Client closed");
+    }
+    if (connection != null && !connection.channel.isClosed()) {
+      return connection;
+    }
+    SocketChannel socket = SocketChannel.open();
+    try {
+      socket.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+      socket.socket().setTcpNoDelay(true);
+      Connection opened = new Connection();
+      opened.channel = loop.open(socket, opened);
+      connection = opened;
+      return opened;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (connection != null) {
+      FrameChannel channel = connection.channel;
+      loop.execute(() -> channel.close(new IOException("Client closed")));
+    }
+  }
+
+  /**
+   * One connection and the calls waiting for a reply on it.
+   */
+  private class Connection implements FrameChannel.Listener {
+    final Map<Long, CompletableFuture<Wire.Reader>> pending = new ConcurrentHashMap<>();
+    FrameChannel channel;
+
+    @Override
+    public void onFrame(FrameChannel frameChannel, ByteBuffer frame) {
+      long requestId = frame.getLong();
+      byte status = frame.get();
+      if (requestId == NioServer.PUSH_REQUEST_ID && status == NioServer.STATUS_PUSH) {
+        PushHandler handler = pushHandler;
+        if (handler != null) {
+          handler.onPush(frame.get(), new Wire.Reader(frame));
+        }
+        return;
+      }
+      CompletableFuture<Wire.Reader> result = pending.remove(requestId);
+      if (result == null) {
+        // the call timed out
+        return;
+      }
+      Wire.Reader reply = new Wire.Reader(frame);
+      if (status == NioServer.STATUS_OK) {
+        result.complete(reply);
+      } else if (status == NioServer.STATUS_NOT_LEADER) {
+        result.completeExceptionally(new NotLeaderException(reply.getString(), reply.getInt()));
+      } else {
+        result.completeExceptionally(new RemoteException(reply.getString()));
+      }
+    }
+
+    @Override
+    public void onClose(FrameChannel frameChannel, IOException cause) {
+      for (Long requestId : pending.keySet()) {
+        CompletableFuture<Wire.Reader> result = pending.remove(requestId);
+        if (result != null) {
+          result.completeExceptionally(new RemoteException("Connection to " + host + ":" + port + " closed", cause));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package common;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code NioKVStore} class calls the key-value operations of a server over the binary
+ * transport instead of RMI. The asynchronous operations only queue the request, so one thread can
+ * keep many requests in flight on the connection. A subscription is tied to the connection: the
+ * server pushes invalidations on it, and a reconnected stub has to subscribe again.
+ */
+public class NioKVStore implements KVStoreInterface, AsyncKVStore, MetricsInterface {
+
+  /**
+   * Method codes of the key-value operations.
+   */
+  public static final byte PUT = 1;
+  public static final byte GET = 2;
+  public static final byte DELETE = 3;
+  public static final byte MULTI_GET = 4;
+  public static final byte MULTI_PUT = 5;
+  public static final byte MULTI_DELETE = 6;
+  public static final byte GET_LEADERS = 7;
+  public static final byte SCAN = 8;
+  public static final byte SUBSCRIBE = 9;
+  public static final byte PUT_EXPIRING = 11;
+  public static final byte METRICS = 12;
+  public static final byte GET_LAG = 13;
+  /**
+   * Method code of the keys a server pushes to the connections that subscribed.
+   */
+  public static final byte INVALIDATE = 10;
+  private final NioClient client;
+
+  /**
+   * Create a key-value store stub.
+   *
+   * @param client The client connected to the server.
+   */
+  public NioKVStore(NioClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public boolean put(String key, String value) throws RemoteException {
+    return client.invoke(PUT, out -> out.putString(key).putString(value)).getBoolean();
+  }
+
+  @Override
+  public boolean put(String key, String value, long ttlMillis) throws RemoteException {
+    return client.invoke(PUT_EXPIRING, out -> out.putString(key).putString(value).putLong(ttlMillis)).getBoolean();
+  }
+
+  @Override
+  public String get(String key) throws RemoteException {
+    return client.invoke(GET, out -> out.putString(key)).getString();
+  }
+
+  @Override
+  public boolean delete(String key) throws RemoteException {
+    return client.invoke(DELETE, out -> out.putString(key)).getBoolean();
+  }
+
+  @Override
+  public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+    return client.invoke(MULTI_GET, out -> out.putStrings(keys)).getStringMap();
+  }
+
+  @Override
+  public Map<String, Boolean> multiPut(Map<String, String> pairs) throws RemoteException {
+    return client.invoke(MULTI_PUT, out -> out.putStringMap(pairs)).getBooleanMap();
+  }
+
+  @Override
+  public Map<String, Boolean> multiDelete(List<String> keys) throws RemoteException {
+    return client.invoke(MULTI_DELETE, out -> out.putStrings(keys)).getBooleanMap();
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) throws RemoteException {
+    return readScan(client.invoke(SCAN, out -> out.putString(startKey).putString(endKey).putInt(limit)));
+  }
+
+  @Override
+  public int[] getLeaders() throws RemoteException {
+    return client.invoke(GET_LEADERS, out -> { }).getInts();
+  }
+
+  @Override
+  public long getLagMillis() throws RemoteException {
+    return client.invoke(GET_LAG, out -> { }).getLong();
+  }
+
+  @Override
+  public boolean subscribe(InvalidationListener listener) throws RemoteException {
+    client.setPushHandler(pushHandler(listener));
+    return client.invoke(SUBSCRIBE, out -> { }).getBoolean();
+  }
+
+  @Override
+  public MetricsSnapshot getMetrics() throws RemoteException {
+    return MetricsSnapshot.read(client.invoke(METRICS, out -> { }));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putAsync(String key, String value) {
+    return client.call(PUT, out -> out.putString(key).putString(value)).thenApply(Wire.Reader::getBoolean);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> putAsync(String key, String value, long ttlMillis) {
+    return client.call(PUT_EXPIRING, out -> out.putString(key).putString(value).putLong(ttlMillis))
+            .thenApply(Wire.Reader::getBoolean);
+  }
+
+  @Override
+  public CompletableFuture<String> getAsync(String key) {
+    return client.call(GET, out -> out.putString(key)).thenApply(Wire.Reader::getString);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> deleteAsync(String key) {
+    return client.call(DELETE, out -> out.putString(key)).thenApply(Wire.Reader::getBoolean);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, String>> multiGetAsync(List<String> keys) {
+    return client.call(MULTI_GET, out -> out.putStrings(keys)).thenApply(Wire.Reader::getStringMap);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> multiPutAsync(Map<String, String> pairs) {
+    return client.call(MULTI_PUT, out -> out.putStringMap(pairs)).thenApply(Wire.Reader::getBooleanMap);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, Boolean>> multiDeleteAsync(List<String> keys) {
+    return client.call(MULTI_DELETE, out -> out.putStrings(keys)).thenApply(Wire.Reader::getBooleanMap);
+  }
+
+  @Override
+  public CompletableFuture<ScanResult> scanAsync(String startKey, String endKey, int limit) {
+    return client.call(SCAN, out -> out.putString(startKey).putString(endKey).putInt(limit)).thenApply(NioKVStore::readScan);
+  }
+
+  @Override
+  public CompletableFuture<int[]> getLeadersAsync() {
+    return client.call(GET_LEADERS, out -> { }).thenApply(Wire.Reader::getInts);
+  }
+
+  @Override
+  public CompletableFuture<Long> getLagMillisAsync() {
+    return client.call(GET_LAG, out -> { }).thenApply(Wire.Reader::getLong);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> subscribeAsync(InvalidationListener listener) {
+    client.setPushHandler(pushHandler(listener));
+    return client.call(SUBSCRIBE, out -> { }).thenApply(Wire.Reader::getBoolean);
+  }
+
+  private static NioClient.PushHandler pushHandler(InvalidationListener listener) {
+    return (method, payload) -> {
+      if (method != INVALIDATE) {
+        return;
+      }
+      try {
+        listener.invalidate(payload.getStrings());
+      } catch (RemoteException e) {
+        // the listener runs in this process, there is no server to report the failure to
+      }
+    };
+  }
+
+  /**
+   * Writes a page of a scan as the entries followed by the next key.
+   *
+   * @param out  The response payload.
+   * @param page The page of the scan.
+   */
+  public static void writeScan(Wire.Writer out, ScanResult page) {
+    out.putStringMap(page.getEntries()).putString(page.getNextKey());
+  }
+
+  /**
+   * Reads a page of a scan written by {@link #writeScan(Wire.Writer, ScanResult)}.
+   *
+   * @param in The response payload.
+   * @return The page of the scan.
+   */
+  public static ScanResult readScan(Wire.Reader in) {
+    Map<String, String> entries = in.getStringMap();
+    return new ScanResult(entries, in.getString());
+  }
+}
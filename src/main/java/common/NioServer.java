@@ -0,0 +1,164 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The {@code NioServer} class serves requests of the binary transport. A request frame holds a
+ * request ID, a method code and the payload; the reply frame holds the same request ID, a status
+ * and the result. Requests are handled on worker threads, so slow requests do not hold up others
+ * on the same connection and replies go out in the order they complete. A server may also push
+ * frames to a client at any time, with request ID 0 and a method code in place of the reply.
+ */
+public class NioServer implements Closeable {
+
+  /**
+   * Handles the requests of one service.
+   */
+  public interface Handler {
+
+    /**
+     * @param caller   The connection the request came on, which frames can be pushed to later.
+     * @param method   The method code of the request.
+     * @param request  The request payload.
+     * @param response Receives the result.
+     * @throws Exception If the request fails; the message is returned to the caller.
+     */
+    void handle(Peer caller, byte method, Wire.Reader request, Wire.Writer response) throws Exception;
+  }
+
+  /**
+   * One client connection, which frames can be pushed to outside of any request. Two peers are
+   * equal only if they are the same connection.
+   */
+  public static final class Peer {
+    private final FrameChannel channel;
+
+    private Peer(FrameChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Queues a frame for the client without waiting for it to be written.
+     *
+     * @param method  The method code of the pushed frame.
+     * @param payload Writes the payload.
+     * @return false if the connection is closed and the frame will not be delivered.
+     */
+    public boolean push(byte method, Consumer<Wire.Writer> payload) {
+      if (channel.isClosed()) {
+        return false;
+      }
+      Wire.Writer out = WRITER.get();
+      try {
+        out.putInt(0).putLong(PUSH_REQUEST_ID).putByte(STATUS_PUSH).putByte(method);
+        payload.accept(out);
+        out.setInt(0, out.size() - 4);
+        return channel.send(out.toByteBuffer());
+      } finally {
+        out.reset();
+      }
+    }
+  }
+
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+  static final byte STATUS_NOT_LEADER = 2;
+  static final byte STATUS_PUSH = 3;
+  // request IDs of calls start at 1, so a frame with ID 0 is never a reply
+  static final long PUSH_REQUEST_ID = 0;
+  private static final Logger LOGGER = Logger.getLogger(NioServer.class.getName());
+  private static final ThreadLocal<Wire.Writer> WRITER = ThreadLocal.withInitial(Wire.Writer::new);
+  private final String name;
+  private final Handler handler;
+  private final ServerSocketChannel serverChannel;
+  private final SelectorLoop loop;
+  private final ExecutorService workers;
+
+  /**
+   * Binds the address and starts serving.
+   *
+   * @param name    The name used in logs and thread names.
+   * @param address The address to listen on.
+   * @param handler Handles the requests.
+   * @throws IOException If the address cannot be bound.
+   */
+  public NioServer(String name, InetSocketAddress address, Handler handler) throws IOException {
+    this.name = name;
+    this.handler = handler;
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.bind(address);
+    this.workers = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, name + "-nio-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.loop = new SelectorLoop(name + "-nio");
+    this.loop.listen(serverChannel, this::onAccept);
+  }
+
+  private void onAccept(SocketChannel channel) {
+    try {
+      channel.socket().setTcpNoDelay(true);
+      loop.open(channel, new FrameChannel.Listener() {
+        // created on the first frame, on the loop thread
+        private Peer peer;
+
+        @Override
+        public void onFrame(FrameChannel frameChannel, ByteBuffer frame) {
+          if (peer == null) {
+            peer = new Peer(frameChannel);
+          }
+          Peer caller = peer;
+          workers.execute(() -> dispatch(caller, frame));
+        }
+
+        @Override
+        public void onClose(FrameChannel frameChannel, IOException cause) {
+          LOGGER.fine(name + " connection closed: " + cause.getMessage());
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.warning(name + " unable to open connection: " + e.getMessage());
+    }
+  }
+
+  private void dispatch(Peer caller, ByteBuffer frame) {
+    long requestId = frame.getLong();
+    byte method = frame.get();
+    Wire.Writer out = WRITER.get();
+    try {
+      out.putInt(0).putLong(requestId).putByte(STATUS_OK);
+      try {
+        handler.handle(caller, method, new Wire.Reader(frame), out);
+      } catch (NotLeaderException e) {
+        out.reset();
+        out.putInt(0).putLong(requestId).putByte(STATUS_NOT_LEADER).putString(e.getMessage()).putInt(e.getLeaderId());
+      } catch (Exception e) {
+        out.reset();
+        out.putInt(0).putLong(requestId).putByte(STATUS_ERROR).putString(e.getMessage() != null ? e.getMessage() : e.toString());
+      }
+      out.setInt(0, out.size() - 4);
+      caller.channel.send(out.toByteBuffer());
+    } finally {
+      out.reset();
+    }
+  }
+
+  /**
+   * Stops accepting connections and closes the open ones.
+   */
+  @Override
+  public void close() {
+    loop.close();
+    workers.shutdownNow();
+  }
+}
@@ -0,0 +1,29 @@
+package common;
+
+import java.rmi.RemoteException;
+
+/**
+ * The {@code NotLeaderException} class is thrown by a replica that could not commit a write
+ * because another replica leads, so the client can send the write to the leader directly.
+ */
+public class NotLeaderException extends RemoteException {
+
+  private static final long serialVersionUID = 1L;
+  private final int leaderId;
+
+  /**
+   * @param message  The detail message.
+   * @param leaderId The server ID of the current leader.
+   */
+  public NotLeaderException(String message, int leaderId) {
+    super(message);
+    this.leaderId = leaderId;
+  }
+
+  /**
+   * @return The server ID of the current leader.
+   */
+  public int getLeaderId() {
+    return leaderId;
+  }
+}
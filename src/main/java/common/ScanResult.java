@@ -0,0 +1,55 @@
+package common;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code ScanResult} class holds one page of a range scan: the entries found, in key order, and
+ * the key to start the next page from.
+ */
+public class ScanResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private final LinkedHashMap<String, String> entries;
+  private final String nextKey;
+
+  /**
+   * Create a page of a scan.
+   *
+   * @param entries The entries of the page, in key order.
+   * @param nextKey The first key of the range after this page, or null if there is none.
+   */
+  public ScanResult(Map<String, String> entries, String nextKey) {
+    this.entries = new LinkedHashMap<>(entries);
+    this.nextKey = nextKey;
+  }
+
+  /**
+   * @return The entries of this page, in key order.
+   */
+  public Map<String, String> getEntries() {
+    return Collections.unmodifiableMap(entries);
+  }
+
+  /**
+   * @return The first key of the range after this page, which is the start key of the next page,
+   *     or null if the range has no more entries.
+   */
+  public String getNextKey() {
+    return nextKey;
+  }
+
+  /**
+   * @return true if the range has entries after this page.
+   */
+  public boolean hasMore() {
+    return nextKey != null;
+  }
+
+  @Override
+  public String toString() {
+    return entries + (nextKey != null ? " next=" + nextKey : "");
+  }
+}
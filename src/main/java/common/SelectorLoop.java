@@ -0,0 +1,179 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The {@code SelectorLoop} class runs one thread that multiplexes the sockets of the binary
+ * transport with a {@link Selector}: it accepts connections, reads frames and writes queued frames
+ * for every channel registered with it. Other threads hand work to the loop with
+ * {@link #execute(Runnable)}.
+ */
+public class SelectorLoop implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(SelectorLoop.class.getName());
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed;
+
+  /**
+   * Opens the selector and starts the loop thread.
+   *
+   * @param name The name of the loop thread.
+   * @throws IOException If the selector cannot be opened.
+   */
+  public SelectorLoop(String name) throws IOException {
+    this.selector = Selector.open();
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Runs a task on the loop thread.
+   *
+   * @param task The task to run.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    if (Thread.currentThread() != thread) {
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Accepts connections on a bound server socket.
+   *
+   * @param server   The server socket.
+   * @param onAccept Receives every accepted connection, on the loop thread.
+   */
+  void listen(ServerSocketChannel server, Consumer<SocketChannel> onAccept) {
+    execute(() -> {
+      try {
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT, onAccept);
+      } catch (IOException e) {
+        LOGGER.severe("Unable to listen on " + server + ": " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Starts reading frames from a connected socket.
+   *
+   * @param channel  The connected socket.
+   * @param listener Receives the frames read and the close of the channel, on the loop thread.
+   * @return The channel to send frames with.
+   * @throws IOException If the socket cannot be made non-blocking.
+   */
+  FrameChannel open(SocketChannel channel, FrameChannel.Listener listener) throws IOException {
+    channel.configureBlocking(false);
+    FrameChannel frameChannel = new FrameChannel(channel, this, listener);
+    execute(() -> {
+      try {
+        frameChannel.setKey(channel.register(selector, SelectionKey.OP_READ, frameChannel));
+      } catch (ClosedChannelException e) {
+        frameChannel.close(e);
+      }
+    });
+    return frameChannel;
+  }
+
+  private void run() {
+    while (!closed) {
+      try {
+        // tasks queued by the loop thread itself did not wake the selector
+        if (tasks.isEmpty()) {
+          selector.select();
+        } else {
+          selector.selectNow();
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        if (closed) {
+          break;
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept(key);
+            continue;
+          }
+          FrameChannel frameChannel = (FrameChannel) key.attachment();
+          try {
+            if (key.isReadable()) {
+              frameChannel.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+              frameChannel.flush();
+            }
+          } catch (RuntimeException e) {
+            // a malformed frame must not stop the loop serving the other channels
+            LOGGER.warning(thread.getName() + " closing channel after error: " + e);
+            frameChannel.close(new IOException(e));
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.severe(thread.getName() + " selector failed: " + e.getMessage());
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void accept(SelectionKey key) {
+    ServerSocketChannel server = (ServerSocketChannel) key.channel();
+    Consumer<SocketChannel> onAccept = (Consumer<SocketChannel>) key.attachment();
+    try {
+      SocketChannel channel;
+      while ((channel = server.accept()) != null) {
+        onAccept.accept(channel);
+      }
+    } catch (IOException e) {
+      LOGGER.warning(thread.getName() + " accept failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops the loop and closes every channel registered with it.
+   */
+  @Override
+  public void close() {
+    execute(() -> {
+      closed = true;
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof FrameChannel) {
+          ((FrameChannel) key.attachment()).close(new IOException("Transport closed"));
+        } else {
+          try {
+            key.channel().close();
+          } catch (IOException e) {
+            // already closed
+          }
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOGGER.warning(thread.getName() + " close failed: " + e.getMessage());
+      }
+    });
+  }
+}
@@ -0,0 +1,29 @@
+package common;
+
+/**
+ * The {@code Shards} class maps keys to the shards of the keyspace. Clients and servers must use
+ * the same mapping, so it depends only on the key and the number of shards.
+ */
+public final class Shards {
+
+  private Shards() {
+  }
+
+  /**
+   * @param key        The key.
+   * @param shardCount The number of shards.
+   * @return The shard of the key, from 0 to shardCount - 1.
+   */
+  public static int shardOf(String key, int shardCount) {
+    if (shardCount == 1) {
+      return 0;
+    }
+    // spread the bits of the string hash so that keys differing in the last character still
+    // land on different shards for shard counts that are powers of two
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return Math.floorMod(h, shardCount);
+  }
+}
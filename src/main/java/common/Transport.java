@@ -0,0 +1,16 @@
+package common;
+
+/**
+ * The {@code Transport} enum selects how clients and replicas call each other.
+ */
+public enum Transport {
+  /**
+   * Java RMI, one registry per server.
+   */
+  RMI,
+  /**
+   * Length-prefixed binary frames over non-blocking sockets, with many requests in flight on one
+   * connection.
+   */
+  NIO
+}
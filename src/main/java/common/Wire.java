@@ -0,0 +1,232 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code Wire} class holds the writer and reader for the payloads of the binary transport.
+ * Integers are big-endian; strings are length-prefixed UTF-8 and byte arrays are length-prefixed,
+ * with a length of -1 for null.
+ */
+public final class Wire {
+
+  private Wire() {
+  }
+
+  /**
+   * Appends values to a growable buffer. A writer is reused for many frames by calling
+   * {@link #reset()}.
+   */
+  public static class Writer {
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    public Writer putByte(int v) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) v;
+      return this;
+    }
+
+    public Writer putBoolean(boolean v) {
+      return putByte(v ? 1 : 0);
+    }
+
+    public Writer putInt(int v) {
+      ensureCapacity(4);
+      buffer[size++] = (byte) (v >>> 24);
+      buffer[size++] = (byte) (v >>> 16);
+      buffer[size++] = (byte) (v >>> 8);
+      buffer[size++] = (byte) v;
+      return this;
+    }
+
+    public Writer putLong(long v) {
+      putInt((int) (v >>> 32));
+      return putInt((int) v);
+    }
+
+    public Writer putBytes(byte[] v) {
+      if (v == null) {
+        return putInt(-1);
+      }
+      putInt(v.length);
+      ensureCapacity(v.length);
+      System.arraycopy(v, 0, buffer, size, v.length);
+      size += v.length;
+      return this;
+    }
+
+    public Writer putString(String v) {
+      return putBytes(v != null ? v.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    public Writer putInts(int[] v) {
+      putInt(v.length);
+      for (int i : v) {
+        putInt(i);
+      }
+      return this;
+    }
+
+    public Writer putStrings(List<String> v) {
+      putInt(v.size());
+      for (String s : v) {
+        putString(s);
+      }
+      return this;
+    }
+
+    public Writer putStringMap(Map<String, String> v) {
+      putInt(v.size());
+      for (Map.Entry<String, String> entry : v.entrySet()) {
+        putString(entry.getKey());
+        putString(entry.getValue());
+      }
+      return this;
+    }
+
+    public Writer putBooleanMap(Map<String, Boolean> v) {
+      putInt(v.size());
+      for (Map.Entry<String, Boolean> entry : v.entrySet()) {
+        putString(entry.getKey());
+        putBoolean(entry.getValue());
+      }
+      return this;
+    }
+
+    /**
+     * Overwrites four bytes written earlier, such as a length prefix.
+     *
+     * @param position The offset of the first byte.
+     * @param v        The value to write.
+     */
+    public void setInt(int position, int v) {
+      buffer[position] = (byte) (v >>> 24);
+      buffer[position + 1] = (byte) (v >>> 16);
+      buffer[position + 2] = (byte) (v >>> 8);
+      buffer[position + 3] = (byte) v;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return A copy of the written bytes, ready to be sent.
+     */
+    public ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(Arrays.copyOf(buffer, size));
+    }
+
+    public void reset() {
+      size = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER) {
+        buffer = new byte[256];
+      }
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+  }
+
+  /**
+   * Reads values in the order a {@link Writer} wrote them.
+   */
+  public static class Reader {
+    private final ByteBuffer buffer;
+
+    public Reader(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public boolean hasRemaining() {
+      return buffer.hasRemaining();
+    }
+
+    public byte getByte() {
+      return buffer.get();
+    }
+
+    public boolean getBoolean() {
+      return buffer.get() != 0;
+    }
+
+    public int getInt() {
+      return buffer.getInt();
+    }
+
+    public long getLong() {
+      return buffer.getLong();
+    }
+
+    public byte[] getBytes() {
+      int length = buffer.getInt();
+      if (length < 0) {
+        return null;
+      }
+      if (length > buffer.remaining()) {
+        throw new IllegalArgumentException("Truncated payload");
+      }
+      byte[] v = new byte[length];
+      buffer.get(v);
+      return v;
+    }
+
+    public String getString() {
+      byte[] v = getBytes();
+      return v != null ? new String(v, StandardCharsets.UTF_8) : null;
+    }
+
+    public int[] getInts() {
+      int[] v = new int[checkCount(buffer.getInt())];
+      for (int i = 0; i < v.length; i++) {
+        v[i] = buffer.getInt();
+      }
+      return v;
+    }
+
+    public List<String> getStrings() {
+      int count = checkCount(buffer.getInt());
+      List<String> v = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        v.add(getString());
+      }
+      return v;
+    }
+
+    public Map<String, String> getStringMap() {
+      int count = checkCount(buffer.getInt());
+      Map<String, String> v = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        v.put(getString(), getString());
+      }
+      return v;
+    }
+
+    public Map<String, Boolean> getBooleanMap() {
+      int count = checkCount(buffer.getInt());
+      Map<String, Boolean> v = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        v.put(getString(), getBoolean());
+      }
+      return v;
+    }
+
+    // every element takes at least four bytes, which bounds a corrupt count
+    private int checkCount(int count) {
+      if (count < 0 || count > buffer.remaining() / 4) {
+        throw new IllegalArgumentException("Invalid element count: " + count);
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * The {@code AcceptedValue} class is the value an acceptor accepted for one slot of the replicated
+ * log, together with the proposal ID it was accepted with.
+ */
+public class AcceptedValue implements Serializable {
+
+  private static final long serialVersionUID = 2L;
+  private final long proposalId;
+  private final byte[] value;
+
+  /**
+   * Creates an accepted value.
+   *
+   * @param proposalId The proposal ID the value was accepted with.
+   * @param value      The accepted value.
+   */
+  public AcceptedValue(long proposalId, byte[] value) {
+    this.proposalId = proposalId;
+    this.value = value;
+  }
+
+  /**
+   * @return The proposal ID the value was accepted with.
+   */
+  public long getProposalId() {
+    return proposalId;
+  }
+
+  /**
+   * @return The accepted value.
+   */
+  public byte[] getValue() {
+    return value;
+  }
+}
@@ -5,26 +5,41 @@ import java.rmi.RemoteException;
 
 /**
  * The AcceptorInterface defines the remote methods to be implemented by the acceptors in the Paxos
- * consensus algorithm. It includes methods for preparing and accepting proposals.
+ * consensus algorithm. It includes methods for preparing and accepting proposals. Proposals are
+ * made for numbered slots of a replicated log, so many slots can be in flight at once.
  */
 public interface AcceptorInterface extends Remote {
 
   /**
-   * Prepares the acceptor to receive a proposal with a given proposal ID.
+   * Prepares the acceptor to receive proposals with a given proposal ID for every slot from the
+   * given slot onwards.
    *
    * @param proposalId The unique ID of the proposal.
-   * @return An integer response indicating the status or decision related to the proposal.
+   * @param fromSlot   The first slot the promise covers.
+   * @return The promise, with the values already accepted for the covered slots.
    * @throws RemoteException If a remote communication error occurs.
    */
-  int prepare(int proposalId) throws RemoteException;
+  Promise prepare(long proposalId, long fromSlot) throws RemoteException;
 
   /**
-   * Accepts or rejects a proposal with the given proposal ID and value.
+   * Accepts or rejects a proposal with the given proposal ID and value for one slot.
    *
+   * @param slot          The slot of the replicated log.
    * @param proposalId    The unique ID of the proposal.
-   * @param proposalValue The value of the proposal.
+   * @param proposalValue The value of the proposal, encoded by {@link ProposalCodec}.
    * @return A boolean indicating whether the proposal was accepted (true) or rejected (false).
    * @throws RemoteException If a remote communication error occurs.
    */
-  boolean accept(int proposalId, Object proposalValue) throws RemoteException;
+  boolean accept(long slot, long proposalId, byte[] proposalValue) throws RemoteException;
+
+  /**
+   * Grants the proposer holding the given proposal ID a read lease. Until the lease expires the
+   * acceptor does not promise any other proposal ID, so no other proposer can get values chosen.
+   *
+   * @param proposalId     The proposal ID held by the leader asking for the lease.
+   * @param durationMillis How long the lease lasts from the time the acceptor grants it.
+   * @return true if the lease was granted; false if a higher proposal ID has been promised.
+   * @throws RemoteException If a remote communication error occurs.
+   */
+  boolean grantLease(long proposalId, long durationMillis) throws RemoteException;
 }
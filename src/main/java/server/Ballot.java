@@ -0,0 +1,53 @@
+package server;
+
+/**
+ * The {@code Ballot} class builds the proposal IDs of the Paxos rounds. A ballot is a round number
+ * in the high bits and the ID of the proposing server in the low bits, so ballots of different
+ * servers never collide and compare by round first. Every server raises its round above any ballot
+ * it has seen, and persists the rounds it may use, so a ballot is never reused after a restart.
+ */
+final class Ballot {
+
+  static final int SERVER_BITS = 16;
+  // the most servers a ballot can tell apart
+  static final int MAX_SERVERS = 1 << SERVER_BITS;
+
+  private Ballot() {
+  }
+
+  /**
+   * @param round    The round, at least 1.
+   * @param serverId The ID of the proposing server.
+   * @return The ballot of the server in the round.
+   */
+  static long of(long round, int serverId) {
+    if (serverId < 0 || serverId >= MAX_SERVERS) {
+      throw new IllegalArgumentException("Server ID out of ballot range: " + serverId);
+    }
+    return round << SERVER_BITS | serverId;
+  }
+
+  /**
+   * @param ballot A ballot, or -1 for none.
+   * @return The round of the ballot, 0 for none.
+   */
+  static long round(long ballot) {
+    return ballot < 0 ? 0 : ballot >>> SERVER_BITS;
+  }
+
+  /**
+   * @param ballot A ballot.
+   * @return The ID of the server that proposed with the ballot.
+   */
+  static int serverId(long ballot) {
+    return (int) (ballot & (MAX_SERVERS - 1));
+  }
+
+  /**
+   * @param ballot A ballot, or -1 for none.
+   * @return The ballot as round.serverId.
+   */
+  static String toString(long ballot) {
+    return ballot < 0 ? "none" : round(ballot) + "." + serverId(ballot);
+  }
+}
@@ -0,0 +1,228 @@
+package server;
+
+import common.Histogram;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The {@code Batcher} class gathers items submitted concurrently by client requests and hands them
+ * to a proposer as one batch. A batch is closed when it reaches the maximum size or when the batch
+ * window, measured from the arrival of its first item, has elapsed. Batches are committed
+ * asynchronously, up to a maximum number at once, so they use the pipelined slots of the log; while
+ * that many are being committed the next batch keeps filling up.
+ *
+ * @param <T> The type of the batched items.
+ */
+class Batcher<T> {
+
+  /**
+   * Commits one batch of items.
+   *
+   * @param <T> The type of the batched items.
+   */
+  interface BatchProposer<T> {
+
+    /**
+     * Commits the given batch.
+     *
+     * @param batch The items to commit, in submission order.
+     * @return true if the batch was committed; false otherwise
+     * @throws RemoteException If a remote error occurs.
+     */
+    boolean propose(List<T> batch) throws RemoteException;
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(Batcher.class.getName());
+  private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+  private final Histogram batchSizes = new Histogram();
+  private final Histogram waitMicros = new Histogram();
+  private final String name;
+  private final int maxBatchSize;
+  private final long windowNanos;
+  private final BatchProposer<T> proposer;
+  private final Thread flusher;
+  // runs the commits of the batches, at most as many at once as the semaphore has permits
+  private final ExecutorService committer;
+  private final Semaphore inFlight;
+  // guards running against submit, so that no item is queued after the flusher drained the queue
+  private final Object lock = new Object();
+  private volatile boolean running = true;
+  private long lastStatsNanos = System.nanoTime();
+
+  /**
+   * Creates a batcher and starts its flusher thread.
+   *
+   * @param name         The name used for the flusher thread and log lines.
+   * @param maxBatchSize The maximum number of items in one batch.
+   * @param windowMillis How long to wait for more items after the first item of a batch.
+   * @param maxInFlight  The maximum number of batches committed at once.
+   * @param proposer     Commits the batches.
+   */
+  Batcher(String name, int maxBatchSize, long windowMillis, int maxInFlight, BatchProposer<T> proposer) {
+    this.name = name;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.proposer = proposer;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.committer = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+      Thread thread = new Thread(runnable, name + "-batch-commit");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher = new Thread(this::flushLoop, name + "-batcher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Adds an item to the next batch.
+   *
+   * @param item The item to commit.
+   * @return A future completed with the result of the batch holding the item.
+   */
+  CompletableFuture<Boolean> submit(T item) {
+    Pending<T> pending = new Pending<>(item);
+    synchronized (lock) {
+      if (running) {
+        queue.add(pending);
+        return pending.result;
+      }
+    }
+    pending.result.completeExceptionally(new RemoteException(name + " batcher is shut down"));
+    return pending.result;
+  }
+
+  /**
+   * @return The distribution of the number of items per committed batch.
+   */
+  Histogram getBatchSizes() {
+    return batchSizes;
+  }
+
+  /**
+   * @return The distribution of the time, in microseconds, items waited before being proposed.
+   */
+  Histogram getWaitMicros() {
+    return waitMicros;
+  }
+
+  /**
+   * @return A one-line summary of the batch size and wait time distributions.
+   */
+  String summary() {
+    return name + " batch size [" + batchSizes.summary() + "] wait us [" + waitMicros.summary() + "]";
+  }
+
+  /**
+   * Stops the flusher thread. Items still queued are failed; batches being committed complete.
+   */
+  void shutdown() {
+    synchronized (lock) {
+      running = false;
+    }
+    flusher.interrupt();
+    committer.shutdown();
+  }
+
+  private void flushLoop() {
+    while (running) {
+      List<Pending<T>> batch = new ArrayList<>(maxBatchSize);
+      try {
+        // wait for a commit slot first, so the batch keeps filling while all of them are busy
+        inFlight.acquire();
+        Pending<T> first = queue.take();
+        batch.add(first);
+        long deadline = first.enqueuedNanos + windowNanos;
+        while (batch.size() < maxBatchSize) {
+          long remaining = deadline - System.nanoTime();
+          Pending<T> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        fail(batch, new RemoteException(name + " batcher is shut down"));
+        break;
+      }
+      dispatch(batch);
+    }
+    List<Pending<T>> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    fail(remaining, new RemoteException(name + " batcher is shut down"));
+  }
+
+  /**
+   * Hands a closed batch to the committer, holding the commit slot acquired for it until the
+   * commit finished.
+   */
+  private void dispatch(List<Pending<T>> batch) {
+    long now = System.nanoTime();
+    List<T> items = new ArrayList<>(batch.size());
+    for (Pending<T> pending : batch) {
+      items.add(pending.item);
+      waitMicros.record(TimeUnit.NANOSECONDS.toMicros(now - pending.enqueuedNanos));
+    }
+    batchSizes.record(items.size());
+    if (now - lastStatsNanos >= STATS_INTERVAL_NANOS) {
+      lastStatsNanos = now;
+      LOGGER.info(summary());
+    }
+    try {
+      committer.execute(() -> {
+        try {
+          commit(batch, items);
+        } finally {
+          inFlight.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.release();
+      fail(batch, new RemoteException(name + " batcher is shut down"));
+    }
+  }
+
+  private void commit(List<Pending<T>> batch, List<T> items) {
+    try {
+      boolean committed = proposer.propose(items);
+      for (Pending<T> pending : batch) {
+        pending.result.complete(committed);
+      }
+    } catch (Exception e) {
+      LOGGER.warning(name + " batch of " + items.size() + " failed: " + e.getMessage());
+      fail(batch, e);
+    }
+  }
+
+  private void fail(List<Pending<T>> batch, Exception e) {
+    for (Pending<T> pending : batch) {
+      pending.result.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * An item waiting for its batch to be committed.
+   */
+  private static class Pending<T> {
+    final T item;
+    final long enqueuedNanos = System.nanoTime();
+    final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    Pending(T item) {
+      this.item = item;
+    }
+  }
+}
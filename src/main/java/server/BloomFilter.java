@@ -0,0 +1,75 @@
+package server;
+
+/**
+ * The {@code BloomFilter} class answers whether a key may be in a set, with no false negatives
+ * and about 1% false positives at ten bits per key. Positions come from two halves of a 64-bit
+ * FNV-1a hash of the key's chars, combined by double hashing.
+ */
+class BloomFilter {
+
+  static final int BITS_PER_KEY = 10;
+  static final int HASHES = 7;
+  private final long[] words;
+  private final int hashes;
+
+  /**
+   * Create an empty filter.
+   *
+   * @param expectedKeys The number of keys the filter is sized for.
+   */
+  BloomFilter(long expectedKeys) {
+    this(new long[(int) Math.max(1, Math.min(Integer.MAX_VALUE / 64, (expectedKeys * BITS_PER_KEY + 63) / 64))], HASHES);
+  }
+
+  /**
+   * Create a filter from its stored bits.
+   *
+   * @param words  The bits of the filter.
+   * @param hashes The number of positions set per key.
+   */
+  BloomFilter(long[] words, int hashes) {
+    this.words = words;
+    this.hashes = hashes;
+  }
+
+  void add(String key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    long bits = (long) words.length * 64;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bits);
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  boolean mightContain(String key) {
+    long hash = hash(key);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    long bits = (long) words.length * 64;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bits);
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  long[] getWords() {
+    return words;
+  }
+
+  int getHashes() {
+    return hashes;
+  }
+
+  private static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h = (h ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    return h ^ (h >>> 29);
+  }
+}
@@ -0,0 +1,24 @@
+package server;
+
+/**
+ * The {@code Durability} enum lists how the write-ahead log trades write latency against safety.
+ */
+public enum Durability {
+
+  /**
+   * Every record is on disk before it is acknowledged. Records arriving while a sync is in progress
+   * share the next sync.
+   */
+  BATCH,
+
+  /**
+   * Records are acknowledged once written to the file and synced at a fixed interval, so a crash
+   * loses at most one interval of acknowledged records.
+   */
+  PERIODIC,
+
+  /**
+   * Records are acknowledged once written to the file and left to the operating system to sync.
+   */
+  NONE
+}
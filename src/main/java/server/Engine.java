@@ -0,0 +1,30 @@
+package server;
+
+/**
+ * The {@code Engine} enum lists the storage engines a replica can keep its key-value state in.
+ */
+public enum Engine {
+
+  /**
+   * A hash map: the fastest point reads and writes; scans visit every key.
+   */
+  HASH,
+
+  /**
+   * A skip list ordered by key: scans visit only the keys they return.
+   */
+  SORTED,
+
+  /**
+   * Keys and values as bytes in direct memory with an open-addressing index, which keeps the
+   * entries out of the garbage-collected heap; scans visit every key.
+   */
+  OFFHEAP,
+
+  /**
+   * A log-structured merge tree of sorted files on disk, for state larger than memory; the files
+   * are kept under the data directory, or a temporary directory without one. The files do not
+   * survive a restart: the engine is rebuilt from the snapshot and the write-ahead log.
+   */
+  LSM
+}
@@ -0,0 +1,268 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * The {@code EventLog} class records the events of the consensus hot path as fixed-size binary
+ * records, so that proposing, accepting, learning and applying a value never formats a message or
+ * touches a file. Recording an event claims a slot of a preallocated ring buffer with one
+ * compare-and-set and stores four longs into it, without allocating or locking. A drainer thread
+ * copies the published records to a file, and starts a new file once the current one is full,
+ * keeping the most recent few. {@link EventLogDecoder} turns the files back into text.
+ *
+ * <p>When the drainer falls a whole ring behind, new events are dropped instead of waiting, and the
+ * number dropped is recorded once there is room again.
+ *
+ * <p>A record is 32 bytes: the time in nanoseconds since the epoch, the event code, the server ID
+ * and the shard ID packed into one long, and the two numbers of the event. A file starts with a
+ * 16-byte header of the magic number, the format version and the record size.
+ */
+final class EventLog {
+
+  static final int MAGIC = 0x4b564556;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 16;
+  static final int RECORD_BYTES = 32;
+  static final String PREFIX = "events-";
+  static final String SUFFIX = ".bin";
+  private static final Logger LOGGER = Logger.getLogger(EventLog.class.getName());
+  private static final int LONGS_PER_RECORD = RECORD_BYTES / 8;
+  // about 2 MB of records, a few milliseconds of events at full load
+  private static final int DEFAULT_CAPACITY = 1 << 16;
+  private static final long MAX_FILE_BYTES = 64L << 20;
+  private static final int MAX_FILES = 4;
+  private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+  private static final int WRITE_BUFFER_RECORDS = 2048;
+  private static volatile EventLog current;
+  private final Path directory;
+  private final int mask;
+  private final long[] ring;
+  // sequence of the record each slot holds once it is fully written
+  private final AtomicLongArray published;
+  private final AtomicLong claimed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final long epochOffsetNanos;
+  private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_RECORDS * RECORD_BYTES);
+  private final Thread drainer;
+  private volatile long drained;
+  private volatile boolean running = true;
+  private FileChannel file;
+  private long fileIndex;
+  private long fileBytes;
+
+  private EventLog(Path directory, int capacity) throws IOException {
+    this.directory = directory;
+    this.mask = capacity - 1;
+    this.ring = new long[capacity * LONGS_PER_RECORD];
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+    this.epochOffsetNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    Files.createDirectories(directory);
+    List<Long> existing = listFiles(directory);
+    this.fileIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1;
+    openNextFile();
+    this.drainer = new Thread(this::drainLoop, "event-log");
+    this.drainer.setDaemon(true);
+    this.drainer.start();
+  }
+
+  /**
+   * Starts recording events of every server in this process to files in the given directory.
+   *
+   * @param directory The directory of the event files.
+   * @throws IOException If the directory or the first file cannot be created.
+   */
+  static synchronized void start(Path directory) throws IOException {
+    if (current == null) {
+      current = new EventLog(directory, DEFAULT_CAPACITY);
+      LOGGER.info("Recording consensus events to " + directory);
+    }
+  }
+
+  /**
+   * Stops recording, writing out the events recorded so far.
+   */
+  static synchronized void stop() {
+    EventLog log = current;
+    if (log != null) {
+      current = null;
+      log.close();
+    }
+  }
+
+  /**
+   * Records an event; does nothing while the event log is not started.
+   *
+   * @param type     The event.
+   * @param serverId The server the event happened on.
+   * @param shardId  The shard the event belongs to.
+   * @param a        The first number of the event.
+   * @param b        The second number of the event.
+   */
+  static void record(EventType type, int serverId, int shardId, long a, long b) {
+    EventLog log = current;
+    if (log != null) {
+      log.append(type.getCode(), serverId, shardId, a, b);
+    }
+  }
+
+  private void append(int code, int serverId, int shardId, long a, long b) {
+    long sequence;
+    do {
+      sequence = claimed.get();
+      if (sequence - drained > mask) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!claimed.compareAndSet(sequence, sequence + 1));
+    int slot = (int) sequence & mask;
+    int offset = slot * LONGS_PER_RECORD;
+    ring[offset] = epochOffsetNanos + System.nanoTime();
+    ring[offset + 1] = ((long) code << 48) | ((long) (serverId & 0xffff) << 32) | (shardId & 0xffffffffL);
+    ring[offset + 2] = a;
+    ring[offset + 3] = b;
+    // publishes the record written above to the drainer
+    published.lazySet(slot, sequence);
+  }
+
+  private void drainLoop() {
+    while (running) {
+      try {
+        if (!drain()) {
+          LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+        }
+      } catch (IOException e) {
+        LOGGER.warning("Event log write failed, events are discarded: " + e.getMessage());
+        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+      }
+    }
+  }
+
+  /**
+   * Writes the records published so far, in order, stopping at the first one still being written.
+   *
+   * @return true if any record was written.
+   * @throws IOException If the file cannot be written.
+   */
+  private boolean drain() throws IOException {
+    long next = drained;
+    long end = claimed.get();
+    long start = next;
+    while (next < end) {
+      int slot = (int) next & mask;
+      if (published.get(slot) != next) {
+        break;
+      }
+      int offset = slot * LONGS_PER_RECORD;
+      for (int i = 0; i < LONGS_PER_RECORD; i++) {
+        writeBuffer.putLong(ring[offset + i]);
+      }
+      next++;
+      if (!writeBuffer.hasRemaining()) {
+        drained = next;
+        flush();
+      }
+    }
+    drained = next;
+    long lost = dropped.get();
+    if (lost > 0) {
+      // the loop flushes a full buffer, so there is room for one more record
+      dropped.addAndGet(-lost);
+      writeBuffer.putLong(epochOffsetNanos + System.nanoTime()).putLong((long) EventType.DROPPED.getCode() << 48)
+              .putLong(lost).putLong(0);
+    }
+    if (writeBuffer.position() == 0) {
+      return next > start;
+    }
+    flush();
+    return true;
+  }
+
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    if (fileBytes + writeBuffer.remaining() > MAX_FILE_BYTES) {
+      openNextFile();
+    }
+    while (writeBuffer.hasRemaining()) {
+      fileBytes += file.write(writeBuffer);
+    }
+    writeBuffer.clear();
+  }
+
+  /**
+   * Closes the current file, opens the next one and deletes the oldest files beyond the limit.
+   */
+  private void openNextFile() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+    file = FileChannel.open(pathOf(directory, fileIndex++), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0);
+    header.flip();
+    while (header.hasRemaining()) {
+      file.write(header);
+    }
+    fileBytes = HEADER_BYTES;
+    List<Long> files = listFiles(directory);
+    for (int i = 0; i < files.size() - MAX_FILES; i++) {
+      Files.deleteIfExists(pathOf(directory, files.get(i)));
+    }
+  }
+
+  private void close() {
+    running = false;
+    // not interrupted, which would close the file channel in the middle of a write
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(TimeUnit.SECONDS.toMillis(1));
+      drain();
+      file.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOGGER.warning("Event log close failed: " + e.getMessage());
+    }
+  }
+
+  static Path pathOf(Path directory, long index) {
+    return directory.resolve(String.format("%s%08d%s", PREFIX, index, SUFFIX));
+  }
+
+  /**
+   * @param directory A directory of event files.
+   * @return The indexes of the event files in the directory, in the order they were written.
+   * @throws IOException If the directory cannot be listed.
+   */
+  static List<Long> listFiles(Path directory) throws IOException {
+    List<Long> indexes = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+      for (Path path : files) {
+        String name = path.getFileName().toString();
+        try {
+          indexes.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // not an event file
+        }
+      }
+    }
+    Collections.sort(indexes);
+    return indexes;
+  }
+}
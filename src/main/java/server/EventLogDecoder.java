@@ -0,0 +1,96 @@
+package server;
+
+import common.App;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * The {@code EventLogDecoder} class prints the files written by {@link EventLog} as text, one line
+ * per event with its time, shard and message, in the order the events were recorded.
+ */
+public class EventLogDecoder implements App {
+
+  private static final DateTimeFormatter TIME_FORMAT =
+          DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS").withZone(ZoneId.systemDefault());
+  private final List<String> paths;
+
+  /**
+   * Create the decoder of the given event files.
+   *
+   * @param paths Event files, or directories whose event files are decoded oldest first.
+   */
+  public EventLogDecoder(List<String> paths) {
+    this.paths = paths;
+  }
+
+  @Override
+  public void run() {
+    for (String name : paths) {
+      Path path = Paths.get(name);
+      try {
+        if (Files.isDirectory(path)) {
+          for (long index : EventLog.listFiles(path)) {
+            decode(EventLog.pathOf(path, index));
+          }
+        } else {
+          decode(path);
+        }
+      } catch (IOException e) {
+        System.err.println("Unable to read events from " + path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private void decode(Path file) throws IOException {
+    try (InputStream input = Files.newInputStream(file);
+         DataInputStream in = new DataInputStream(new BufferedInputStream(input))) {
+      if (in.readInt() != EventLog.MAGIC) {
+        throw new IOException("not an event file");
+      }
+      int version = in.readInt();
+      int recordBytes = in.readInt();
+      in.readInt();
+      if (version != EventLog.VERSION || recordBytes != EventLog.RECORD_BYTES) {
+        throw new IOException("unsupported event file version " + version);
+      }
+      while (true) {
+        long nanos;
+        long header;
+        long a;
+        long b;
+        try {
+          nanos = in.readLong();
+          header = in.readLong();
+          a = in.readLong();
+          b = in.readLong();
+        } catch (EOFException e) {
+          // the end of the file, or a record cut short when the process stopped
+          return;
+        }
+        System.out.println(format(nanos, header, a, b));
+      }
+    }
+  }
+
+  private static String format(long nanos, long header, long a, long b) {
+    String time = TIME_FORMAT.format(Instant.ofEpochSecond(0, nanos));
+    int code = (int) (header >>> 48);
+    int serverId = (int) (header >>> 32) & 0xffff;
+    int shardId = (int) header;
+    EventType type = EventType.ofCode(code);
+    String message = type != null ? type.format(serverId, a, b) :
+            "Server" + serverId + " unknown event " + code + ": " + a + " " + b;
+    return time + " shard" + shardId + " " + message;
+  }
+}
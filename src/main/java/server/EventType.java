@@ -0,0 +1,91 @@
+package server;
+
+/**
+ * The {@code EventType} enum lists the events of the consensus hot path recorded by
+ * {@link EventLog}. Every event carries two numbers whose meaning depends on its type, and a
+ * template that {@link EventLogDecoder} formats them with: {@code %1$d} is the server ID,
+ * {@code %2$} and {@code %3$} the two numbers. Numbers that are ballots are formatted as
+ * round.serverId and take {@code %s}. Keys are recorded by their hash code. The codes are part of
+ * the file format and must not change.
+ */
+enum EventType {
+  DROPPED(0, "Event log dropped %2$d events"),
+  PUT_RECEIVED(1, "Server%1$d received request: PUT key#%2$08x TTL ms: %3$d"),
+  GET_RECEIVED(2, "Server%1$d received request: GET key#%2$08x"),
+  DELETE_RECEIVED(3, "Server%1$d received request: DELETE key#%2$08x"),
+  MULTI_GET_RECEIVED(4, "Server%1$d received request: MGET of %2$d keys"),
+  MULTI_PUT_RECEIVED(5, "Server%1$d received request: MPUT of %2$d keys"),
+  MULTI_DELETE_RECEIVED(6, "Server%1$d received request: MDELETE of %2$d keys"),
+  SCAN_RECEIVED(7, "Server%1$d received request: SCAN limit %2$d"),
+  FORWARDED(8, "Server%1$d forwarding request to Leader%2$d"),
+  PROPOSAL_ID_GENERATED(9, "Proposer%1$d generated proposal id: %2$s in round %3$d", Ballots.FIRST),
+  PROPOSE_RECEIVED(10, "Proposer%1$d received request above proposal id: %2$s", Ballots.FIRST),
+  PREPARE_SENT(11, "Proposer%1$d sending proposal with proposal id: %2$s to Acceptor%3$d", Ballots.FIRST),
+  PREPARE_RECEIVED(12, "Acceptor%1$d received proposal id: %2$s from slot: %3$d", Ballots.FIRST),
+  PREPARE_REJECTED(13, "Acceptor%1$d: Proposal id %2$s < Promise id %3$s", Ballots.BOTH),
+  PREPARE_REJECTED_LEASE(14, "Acceptor%1$d: Proposal id %2$s rejected during lease of %3$s", Ballots.BOTH),
+  PROMISE_SENT(15, "Acceptor%1$d sending promise id: %2$s", Ballots.FIRST),
+  ACCEPTED(16, "Acceptor%1$d accepted proposal id: %2$s for slot: %3$d", Ballots.FIRST),
+  ACCEPT_REJECTED(17, "Acceptor%1$d: Proposal id %2$s < Promise id %3$s for accept", Ballots.BOTH),
+  CHOSEN(18, "Proposer%1$d Consensus has been reached with proposal id: %2$s for slot: %3$d", Ballots.FIRST),
+  PROPOSAL_ID_RAISED(19, "Proposer%1$d raised proposal id to %2$s above promise id %3$s", Ballots.BOTH),
+  LEARNED(20, "Learner%1$d learned proposal id: %2$s for slot: %3$d", Ballots.FIRST),
+  APPLIED_PUT(21, "Server%1$d PUT key#%2$08x successful at slot: %3$d"),
+  APPLIED_DELETE(22, "Server%1$d DELETE key#%2$08x successful at slot: %3$d"),
+  APPLIED_EXPIRE(23, "Server%1$d EXPIRE key#%2$08x successful at slot: %3$d"),
+  EXPIRY_PROPOSED(24, "Server%1$d expired %2$d keys"),
+  CALL_FAILED(25, "Proposer%1$d call to Replica%2$d failed for proposal id: %3$s", Ballots.SECOND);
+
+  /**
+   * Which of the two numbers of an event are ballots.
+   */
+  private enum Ballots {
+    NONE, FIRST, SECOND, BOTH
+  }
+
+  private static final EventType[] BY_CODE = new EventType[32];
+
+  static {
+    for (EventType type : values()) {
+      BY_CODE[type.code] = type;
+    }
+  }
+
+  private final int code;
+  private final String template;
+  private final Ballots ballots;
+
+  EventType(int code, String template) {
+    this(code, template, Ballots.NONE);
+  }
+
+  EventType(int code, String template, Ballots ballots) {
+    this.code = code;
+    this.template = template;
+    this.ballots = ballots;
+  }
+
+  int getCode() {
+    return code;
+  }
+
+  /**
+   * @param serverId The server that recorded the event.
+   * @param a        The first number of the event.
+   * @param b        The second number of the event.
+   * @return The event as a log message.
+   */
+  String format(int serverId, long a, long b) {
+    Object first = ballots == Ballots.FIRST || ballots == Ballots.BOTH ? Ballot.toString(a) : a;
+    Object second = ballots == Ballots.SECOND || ballots == Ballots.BOTH ? Ballot.toString(b) : b;
+    return String.format(template, serverId, first, second);
+  }
+
+  /**
+   * @param code The code of an event type.
+   * @return The event type, or null if the code is unknown.
+   */
+  static EventType ofCode(int code) {
+    return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+  }
+}
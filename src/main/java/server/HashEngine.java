@@ -0,0 +1,62 @@
+package server;
+
+import common.KeyRanges;
+import common.ScanResult;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code HashEngine} class keeps the state in a concurrent hash map. Point reads and writes
+ * take constant time, but a scan visits every key, keeping only the smallest ones of the range.
+ */
+class HashEngine implements StorageEngine {
+
+  private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+  @Override
+  public String get(String key) {
+    return map.get(key);
+  }
+
+  @Override
+  public void put(String key, String value) {
+    map.put(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    map.remove(key);
+  }
+
+  @Override
+  public long size() {
+    return map.mappingCount();
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> consumer) {
+    map.forEach(consumer);
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) {
+    // one more than the limit tells whether the range continues after the page
+    TreeMap<String, String> smallest = new TreeMap<>();
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      String key = entry.getKey();
+      if (!KeyRanges.contains(key, startKey, endKey)) {
+        continue;
+      }
+      if (smallest.size() <= limit) {
+        smallest.put(key, entry.getValue());
+      } else if (key.compareTo(smallest.lastKey()) < 0) {
+        smallest.pollLastEntry();
+        smallest.put(key, entry.getValue());
+      }
+    }
+    return StorageEngine.page(smallest.entrySet().iterator(), limit);
+  }
+}
@@ -0,0 +1,109 @@
+package server;
+
+import common.InvalidationListener;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * The {@code InvalidationPublisher} class tells the subscribed clients which keys a server applied
+ * writes to, so that they can drop them from their caches. The learner only queues the key; a
+ * pusher thread sends the queued keys to every listener in batches, each key once per batch, so
+ * slow listeners never hold up the log. A listener that fails is dropped, and so is every listener
+ * when they fall too far behind to be told about every key; a client notices either when it
+ * subscribes again and clears its cache.
+ */
+class InvalidationPublisher {
+
+  private static final Logger LOGGER = Logger.getLogger(InvalidationPublisher.class.getName());
+  private static final int MAX_BATCH_KEYS = 1024;
+  private static final int MAX_QUEUED_KEYS = 1 << 16;
+  private final String name;
+  private final Set<InvalidationListener> listeners = ConcurrentHashMap.newKeySet();
+  private final BlockingQueue<String> changed = new LinkedBlockingQueue<>(MAX_QUEUED_KEYS);
+  private Thread pusher;
+  private volatile boolean running = true;
+
+  /**
+   * @param name The name used for the pusher thread and log lines.
+   */
+  InvalidationPublisher(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Subscribes a listener, starting the pusher thread with the first one.
+   *
+   * @param listener The listener to push the changed keys to.
+   * @return true if the listener was not subscribed yet.
+   */
+  boolean subscribe(InvalidationListener listener) {
+    if (!listeners.add(listener)) {
+      return false;
+    }
+    synchronized (this) {
+      if (pusher == null && running) {
+        pusher = new Thread(this::pushLoop, name + "-invalidations");
+        pusher.setDaemon(true);
+        pusher.start();
+      }
+    }
+    LOGGER.info(name + " subscribed a near cache, " + listeners.size() + " subscribed");
+    return true;
+  }
+
+  /**
+   * Queues the invalidation of a key that was written. Does nothing while no client subscribed.
+   *
+   * @param key The key that was written or deleted.
+   */
+  void keyChanged(String key) {
+    if (listeners.isEmpty() || key == null) {
+      return;
+    }
+    if (!changed.offer(key)) {
+      LOGGER.warning(name + " dropped " + listeners.size() + " near cache subscriptions that fell behind!!!");
+      listeners.clear();
+      changed.clear();
+    }
+  }
+
+  private void pushLoop() {
+    List<String> batch = new ArrayList<>();
+    while (running) {
+      try {
+        batch.add(changed.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      changed.drainTo(batch, MAX_BATCH_KEYS - 1);
+      List<String> keys = new ArrayList<>(new LinkedHashSet<>(batch));
+      batch.clear();
+      for (InvalidationListener listener : listeners) {
+        try {
+          listener.invalidate(keys);
+        } catch (RemoteException | RuntimeException e) {
+          listeners.remove(listener);
+          LOGGER.info(name + " dropped a near cache subscription: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the pusher thread; the subscribed clients notice when they subscribe again.
+   */
+  synchronized void shutdown() {
+    running = false;
+    if (pusher != null) {
+      pusher.interrupt();
+    }
+  }
+}
@@ -2,6 +2,7 @@ package server;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Map;
 
 /**
  * The LearnerInterface represents a remote interface that defines
@@ -10,11 +11,24 @@ import java.rmi.RemoteException;
  */
 public interface LearnerInterface extends Remote {
   /**
-   * The learn method is used to inform the Learner of an accepted proposal.
+   * The learn method is used to inform the Learner of an accepted proposal. Learners apply the
+   * chosen values in slot order.
    *
+   * @param slot          The slot of the replicated log.
    * @param proposalId    The unique identifier for the proposal.
-   * @param acceptedValue The value that has been accepted.
+   * @param acceptedValue The value that has been accepted, encoded by {@link ProposalCodec}.
    * @throws RemoteException If a remote invocation error occurs.
    */
-  void learn(int proposalId, Object acceptedValue) throws RemoteException;
+  void learn(long slot, long proposalId, byte[] acceptedValue) throws RemoteException;
+
+  /**
+   * Returns chosen values this learner already applied, so a learner that missed a slot can
+   * catch up.
+   *
+   * @param fromSlot The first slot to return.
+   * @param maxCount The maximum number of slots to return.
+   * @return Chosen values by slot, in slot order, starting at the given slot.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  Map<Long, byte[]> getChosen(long fromSlot, int maxCount) throws RemoteException;
 }
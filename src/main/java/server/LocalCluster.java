@@ -0,0 +1,122 @@
+package server;
+
+import common.App;
+import common.Constants;
+import common.Membership;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+/**
+ * The {@code LocalCluster} class starts every replica of a cluster in its own process on the local
+ * host, for testing a multi-process deployment on one machine. It writes a membership file of
+ * replicas and observers on consecutive ports and starts one {@code -server -cluster <file> -id <n>} process per
+ * replica with the same server options. The processes share this console and are stopped with the
+ * launcher; a replica process that dies is reported and the others keep running.
+ */
+public class LocalCluster implements App {
+
+  private static final Logger LOGGER = Logger.getLogger(LocalCluster.class.getName());
+  private static final String SERVER_LOGGING_PROPERTIES = File.separator + "server-logging.properties";
+  private static final String MAIN_CLASS = "AppRunner";
+  private final int port;
+  private final int replicaCount;
+  private final int observerCount;
+  private final List<String> serverArgs;
+
+  /**
+   * Create the launcher.
+   *
+   * @param port         The port of replica 0; replica i listens on port + i.
+   * @param replicaCount The number of replica processes.
+   * @param serverArgs   The server options passed to every replica process.
+   */
+  public LocalCluster(int port, int replicaCount, List<String> serverArgs) {
+    this(port, replicaCount, 0, serverArgs);
+  }
+
+  /**
+   * Create the launcher of a cluster with observers.
+   *
+   * @param port          The port of replica 0; replica i listens on port + i.
+   * @param replicaCount  The number of voting replica processes.
+   * @param observerCount The number of observer processes, after the voting replicas.
+   * @param serverArgs    The server options passed to every replica process.
+   */
+  public LocalCluster(int port, int replicaCount, int observerCount, List<String> serverArgs) {
+    this.port = port;
+    this.replicaCount = replicaCount;
+    this.observerCount = observerCount;
+    this.serverArgs = new ArrayList<>(serverArgs);
+  }
+
+  @Override
+  public void run() {
+    try {
+      LogManager.getLogManager().readConfiguration(LocalCluster.class.getResourceAsStream(SERVER_LOGGING_PROPERTIES));
+    } catch (IOException e) {
+      System.err.println("Unable to read log properties file!!!");
+    }
+    List<Process> processes = new ArrayList<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      List<Process> started;
+      synchronized (processes) {
+        started = new ArrayList<>(processes);
+      }
+      for (Process process : started) {
+        process.destroy();
+      }
+      for (Process process : started) {
+        try {
+          process.waitFor();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }));
+    try {
+      Membership membership = Membership.local(Constants.LOCAL_HOST, port, replicaCount, observerCount);
+      Path membershipFile = Paths.get(System.getProperty("java.io.tmpdir"), "cluster-" + port + ".conf");
+      membership.save(membershipFile);
+      LOGGER.info("Cluster of " + replicaCount + " replica and " + observerCount + " observer processes, membership file: " +
+              membershipFile);
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      synchronized (processes) {
+        for (int serverId = 0; serverId < membership.size(); serverId++) {
+          List<String> command = new ArrayList<>();
+          command.add(java);
+          command.add("-cp");
+          command.add(System.getProperty("java.class.path"));
+          command.add(MAIN_CLASS);
+          command.add("-server");
+          command.addAll(serverArgs);
+          command.add("-cluster");
+          command.add(membershipFile.toString());
+          command.add("-id");
+          command.add(String.valueOf(serverId));
+          Process process = new ProcessBuilder(command).inheritIO().start();
+          processes.add(process);
+          int id = serverId;
+          process.onExit().thenAccept(exited ->
+                  LOGGER.warning("Server" + id + " process exited with code " + exited.exitValue() + "!!!"));
+          LOGGER.info("Server" + serverId + " started as process " + process.pid());
+        }
+      }
+      for (Process process : processes) {
+        process.waitFor();
+      }
+    } catch (IOException e) {
+      LOGGER.severe("Unable to start the replica processes: " + e.getMessage());
+      System.exit(-1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,490 @@
+package server;
+
+import common.ScanResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+/**
+ * The {@code LsmEngine} class keeps the state in a log-structured merge tree, so it can grow well
+ * beyond the heap. Writes go to a sorted in-memory memtable; a full memtable is frozen and flushed
+ * in the background to an immutable {@link SSTable}, and deletes are written as tombstones that
+ * hide older values. Reads look at the memtable, the frozen memtables and then the tables from
+ * newest to oldest, and the first one holding the key answers; the tables' bloom filters rule out
+ * most files without reading them.
+ *
+ * <p>Tables are compacted size-tiered on a thread of their own: tables fall into tiers growing by
+ * a factor of four from the memtable size, and once four or more adjacent tables share a tier they
+ * are merged into one, keeping the newest value of each key. Tombstones are dropped when the merge
+ * includes the oldest table. When flushes fall behind, writers wait for them.
+ *
+ * <p>The memtables, the frozen memtables and the tables form an immutable version, replaced on
+ * every rotation, flush and compaction. Readers hold a reference to the version they read, so a
+ * table replaced by a compaction is deleted only after its last reader is done.
+ *
+ * <p>The engine is not durable on its own. The tables are neither synced nor recorded in a
+ * manifest, and the engine starts empty, deleting the tables of a previous run. The write-ahead log
+ * and the snapshots of the replica stay the source of truth, and recovery writes the whole snapshot
+ * back into the engine, so a restart takes time in proportion to the data set. Without a data
+ * directory nothing survives a restart, as with the in-memory engines.
+ */
+class LsmEngine implements StorageEngine {
+
+  private static final Logger LOGGER = Logger.getLogger(LsmEngine.class.getName());
+  /**
+   * The value standing for a deleted key in memtables and table iterators; compared by identity.
+   */
+  static final String TOMBSTONE = new String("<tombstone>");
+  static final long MEMTABLE_BYTES = 4 << 20;
+  // frozen memtables waiting for a flush before writers are held back
+  private static final int MAX_FROZEN_MEMTABLES = 4;
+  private static final int TIER_FACTOR = 4;
+  private static final int MERGE_WIDTH = 4;
+  // rough per-entry cost of a skip list node and two strings, on top of their chars
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+  private static final String TABLE_PREFIX = "table-";
+  private static final String TABLE_SUFFIX = ".sst";
+  private final Path directory;
+  private final String name;
+  private final ExecutorService flushExecutor;
+  private final ExecutorService compactionExecutor;
+  private final AtomicInteger nextTableId = new AtomicInteger();
+  private volatile Version current;
+  // guarded by this
+  private long memtableBytes;
+  private volatile boolean closed;
+
+  /**
+   * Create an empty engine.
+   *
+   * @param directory The directory for the tables; tables left there by a previous run are deleted.
+   * @param name      The name of the replica, for thread names and logs.
+   * @throws IOException If the directory cannot be prepared.
+   */
+  LsmEngine(Path directory, String name) throws IOException {
+    this.directory = directory;
+    this.name = name;
+    Files.createDirectories(directory);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, TABLE_PREFIX + "*" + TABLE_SUFFIX)) {
+      for (Path path : files) {
+        Files.delete(path);
+      }
+    }
+    this.flushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-lsm-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-lsm-compaction");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.current = new Version(new ConcurrentSkipListMap<>(), Collections.emptyList(), Collections.emptyList());
+  }
+
+  @Override
+  public String get(String key) {
+    Version version = acquire();
+    try {
+      String value = version.memtable.get(key);
+      for (int i = 0; value == null && i < version.frozen.size(); i++) {
+        value = version.frozen.get(i).get(key);
+      }
+      for (int i = 0; value == null && i < version.tables.size(); i++) {
+        value = version.tables.get(i).get(key);
+      }
+      return value == TOMBSTONE ? null : value;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      version.release();
+    }
+  }
+
+  @Override
+  public void put(String key, String value) {
+    write(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    write(key, TOMBSTONE);
+  }
+
+  private synchronized void write(String key, String value) {
+    current.memtable.put(key, value);
+    memtableBytes += 2L * (key.length() + value.length()) + ENTRY_OVERHEAD_BYTES;
+    if (memtableBytes < MEMTABLE_BYTES) {
+      return;
+    }
+    while (current.frozen.size() >= MAX_FROZEN_MEMTABLES && !closed) {
+      // flushes fell behind: hold the writer back instead of growing the heap
+      try {
+        wait(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    ConcurrentSkipListMap<String, String> full = current.memtable;
+    List<ConcurrentSkipListMap<String, String>> frozen = new ArrayList<>();
+    frozen.add(full);
+    frozen.addAll(current.frozen);
+    install(new Version(new ConcurrentSkipListMap<>(), frozen, current.tables));
+    memtableBytes = 0;
+    flushExecutor.execute(() -> flush(full));
+  }
+
+  /**
+   * Writes a frozen memtable to a table and replaces the one by the other.
+   */
+  private void flush(ConcurrentSkipListMap<String, String> memtable) {
+    try {
+      long start = System.nanoTime();
+      SSTable table = SSTable.write(nextTablePath(), memtable.entrySet().iterator(), memtable.size(), false);
+      synchronized (this) {
+        List<ConcurrentSkipListMap<String, String>> frozen = new ArrayList<>(current.frozen);
+        frozen.removeIf(map -> map == memtable);
+        List<SSTable> tables = new ArrayList<>();
+        if (table != null) {
+          tables.add(table);
+        }
+        tables.addAll(current.tables);
+        install(new Version(current.memtable, frozen, tables));
+        notifyAll();
+      }
+      LOGGER.info(name + " flushed " + memtable.size() + " keys in " +
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms!!!");
+      if (!closed) {
+        compactionExecutor.execute(this::compact);
+      }
+    } catch (IOException | RuntimeException e) {
+      // the memtable stays frozen and readable, so nothing is lost until the replica reloads
+      LOGGER.severe(name + " failed to flush a memtable: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Merges runs of adjacent tables of the same tier until none is left.
+   */
+  private void compact() {
+    while (!closed) {
+      Version version = acquire();
+      try {
+        List<SSTable> tables = version.tables;
+        int[] run = pickRun(tables);
+        if (run == null) {
+          return;
+        }
+        List<SSTable> inputs = new ArrayList<>(tables.subList(run[0], run[1]));
+        boolean bottom = run[1] == tables.size();
+        long expected = 0;
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        for (SSTable table : inputs) {
+          expected += table.getEntryCount();
+          sources.add(table.iterator(null));
+        }
+        long start = System.nanoTime();
+        SSTable merged = SSTable.write(nextTablePath(), new MergingIterator(sources, null), expected, bottom);
+        synchronized (this) {
+          // flushes only add newer tables meanwhile, so the run is still adjacent
+          List<SSTable> replaced = new ArrayList<>(current.tables);
+          int at = replaced.indexOf(inputs.get(0));
+          replaced.subList(at, at + inputs.size()).clear();
+          if (merged != null) {
+            replaced.add(at, merged);
+          }
+          install(new Version(current.memtable, current.frozen, replaced));
+        }
+        LOGGER.info(name + " compacted " + inputs.size() + " tables of " + expected + " entries in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms!!!");
+      } catch (IOException | RuntimeException e) {
+        LOGGER.severe(name + " compaction failed: " + e.getMessage());
+        return;
+      } finally {
+        version.release();
+      }
+    }
+  }
+
+  /**
+   * @param tables The tables from newest to oldest.
+   * @return The bounds, from inclusive to exclusive, of the newest run of at least
+   *     {@link #MERGE_WIDTH} adjacent tables of the same tier, or null if there is none.
+   */
+  private static int[] pickRun(List<SSTable> tables) {
+    int start = 0;
+    for (int i = 1; i <= tables.size(); i++) {
+      if (i == tables.size() || tierOf(tables.get(i)) != tierOf(tables.get(start))) {
+        if (i - start >= MERGE_WIDTH) {
+          return new int[] {start, i};
+        }
+        start = i;
+      }
+    }
+    return null;
+  }
+
+  private static int tierOf(SSTable table) {
+    int tier = 0;
+    for (long bound = MEMTABLE_BYTES * TIER_FACTOR; table.getSizeBytes() >= bound && tier < 30; bound *= TIER_FACTOR) {
+      tier++;
+    }
+    return tier;
+  }
+
+  private Path nextTablePath() {
+    return directory.resolve(String.format("%s%08d%s", TABLE_PREFIX, nextTableId.incrementAndGet(), TABLE_SUFFIX));
+  }
+
+  @Override
+  public long size() {
+    // an estimate: keys overwritten or deleted in a newer table are counted in the older ones too
+    Version version = acquire();
+    try {
+      long count = version.memtable.size();
+      for (ConcurrentSkipListMap<String, String> frozen : version.frozen) {
+        count += frozen.size();
+      }
+      for (SSTable table : version.tables) {
+        count += table.getEntryCount();
+      }
+      return count;
+    } finally {
+      version.release();
+    }
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> consumer) {
+    Version version = acquire();
+    try {
+      Iterator<Map.Entry<String, String>> entries = version.iterator(null, null);
+      while (entries.hasNext()) {
+        Map.Entry<String, String> entry = entries.next();
+        consumer.accept(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      version.release();
+    }
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) {
+    Version version = acquire();
+    try {
+      return StorageEngine.page(version.iterator(startKey, endKey), limit);
+    } finally {
+      version.release();
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    flushExecutor.shutdown();
+    compactionExecutor.shutdown();
+    try {
+      flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      current.release();
+    }
+    try {
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      // a table still open by a reader, or files that are not ours; left in place
+    }
+  }
+
+  private Version acquire() {
+    while (true) {
+      Version version = current;
+      if (version.tryRetain()) {
+        return version;
+      }
+    }
+  }
+
+  /**
+   * Makes a version current, dropping the reference the engine held on the previous one.
+   */
+  private void install(Version version) {
+    Version previous = current;
+    current = version;
+    previous.release();
+  }
+
+  /**
+   * The memtables and tables of the engine at one point in time, newest first.
+   */
+  private static class Version {
+    final ConcurrentSkipListMap<String, String> memtable;
+    final List<ConcurrentSkipListMap<String, String>> frozen;
+    final List<SSTable> tables;
+    // one reference held by the engine while the version is current, one per reader
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    Version(ConcurrentSkipListMap<String, String> memtable, List<ConcurrentSkipListMap<String, String>> frozen,
+            List<SSTable> tables) {
+      this.memtable = memtable;
+      this.frozen = Collections.unmodifiableList(frozen);
+      this.tables = Collections.unmodifiableList(tables);
+      for (SSTable table : tables) {
+        table.retain();
+      }
+    }
+
+    boolean tryRetain() {
+      while (true) {
+        int count = refs.get();
+        if (count == 0) {
+          return false;
+        }
+        if (refs.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void release() {
+      if (refs.decrementAndGet() == 0) {
+        for (SSTable table : tables) {
+          table.release();
+        }
+      }
+    }
+
+    /**
+     * @return The live entries of a key range in key order, without tombstones.
+     */
+    Iterator<Map.Entry<String, String>> iterator(String startKey, String endKey) {
+      List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+      sources.add(range(memtable, startKey));
+      for (ConcurrentSkipListMap<String, String> map : frozen) {
+        sources.add(range(map, startKey));
+      }
+      for (SSTable table : tables) {
+        sources.add(table.iterator(startKey));
+      }
+      Iterator<Map.Entry<String, String>> merged = new MergingIterator(sources, endKey);
+      return new Iterator<Map.Entry<String, String>>() {
+        private Map.Entry<String, String> next = advance();
+
+        private Map.Entry<String, String> advance() {
+          while (merged.hasNext()) {
+            Map.Entry<String, String> entry = merged.next();
+            if (entry.getValue() != TOMBSTONE) {
+              return entry;
+            }
+          }
+          return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          Map.Entry<String, String> current = next;
+          next = advance();
+          return current;
+        }
+      };
+    }
+
+    private static Iterator<Map.Entry<String, String>> range(ConcurrentSkipListMap<String, String> map, String startKey) {
+      return (startKey == null ? map : map.tailMap(startKey, true)).entrySet().iterator();
+    }
+  }
+
+  /**
+   * Merges sorted sources into one sorted sequence. Where several sources hold a key, the entry of
+   * the source listed first, the newest, wins.
+   */
+  private static class MergingIterator implements Iterator<Map.Entry<String, String>> {
+    private final PriorityQueue<Source> queue = new PriorityQueue<>(
+            Comparator.<Source, String>comparing(source -> source.head.getKey()).thenComparingInt(source -> source.rank));
+    private final String endKey;
+
+    MergingIterator(List<Iterator<Map.Entry<String, String>>> sources, String endKey) {
+      this.endKey = endKey;
+      for (int rank = 0; rank < sources.size(); rank++) {
+        Source source = new Source(sources.get(rank), rank);
+        if (source.advance()) {
+          queue.add(source);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !queue.isEmpty() && (endKey == null || queue.peek().head.getKey().compareTo(endKey) < 0);
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Source newest = queue.poll();
+      Map.Entry<String, String> entry = newest.head;
+      while (!queue.isEmpty() && queue.peek().head.getKey().equals(entry.getKey())) {
+        Source older = queue.poll();
+        if (older.advance()) {
+          queue.add(older);
+        }
+      }
+      if (newest.advance()) {
+        queue.add(newest);
+      }
+      return entry;
+    }
+
+    private static class Source {
+      final Iterator<Map.Entry<String, String>> entries;
+      final int rank;
+      Map.Entry<String, String> head;
+
+      Source(Iterator<Map.Entry<String, String>> entries, int rank) {
+        this.entries = entries;
+        this.rank = rank;
+      }
+
+      boolean advance() {
+        head = entries.hasNext() ? entries.next() : null;
+        return head != null;
+      }
+    }
+  }
+}
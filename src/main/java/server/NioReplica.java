@@ -0,0 +1,121 @@
+package server;
+
+import common.NioClient;
+import common.NioKVStore;
+import common.ScanResult;
+import common.Wire;
+
+import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code NioReplica} class calls the proposer, acceptor and learner of one shard of another
+ * replica over the binary transport. {@link ReplicaDispatcher} serves these calls on the other side.
+ */
+public class NioReplica implements ProposerInterface, AcceptorInterface, LearnerInterface {
+
+  static final byte PROPOSE = 16;
+  static final byte LEADER_ELECTED = 17;
+  static final byte LEADER_READ = 18;
+  static final byte PREPARE = 19;
+  static final byte ACCEPT = 20;
+  static final byte GRANT_LEASE = 21;
+  static final byte LEARN = 22;
+  static final byte GET_CHOSEN = 23;
+  static final byte LEADER_MULTI_READ = 24;
+  static final byte LEADER_SCAN = 25;
+  private final NioClient client;
+  private final int shardId;
+
+  /**
+   * Create a replica stub.
+   *
+   * @param client  The client connected to the replica, shared by the stubs of all shards.
+   * @param shardId The shard whose Paxos group is called.
+   */
+  public NioReplica(NioClient client, int shardId) {
+    this.client = client;
+    this.shardId = shardId;
+  }
+
+  @Override
+  public boolean propose(long seenBallot, byte[] proposalValue) throws RemoteException {
+    return client.invoke(PROPOSE, out -> out.putInt(shardId).putLong(seenBallot).putBytes(proposalValue)).getBoolean();
+  }
+
+  @Override
+  public void leaderElected(int leaderId, long ballot) throws RemoteException {
+    client.invoke(LEADER_ELECTED, out -> out.putInt(shardId).putInt(leaderId).putLong(ballot));
+  }
+
+  @Override
+  public String leaderRead(String key) throws RemoteException {
+    return client.invoke(LEADER_READ, out -> out.putInt(shardId).putString(key)).getString();
+  }
+
+  @Override
+  public Map<String, String> leaderMultiRead(List<String> keys) throws RemoteException {
+    return client.invoke(LEADER_MULTI_READ, out -> out.putInt(shardId).putStrings(keys)).getStringMap();
+  }
+
+  @Override
+  public ScanResult leaderScan(String startKey, String endKey, int limit) throws RemoteException {
+    return NioKVStore.readScan(client.invoke(LEADER_SCAN, out -> out.putInt(shardId).putString(startKey).putString(endKey).putInt(limit)));
+  }
+
+  @Override
+  public Promise prepare(long proposalId, long fromSlot) throws RemoteException {
+    return readPromise(client.invoke(PREPARE, out -> out.putInt(shardId).putLong(proposalId).putLong(fromSlot)));
+  }
+
+  @Override
+  public boolean accept(long slot, long proposalId, byte[] proposalValue) throws RemoteException {
+    return client.invoke(ACCEPT, out -> out.putInt(shardId).putLong(slot).putLong(proposalId).putBytes(proposalValue)).getBoolean();
+  }
+
+  @Override
+  public boolean grantLease(long proposalId, long durationMillis) throws RemoteException {
+    return client.invoke(GRANT_LEASE, out -> out.putInt(shardId).putLong(proposalId).putLong(durationMillis)).getBoolean();
+  }
+
+  @Override
+  public void learn(long slot, long proposalId, byte[] acceptedValue) throws RemoteException {
+    client.invoke(LEARN, out -> out.putInt(shardId).putLong(slot).putLong(proposalId).putBytes(acceptedValue));
+  }
+
+  @Override
+  public Map<Long, byte[]> getChosen(long fromSlot, int maxCount) throws RemoteException {
+    Wire.Reader in = client.invoke(GET_CHOSEN, out -> out.putInt(shardId).putLong(fromSlot).putInt(maxCount));
+    int count = in.getInt();
+    Map<Long, byte[]> chosen = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      chosen.put(in.getLong(), in.getBytes());
+    }
+    return chosen;
+  }
+
+  static void writePromise(Wire.Writer out, Promise promise) {
+    out.putBoolean(promise.isGranted()).putLong(promise.getPromiseId()).putLong(promise.getCompactedThrough());
+    Map<Long, AcceptedValue> acceptedValues = promise.getAcceptedValues();
+    out.putInt(acceptedValues.size());
+    for (Map.Entry<Long, AcceptedValue> entry : acceptedValues.entrySet()) {
+      out.putLong(entry.getKey()).putLong(entry.getValue().getProposalId()).putBytes(entry.getValue().getValue());
+    }
+  }
+
+  private static Promise readPromise(Wire.Reader in) {
+    boolean granted = in.getBoolean();
+    long promiseId = in.getLong();
+    long compactedThrough = in.getLong();
+    int count = in.getInt();
+    Map<Long, AcceptedValue> acceptedValues = new TreeMap<>();
+    for (int i = 0; i < count; i++) {
+      long slot = in.getLong();
+      acceptedValues.put(slot, new AcceptedValue(in.getLong(), in.getBytes()));
+    }
+    return new Promise(granted, promiseId, acceptedValues, compactedThrough);
+  }
+}
@@ -0,0 +1,514 @@
+package server;
+
+import common.KeyRanges;
+import common.ScanResult;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code OffHeapEngine} class keeps keys and values as UTF-8 bytes in direct memory, so the
+ * garbage collector sees a handful of buffers instead of two strings and a map node per entry.
+ *
+ * <p>Records live in slabs of direct memory, each as a header with its block size and the key and
+ * value lengths, followed by the key and the value bytes. Blocks are rounded to size classes: every
+ * multiple of 8 bytes up to 1 KB, then powers of two. A freed block is pushed on the free list of
+ * its class, linked through its own bytes, and reused by the next record of that class before the
+ * slab is extended. The index is an open-addressing table with linear probing, also in direct
+ * memory, holding the address and the key hash of each record; deletions shift the following
+ * entries back instead of leaving tombstones.
+ *
+ * <p>A lookup encodes the key into a per-thread buffer and compares it with the stored bytes, so
+ * the only allocation of a {@code get} is the returned string. Writes take the write lock and reads
+ * the read lock. A full pass for a snapshot or a scan copies the index under the read lock and
+ * reads the records without it; while such a pass runs, blocks are neither freed nor overwritten
+ * in place, so the records it copied stay intact.
+ */
+class OffHeapEngine implements StorageEngine {
+
+  private static final int INITIAL_SLAB_BYTES = 1 << 20;
+  private static final int MAX_SLAB_BYTES = 1 << 26;
+  private static final int ALIGNMENT = 8;
+  private static final int MIN_BLOCK = 16;
+  private static final int MAX_SMALL_BLOCK = 1024;
+  private static final int SMALL_CLASSES = MAX_SMALL_BLOCK / ALIGNMENT;
+  private static final int HEADER_BYTES = 12;
+  private static final int BLOCK_SIZE_OFFSET = 0;
+  private static final int KEY_LENGTH_OFFSET = 4;
+  private static final int VALUE_LENGTH_OFFSET = 8;
+  // a free block keeps its size and links to the next free block of its class
+  private static final int NEXT_FREE_OFFSET = 4;
+  private static final long NIL = -1;
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final int MAX_CAPACITY = 1 << 27;
+  private static final double MAX_LOAD = 0.7;
+  // per-thread buffers that grew past this size are not kept for the next call
+  private static final int MAX_RETAINED_BUFFER = 1 << 20;
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // replaced, not modified, when a slab is added, so passes without the lock see a stable array
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+  // views of the slabs for bulk writes; guarded by the write lock
+  private ByteBuffer[] writeViews = new ByteBuffer[0];
+  private int slabTop;
+  private final long[] freeLists = new long[SMALL_CLASSES + Integer.numberOfTrailingZeros(MAX_SLAB_BYTES) - 9];
+  // blocks freed while a full pass runs, released when it ends; kept on the heap because the pass
+  // may still read their headers
+  private long[] deferredFree = new long[16];
+  private int deferredCount;
+  private final AtomicInteger passes = new AtomicInteger();
+  // index slots: the record address plus one, 0 for an empty slot, and the hash of its key
+  private ByteBuffer addresses;
+  private ByteBuffer hashes;
+  private int capacity;
+  private long count;
+
+  OffHeapEngine() {
+    Arrays.fill(freeLists, NIL);
+    allocateIndex(INITIAL_CAPACITY);
+  }
+
+  @Override
+  public String get(String key) {
+    Scratch scratch = SCRATCH.get();
+    int keyLength = scratch.encodeKey(key);
+    int hash = hash(scratch.key, keyLength);
+    lock.readLock().lock();
+    try {
+      int slot = find(scratch.key, keyLength, hash);
+      if (slot < 0) {
+        return null;
+      }
+      long address = addresses.getLong(slot * 8) - 1;
+      ByteBuffer slab = slabs[slabOf(address)];
+      int offset = offsetOf(address);
+      int keyBytes = slab.getInt(offset + KEY_LENGTH_OFFSET);
+      return scratch.decode(slab, offset + HEADER_BYTES + keyBytes, slab.getInt(offset + VALUE_LENGTH_OFFSET));
+    } finally {
+      lock.readLock().unlock();
+      scratch.reset();
+    }
+  }
+
+  @Override
+  public void put(String key, String value) {
+    Scratch scratch = SCRATCH.get();
+    int keyLength = scratch.encodeKey(key);
+    byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(scratch.key, keyLength);
+    int blockSize = blockSize(HEADER_BYTES + keyLength + valueBytes.length);
+    lock.writeLock().lock();
+    try {
+      int slot = find(scratch.key, keyLength, hash);
+      if (slot >= 0) {
+        long old = addresses.getLong(slot * 8) - 1;
+        if (passes.get() == 0 && slabs[slabOf(old)].getInt(offsetOf(old) + BLOCK_SIZE_OFFSET) == blockSize) {
+          writeRecord(old, blockSize, scratch.key, keyLength, valueBytes);
+          return;
+        }
+        long address = allocate(blockSize);
+        writeRecord(address, blockSize, scratch.key, keyLength, valueBytes);
+        addresses.putLong(slot * 8, address + 1);
+        free(old);
+        return;
+      }
+      if (count + 1 > capacity * MAX_LOAD) {
+        resize();
+        slot = find(scratch.key, keyLength, hash);
+      }
+      long address = allocate(blockSize);
+      writeRecord(address, blockSize, scratch.key, keyLength, valueBytes);
+      slot = -slot - 1;
+      addresses.putLong(slot * 8, address + 1);
+      hashes.putInt(slot * 4, hash);
+      count++;
+    } finally {
+      lock.writeLock().unlock();
+      scratch.reset();
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    Scratch scratch = SCRATCH.get();
+    int keyLength = scratch.encodeKey(key);
+    int hash = hash(scratch.key, keyLength);
+    lock.writeLock().lock();
+    try {
+      int slot = find(scratch.key, keyLength, hash);
+      if (slot >= 0) {
+        free(addresses.getLong(slot * 8) - 1);
+        removeSlot(slot);
+        count--;
+      }
+    } finally {
+      lock.writeLock().unlock();
+      scratch.reset();
+    }
+  }
+
+  @Override
+  public long size() {
+    lock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return The bytes of the slabs handed out to blocks so far, whether the blocks are in use or
+   * on a free list.
+   */
+  long allocatedBytes() {
+    lock.readLock().lock();
+    try {
+      ByteBuffer[] current = slabs;
+      long bytes = slabTop;
+      for (int i = 0; i < current.length - 1; i++) {
+        bytes += current[i].capacity();
+      }
+      return bytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> consumer) {
+    long[] records = startPass();
+    try {
+      Scratch scratch = SCRATCH.get();
+      ByteBuffer[] current = slabs;
+      for (long address : records) {
+        ByteBuffer slab = current[slabOf(address)];
+        int offset = offsetOf(address);
+        int keyBytes = slab.getInt(offset + KEY_LENGTH_OFFSET);
+        String key = scratch.decode(slab, offset + HEADER_BYTES, keyBytes);
+        consumer.accept(key, scratch.decode(slab, offset + HEADER_BYTES + keyBytes, slab.getInt(offset + VALUE_LENGTH_OFFSET)));
+      }
+    } finally {
+      endPass();
+    }
+  }
+
+  /**
+   * Visits every key like {@link HashEngine#scan}, keeping the smallest ones of the range; only
+   * their values are decoded.
+   */
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) {
+    long[] records = startPass();
+    try {
+      Scratch scratch = SCRATCH.get();
+      ByteBuffer[] current = slabs;
+      TreeMap<String, Long> smallest = new TreeMap<>();
+      for (long address : records) {
+        ByteBuffer slab = current[slabOf(address)];
+        int offset = offsetOf(address);
+        String key = scratch.decode(slab, offset + HEADER_BYTES, slab.getInt(offset + KEY_LENGTH_OFFSET));
+        if (!KeyRanges.contains(key, startKey, endKey)) {
+          continue;
+        }
+        if (smallest.size() <= limit) {
+          smallest.put(key, address);
+        } else if (key.compareTo(smallest.lastKey()) < 0) {
+          smallest.pollLastEntry();
+          smallest.put(key, address);
+        }
+      }
+      TreeMap<String, String> entries = new TreeMap<>();
+      for (Map.Entry<String, Long> entry : smallest.entrySet()) {
+        long address = entry.getValue();
+        ByteBuffer slab = current[slabOf(address)];
+        int offset = offsetOf(address);
+        int keyBytes = slab.getInt(offset + KEY_LENGTH_OFFSET);
+        entries.put(entry.getKey(), scratch.decode(slab, offset + HEADER_BYTES + keyBytes, slab.getInt(offset + VALUE_LENGTH_OFFSET)));
+      }
+      return StorageEngine.page(entries.entrySet().iterator(), limit);
+    } finally {
+      endPass();
+    }
+  }
+
+  /**
+   * Copies the addresses of all records and keeps their blocks from being freed or overwritten
+   * until {@link #endPass()}.
+   *
+   * @return The addresses of all records.
+   */
+  private long[] startPass() {
+    lock.readLock().lock();
+    try {
+      long[] records = new long[(int) count];
+      int next = 0;
+      for (int slot = 0; slot < capacity; slot++) {
+        long address = addresses.getLong(slot * 8);
+        if (address != 0) {
+          records[next++] = address - 1;
+        }
+      }
+      passes.incrementAndGet();
+      return records;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void endPass() {
+    lock.writeLock().lock();
+    try {
+      if (passes.decrementAndGet() == 0) {
+        for (int i = 0; i < deferredCount; i++) {
+          free(deferredFree[i]);
+        }
+        deferredCount = 0;
+        if (deferredFree.length > MAX_RETAINED_BUFFER / 8) {
+          deferredFree = new long[16];
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Looks a key up in the index.
+   *
+   * @return The slot of the key, or -(slot + 1) for the empty slot it would be inserted at.
+   */
+  private int find(byte[] key, int keyLength, int hash) {
+    int mask = capacity - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      long address = addresses.getLong(slot * 8);
+      if (address == 0) {
+        return -slot - 1;
+      }
+      if (hashes.getInt(slot * 4) == hash && keyEquals(address - 1, key, keyLength)) {
+        return slot;
+      }
+    }
+  }
+
+  private boolean keyEquals(long address, byte[] key, int keyLength) {
+    ByteBuffer slab = slabs[slabOf(address)];
+    int offset = offsetOf(address);
+    if (slab.getInt(offset + KEY_LENGTH_OFFSET) != keyLength) {
+      return false;
+    }
+    int start = offset + HEADER_BYTES;
+    for (int i = 0; i < keyLength; i++) {
+      if (slab.get(start + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Empties a slot, moving back the following entries of the probe run that would otherwise no
+   * longer be found from their home slot.
+   */
+  private void removeSlot(int slot) {
+    int mask = capacity - 1;
+    int hole = slot;
+    for (int next = (slot + 1) & mask; ; next = (next + 1) & mask) {
+      long address = addresses.getLong(next * 8);
+      if (address == 0) {
+        break;
+      }
+      int hash = hashes.getInt(next * 4);
+      int home = hash & mask;
+      boolean homeAfterHole = hole <= next ? home > hole && home <= next : home > hole || home <= next;
+      if (!homeAfterHole) {
+        addresses.putLong(hole * 8, address);
+        hashes.putInt(hole * 4, hash);
+        hole = next;
+      }
+    }
+    addresses.putLong(hole * 8, 0);
+    hashes.putInt(hole * 4, 0);
+  }
+
+  private void resize() {
+    if (capacity >= MAX_CAPACITY) {
+      throw new IllegalStateException("Off-heap index is full at " + count + " keys");
+    }
+    ByteBuffer oldAddresses = addresses;
+    ByteBuffer oldHashes = hashes;
+    int oldCapacity = capacity;
+    allocateIndex(capacity * 2);
+    int mask = capacity - 1;
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      long address = oldAddresses.getLong(slot * 8);
+      if (address == 0) {
+        continue;
+      }
+      int hash = oldHashes.getInt(slot * 4);
+      int target = hash & mask;
+      while (addresses.getLong(target * 8) != 0) {
+        target = (target + 1) & mask;
+      }
+      addresses.putLong(target * 8, address);
+      hashes.putInt(target * 4, hash);
+    }
+  }
+
+  private void allocateIndex(int newCapacity) {
+    capacity = newCapacity;
+    addresses = ByteBuffer.allocateDirect(newCapacity * 8);
+    hashes = ByteBuffer.allocateDirect(newCapacity * 4);
+  }
+
+  /**
+   * Takes a block from the free list of its class, or from the end of the newest slab, adding a
+   * slab when the block does not fit.
+   */
+  private long allocate(int blockSize) {
+    int sizeClass = sizeClass(blockSize);
+    long head = freeLists[sizeClass];
+    if (head != NIL) {
+      freeLists[sizeClass] = slabs[slabOf(head)].getLong(offsetOf(head) + NEXT_FREE_OFFSET);
+      return head;
+    }
+    ByteBuffer[] current = slabs;
+    if (current.length == 0 || slabTop + blockSize > current[current.length - 1].capacity()) {
+      // slabs start small so that an idle replica holds little memory, and double up to the maximum
+      int slabBytes = Math.max(blockSize, Math.min(MAX_SLAB_BYTES, INITIAL_SLAB_BYTES << Math.min(current.length, 6)));
+      ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+      grown[current.length] = ByteBuffer.allocateDirect(slabBytes);
+      writeViews = Arrays.copyOf(writeViews, grown.length);
+      writeViews[current.length] = grown[current.length].duplicate();
+      slabTop = 0;
+      slabs = grown;
+    }
+    long address = ((long) (slabs.length - 1) << 32) | slabTop;
+    slabTop += blockSize;
+    return address;
+  }
+
+  private void free(long address) {
+    ByteBuffer slab = slabs[slabOf(address)];
+    int offset = offsetOf(address);
+    if (passes.get() > 0) {
+      if (deferredCount == deferredFree.length) {
+        deferredFree = Arrays.copyOf(deferredFree, deferredCount * 2);
+      }
+      deferredFree[deferredCount++] = address;
+      return;
+    }
+    int sizeClass = sizeClass(slab.getInt(offset + BLOCK_SIZE_OFFSET));
+    slab.putLong(offset + NEXT_FREE_OFFSET, freeLists[sizeClass]);
+    freeLists[sizeClass] = address;
+  }
+
+  private void writeRecord(long address, int blockSize, byte[] key, int keyLength, byte[] value) {
+    ByteBuffer slab = slabs[slabOf(address)];
+    int offset = offsetOf(address);
+    slab.putInt(offset + BLOCK_SIZE_OFFSET, blockSize);
+    slab.putInt(offset + KEY_LENGTH_OFFSET, keyLength);
+    slab.putInt(offset + VALUE_LENGTH_OFFSET, value.length);
+    ByteBuffer view = writeViews[slabOf(address)];
+    view.clear().position(offset + HEADER_BYTES);
+    view.put(key, 0, keyLength).put(value);
+  }
+
+  /**
+   * @param recordBytes The bytes of a record.
+   * @return The size of the block holding it.
+   * @throws IllegalArgumentException If the record is larger than a slab.
+   */
+  private static int blockSize(int recordBytes) {
+    if (recordBytes > MAX_SLAB_BYTES || recordBytes < 0) {
+      throw new IllegalArgumentException("Entry of " + recordBytes + " bytes exceeds the off-heap slab size");
+    }
+    if (recordBytes <= MAX_SMALL_BLOCK) {
+      return Math.max(MIN_BLOCK, (recordBytes + ALIGNMENT - 1) & -ALIGNMENT);
+    }
+    return Integer.highestOneBit(recordBytes - 1) << 1;
+  }
+
+  private static int sizeClass(int blockSize) {
+    if (blockSize <= MAX_SMALL_BLOCK) {
+      return blockSize / ALIGNMENT - 1;
+    }
+    return SMALL_CLASSES + Integer.numberOfTrailingZeros(blockSize) - 11;
+  }
+
+  private static int slabOf(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static int offsetOf(long address) {
+    return (int) address;
+  }
+
+  // FNV-1a, then spread so that the low bits used by the index depend on every byte
+  private static int hash(byte[] key, int length) {
+    int h = 0x811c9dc5;
+    for (int i = 0; i < length; i++) {
+      h = (h ^ key[i]) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    return h ^ (h >>> 13);
+  }
+
+  /**
+   * Per-thread buffers for encoding keys and decoding stored bytes.
+   */
+  private static class Scratch {
+    private byte[] key = new byte[64];
+    private byte[] bytes = new byte[256];
+
+    /**
+     * @return The length of the UTF-8 key written to {@code key}.
+     */
+    int encodeKey(String s) {
+      int length = s.length();
+      if (length > key.length) {
+        key = new byte[Math.max(length, key.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+          if (encoded.length > key.length) {
+            key = new byte[encoded.length];
+          }
+          System.arraycopy(encoded, 0, key, 0, encoded.length);
+          return encoded.length;
+        }
+        key[i] = (byte) c;
+      }
+      return length;
+    }
+
+    String decode(ByteBuffer slab, int offset, int length) {
+      if (length > bytes.length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        bytes[i] = slab.get(offset + i);
+      }
+      return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    void reset() {
+      if (key.length > MAX_RETAINED_BUFFER) {
+        key = new byte[64];
+      }
+      if (bytes.length > MAX_RETAINED_BUFFER) {
+        bytes = new byte[256];
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package server;
+
+/**
+ * The {@code Operation} class is a client write on the key-value store. Operations are proposed
+ * and replicated in the binary form of {@link ProposalCodec}.
+ */
+class Operation {
+
+  /**
+   * The type of the operation that removes a key whose time to live ran out. It only removes the
+   * key if its deadline is still the one that expired, so a key written again in the meantime is
+   * kept.
+   */
+  static final String EXPIRE = "EXPIRE";
+  final String type;
+  final String key;
+  final String value;
+  // wall-clock time in milliseconds the key expires at, 0 for a key that does not expire
+  final long expiresAt;
+
+  /**
+   * Creates an operation.
+   *
+   * @param type      The operation type, {@code Constants.PUT}, {@code Constants.DELETE} or
+   *                  {@link #EXPIRE}.
+   * @param key       The key the operation applies to.
+   * @param value     The value to put, or null for a delete.
+   * @param expiresAt The time a put key expires at or the deadline an expiry removes, in
+   *                  milliseconds since the epoch; 0 for none.
+   */
+  Operation(String type, String key, String value, long expiresAt) {
+    this.type = type;
+    this.key = key;
+    this.value = value;
+    this.expiresAt = expiresAt;
+  }
+
+  Operation(String type, String key, String value) {
+    this(type, key, value, 0);
+  }
+
+  Operation(String type, String key) {
+    this(type, key, null, 0);
+  }
+}
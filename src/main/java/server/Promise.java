@@ -0,0 +1,64 @@
+package server;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The {@code Promise} class is an acceptor's reply to a prepare request. A granted promise covers
+ * every slot from the requested slot onwards and carries the values the acceptor already accepted
+ * for those slots, so that a new leader can finish them before proposing new values.
+ */
+public class Promise implements Serializable {
+
+  private static final long serialVersionUID = 2L;
+  private final boolean granted;
+  private final long promiseId;
+  private final Map<Long, AcceptedValue> acceptedValues;
+  private final long compactedThrough;
+
+  /**
+   * Creates a promise reply.
+   *
+   * @param granted          true if the acceptor promised the requested proposal ID.
+   * @param promiseId        The highest proposal ID the acceptor has promised.
+   * @param acceptedValues   Values accepted for slots from the requested slot onwards, by slot.
+   * @param compactedThrough The last slot whose accepted value the acceptor discarded after a
+   *                         snapshot, -1 if none.
+   */
+  public Promise(boolean granted, long promiseId, Map<Long, AcceptedValue> acceptedValues, long compactedThrough) {
+    this.granted = granted;
+    this.promiseId = promiseId;
+    this.acceptedValues = acceptedValues;
+    this.compactedThrough = compactedThrough;
+  }
+
+  /**
+   * @return true if the acceptor promised the requested proposal ID.
+   */
+  public boolean isGranted() {
+    return granted;
+  }
+
+  /**
+   * @return The highest proposal ID the acceptor has promised.
+   */
+  public long getPromiseId() {
+    return promiseId;
+  }
+
+  /**
+   * @return Values accepted for slots from the requested slot onwards, by slot.
+   */
+  public Map<Long, AcceptedValue> getAcceptedValues() {
+    return acceptedValues != null ? acceptedValues : Collections.emptyMap();
+  }
+
+  /**
+   * @return The last slot whose accepted value the acceptor discarded after a snapshot, -1 if none.
+   *     A proposer that has not applied this slot yet cannot finish the open slots safely.
+   */
+  public long getCompactedThrough() {
+    return compactedThrough;
+  }
+}
@@ -0,0 +1,267 @@
+package server;
+
+import common.Constants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code ProposalCodec} class encodes the values proposed through Paxos, a batch of one or
+ * more operations, into a compact binary form that replicas exchange and log instead of Java
+ * serialized objects.
+ *
+ * <p>A value is a version byte followed by the operation count and the operations. Each operation
+ * is a type tag and a length-prefixed UTF-8 key, followed by a length-prefixed UTF-8 value for a
+ * put. A put with a time to live and an expiry also carry the deadline. Counts, lengths and
+ * deadlines are unsigned varints. Encoding goes through a buffer kept per thread, so
+ * the only allocation per value is the returned array.
+ */
+final class ProposalCodec {
+
+  static final byte VERSION = 1;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte PUT_EXPIRING = 3;
+  private static final byte EXPIRE = 4;
+  // per-thread buffers that grew past this size are not kept for the next value
+  private static final int MAX_RETAINED_BUFFER = 1 << 20;
+  private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
+  private ProposalCodec() {
+  }
+
+  /**
+   * Encodes a single operation as a batch of one.
+   *
+   * @param operation The operation to encode.
+   * @return The encoded value.
+   */
+  static byte[] encode(Operation operation) {
+    return encode(Collections.singletonList(operation));
+  }
+
+  /**
+   * Encodes a batch of operations; an empty batch is the no-op value.
+   *
+   * @param operations The operations to encode, in the order they are applied.
+   * @return The encoded value.
+   * @throws IllegalArgumentException If an operation has an unknown type or a missing key or value.
+   */
+  static byte[] encode(List<Operation> operations) {
+    Encoder encoder = ENCODER.get();
+    try {
+      encoder.writeByte(VERSION);
+      encoder.writeVarInt(operations.size());
+      for (Operation operation : operations) {
+        if (operation.key == null) {
+          throw new IllegalArgumentException("Operation without a key");
+        }
+        switch (operation.type) {
+          case Constants.PUT:
+            if (operation.value == null) {
+              throw new IllegalArgumentException("PUT without a value for key: " + operation.key);
+            }
+            encoder.writeByte(operation.expiresAt > 0 ? PUT_EXPIRING : PUT);
+            encoder.writeString(operation.key);
+            encoder.writeString(operation.value);
+            if (operation.expiresAt > 0) {
+              encoder.writeVarLong(operation.expiresAt);
+            }
+            break;
+          case Constants.DELETE:
+            encoder.writeByte(DELETE);
+            encoder.writeString(operation.key);
+            break;
+          case Operation.EXPIRE:
+            encoder.writeByte(EXPIRE);
+            encoder.writeString(operation.key);
+            encoder.writeVarLong(operation.expiresAt);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown operation type: " + operation.type);
+        }
+      }
+      return encoder.toByteArray();
+    } finally {
+      encoder.reset();
+    }
+  }
+
+  /**
+   * Decodes a value produced by {@link #encode(List)}.
+   *
+   * @param value The encoded value.
+   * @return The operations of the value, empty for the no-op value.
+   * @throws IllegalArgumentException If the value is truncated, malformed or of an unknown version.
+   */
+  static List<Operation> decode(byte[] value) {
+    Decoder decoder = new Decoder(value);
+    byte version = decoder.readByte();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unknown proposal value version: " + version);
+    }
+    int count = decoder.readVarInt();
+    // every operation takes at least two bytes, which bounds a corrupt count
+    if (count > value.length / 2) {
+      throw new IllegalArgumentException("Proposal value too short for " + count + " operations");
+    }
+    List<Operation> operations = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte type = decoder.readByte();
+      switch (type) {
+        case PUT:
+          operations.add(new Operation(Constants.PUT, decoder.readString(), decoder.readString()));
+          break;
+        case DELETE:
+          operations.add(new Operation(Constants.DELETE, decoder.readString()));
+          break;
+        case PUT_EXPIRING:
+          operations.add(new Operation(Constants.PUT, decoder.readString(), decoder.readString(), decoder.readVarLong()));
+          break;
+        case EXPIRE:
+          operations.add(new Operation(Operation.EXPIRE, decoder.readString(), null, decoder.readVarLong()));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown operation tag: " + type);
+      }
+    }
+    if (decoder.position != value.length) {
+      throw new IllegalArgumentException("Trailing bytes after " + count + " operations");
+    }
+    return operations;
+  }
+
+  /**
+   * A growable byte buffer with varint and UTF-8 writers.
+   */
+  private static class Encoder {
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    void writeByte(int b) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) b;
+    }
+
+    void writeVarInt(int v) {
+      ensureCapacity(5);
+      while ((v & ~0x7F) != 0) {
+        buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buffer[size++] = (byte) v;
+    }
+
+    void writeVarLong(long v) {
+      ensureCapacity(10);
+      while ((v & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buffer[size++] = (byte) v;
+    }
+
+    void writeString(String s) {
+      int length = s.length();
+      if (isAscii(s)) {
+        // the common case for keys and values: one byte per char, no intermediate array
+        writeVarInt(length);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+          buffer[size++] = (byte) s.charAt(i);
+        }
+        return;
+      }
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+
+    void reset() {
+      size = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER) {
+        buffer = new byte[256];
+      }
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+
+    private static boolean isAscii(String s) {
+      for (int i = 0; i < s.length(); i++) {
+        if (s.charAt(i) >= 0x80) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Reads varints and UTF-8 strings from an encoded value.
+   */
+  private static class Decoder {
+    private final byte[] bytes;
+    private int position;
+
+    Decoder(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    byte readByte() {
+      if (position >= bytes.length) {
+        throw new IllegalArgumentException("Truncated proposal value");
+      }
+      return bytes[position++];
+    }
+
+    int readVarInt() {
+      int v = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        byte b = readByte();
+        v |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          if (v < 0) {
+            throw new IllegalArgumentException("Negative length in proposal value");
+          }
+          return v;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint in proposal value");
+    }
+
+    long readVarLong() {
+      long v = 0;
+      for (int shift = 0; shift < 70; shift += 7) {
+        byte b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return v;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint in proposal value");
+    }
+
+    String readString() {
+      int length = readVarInt();
+      if (length > bytes.length - position) {
+        throw new IllegalArgumentException("Truncated proposal value");
+      }
+      String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return s;
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package server;
 
+import common.ScanResult;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The ProposerInterface provides a remote method to initiate a proposal in the Paxos consensus algorithm.
@@ -10,12 +14,54 @@ import java.rmi.RemoteException;
 public interface ProposerInterface extends Remote {
 
   /**
-   * Initiates a proposal with the given proposal ID and value.
+   * Initiates a proposal of the given value. The proposer runs its rounds with ballots of its own,
+   * higher than the given one.
    *
-   * @param proposalId    The unique identifier for the proposal.
-   * @param proposalValue The value being proposed.
+   * @param seenBallot    The highest ballot the caller has seen, so that the proposer does not start
+   *                      with a ballot the acceptors already rejected.
+   * @param proposalValue The value being proposed, encoded by {@link ProposalCodec}.
    * @return true if operation was a success; false otherwise
    * @throws RemoteException If a remote invocation error occurs.
    */
-  boolean propose(int proposalId, Object proposalValue) throws RemoteException;
+  boolean propose(long seenBallot, byte[] proposalValue) throws RemoteException;
+
+  /**
+   * Informs this proposer that another proposer has been elected leader and holds the given ballot.
+   * A proposer holding a lower ballot steps down and forwards its proposals to the new leader.
+   *
+   * @param leaderId The server ID of the elected leader.
+   * @param ballot   The ballot held by the leader.
+   * @throws RemoteException If a remote invocation error occurs.
+   */
+  void leaderElected(int leaderId, long ballot) throws RemoteException;
+
+  /**
+   * Reads a key on the leader. The leader only answers while it holds a read lease, after it applied
+   * every value it committed, so the read reflects every write completed before it.
+   *
+   * @param key The key to read.
+   * @return The value associated with the key, or the key-not-found message.
+   * @throws RemoteException If this proposer does not hold a lease or a remote error occurs.
+   */
+  String leaderRead(String key) throws RemoteException;
+
+  /**
+   * Reads many keys on the leader, under the same conditions as {@link #leaderRead(String)}.
+   *
+   * @param keys The keys to read.
+   * @return The value of each key, or the key-not-found message, in the order of the keys.
+   * @throws RemoteException If this proposer does not hold a lease or a remote error occurs.
+   */
+  Map<String, String> leaderMultiRead(List<String> keys) throws RemoteException;
+
+  /**
+   * Scans a key range on the leader, under the same conditions as {@link #leaderRead(String)}.
+   *
+   * @param startKey The first key of the range, or null for the start of the keyspace.
+   * @param endKey   The key after the range, or null for the end of the keyspace.
+   * @param limit    The maximum number of entries.
+   * @return The entries of the page in key order and the start key of the next one.
+   * @throws RemoteException If this proposer does not hold a lease or a remote error occurs.
+   */
+  ScanResult leaderScan(String startKey, String endKey, int limit) throws RemoteException;
 }
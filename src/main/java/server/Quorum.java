@@ -0,0 +1,81 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * The {@code Quorum} class sends one phase of a consensus round to every replica at once and
+ * returns as soon as enough replicas have replied successfully. Calls that are still running when
+ * the quorum is reached finish in the background and their replies are ignored.
+ */
+final class Quorum {
+
+  private static final Logger LOGGER = Logger.getLogger(Quorum.class.getName());
+
+  private Quorum() {
+  }
+
+  /**
+   * Runs all calls in parallel and waits until {@code needed} of them succeeded, until so many
+   * failed that the quorum can no longer be reached, or until the timeout expires.
+   *
+   * @param executor      The executor running the calls.
+   * @param calls         One call per replica.
+   * @param needed        The number of successful replies to wait for.
+   * @param isSuccess     Decides whether a reply counts towards the quorum.
+   * @param timeoutMillis The maximum time to wait for the quorum.
+   * @param onFailure     Told the index of every call that threw, on the thread that ran it.
+   * @param <T>           The reply type.
+   * @return The replies received so far, index-aligned with the calls; null for no reply.
+   */
+  static <T> List<T> collect(ExecutorService executor, List<Callable<T>> calls, int needed,
+                             Predicate<T> isSuccess, long timeoutMillis, IntConsumer onFailure) {
+    int total = calls.size();
+    AtomicReferenceArray<T> replies = new AtomicReferenceArray<>(total);
+    AtomicInteger successCount = new AtomicInteger(0);
+    AtomicInteger failureCount = new AtomicInteger(0);
+    CountDownLatch done = new CountDownLatch(1);
+    for (int i = 0; i < total; i++) {
+      int index = i;
+      executor.execute(() -> {
+        boolean success = false;
+        try {
+          T reply = calls.get(index).call();
+          replies.set(index, reply);
+          success = isSuccess.test(reply);
+        } catch (Exception e) {
+          // an unreachable replica fails every call, so this must not cost a log message each time
+          onFailure.accept(index);
+        }
+        if (success) {
+          if (successCount.incrementAndGet() >= needed) {
+            done.countDown();
+          }
+        } else if (failureCount.incrementAndGet() > total - needed) {
+          done.countDown();
+        }
+      });
+    }
+    try {
+      if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        LOGGER.warning("Quorum of " + needed + " not reached within " + timeoutMillis + " ms!!!");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<T> result = new ArrayList<>(total);
+    for (int i = 0; i < total; i++) {
+      result.add(replies.get(i));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import common.InvalidationListener;
+import common.NioKVStore;
+import common.NioServer;
+import common.Wire;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code ReplicaDispatcher} class serves the key-value operations and the replica protocol of
+ * a server over the binary transport, decoding each request and calling the server. Key-value
+ * operations go through the shard router; replica protocol requests start with the shard ID and
+ * go to the Server instance of that shard. A client subscribes to invalidations on its connection,
+ * and the keys are pushed back on it.
+ */
+class ReplicaDispatcher implements NioServer.Handler {
+
+  private final ShardRouter router;
+
+  ReplicaDispatcher(ShardRouter router) {
+    this.router = router;
+  }
+
+  @Override
+  public void handle(NioServer.Peer caller, byte method, Wire.Reader in, Wire.Writer out) throws Exception {
+    switch (method) {
+      case NioKVStore.PUT:
+        out.putBoolean(router.put(in.getString(), in.getString()));
+        return;
+      case NioKVStore.PUT_EXPIRING:
+        out.putBoolean(router.put(in.getString(), in.getString(), in.getLong()));
+        return;
+      case NioKVStore.GET:
+        out.putString(router.get(in.getString()));
+        return;
+      case NioKVStore.DELETE:
+        out.putBoolean(router.delete(in.getString()));
+        return;
+      case NioKVStore.MULTI_GET:
+        out.putStringMap(router.multiGet(in.getStrings()));
+        return;
+      case NioKVStore.MULTI_PUT:
+        out.putBooleanMap(router.multiPut(in.getStringMap()));
+        return;
+      case NioKVStore.MULTI_DELETE:
+        out.putBooleanMap(router.multiDelete(in.getStrings()));
+        return;
+      case NioKVStore.SCAN:
+        NioKVStore.writeScan(out, router.scan(in.getString(), in.getString(), in.getInt()));
+        return;
+      case NioKVStore.GET_LEADERS:
+        out.putInts(router.getLeaders());
+        return;
+      case NioKVStore.GET_LAG:
+        out.putLong(router.getLagMillis());
+        return;
+      case NioKVStore.SUBSCRIBE:
+        out.putBoolean(router.subscribe(new PushListener(caller)));
+        return;
+      case NioKVStore.METRICS:
+        router.getMetrics().write(out);
+        return;
+      default:
+        break;
+    }
+    Server server = router.getShard(in.getInt());
+    switch (method) {
+      case NioReplica.PROPOSE:
+        out.putBoolean(server.propose(in.getLong(), in.getBytes()));
+        break;
+      case NioReplica.LEADER_ELECTED:
+        server.leaderElected(in.getInt(), in.getLong());
+        break;
+      case NioReplica.LEADER_READ:
+        out.putString(server.leaderRead(in.getString()));
+        break;
+      case NioReplica.LEADER_MULTI_READ:
+        out.putStringMap(server.leaderMultiRead(in.getStrings()));
+        break;
+      case NioReplica.LEADER_SCAN:
+        NioKVStore.writeScan(out, server.leaderScan(in.getString(), in.getString(), in.getInt()));
+        break;
+      case NioReplica.PREPARE:
+        NioReplica.writePromise(out, server.prepare(in.getLong(), in.getLong()));
+        break;
+      case NioReplica.ACCEPT:
+        out.putBoolean(server.accept(in.getLong(), in.getLong(), in.getBytes()));
+        break;
+      case NioReplica.GRANT_LEASE:
+        out.putBoolean(server.grantLease(in.getLong(), in.getLong()));
+        break;
+      case NioReplica.LEARN:
+        server.learn(in.getLong(), in.getLong(), in.getBytes());
+        break;
+      case NioReplica.GET_CHOSEN:
+        Map<Long, byte[]> chosen = server.getChosen(in.getLong(), in.getInt());
+        out.putInt(chosen.size());
+        for (Map.Entry<Long, byte[]> entry : chosen.entrySet()) {
+          out.putLong(entry.getKey()).putBytes(entry.getValue());
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown method: " + method);
+    }
+  }
+
+  /**
+   * Pushes invalidations to the connection that subscribed. Equal for the same connection, so a
+   * client renewing its subscription on the same connection is not subscribed twice.
+   */
+  private static final class PushListener implements InvalidationListener {
+    private final NioServer.Peer peer;
+
+    PushListener(NioServer.Peer peer) {
+      this.peer = peer;
+    }
+
+    @Override
+    public void invalidate(List<String> keys) throws RemoteException {
+      if (!peer.push(NioKVStore.INVALIDATE, out -> out.putStrings(keys))) {
+        throw new RemoteException("Connection closed");
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof PushListener && ((PushListener) other).peer == peer;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(peer);
+    }
+  }
+}
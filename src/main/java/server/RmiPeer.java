@@ -0,0 +1,136 @@
+package server;
+
+import common.Constants;
+import common.ScanResult;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code RmiPeer} class calls the proposer, acceptor and learner of one shard of a replica that
+ * runs in another process, over RMI. Every replica binds its shards in its registry under
+ * {@link #objectName(int, int)}. The stub is looked up on the first call and again after a call did
+ * not reach the replica, so a replica that starts later or restarts is found again.
+ */
+class RmiPeer implements ProposerInterface, AcceptorInterface, LearnerInterface {
+
+  private final String url;
+  private volatile Remote stub;
+
+  /**
+   * Create a peer stub.
+   *
+   * @param host     The host of the replica's registry.
+   * @param port     The port of the replica's registry.
+   * @param serverId The ID of the replica.
+   * @param shardId  The shard whose Paxos group is called.
+   */
+  RmiPeer(String host, int port, int serverId, int shardId) {
+    this.url = "rmi://" + host + ":" + port + "/" + objectName(serverId, shardId);
+  }
+
+  /**
+   * @param serverId The ID of a replica.
+   * @param shardId  One of its shards.
+   * @return The name the shard of the replica is bound under in the replica's registry.
+   */
+  static String objectName(int serverId, int shardId) {
+    return Constants.REMOTE_OBJECT + serverId + ".shard" + shardId;
+  }
+
+  @Override
+  public boolean propose(long seenBallot, byte[] proposalValue) throws RemoteException {
+    return call(peer -> ((ProposerInterface) peer).propose(seenBallot, proposalValue));
+  }
+
+  @Override
+  public void leaderElected(int leaderId, long ballot) throws RemoteException {
+    call(peer -> {
+      ((ProposerInterface) peer).leaderElected(leaderId, ballot);
+      return null;
+    });
+  }
+
+  @Override
+  public String leaderRead(String key) throws RemoteException {
+    return call(peer -> ((ProposerInterface) peer).leaderRead(key));
+  }
+
+  @Override
+  public Map<String, String> leaderMultiRead(List<String> keys) throws RemoteException {
+    return call(peer -> ((ProposerInterface) peer).leaderMultiRead(keys));
+  }
+
+  @Override
+  public ScanResult leaderScan(String startKey, String endKey, int limit) throws RemoteException {
+    return call(peer -> ((ProposerInterface) peer).leaderScan(startKey, endKey, limit));
+  }
+
+  @Override
+  public Promise prepare(long proposalId, long fromSlot) throws RemoteException {
+    return call(peer -> ((AcceptorInterface) peer).prepare(proposalId, fromSlot));
+  }
+
+  @Override
+  public boolean accept(long slot, long proposalId, byte[] proposalValue) throws RemoteException {
+    return call(peer -> ((AcceptorInterface) peer).accept(slot, proposalId, proposalValue));
+  }
+
+  @Override
+  public boolean grantLease(long proposalId, long durationMillis) throws RemoteException {
+    return call(peer -> ((AcceptorInterface) peer).grantLease(proposalId, durationMillis));
+  }
+
+  @Override
+  public void learn(long slot, long proposalId, byte[] acceptedValue) throws RemoteException {
+    call(peer -> {
+      ((LearnerInterface) peer).learn(slot, proposalId, acceptedValue);
+      return null;
+    });
+  }
+
+  @Override
+  public Map<Long, byte[]> getChosen(long fromSlot, int maxCount) throws RemoteException {
+    return call(peer -> ((LearnerInterface) peer).getChosen(fromSlot, maxCount));
+  }
+
+  private <T> T call(PeerCall<T> call) throws RemoteException {
+    try {
+      return call.apply(stub());
+    } catch (RemoteException e) {
+      if (!(e instanceof ServerException)) {
+        // the replica was not reached, it may have restarted with a new stub
+        stub = null;
+      }
+      throw e;
+    }
+  }
+
+  private Remote stub() throws RemoteException {
+    Remote current = stub;
+    if (current == null) {
+      try {
+        current = Naming.lookup(url);
+      } catch (NotBoundException | MalformedURLException e) {
+        throw new RemoteException(url + " is not bound", e);
+      }
+      stub = current;
+    }
+    return current;
+  }
+
+  /**
+   * A call of the remote replica.
+   *
+   * @param <T> The reply type.
+   */
+  private interface PeerCall<T> {
+    T apply(Remote peer) throws RemoteException;
+  }
+}
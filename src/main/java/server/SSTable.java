@@ -0,0 +1,319 @@
+package server;
+
+import common.Wire;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The {@code SSTable} class is an immutable sorted file of an {@link LsmEngine}. The file holds
+ * data blocks of about 4 KB, each a run of entries in key order, then the block index with the
+ * first key, offset and length of every block and the last key of the file, then the bloom filter
+ * of its keys, and a fixed-size footer locating the index and the filter. An entry is a
+ * length-prefixed UTF-8 key and value as written by {@link Wire}, where a null value is a
+ * tombstone.
+ *
+ * <p>The index and the filter are kept in memory, so a point read that the filter rules out does
+ * no I/O and any other read reads one block. Blocks are read with positional reads, so any number
+ * of threads can read a table at once. A table is reference counted by the versions of the engine
+ * that contain it, and its file is closed and deleted once none does.
+ */
+class SSTable {
+
+  private static final Logger LOGGER = Logger.getLogger(SSTable.class.getName());
+  static final int BLOCK_BYTES = 4096;
+  private static final int MAGIC = 0x4b56534c;
+  private static final int FOOTER_BYTES = 28;
+  private final Path path;
+  private final FileChannel channel;
+  private final String[] firstKeys;
+  private final long[] blockOffsets;
+  private final int[] blockLengths;
+  private final String lastKey;
+  private final BloomFilter bloom;
+  private final long entryCount;
+  private final long sizeBytes;
+  private final AtomicInteger refs = new AtomicInteger();
+
+  private SSTable(Path path, FileChannel channel, String[] firstKeys, long[] blockOffsets, int[] blockLengths,
+                  String lastKey, BloomFilter bloom, long entryCount, long sizeBytes) {
+    this.path = path;
+    this.channel = channel;
+    this.firstKeys = firstKeys;
+    this.blockOffsets = blockOffsets;
+    this.blockLengths = blockLengths;
+    this.lastKey = lastKey;
+    this.bloom = bloom;
+    this.entryCount = entryCount;
+    this.sizeBytes = sizeBytes;
+  }
+
+  /**
+   * Writes a table of the given entries and opens it.
+   *
+   * @param path            The file to write.
+   * @param entries         The entries in key order, with {@link LsmEngine#TOMBSTONE} for deletes.
+   * @param expectedEntries The number of entries the bloom filter is sized for.
+   * @param dropTombstones  true to leave deletes out, when no older table can hold the key.
+   * @return The table, or null if no entry was written.
+   * @throws IOException If the file cannot be written.
+   */
+  static SSTable write(Path path, Iterator<Map.Entry<String, String>> entries, long expectedEntries,
+                       boolean dropTombstones) throws IOException {
+    List<String> firstKeys = new ArrayList<>();
+    List<Long> offsets = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    BloomFilter bloom = new BloomFilter(expectedEntries);
+    Wire.Writer block = new Wire.Writer();
+    long position = 0;
+    long count = 0;
+    String last = null;
+    boolean written = false;
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+      while (entries.hasNext()) {
+        Map.Entry<String, String> entry = entries.next();
+        String value = entry.getValue();
+        if (dropTombstones && value == LsmEngine.TOMBSTONE) {
+          continue;
+        }
+        if (block.size() == 0) {
+          firstKeys.add(entry.getKey());
+        }
+        block.putString(entry.getKey()).putString(value == LsmEngine.TOMBSTONE ? null : value);
+        bloom.add(entry.getKey());
+        last = entry.getKey();
+        count++;
+        if (block.size() >= BLOCK_BYTES) {
+          position = writeBlock(out, block, position, offsets, lengths);
+        }
+      }
+      if (count == 0) {
+        return null;
+      }
+      if (block.size() > 0) {
+        position = writeBlock(out, block, position, offsets, lengths);
+      }
+      Wire.Writer tail = new Wire.Writer();
+      tail.putInt(firstKeys.size());
+      for (int i = 0; i < firstKeys.size(); i++) {
+        tail.putString(firstKeys.get(i)).putLong(offsets.get(i)).putInt(lengths.get(i));
+      }
+      tail.putString(last);
+      long bloomOffset = position + tail.size();
+      tail.putInt(bloom.getHashes()).putInt(bloom.getWords().length);
+      for (long word : bloom.getWords()) {
+        tail.putLong(word);
+      }
+      tail.putLong(position).putLong(bloomOffset).putLong(count).putInt(MAGIC);
+      out.write(tail.toByteBuffer().array());
+      written = true;
+    } finally {
+      if (!written) {
+        Files.deleteIfExists(path);
+      }
+    }
+    return open(path);
+  }
+
+  private static long writeBlock(OutputStream out, Wire.Writer block, long position, List<Long> offsets,
+                                 List<Integer> lengths) throws IOException {
+    out.write(block.toByteBuffer().array());
+    offsets.add(position);
+    lengths.add(block.size());
+    position += block.size();
+    block.reset();
+    return position;
+  }
+
+  /**
+   * Opens a table, reading its index and bloom filter into memory.
+   *
+   * @param path The file of the table.
+   * @return The table.
+   * @throws IOException If the file cannot be read or is not a table.
+   */
+  static SSTable open(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < FOOTER_BYTES) {
+        throw new IOException(path + " is not a table");
+      }
+      ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+      long indexOffset = footer.getLong();
+      long bloomOffset = footer.getLong();
+      long count = footer.getLong();
+      if (footer.getInt() != MAGIC || indexOffset < 0 || bloomOffset < indexOffset || bloomOffset > size - FOOTER_BYTES) {
+        throw new IOException(path + " is not a table");
+      }
+      Wire.Reader index = new Wire.Reader(read(channel, indexOffset, (int) (bloomOffset - indexOffset)));
+      int blocks = index.getInt();
+      String[] firstKeys = new String[blocks];
+      long[] offsets = new long[blocks];
+      int[] lengths = new int[blocks];
+      for (int i = 0; i < blocks; i++) {
+        firstKeys[i] = index.getString();
+        offsets[i] = index.getLong();
+        lengths[i] = index.getInt();
+      }
+      String last = index.getString();
+      Wire.Reader filter = new Wire.Reader(read(channel, bloomOffset, (int) (size - FOOTER_BYTES - bloomOffset)));
+      int hashes = filter.getInt();
+      long[] words = new long[filter.getInt()];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = filter.getLong();
+      }
+      return new SSTable(path, channel, firstKeys, offsets, lengths, last, new BloomFilter(words, hashes), count, size);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param key The key to read.
+   * @return The value of the key, {@link LsmEngine#TOMBSTONE} if the table deletes it, or null if
+   *     the table does not hold it.
+   * @throws IOException If the block cannot be read.
+   */
+  String get(String key) throws IOException {
+    if (key.compareTo(firstKeys[0]) < 0 || key.compareTo(lastKey) > 0 || !bloom.mightContain(key)) {
+      return null;
+    }
+    Wire.Reader block = readBlock(blockOf(key));
+    while (block.hasRemaining()) {
+      int order = block.getString().compareTo(key);
+      if (order == 0) {
+        byte[] value = block.getBytes();
+        return value != null ? new String(value, StandardCharsets.UTF_8) : LsmEngine.TOMBSTONE;
+      }
+      if (order > 0) {
+        break;
+      }
+      block.getBytes();
+    }
+    return null;
+  }
+
+  /**
+   * @param startKey The first key to return, or null to start at the first key of the table.
+   * @return The entries from the start key in key order, with {@link LsmEngine#TOMBSTONE} for
+   *     deletes. A failed read surfaces as an {@link UncheckedIOException}.
+   */
+  Iterator<Map.Entry<String, String>> iterator(String startKey) {
+    int first = startKey == null ? 0 : Math.max(0, blockOf(startKey));
+    return new Iterator<Map.Entry<String, String>>() {
+      private int nextBlock = first;
+      private Wire.Reader block;
+      private Map.Entry<String, String> next = advance();
+
+      private Map.Entry<String, String> advance() {
+        while (true) {
+          if (block == null || !block.hasRemaining()) {
+            if (nextBlock >= firstKeys.length) {
+              return null;
+            }
+            try {
+              block = readBlock(nextBlock++);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            continue;
+          }
+          String key = block.getString();
+          byte[] value = block.getBytes();
+          if (startKey == null || key.compareTo(startKey) >= 0) {
+            return new AbstractMap.SimpleImmutableEntry<>(key,
+                    value != null ? new String(value, StandardCharsets.UTF_8) : LsmEngine.TOMBSTONE);
+          }
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Map.Entry<String, String> next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> current = next;
+        next = advance();
+        return current;
+      }
+    };
+  }
+
+  /**
+   * @return The last block whose first key is at most the given key, -1 if the key is before the
+   *     first block.
+   */
+  private int blockOf(String key) {
+    int found = Arrays.binarySearch(firstKeys, key);
+    return found >= 0 ? found : -found - 2;
+  }
+
+  private Wire.Reader readBlock(int block) throws IOException {
+    return new Wire.Reader(read(channel, blockOffsets[block], blockLengths[block]));
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of table at " + (position + buffer.position()));
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  long getEntryCount() {
+    return entryCount;
+  }
+
+  long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  void retain() {
+    refs.incrementAndGet();
+  }
+
+  /**
+   * Drops a reference, closing and deleting the file when it was the last one.
+   */
+  void release() {
+    if (refs.decrementAndGet() == 0) {
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        LOGGER.warning("Failed to delete " + path + ": " + e.getMessage());
+      }
+    }
+  }
+}
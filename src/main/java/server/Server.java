@@ -1,39 +1,190 @@
 package server;
 
 import common.Constants;
+import common.Histogram;
+import common.InvalidationListener;
 import common.KVStoreInterface;
+import common.KeyRanges;
+import common.Metrics;
+import common.MetricsSnapshot;
+import common.NotLeaderException;
+import common.ScanResult;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 /**
  * Implementation of a Server class that represents a node in a Paxos distributed consensus system.
  * This server plays the role of Proposer, Acceptor, and Learner in the Paxos algorithm, and it also handles key-value store operations.
+ * Chosen values form a replicated log of numbered slots. Many slots can be in flight at once and
+ * learners apply them to the key-value store in slot order.
+ *
+ * <p>A server whose ID is at least the number of servers is a non-voting observer: it is only a
+ * learner. The leader sends it the chosen values without waiting for it, it fetches what it missed
+ * from the voting servers, and it serves reads from its own store, as stale as its reported lag.
+ * It forwards writes to the voting servers and never prepares, accepts or proposes.
  */
 public class Server extends UnicastRemoteObject implements ProposerInterface, AcceptorInterface, LearnerInterface, KVStoreInterface {
 
   private static final Logger LOGGER = Logger.getLogger(Server.class.getName());
-  private static final AtomicInteger sequenceNum = new AtomicInteger(0);
   private final double FAILURE_RATE = 0.25;
   private final boolean failure;
-  private final ConcurrentHashMap<String, String> kvStore = new ConcurrentHashMap<>();
+  private final StorageEngine store;
+  private final InvalidationPublisher invalidations;
+  // the time each key written with a time to live expires at, in milliseconds since the epoch
+  private final ConcurrentHashMap<String, Long> deadlines = new ConcurrentHashMap<>();
+  private final TimingWheel<String> expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+  // request and consensus phase latencies in microseconds, reported through the shard router
+  private final Metrics metrics = new Metrics();
+  private final Histogram putMicros = metrics.histogram("request.put.us");
+  private final Histogram getMicros = metrics.histogram("request.get.us");
+  private final Histogram deleteMicros = metrics.histogram("request.delete.us");
+  private final Histogram multiGetMicros = metrics.histogram("request.mget.us");
+  private final Histogram multiPutMicros = metrics.histogram("request.mput.us");
+  private final Histogram multiDeleteMicros = metrics.histogram("request.mdelete.us");
+  private final Histogram scanMicros = metrics.histogram("request.scan.us");
+  private final Histogram proposeMicros = metrics.histogram("paxos.propose.us");
+  private final Histogram prepareMicros = metrics.histogram("paxos.prepare.us");
+  private final Histogram acceptMicros = metrics.histogram("paxos.accept.us");
+  private final Histogram learnMicros = metrics.histogram("paxos.learn.us");
+  private final Histogram applyMicros = metrics.histogram("paxos.apply.us");
+  // round trip of each prepare and accept call, by acceptor
+  private final Histogram[] acceptorMicros;
+  private final LongAdder elections = metrics.counter("paxos.elections");
+  private final LongAdder retries = metrics.counter("paxos.retries");
+  private final LongAdder failedProposals = metrics.counter("paxos.failed");
+  // rounds that ended without committing because an acceptor rejected the ballot or it was lost
+  private final LongAdder wastedRounds = metrics.counter("paxos.rounds.wasted");
+  private final LongAdder forwarded = metrics.counter("requests.forwarded");
   private final int numServers;
   private final int serverId;
+  private final int shardId;
   private final int MAJORITY_COUNT;
+  private final boolean observer;
   private final String KEY_NOT_FOUND = "Key Not found";
   private final Random random = new Random();
+  // maximum time a proposer waits for a quorum in one phase
+  private static final long PHASE_TIMEOUT_MILLIS = 5000;
+  // number of rounds a proposal is retried with a higher proposal id before giving up
+  private static final int MAX_ROUNDS = 10;
+  // randomized exponential backoff before a round that follows a rejected ballot, so that dueling
+  // proposers stop preempting each other
+  private static final long ROUND_BACKOFF_BASE_MILLIS = 2;
+  private static final long ROUND_BACKOFF_MAX_MILLIS = 200;
+  // ballot rounds reserved with one write-ahead log record; a restart skips the unused ones
+  static final long BALLOT_RESERVE_ROUNDS = 1000;
+  // how often a learner checks whether it is stuck behind a slot it missed
+  private static final long CATCH_UP_INTERVAL_MILLIS = 200;
+  private static final int CATCH_UP_BATCH = 1000;
+  // applied slots kept in memory so that lagging learners can still catch up, and how many more
+  // slots are applied before the older ones are discarded
+  static final long LOG_RETAIN_SLOTS = 10000;
+  static final long COMPACT_INTERVAL_SLOTS = 1000;
+  // fraction of the lease the leader relies on, leaving room for clock drift between replicas
+  private static final double LEASE_SAFETY_FACTOR = 0.9;
+  // results of an election other than the proposal id that won it
+  private static final long ELECTION_UNREACHABLE = -1;
+  private static final long ELECTION_REJECTED = 0;
+  // resolution of key expiry, and how often the timing wheel is advanced
+  private static final long EXPIRY_TICK_MILLIS = 10;
+  // how long after a key is checked again when it expired but was not removed by this replica
+  private static final long EXPIRY_RETRY_MILLIS = 1000;
+  private static final int MAX_EXPIRY_BATCH = 1000;
+  // proposed by a new leader for open slots nobody accepted a value for
+  private static final byte[] NO_OP = ProposalCodec.encode(Collections.<Operation>emptyList());
+  private final ExecutorService rpcExecutor;
+  private final ScheduledExecutorService maintenanceExecutor;
+  private final boolean multiPaxos;
+  private final boolean leaseReads;
+  private final long leaseMillis;
+  // gathers concurrent client writes into one proposal, null when batching is disabled
+  private final Batcher<Operation> batcher;
+  // durable acceptor and learner state, null when the server keeps its state in memory only
+  private final WriteAheadLog wal;
+  private final SnapshotStore snapshotStore;
+  private final ExecutorService snapshotExecutor;
+  private final long snapshotIntervalSlots;
+  private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+  private volatile long lastSnapshotSlot = -1;
+  // slots up to this one are applied and their accepted and chosen values are discarded
+  private volatile long compactedThrough = -1;
+  private ProposerInterface[] proposers;
   private AcceptorInterface[] acceptors;
   private LearnerInterface[] learners;
-  private int promiseId;
-  private boolean isPendingAcceptedValue;
-  private Object acceptedValue;
+  private LearnerInterface[] observers = new LearnerInterface[0];
+
+  // Acceptor state: one promise covering every slot and the accepted value of each slot. Accepts
+  // run concurrently under the read lock; prepare takes the write lock so that no accept slips in
+  // between collecting the accepted values and returning the promise.
+  private final ReentrantReadWriteLock acceptorLock = new ReentrantReadWriteLock();
+  private final AtomicLong promiseId = new AtomicLong(0);
+  private final ConcurrentSkipListMap<Long, AcceptedValue> acceptedValues = new ConcurrentSkipListMap<>();
+  // lease granted to a leader, during which no other proposal id is promised; guarded by acceptorLock
+  private long grantedLeaseId = -1;
+  private long grantedLeaseExpiryNanos;
+
+  // Learner state: chosen values waiting for an earlier slot, and the values already applied.
+  private final Object applyLock = new Object();
+  private final ConcurrentSkipListMap<Long, byte[]> pendingChosen = new ConcurrentSkipListMap<>();
+  private final ConcurrentSkipListMap<Long, byte[]> chosenLog = new ConcurrentSkipListMap<>();
+  private volatile long nextApplySlot = 0;
+  private long catchUpGapSlot = -1;
+  // Observer state: the last time this observer had applied every value chosen as far as it knew,
+  // -1 until it caught up once, and the voting server it fetches chosen values from.
+  private volatile long caughtUpAtMillis = -1;
+  private int pollServer;
+
+  // Proposer state
+  private final Object electionLock = new Object();
+  private final AtomicLong nextSlot = new AtomicLong(0);
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final AtomicLong highestSeenPromise = new AtomicLong(0);
+  // last ballot round of this proposer, and the highest round the write-ahead log allows it to use;
+  // guarded by ballotLock
+  private final Object ballotLock = new Object();
+  private long ballotRound;
+  private long reservedRound;
+  // highest slot this proposer got a majority of accepts for
+  private final AtomicLong commitIndex = new AtomicLong(-1);
+  // read lease held by this proposer as leader
+  private volatile long heldLeaseId = -1;
+  private volatile long heldLeaseExpiryNanos;
+  // ballot held by this proposer while it is the leader, -1 otherwise
+  private volatile long leaderBallot = -1;
+  // last leader announced to this server, -1 if unknown
+  private volatile int leaderId = -1;
+  private volatile long knownLeaderBallot = -1;
 
   /**
    * Constructor to create a Server instance.
@@ -42,15 +193,346 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
    * @param numServers The total number of servers in the system.
    */
   public Server(int serverId, int numServers, boolean failure) throws RemoteException {
+    this(serverId, numServers, failure, false);
+  }
+
+  /**
+   * Constructor to create a Server instance.
+   *
+   * @param serverId   The unique ID of this server.
+   * @param numServers The total number of servers in the system.
+   * @param failure    true to simulate acceptor failures.
+   * @param multiPaxos true to keep the ballot of a successful round and skip the prepare phase
+   *                   for subsequent proposals while the ballot is held.
+   */
+  public Server(int serverId, int numServers, boolean failure, boolean multiPaxos) throws RemoteException {
+    this(serverId, numServers, newConfig(failure, multiPaxos));
+  }
+
+  /**
+   * Constructor to create a Server instance.
+   *
+   * @param serverId   The unique ID of this server.
+   * @param numServers The total number of servers in the system.
+   * @param config     The replica settings.
+   */
+  public Server(int serverId, int numServers, ServerConfig config) throws RemoteException {
+    this(serverId, numServers, config, 0);
+  }
+
+  /**
+   * Constructor to create the Server instance of one shard. Every shard is an independent Paxos
+   * group with its own log; the replicas of a shard are the servers with the same shard ID.
+   *
+   * @param serverId   The unique ID of this server; IDs from numServers up are observers.
+   * @param numServers The number of voting servers in the system.
+   * @param config     The replica settings.
+   * @param shardId    The shard this instance replicates.
+   */
+  public Server(int serverId, int numServers, ServerConfig config, int shardId) throws RemoteException {
+    String name = config.getShards() > 1 ? "Server" + serverId + "-shard" + shardId : "Server" + serverId;
+    this.multiPaxos = config.isMultiPaxos();
+    this.leaseReads = config.isLeaseReads();
+    this.leaseMillis = config.getLeaseMillis();
     this.numServers = numServers;
     this.serverId = serverId;
-    this.promiseId = 0;
+    this.shardId = shardId;
     this.MAJORITY_COUNT = Math.floorDiv(numServers, 2) + 1;
-    this.isPendingAcceptedValue = false;
-    this.failure = failure;
+    this.observer = serverId >= numServers;
+    this.pollServer = serverId % numServers;
+    this.acceptorMicros = new Histogram[numServers];
+    for (int i = 0; i < numServers; i++) {
+      acceptorMicros[i] = metrics.histogram("rpc.acceptor" + i + ".us");
+    }
+    this.failure = config.isFailure();
+    this.rpcExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, name + "-rpc");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name + "-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.snapshotIntervalSlots = config.getSnapshotIntervalSlots();
+    this.invalidations = new InvalidationPublisher(name);
+    Path directory = null;
+    if (config.getDataDirectory() != null) {
+      directory = Paths.get(config.getDataDirectory(), "server" + serverId);
+      if (config.getShards() > 1) {
+        directory = directory.resolve("shard" + shardId);
+      }
+    }
+    try {
+      this.store = newStorageEngine(config.getEngine(), directory, name);
+    } catch (IOException e) {
+      throw new RemoteException("Server" + serverId + " cannot open its " + config.getEngine() + " storage engine", e);
+    }
+    metrics.gauge("store.keys", store::size);
+    metrics.gauge("store.expiring.keys", deadlines::size);
+    metrics.gauge("paxos.pending.slots", pendingChosen::size);
+    if (directory != null) {
+      try {
+        this.wal = new WriteAheadLog(directory, config.getDurability(), config.getSyncIntervalMillis());
+        this.snapshotStore = new SnapshotStore(directory);
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+          Thread thread = new Thread(runnable, name + "-snapshot");
+          thread.setDaemon(true);
+          return thread;
+        });
+        recover();
+      } catch (IOException e) {
+        throw new RemoteException("Server" + serverId + " cannot recover from " + directory, e);
+      }
+    } else {
+      this.wal = null;
+      this.snapshotStore = null;
+      this.snapshotExecutor = null;
+    }
+    this.maintenanceExecutor.scheduleWithFixedDelay(this::catchUp, CATCH_UP_INTERVAL_MILLIS,
+            CATCH_UP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    this.maintenanceExecutor.scheduleWithFixedDelay(this::expireKeys, EXPIRY_TICK_MILLIS,
+            EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    if (leaseReads && !observer) {
+      long renewMillis = Math.max(1, leaseMillis / 3);
+      this.maintenanceExecutor.scheduleWithFixedDelay(this::renewLease, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+      LOGGER.info("Server" + serverId + " Lease ms: " + leaseMillis);
+    }
+    if (config.isBatching()) {
+      this.batcher = new Batcher<>(name, config.getMaxBatchSize(), config.getBatchWindowMillis(), config.getMaxBatchesInFlight(),
+              batch -> proposeOperation(ProposalCodec.encode(batch)));
+      metrics.register("batch.size", batcher.getBatchSizes());
+      metrics.register("batch.wait.us", batcher.getWaitMicros());
+      LOGGER.info("Server" + serverId + " Batch size: " + config.getMaxBatchSize() +
+              " Batch window ms: " + config.getBatchWindowMillis() + " Batches in flight: " + config.getMaxBatchesInFlight());
+    } else {
+      this.batcher = null;
+    }
     if (failure) {
       LOGGER.info("Server" + serverId + " Failure Rate: " + FAILURE_RATE);
     }
+    if (observer) {
+      LOGGER.info("Server" + serverId + " is a non-voting observer of " + numServers + " servers");
+    }
+  }
+
+  /**
+   * Restores the applied state from the latest snapshot, then the promise, the accepted values and
+   * the values applied after the snapshot from the write-ahead log.
+   *
+   * @throws IOException If the snapshot or the log cannot be read.
+   */
+  private void recover() throws IOException {
+    long startNanos = System.nanoTime();
+    long snapshotSlot = snapshotStore.loadLatest((key, value, expiresAt) -> {
+      store.put(key, value);
+      if (expiresAt > 0) {
+        deadlines.put(key, expiresAt);
+        expiryWheel.schedule(key, expiresAt);
+      }
+    });
+    if (snapshotSlot >= 0) {
+      nextApplySlot = snapshotSlot + 1;
+      lastSnapshotSlot = snapshotSlot;
+      compactedThrough = snapshotSlot;
+      LOGGER.info("Server" + serverId + " loaded snapshot of " + store.size() + " keys through slot: " + snapshotSlot);
+    }
+    int records = wal.replay(new WriteAheadLog.Replayer() {
+      @Override
+      public void onPromise(long proposalId) {
+        promiseId.accumulateAndGet(proposalId, Math::max);
+      }
+
+      @Override
+      public void onBallot(long round) {
+        reservedRound = Math.max(reservedRound, round);
+      }
+
+      @Override
+      public void onAccept(long slot, long proposalId, byte[] value) {
+        promiseId.accumulateAndGet(proposalId, Math::max);
+        if (slot <= compactedThrough) {
+          return;
+        }
+        acceptedValues.merge(slot, new AcceptedValue(proposalId, value),
+                (current, proposed) -> proposed.getProposalId() >= current.getProposalId() ? proposed : current);
+      }
+
+      @Override
+      public void onLearn(long slot, byte[] value) {
+        if (slot >= nextApplySlot) {
+          pendingChosen.put(slot, value);
+        }
+      }
+    });
+    if (records == 0 && snapshotSlot < 0) {
+      return;
+    }
+    // rounds reserved before the restart may have been used, start above them
+    ballotRound = reservedRound;
+    applyChosen(false);
+    long lastSlot = nextApplySlot - 1;
+    if (!acceptedValues.isEmpty()) {
+      lastSlot = Math.max(lastSlot, acceptedValues.lastKey());
+    }
+    nextSlot.set(lastSlot + 1);
+    if (leaseReads) {
+      // a lease granted before the restart may still be live on its leader
+      grantedLeaseExpiryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+    }
+    LOGGER.info("Server" + serverId + " recovered " + records + " log records in " +
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms, promise id: " + Ballot.toString(promiseId.get()) +
+            ", applied through slot: " + (nextApplySlot - 1));
+  }
+
+  /**
+   * Starts a snapshot of the slots applied so far. Called with the apply lock held, so the log can
+   * be rolled at exactly the snapshot slot: every value applied later is logged to the new segment.
+   * The snapshot itself is written in the background while writers continue; replaying the new
+   * segment on top of it restores the exact state.
+   */
+  private void startSnapshot() {
+    long snapshotSlot = nextApplySlot - 1;
+    long segment;
+    try {
+      segment = wal.roll();
+    } catch (IOException e) {
+      LOGGER.severe("Server" + serverId + " snapshot through slot " + snapshotSlot + " not started: " + e.getMessage());
+      snapshotInProgress.set(false);
+      return;
+    }
+    // the new segment must hold the acceptor state that the old segments are deleted with
+    wal.appendPromise(promiseId.get());
+    synchronized (ballotLock) {
+      wal.appendBallot(reservedRound);
+    }
+    for (Map.Entry<Long, AcceptedValue> entry : acceptedValues.tailMap(snapshotSlot, false).entrySet()) {
+      wal.appendAccept(entry.getKey(), entry.getValue().getProposalId(), entry.getValue().getValue());
+    }
+    snapshotExecutor.execute(() -> {
+      try {
+        long startNanos = System.nanoTime();
+        // copied before the entries are read, so that an expiry replayed on top of the snapshot
+        // always finds the deadline it removes
+        Map<String, Long> expiries = new HashMap<>(deadlines);
+        long count = snapshotStore.write(snapshotSlot, entries -> store.forEach((key, value) -> {
+          Long expiresAt = expiries.get(key);
+          entries.accept(key, value, expiresAt != null ? expiresAt : 0);
+        }));
+        int deleted = wal.deleteSegmentsBefore(segment);
+        snapshotStore.deleteOlderThan(snapshotSlot);
+        lastSnapshotSlot = snapshotSlot;
+        LOGGER.info("Server" + serverId + " snapshot of " + count + " keys through slot " + snapshotSlot + " in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms, deleted " + deleted + " log segments");
+      } catch (IOException e) {
+        LOGGER.severe("Server" + serverId + " snapshot through slot " + snapshotSlot + " failed: " + e.getMessage());
+      } finally {
+        snapshotInProgress.set(false);
+      }
+    });
+  }
+
+  /**
+   * Discards the accepted and chosen values of the slots up to the given one. The slots must be
+   * applied: a snapshot or the write-ahead log keeps their effect, not these maps.
+   *
+   * @param slot The last slot to discard.
+   */
+  private void compactMemory(long slot) {
+    acceptorLock.writeLock().lock();
+    try {
+      if (slot <= compactedThrough) {
+        return;
+      }
+      compactedThrough = slot;
+      acceptedValues.headMap(slot, true).clear();
+    } finally {
+      acceptorLock.writeLock().unlock();
+    }
+    chosenLog.headMap(slot, true).clear();
+  }
+
+  /**
+   * Stops the background threads and closes the write-ahead log.
+   */
+  public void shutdown() {
+    if (batcher != null) {
+      batcher.shutdown();
+    }
+    maintenanceExecutor.shutdownNow();
+    rpcExecutor.shutdownNow();
+    invalidations.shutdown();
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdown();
+      try {
+        snapshotExecutor.awaitTermination(PHASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (wal != null) {
+      try {
+        wal.close();
+      } catch (IOException e) {
+        LOGGER.severe("Server" + serverId + " failed to close write-ahead log: " + e.getMessage());
+      }
+    }
+    store.close();
+  }
+
+  /**
+   * Waits until a write-ahead log record is as durable as the configured mode guarantees.
+   *
+   * @param write The pending record, null when there is no write-ahead log.
+   * @throws RemoteException If the record could not be written.
+   */
+  private void awaitDurable(CompletableFuture<Void> write) throws RemoteException {
+    if (write == null) {
+      return;
+    }
+    try {
+      write.join();
+    } catch (CompletionException e) {
+      throw new RemoteException("Server" + serverId + " write-ahead log failed", e.getCause());
+    }
+  }
+
+  /**
+   * @param engine    The kind of engine.
+   * @param directory The data directory of this replica, null if it keeps its state in memory only.
+   * @param name      The name of this replica, for thread names.
+   * @return An empty storage engine.
+   * @throws IOException If the engine cannot prepare its files.
+   */
+  static StorageEngine newStorageEngine(Engine engine, Path directory, String name) throws IOException {
+    switch (engine) {
+      case LSM:
+        return new LsmEngine(directory != null ? directory.resolve("lsm") : Files.createTempDirectory(name + "-lsm"), name);
+      case SORTED:
+        return new SortedEngine();
+      case OFFHEAP:
+        return new OffHeapEngine();
+      case HASH:
+      default:
+        return new HashEngine();
+    }
+  }
+
+  private static ServerConfig newConfig(boolean failure, boolean multiPaxos) {
+    ServerConfig config = new ServerConfig();
+    config.setFailure(failure);
+    config.setMultiPaxos(multiPaxos);
+    return config;
+  }
+
+  /**
+   * Set the proposers for this server.
+   *
+   * @param proposers Array of proposers.
+   */
+  public void setProposers(ProposerInterface[] proposers) {
+    this.proposers = proposers;
   }
 
   /**
@@ -71,159 +553,1091 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
     this.learners = learners;
   }
 
+  /**
+   * Set the observers the chosen values are sent to without waiting for them.
+   *
+   * @param observers Array of observers.
+   */
+  public void setObservers(LearnerInterface[] observers) {
+    this.observers = observers;
+  }
+
   @Override
-  public synchronized boolean put(String key, String value) throws RemoteException {
-    LOGGER.info("Server" + serverId + " received request: " + Constants.PUT + " " + key + " " + value);
-    return proposeOperation(new Operation(Constants.PUT, key, value));
+  public boolean put(String key, String value) throws RemoteException {
+    event(EventType.PUT_RECEIVED, keyHash(key), 0);
+    if (key == null || value == null) {
+      LOGGER.warning("Server" + serverId + " rejected PUT without a key or value!!!");
+      return false;
+    }
+    long start = System.nanoTime();
+    try {
+      return submitOperation(new Operation(Constants.PUT, key, value));
+    } finally {
+      putMicros.recordMicrosSince(start);
+    }
+  }
+
+  @Override
+  public boolean put(String key, String value, long ttlMillis) throws RemoteException {
+    event(EventType.PUT_RECEIVED, keyHash(key), ttlMillis);
+    long now = System.currentTimeMillis();
+    if (key == null || value == null || ttlMillis < 1 || ttlMillis > Long.MAX_VALUE - now) {
+      LOGGER.warning("Server" + serverId + " rejected PUT without a key, value or a positive TTL that fits a deadline!!!");
+      return false;
+    }
+    // the deadline is fixed here and replicated with the value, so every replica expires the key at
+    // the same time whenever it applies the put
+    long start = System.nanoTime();
+    try {
+      return submitOperation(new Operation(Constants.PUT, key, value, now + ttlMillis));
+    } finally {
+      putMicros.recordMicrosSince(start);
+    }
   }
 
   @Override
   public String get(String key) throws RemoteException {
-    LOGGER.info("Server" + serverId + " received request: " + Constants.GET + " " + key);
-    String value = kvStore.get(key);
-    return value != null ? value : KEY_NOT_FOUND;
+    event(EventType.GET_RECEIVED, keyHash(key), 0);
+    long start = System.nanoTime();
+    try {
+      return read(() -> readLocal(key), leader -> leader.leaderRead(key));
+    } finally {
+      getMicros.recordMicrosSince(start);
+    }
   }
 
   @Override
-  public synchronized boolean delete(String key) throws RemoteException {
-    LOGGER.info("Server" + serverId + " received request: " + Constants.DELETE + " " + key);
-    return proposeOperation(new Operation(Constants.DELETE, key));
+  public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+    event(EventType.MULTI_GET_RECEIVED, keys.size(), 0);
+    long start = System.nanoTime();
+    try {
+      return read(() -> readLocal(keys), leader -> leader.leaderMultiRead(keys));
+    } finally {
+      multiGetMicros.recordMicrosSince(start);
+    }
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) throws RemoteException {
+    event(EventType.SCAN_RECEIVED, limit, 0);
+    if (limit < 1) {
+      throw new RemoteException("Server" + serverId + " scan limit must be positive: " + limit);
+    }
+    int pageSize = KeyRanges.pageSize(limit);
+    long start = System.nanoTime();
+    try {
+      return read(() -> scanLocal(startKey, endKey, pageSize), leader -> leader.leaderScan(startKey, endKey, pageSize));
+    } finally {
+      scanMicros.recordMicrosSince(start);
+    }
   }
 
   /**
-   * Propose an operation to be applied.
+   * Reads from the local store, or from the leader when reads are served under a lease. Observers
+   * always read their own store.
    *
-   * @param operation The operation to be proposed.
+   * @param local  Reads the local store.
+   * @param remote Reads on the leader when another replica is the leader.
+   * @return The result of the read.
+   * @throws RemoteException If no leader holds a read lease.
+   */
+  private <T> T read(Supplier<T> local, LeaderRead<T> remote) throws RemoteException {
+    if (!leaseReads || observer) {
+      return local.get();
+    }
+    for (int round = 0; round < MAX_ROUNDS; round++) {
+      if (holdsLease()) {
+        awaitApplied();
+        return local.get();
+      }
+      int leader = leaderId;
+      if (leader != -1 && leader != serverId) {
+        try {
+          return remote.read(proposers[leader]);
+        } catch (RemoteException e) {
+          LOGGER.info("Server" + serverId + " Leader" + leader + " read failed: " + e.getMessage());
+          if (leaderId == leader) {
+            leaderId = -1;
+          }
+        }
+      } else if (leaderBallot != -1) {
+        renewLease();
+      } else if (!proposeOperation(NO_OP)) {
+        // no leader known: committing a no-op elects this server and acquires the lease
+        break;
+      }
+    }
+    throw new RemoteException("Server" + serverId + " no leader holds a read lease");
+  }
+
+  @Override
+  public String leaderRead(String key) throws RemoteException {
+    awaitLeaseRead();
+    return readLocal(key);
+  }
+
+  @Override
+  public Map<String, String> leaderMultiRead(List<String> keys) throws RemoteException {
+    awaitLeaseRead();
+    return readLocal(keys);
+  }
+
+  @Override
+  public ScanResult leaderScan(String startKey, String endKey, int limit) throws RemoteException {
+    awaitLeaseRead();
+    return scanLocal(startKey, endKey, KeyRanges.pageSize(Math.max(1, limit)));
+  }
+
+  private void awaitLeaseRead() throws RemoteException {
+    if (!holdsLease()) {
+      throw new RemoteException("Server" + serverId + " does not hold a read lease");
+    }
+    awaitApplied();
+  }
+
+  private String readLocal(String key) {
+    String value = store.get(key);
+    return value != null && !isExpired(key) ? value : KEY_NOT_FOUND;
+  }
+
+  /**
+   * Scans the local store, leaving out the keys that expired but were not removed yet. The page
+   * may then hold fewer entries than the limit; the next key still continues the scan.
+   */
+  private ScanResult scanLocal(String startKey, String endKey, int pageSize) {
+    ScanResult page = store.scan(startKey, endKey, pageSize);
+    if (deadlines.isEmpty()) {
+      return page;
+    }
+    Map<String, String> entries = new LinkedHashMap<>(page.getEntries());
+    entries.keySet().removeIf(this::isExpired);
+    return new ScanResult(entries, page.getNextKey());
+  }
+
+  /**
+   * @param key The key to check.
+   * @return true if the key's time to live ran out. The key is served as missing until the
+   *     replicated expiry removes it.
+   */
+  private boolean isExpired(String key) {
+    if (deadlines.isEmpty()) {
+      return false;
+    }
+    Long deadline = deadlines.get(key);
+    return deadline != null && deadline <= System.currentTimeMillis();
+  }
+
+  /**
+   * Advances the expiry timing wheel and removes the keys whose time to live ran out, many keys
+   * per proposal. Only the leader proposes expiries; without a stable leader, replica i proposes
+   * once a key is overdue by i retry intervals, so normally only one replica does. Others check
+   * the key again after the retry interval, in case they lead by then.
+   */
+  private void expireKeys() {
+    long now = System.currentTimeMillis();
+    List<String> fired = expiryWheel.advance(now);
+    if (fired.isEmpty()) {
+      return;
+    }
+    List<Operation> expired = new ArrayList<>();
+    for (String key : fired) {
+      Long deadline = deadlines.get(key);
+      if (deadline == null || deadline > now) {
+        // the key was deleted or written again since the timer was set
+        continue;
+      }
+      boolean proposer = !observer && (multiPaxos ? leaderId == serverId : now - deadline >= serverId * EXPIRY_RETRY_MILLIS);
+      if (proposer) {
+        expired.add(new Operation(Operation.EXPIRE, key, null, deadline));
+      } else {
+        expiryWheel.schedule(key, now + EXPIRY_RETRY_MILLIS);
+      }
+    }
+    for (int from = 0; from < expired.size(); from += MAX_EXPIRY_BATCH) {
+      List<Operation> batch = expired.subList(from, Math.min(expired.size(), from + MAX_EXPIRY_BATCH));
+      rpcExecutor.execute(() -> proposeExpiry(batch));
+    }
+  }
+
+  private void proposeExpiry(List<Operation> batch) {
+    boolean committed = false;
+    try {
+      committed = proposeOperation(ProposalCodec.encode(batch));
+    } catch (RemoteException e) {
+      LOGGER.info("Server" + serverId + " expiry failed: " + e.getMessage());
+    }
+    if (committed) {
+      event(EventType.EXPIRY_PROPOSED, batch.size(), 0);
+      return;
+    }
+    long retryAt = System.currentTimeMillis() + EXPIRY_RETRY_MILLIS;
+    for (Operation operation : batch) {
+      expiryWheel.schedule(operation.key, retryAt);
+    }
+  }
+
+  /**
+   * Reads many keys in one pass over the store.
+   *
+   * @param keys The keys to read.
+   * @return The value of each key, or the key-not-found message, in the order of the keys.
+   */
+  private Map<String, String> readLocal(List<String> keys) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String key : keys) {
+      values.put(key, readLocal(key));
+    }
+    return values;
+  }
+
+  /**
+   * Waits until every value this proposer committed has been applied locally.
+   *
+   * @throws RemoteException If the committed values are not applied within the phase timeout.
+   */
+  private void awaitApplied() throws RemoteException {
+    long committed = commitIndex.get();
+    if (nextApplySlot <= committed) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_TIMEOUT_MILLIS);
+      synchronized (applyLock) {
+        while (nextApplySlot <= committed) {
+          long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          if (remaining <= 0) {
+            throw new RemoteException("Server" + serverId + " slot " + committed + " not applied");
+          }
+          try {
+            applyLock.wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Server" + serverId + " interrupted while waiting for slot " + committed);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean delete(String key) throws RemoteException {
+    event(EventType.DELETE_RECEIVED, keyHash(key), 0);
+    if (key == null) {
+      LOGGER.warning("Server" + serverId + " rejected DELETE without a key!!!");
+      return false;
+    }
+    long start = System.nanoTime();
+    try {
+      return submitOperation(new Operation(Constants.DELETE, key));
+    } finally {
+      deleteMicros.recordMicrosSince(start);
+    }
+  }
+
+  @Override
+  public Map<String, Boolean> multiPut(Map<String, String> pairs) throws RemoteException {
+    event(EventType.MULTI_PUT_RECEIVED, pairs.size(), 0);
+    List<Operation> operations = new ArrayList<>(pairs.size());
+    for (Map.Entry<String, String> pair : pairs.entrySet()) {
+      if (pair.getKey() != null && pair.getValue() != null) {
+        operations.add(new Operation(Constants.PUT, pair.getKey(), pair.getValue()));
+      }
+    }
+    long start = System.nanoTime();
+    try {
+      return commitAll(pairs.keySet(), operations);
+    } finally {
+      multiPutMicros.recordMicrosSince(start);
+    }
+  }
+
+  @Override
+  public Map<String, Boolean> multiDelete(List<String> keys) throws RemoteException {
+    event(EventType.MULTI_DELETE_RECEIVED, keys.size(), 0);
+    List<Operation> operations = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      if (key != null) {
+        operations.add(new Operation(Constants.DELETE, key));
+      }
+    }
+    long start = System.nanoTime();
+    try {
+      return commitAll(keys, operations);
+    } finally {
+      multiDeleteMicros.recordMicrosSince(start);
+    }
+  }
+
+  /**
+   * Commits many operations as one proposal, so they take a single consensus round and are applied
+   * together.
+   *
+   * @param keys       The requested keys.
+   * @param operations The valid operations among them.
+   * @return For each key, true if its operation was committed; false if it was invalid or the
+   *     proposal failed.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private Map<String, Boolean> commitAll(Collection<String> keys, List<Operation> operations) throws RemoteException {
+    boolean committed = !operations.isEmpty() && redirectUnlessCommitted(proposeOperation(ProposalCodec.encode(operations)));
+    Map<String, Boolean> results = new LinkedHashMap<>();
+    for (Operation operation : operations) {
+      results.put(operation.key, committed);
+    }
+    for (String key : keys) {
+      results.putIfAbsent(key, false);
+    }
+    return results;
+  }
+
+  /**
+   * Commits a client operation, through the batcher when batching is enabled.
+   *
+   * @param operation The operation to commit.
+   * @return true if the operation was committed; false otherwise
    * @throws RemoteException If a remote error occurs.
    */
-  private boolean proposeOperation(Operation operation) throws RemoteException {
-    int proposalId = generateProposalId();
-    return propose(proposalId, operation);
+  private boolean submitOperation(Operation operation) throws RemoteException {
+    if (batcher == null) {
+      return redirectUnlessCommitted(proposeOperation(ProposalCodec.encode(operation)));
+    }
+    try {
+      return redirectUnlessCommitted(batcher.submit(operation).get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RemoteException("Server" + serverId + " interrupted while waiting for batch");
+    } catch (ExecutionException e) {
+      throw new RemoteException("Server" + serverId + " batch failed", e.getCause());
+    }
+  }
+
+  /**
+   * Points the client at the leader when a write failed on this replica while another one leads.
+   *
+   * @param committed true if the write was committed.
+   * @return The given result.
+   * @throws NotLeaderException If the write failed and another replica is the known leader.
+   */
+  private boolean redirectUnlessCommitted(boolean committed) throws NotLeaderException {
+    int leader = leaderId;
+    if (!committed && multiPaxos && leader != -1 && leader != serverId) {
+      throw new NotLeaderException("Server" + serverId + " is not the leader, Leader" + leader + " is", leader);
+    }
+    return committed;
+  }
+
+  /**
+   * @return The server ID of the leader of this group, or -1 if no stable leader is known.
+   */
+  public int getLeader() {
+    return multiPaxos ? leaderId : -1;
   }
 
   @Override
-  public synchronized int prepare(int proposalId) throws RemoteException {
-    if (failure && random.nextDouble() < FAILURE_RATE) {
-      throw new RemoteException("Acceptor" + serverId + ": Simulated failure");
+  public int[] getLeaders() throws RemoteException {
+    return new int[] {getLeader()};
+  }
+
+  @Override
+  public long getLagMillis() throws RemoteException {
+    if (!observer) {
+      return 0;
+    }
+    long caughtUpAt = caughtUpAtMillis;
+    return caughtUpAt < 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - caughtUpAt);
+  }
+
+  @Override
+  public boolean subscribe(InvalidationListener listener) throws RemoteException {
+    return invalidations.subscribe(listener);
+  }
+
+  /**
+   * Makes this server try to become the leader of its group unless a leader is already known, by
+   * committing a no-op in the background. Used to spread the leaders of the shards over the servers.
+   */
+  public void claimLeadership() {
+    if (!multiPaxos) {
+      return;
+    }
+    maintenanceExecutor.execute(() -> {
+      try {
+        if (leaderId == -1 && !proposeOperation(NO_OP)) {
+          LOGGER.info("Server" + serverId + " could not claim leadership");
+        }
+      } catch (RemoteException e) {
+        LOGGER.info("Server" + serverId + " could not claim leadership: " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Returns the batch size and wait time distributions of this server's batcher.
+   *
+   * @return A one-line summary, or an empty string when batching is disabled.
+   */
+  public String getBatchStatistics() {
+    return batcher != null ? batcher.summary() : "";
+  }
+
+  /**
+   * @return The current metrics of this replica.
+   */
+  MetricsSnapshot getMetrics() {
+    return metrics.snapshot();
+  }
+
+  /**
+   * Propose an operation, or a batch of operations, to be applied.
+   *
+   * @param operation The operations to be proposed, encoded by {@link ProposalCodec}.
+   * @throws RemoteException If a remote error occurs.
+   */
+  private boolean proposeOperation(byte[] operation) throws RemoteException {
+    if (observer) {
+      return forwardToVoters(operation);
     }
-    LOGGER.info("Acceptor" + serverId + " received proposal id: " + proposalId);
-    if (isPendingAcceptedValue) {
-      LOGGER.info("Acceptor" + serverId + " pending promise id: " + promiseId);
-      return promiseId;
+    int leader = leaderId;
+    if (multiPaxos && leader != -1 && leader != serverId) {
+      try {
+        event(EventType.FORWARDED, leader, 0);
+        forwarded.increment();
+        return proposers[leader].propose(highestSeenPromise.get(), operation);
+      } catch (RemoteException e) {
+        LOGGER.info("Server" + serverId + " Leader" + leader + " unreachable: " + e.getMessage());
+        if (leaderId == leader) {
+          leaderId = -1;
+        }
+      }
     }
-    if (proposalId > promiseId) {
-      promiseId = proposalId;
+    return propose(highestSeenPromise.get(), operation);
+  }
+
+  /**
+   * Forwards a proposal of this observer to the leader, or while no leader is known, to the voting
+   * servers in turn until one of them is reached.
+   *
+   * @param operation The operations to be proposed, encoded by {@link ProposalCodec}.
+   * @return true if the operations were committed.
+   * @throws RemoteException If no voting server is reachable.
+   */
+  private boolean forwardToVoters(byte[] operation) throws RemoteException {
+    int leader = leaderId;
+    int first = leader != -1 ? leader : ThreadLocalRandom.current().nextInt(numServers);
+    RemoteException failure = null;
+    for (int i = 0; i < numServers; i++) {
+      int voter = (first + i) % numServers;
+      try {
+        event(EventType.FORWARDED, voter, 0);
+        forwarded.increment();
+        return proposers[voter].propose(highestSeenPromise.get(), operation);
+      } catch (RemoteException e) {
+        LOGGER.info("Observer" + serverId + " Server" + voter + " unreachable: " + e.getMessage());
+        if (leaderId == voter) {
+          leaderId = -1;
+        }
+        failure = e;
+      }
+    }
+    throw failure;
+  }
+
+  @Override
+  public Promise prepare(long proposalId, long fromSlot) throws RemoteException {
+    simulateFailure();
+    acceptorLock.writeLock().lock();
+    try {
+      event(EventType.PREPARE_RECEIVED, proposalId, fromSlot);
+      long promised = promiseId.get();
+      if (proposalId < promised) {
+        event(EventType.PREPARE_REJECTED, proposalId, promised);
+        return new Promise(false, promised, null, compactedThrough);
+      }
+      if (proposalId != grantedLeaseId && System.nanoTime() < grantedLeaseExpiryNanos) {
+        event(EventType.PREPARE_REJECTED_LEASE, proposalId, grantedLeaseId);
+        return new Promise(false, promised, null, compactedThrough);
+      }
+      promiseId.set(proposalId);
+      awaitDurable(wal != null ? wal.appendPromise(proposalId) : null);
+      event(EventType.PROMISE_SENT, proposalId, 0);
+      return new Promise(true, proposalId, new TreeMap<>(acceptedValues.tailMap(fromSlot)), compactedThrough);
+    } finally {
+      acceptorLock.writeLock().unlock();
     }
-    LOGGER.info("Acceptor" + serverId + " sending promise id: " + promiseId);
-    return promiseId;
   }
 
   @Override
-  public synchronized boolean accept(int proposalId, Object proposalValue) throws RemoteException {
-    // Implement Paxos accept logic here
+  public boolean accept(long slot, long proposalId, byte[] proposalValue) throws RemoteException {
+    simulateFailure();
+    acceptorLock.readLock().lock();
+    try {
+      long promised = promiseId.getAndAccumulate(proposalId, Math::max);
+      if (proposalId < promised) {
+        event(EventType.ACCEPT_REJECTED, proposalId, promised);
+        return false;
+      }
+      acceptedValues.merge(slot, new AcceptedValue(proposalId, proposalValue),
+              (current, proposed) -> proposed.getProposalId() >= current.getProposalId() ? proposed : current);
+      awaitDurable(wal != null ? wal.appendAccept(slot, proposalId, proposalValue) : null);
+      event(EventType.ACCEPTED, proposalId, slot);
+      return true;
+    } finally {
+      acceptorLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean grantLease(long proposalId, long durationMillis) throws RemoteException {
+    simulateFailure();
+    acceptorLock.writeLock().lock();
+    try {
+      if (proposalId < promiseId.get()) {
+        return false;
+      }
+      if (promiseId.getAndSet(proposalId) != proposalId) {
+        awaitDurable(wal != null ? wal.appendPromise(proposalId) : null);
+      }
+      grantedLeaseId = proposalId;
+      grantedLeaseExpiryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+      return true;
+    } finally {
+      acceptorLock.writeLock().unlock();
+    }
+  }
+
+  private void simulateFailure() throws RemoteException {
     if (failure && random.nextDouble() < FAILURE_RATE) {
       throw new RemoteException("Acceptor" + serverId + ": Simulated failure");
     }
-    if (proposalId < promiseId) {
-      LOGGER.info("Acceptor" + serverId + ": Proposal id " + proposalId + " < " + " Promise id" + promiseId);
+  }
+
+  @Override
+  public boolean propose(long seenBallot, byte[] proposalValue) throws RemoteException {
+    if (observer) {
+      return forwardToVoters(proposalValue);
+    }
+    event(EventType.PROPOSE_RECEIVED, seenBallot, 0);
+    highestSeenPromise.accumulateAndGet(seenBallot, Math::max);
+    long start = System.nanoTime();
+    inFlight.incrementAndGet();
+    try {
+      for (int round = 0; round < MAX_ROUNDS; round++) {
+        long ballot = leaderBallot;
+        if (ballot == -1) {
+          ballot = elect(nextBallot());
+          if (ballot == ELECTION_UNREACHABLE) {
+            // If consensus has not been reached.
+            LOGGER.warning("Proposer" + serverId + " Consensus has not been reached!!!");
+            failedProposals.increment();
+            return false;
+          }
+        }
+        if (ballot != ELECTION_REJECTED) {
+          long slot = nextSlot.getAndIncrement();
+          List<Boolean> replies = sendAccept(slot, ballot, proposalValue);
+          // Unreachable acceptors do not cost the ballot: retry the same slot while nobody rejects it.
+          while (countAccepted(replies) < MAJORITY_COUNT && !replies.contains(Boolean.FALSE)
+                  && ++round < MAX_ROUNDS && leaderBallot == ballot) {
+            retries.increment();
+            replies = sendAccept(slot, ballot, proposalValue);
+          }
+          if (countAccepted(replies) >= MAJORITY_COUNT) {
+            event(EventType.CHOSEN, ballot, slot);
+            commitIndex.accumulateAndGet(slot, Math::max);
+            sendLearn(slot, ballot, proposalValue);
+            return true;
+          }
+          // the slot stays open until the next election of a proposer finishes it
+          LOGGER.warning("Proposer" + serverId + " lost proposal id: " + Ballot.toString(ballot) + " at slot: " + slot);
+          stepDown(ballot);
+        }
+        // Another proposer holds a higher ballot: wait for it to finish its round, then redo the
+        // round with a ballot above it.
+        wastedRounds.increment();
+        retries.increment();
+        if (round + 1 < MAX_ROUNDS && !backOff(round)) {
+          break;
+        }
+      }
+      LOGGER.warning("Proposer" + serverId + " Consensus has not been reached after " + MAX_ROUNDS + " rounds!!!");
+      failedProposals.increment();
       return false;
+    } finally {
+      proposeMicros.recordMicrosSince(start);
+      if (inFlight.decrementAndGet() == 0 && !multiPaxos) {
+        stepDown(leaderBallot);
+      }
+    }
+  }
+
+  /**
+   * Runs the prepare phase for every slot this server has not applied yet. On success the proposal
+   * ID becomes the ballot of this proposer: slots left open by a previous proposer are finished with
+   * the highest accepted value, or a no-op if no acceptor of the majority accepted one, and new
+   * values are proposed after them without another prepare phase.
+   *
+   * @param proposalId The proposal ID to prepare.
+   * @return The ballot now held, {@code ELECTION_REJECTED} if an acceptor has promised a higher
+   *     proposal ID, or {@code ELECTION_UNREACHABLE} if a majority of acceptors did not reply.
+   */
+  private long elect(long proposalId) {
+    synchronized (electionLock) {
+      long ballot = leaderBallot;
+      if (ballot != -1) {
+        // a concurrent proposal of this server won an election meanwhile
+        return ballot;
+      }
+      long fromSlot = nextApplySlot;
+      int replyCount = 0;
+      int grantedCount = 0;
+      TreeMap<Long, AcceptedValue> recovered = new TreeMap<>();
+      elections.increment();
+      long start = System.nanoTime();
+      List<Promise> promises = sendPrepare(proposalId, fromSlot);
+      prepareMicros.recordMicrosSince(start);
+      for (Promise promise : promises) {
+        if (promise == null) {
+          continue;
+        }
+        replyCount++;
+        highestSeenPromise.accumulateAndGet(promise.getPromiseId(), Math::max);
+        if (promise.isGranted()) {
+          if (promise.getCompactedThrough() >= fromSlot) {
+            LOGGER.warning("Proposer" + serverId + " is behind the snapshot of an acceptor at slot: " +
+                    promise.getCompactedThrough() + ", applied through: " + (fromSlot - 1));
+            return ELECTION_REJECTED;
+          }
+          grantedCount++;
+          for (Map.Entry<Long, AcceptedValue> entry : promise.getAcceptedValues().entrySet()) {
+            recovered.merge(entry.getKey(), entry.getValue(),
+                    (current, other) -> other.getProposalId() > current.getProposalId() ? other : current);
+          }
+        }
+      }
+      if (grantedCount < MAJORITY_COUNT) {
+        return replyCount >= MAJORITY_COUNT ? ELECTION_REJECTED : ELECTION_UNREACHABLE;
+      }
+
+      long lastSlot = Math.max(fromSlot, nextSlot.get()) - 1;
+      if (!recovered.isEmpty()) {
+        lastSlot = Math.max(lastSlot, recovered.lastKey());
+      }
+      if (!pendingChosen.isEmpty()) {
+        lastSlot = Math.max(lastSlot, pendingChosen.lastKey());
+      }
+      nextSlot.accumulateAndGet(lastSlot + 1, Math::max);
+      for (long slot = fromSlot; slot <= lastSlot; slot++) {
+        byte[] value = pendingChosen.get(slot);
+        if (value == null) {
+          AcceptedValue accepted = recovered.get(slot);
+          value = accepted != null ? accepted.getValue() : NO_OP;
+          if (countAccepted(sendAccept(slot, proposalId, value)) < MAJORITY_COUNT) {
+            LOGGER.warning("Proposer" + serverId + " failed to recover slot: " + slot);
+            return ELECTION_REJECTED;
+          }
+        }
+        commitIndex.accumulateAndGet(slot, Math::max);
+        sendLearn(slot, proposalId, value);
+      }
+      LOGGER.info("Proposer" + serverId + " holds proposal id: " + Ballot.toString(proposalId) + " from slot: " + nextSlot.get());
+      leaderBallot = proposalId;
+      if (multiPaxos) {
+        becomeLeader(proposalId);
+        renewLease();
+      }
+      return proposalId;
     }
-    LOGGER.info("Acceptor" + serverId + " accepted proposal id: " + proposalId);
-    isPendingAcceptedValue = true;
-    acceptedValue = proposalValue;
-    return true;
   }
 
   @Override
-  public synchronized boolean propose(int proposalId, Object proposalValue) throws RemoteException {
-    LOGGER.info("Proposer" + serverId + " received request with proposal id: " + proposalId);
-    // used to store replies from acceptor
-    int[] replies = new int[numServers];
-    Arrays.fill(replies, -1);
-    // Send prepare message to all acceptors
+  public void leaderElected(int leaderId, long ballot) throws RemoteException {
+    if (ballot < knownLeaderBallot) {
+      return;
+    }
+    knownLeaderBallot = ballot;
+    this.leaderId = leaderId;
+    if (leaderId != serverId) {
+      stepDown(leaderBallot);
+    }
+    LOGGER.info("Server" + serverId + " Leader" + leaderId + " elected with ballot: " + Ballot.toString(ballot));
+  }
+
+  /**
+   * Sends the prepare message to every acceptor in parallel.
+   *
+   * @param proposalId The proposal ID to prepare.
+   * @param fromSlot   The first slot the promise must cover.
+   * @return Promises per acceptor, null for acceptors that did not reply before a majority granted
+   *     the promise.
+   */
+  private List<Promise> sendPrepare(long proposalId, long fromSlot) {
+    List<Callable<Promise>> calls = new ArrayList<>(numServers);
+    for (int i = 0; i < numServers; i++) {
+      AcceptorInterface acceptor = acceptors[i];
+      event(EventType.PREPARE_SENT, proposalId, i);
+      calls.add(timed(acceptorMicros[i], () -> acceptor.prepare(proposalId, fromSlot)));
+    }
+    return Quorum.collect(rpcExecutor, calls, MAJORITY_COUNT, Promise::isGranted, PHASE_TIMEOUT_MILLIS,
+            replica -> event(EventType.CALL_FAILED, replica, proposalId));
+  }
+
+  /**
+   * Sends the accept message for one slot to every acceptor in parallel.
+   *
+   * @param slot          The slot of the replicated log.
+   * @param proposalId    The ballot to accept the value with.
+   * @param proposalValue The value being proposed.
+   * @return Replies per acceptor: true if accepted, false if rejected, null for no reply.
+   */
+  private List<Boolean> sendAccept(long slot, long proposalId, byte[] proposalValue) {
+    long start = System.nanoTime();
+    List<Callable<Boolean>> calls = new ArrayList<>(numServers);
     for (int i = 0; i < numServers; i++) {
+      AcceptorInterface acceptor = acceptors[i];
+      calls.add(timed(acceptorMicros[i], () -> acceptor.accept(slot, proposalId, proposalValue)));
+    }
+    List<Boolean> replies = Quorum.collect(rpcExecutor, calls, MAJORITY_COUNT, Boolean.TRUE::equals, PHASE_TIMEOUT_MILLIS,
+            replica -> event(EventType.CALL_FAILED, replica, proposalId));
+    acceptMicros.recordMicrosSince(start);
+    return replies;
+  }
+
+  /**
+   * Wraps a call to an acceptor so that its round trip is recorded, also when it completes after
+   * the quorum was reached.
+   *
+   * @param micros The histogram of the acceptor.
+   * @param call   The call.
+   * @return The call that records its time.
+   */
+  private static <T> Callable<T> timed(Histogram micros, Callable<T> call) {
+    return () -> {
+      long start = System.nanoTime();
       try {
-        // store replies from acceptor
-        LOGGER.info("Proposer" + serverId + " sending proposal with proposal id: " + proposalId + " to Acceptor" + i);
-        replies[i] = acceptors[i].prepare(proposalId);
-      } catch (Exception e) {
-        LOGGER.info(e.getMessage());
+        return call.call();
+      } finally {
+        micros.recordMicrosSince(start);
+      }
+    };
+  }
+
+  private static int countAccepted(List<Boolean> replies) {
+    int acceptedCount = 0;
+    for (Boolean accepted : replies) {
+      if (Boolean.TRUE.equals(accepted)) {
+        acceptedCount++;
       }
     }
+    return acceptedCount;
+  }
 
-    Map<Integer, Integer> frequencyMap = new HashMap<>();
+  /**
+   * Asks the acceptors to extend the read lease of the ballot this proposer holds as leader. The
+   * lease is counted from before the request was sent, so it expires on the leader no later than on
+   * any acceptor that granted it.
+   */
+  private void renewLease() {
+    long ballot = leaderBallot;
+    if (!leaseReads || ballot == -1 || leaderId != serverId) {
+      return;
+    }
+    long start = System.nanoTime();
+    List<Callable<Boolean>> calls = new ArrayList<>(numServers);
+    for (int i = 0; i < numServers; i++) {
+      AcceptorInterface acceptor = acceptors[i];
+      calls.add(() -> acceptor.grantLease(ballot, leaseMillis));
+    }
+    List<Boolean> replies = Quorum.collect(rpcExecutor, calls, MAJORITY_COUNT, Boolean.TRUE::equals, PHASE_TIMEOUT_MILLIS,
+            replica -> event(EventType.CALL_FAILED, replica, ballot));
+    if (countAccepted(replies) >= MAJORITY_COUNT) {
+      heldLeaseExpiryNanos = start + (long) (TimeUnit.MILLISECONDS.toNanos(leaseMillis) * LEASE_SAFETY_FACTOR);
+      heldLeaseId = ballot;
+    } else if (replies.contains(Boolean.FALSE)) {
+      LOGGER.warning("Proposer" + serverId + " lease rejected for proposal id: " + Ballot.toString(ballot));
+      stepDown(ballot);
+    }
+  }
+
+  /**
+   * @return true if this proposer is the leader and its read lease has not expired.
+   */
+  private boolean holdsLease() {
+    long ballot = leaderBallot;
+    return ballot != -1 && heldLeaseId == ballot && System.nanoTime() < heldLeaseExpiryNanos;
+  }
+
+  /**
+   * Sends the chosen value of one slot to every learner and waits until a majority learned it.
+   * Observers are sent the value too, but not waited for.
+   *
+   * @param slot          The slot of the replicated log.
+   * @param proposalId    The ballot the value was chosen with.
+   * @param proposalValue The chosen value.
+   */
+  private void sendLearn(long slot, long proposalId, byte[] proposalValue) {
+    long start = System.nanoTime();
+    List<Callable<Boolean>> calls = new ArrayList<>(numServers);
+    for (int i = 0; i < numServers; i++) {
+      LearnerInterface learner = learners[i];
+      calls.add(() -> {
+        learner.learn(slot, proposalId, proposalValue);
+        return true;
+      });
+    }
+    for (LearnerInterface observer : observers) {
+      rpcExecutor.execute(() -> {
+        try {
+          observer.learn(slot, proposalId, proposalValue);
+        } catch (RemoteException e) {
+          // the observer fetches the values it missed from the voting servers
+        }
+      });
+    }
+    Quorum.collect(rpcExecutor, calls, MAJORITY_COUNT, Boolean.TRUE::equals, PHASE_TIMEOUT_MILLIS,
+            replica -> event(EventType.CALL_FAILED, replica, proposalId));
+    learnMicros.recordMicrosSince(start);
+  }
+
+  /**
+   * Keeps the ballot of a successful election and announces the leadership to the other proposers.
+   *
+   * @param ballot The ballot that won the prepare phase.
+   */
+  private void becomeLeader(long ballot) {
+    knownLeaderBallot = Math.max(knownLeaderBallot, ballot);
+    leaderId = serverId;
+    LOGGER.info("Proposer" + serverId + " became leader with ballot: " + Ballot.toString(ballot));
     for (int i = 0; i < numServers; i++) {
-      if (replies[i] != -1) {
-        frequencyMap.put(replies[i], frequencyMap.getOrDefault(replies[i], 0) + 1);
+      if (i == serverId) {
+        continue;
+      }
+      try {
+        proposers[i].leaderElected(serverId, ballot);
+      } catch (Exception e) {
+        LOGGER.info("Proposer" + serverId + " Proposer" + i + " unreachable: " + e.getMessage());
       }
     }
-    int frequentProposalId = -1;
-    int frequency = 0;
-    for (Map.Entry<Integer, Integer> entry : frequencyMap.entrySet()) {
-      if (entry.getValue() > frequency) {
-        frequency = entry.getValue();
-        frequentProposalId = entry.getKey();
+  }
+
+  /**
+   * Gives up the leader ballot, if it is still the one held.
+   *
+   * @param ballot The ballot to give up.
+   */
+  private void stepDown(long ballot) {
+    if (ballot != -1 && leaderBallot == ballot) {
+      leaderBallot = -1;
+      if (leaderId == serverId) {
+        leaderId = -1;
       }
     }
+  }
 
-    int acceptedCount = 0;
-    if (frequency >= MAJORITY_COUNT) {
-      for (int i = 0; i < numServers; i++) {
-        if (replies[i] != -1) {
-          try {
-            if (acceptors[i].accept(frequentProposalId, proposalValue)) {
-              acceptedCount++;
-            }
-          } catch (Exception e) {
-            LOGGER.info(e.getMessage());
-          }
+  @Override
+  public void learn(long slot, long proposalId, byte[] acceptedValue) throws RemoteException {
+    if (slot >= nextApplySlot) {
+      pendingChosen.putIfAbsent(slot, acceptedValue);
+      applyChosen(true);
+    }
+    if (observer) {
+      // values are chosen by the leader, so the ballot tells this observer where to send writes
+      if (multiPaxos && proposalId > knownLeaderBallot) {
+        knownLeaderBallot = proposalId;
+        leaderId = Ballot.serverId(proposalId);
+      }
+      if (pendingChosen.isEmpty()) {
+        caughtUpAtMillis = System.currentTimeMillis();
+      }
+    }
+    event(EventType.LEARNED, proposalId, slot);
+  }
+
+  @Override
+  public Map<Long, byte[]> getChosen(long fromSlot, int maxCount) throws RemoteException {
+    Map<Long, byte[]> chosen = new LinkedHashMap<>();
+    for (Map.Entry<Long, byte[]> entry : chosenLog.tailMap(fromSlot).entrySet()) {
+      if (chosen.size() >= maxCount) {
+        break;
+      }
+      chosen.put(entry.getKey(), entry.getValue());
+    }
+    return chosen;
+  }
+
+  /**
+   * Applies chosen values in slot order, up to the first slot not chosen yet, and discards the
+   * values of the slots more than {@link #LOG_RETAIN_SLOTS} behind, with or without snapshots.
+   *
+   * @param log true to record the applied values in the write-ahead log.
+   */
+  private void applyChosen(boolean log) {
+    long compactSlot;
+    synchronized (applyLock) {
+      byte[] value;
+      while ((value = pendingChosen.remove(nextApplySlot)) != null) {
+        long start = System.nanoTime();
+        applyValue(value);
+        applyMicros.recordMicrosSince(start);
+        if (log && wal != null) {
+          // learned values can be fetched from other learners again, so they are not waited for
+          wal.appendLearn(nextApplySlot, value);
         }
+        chosenLog.put(nextApplySlot, value);
+        nextApplySlot++;
       }
-      if (acceptedCount >= MAJORITY_COUNT && frequentProposalId == proposalId) {
-        LOGGER.warning("Proposer" + serverId + " Consensus has been reached!!!");
-        for (int i = 0; i < numServers; i++) {
-          try {
-            this.learners[i].learn(frequentProposalId, this.acceptedValue);
-          } catch (Exception e) {
-            LOGGER.info("Proposer" + serverId + " Learner" + i + " failed!!!");
+      // values learned again after they were applied
+      pendingChosen.headMap(nextApplySlot).clear();
+      applyLock.notifyAll();
+      if (log && snapshotStore != null && snapshotIntervalSlots > 0
+              && nextApplySlot - 1 - lastSnapshotSlot >= snapshotIntervalSlots
+              && snapshotInProgress.compareAndSet(false, true)) {
+        startSnapshot();
+      }
+      compactSlot = nextApplySlot - 1 - LOG_RETAIN_SLOTS;
+    }
+    // in steps, so that accepts are not held up by the acceptor lock after every slot
+    if (compactSlot - compactedThrough >= COMPACT_INTERVAL_SLOTS) {
+      compactMemory(compactSlot);
+    }
+  }
+
+  /**
+   * Fetches missed slots from the other learners when later slots have been waiting for them for a
+   * whole catch-up interval.
+   */
+  private void catchUp() {
+    long gapSlot = nextApplySlot;
+    if (observer && pendingChosen.isEmpty() && learners != null) {
+      poll();
+      return;
+    }
+    if (pendingChosen.isEmpty() || learners == null) {
+      catchUpGapSlot = -1;
+      return;
+    }
+    if (catchUpGapSlot != gapSlot) {
+      // give learns still in flight one interval to arrive
+      catchUpGapSlot = gapSlot;
+      return;
+    }
+    for (int i = 0; i < numServers; i++) {
+      if (i == serverId) {
+        continue;
+      }
+      try {
+        Map<Long, byte[]> chosen = learners[i].getChosen(gapSlot, CATCH_UP_BATCH);
+        if (chosen.containsKey(gapSlot)) {
+          LOGGER.info("Learner" + serverId + " caught up " + chosen.size() + " slots from Learner" + i);
+          for (Map.Entry<Long, byte[]> entry : chosen.entrySet()) {
+            pendingChosen.putIfAbsent(entry.getKey(), entry.getValue());
           }
+          applyChosen(true);
+          return;
         }
-        return true;
-      } else {
-        // If the frequent id returned > proposal ID, then
-        // generate new id and redo the propose step.
-        while (frequentProposalId > proposalId) {
-          LOGGER.info("Proposer" + serverId + " Updating the sequence Num!!!");
-          proposalId = generateProposalId();
+      } catch (Exception e) {
+        LOGGER.info("Learner" + serverId + " Learner" + i + " unreachable: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Fetches the values chosen after the last one this observer applied from a voting server, the
+   * leader if known, unless a value was learned within the last catch-up interval. When the server
+   * had no more values, this observer is caught up as of the time it asked.
+   */
+  private void poll() {
+    long now = System.currentTimeMillis();
+    if (now - caughtUpAtMillis < CATCH_UP_INTERVAL_MILLIS) {
+      return;
+    }
+    int leader = leaderId;
+    int first = leader != -1 ? leader : pollServer;
+    for (int i = 0; i < numServers; i++) {
+      int voter = (first + i) % numServers;
+      try {
+        Map<Long, byte[]> chosen = learners[voter].getChosen(nextApplySlot, CATCH_UP_BATCH);
+        for (Map.Entry<Long, byte[]> entry : chosen.entrySet()) {
+          pendingChosen.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        applyChosen(true);
+        if (chosen.size() < CATCH_UP_BATCH && pendingChosen.isEmpty()) {
+          caughtUpAtMillis = now;
         }
-        this.propose(proposalId, proposalValue);
+        pollServer = voter;
+        return;
+      } catch (Exception e) {
+        LOGGER.info("Observer" + serverId + " Learner" + voter + " unreachable: " + e.getMessage());
       }
-    } else {
-      // If consensus has not been reached.
-      LOGGER.warning("Proposer" + serverId + " Consensus has not been reached!!!");
+    }
+  }
+
+  /**
+   * Generates a ballot of this server in a round above every ballot it has seen, including the
+   * promise of its own acceptor. Rounds are reserved in the write-ahead log in blocks before they
+   * are used, so a restarted server never reuses a ballot it may have sent before.
+   *
+   * @return A ballot no other server and no earlier round of this server uses.
+   * @throws RemoteException If the reservation cannot be written to the write-ahead log.
+   */
+  private long nextBallot() throws RemoteException {
+    synchronized (ballotLock) {
+      long seen = Math.max(highestSeenPromise.get(), promiseId.get());
+      boolean raised = Ballot.round(seen) >= ballotRound;
+      ballotRound = Math.max(ballotRound, Ballot.round(seen)) + 1;
+      if (wal != null && ballotRound > reservedRound) {
+        reservedRound = ballotRound + BALLOT_RESERVE_ROUNDS;
+        awaitDurable(wal.appendBallot(reservedRound));
+      }
+      long ballot = Ballot.of(ballotRound, serverId);
+      if (raised) {
+        event(EventType.PROPOSAL_ID_RAISED, ballot, seen);
+      } else {
+        event(EventType.PROPOSAL_ID_GENERATED, ballot, ballotRound);
+      }
+      return ballot;
+    }
+  }
+
+  /**
+   * Waits a random time before the next round of a proposal, at most twice as long as before the
+   * previous round.
+   *
+   * @param round The round that failed, from 0.
+   * @return false if the proposal was interrupted and should give up.
+   */
+  private boolean backOff(int round) {
+    long delay = ThreadLocalRandom.current().nextLong(
+            1 + Math.min(ROUND_BACKOFF_MAX_MILLIS, ROUND_BACKOFF_BASE_MILLIS << Math.min(round, 20)));
+    try {
+      Thread.sleep(delay);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       return false;
     }
-    return false;
   }
 
-  @Override
-  public synchronized void learn(int proposalId, Object acceptedValue) throws RemoteException {
-    // Implement Paxos learn logic here
-    applyOperation((Operation) acceptedValue);
-    isPendingAcceptedValue = false;
-    LOGGER.info("Learner" + serverId + " learned proposal id: " + proposalId);
+  /**
+   * Records an event of this replica in the {@link EventLog}.
+   *
+   * @param type The event.
+   * @param a    The first number of the event.
+   * @param b    The second number of the event.
+   */
+  private void event(EventType type, long a, long b) {
+    EventLog.record(type, serverId, shardId, a, b);
+  }
+
+  private static long keyHash(String key) {
+    return key == null ? 0 : key.hashCode() & 0xffffffffL;
   }
 
   /**
-   * Generates a unique proposal ID.
+   * Apply a chosen value, a batch of one or more operations, to the key-value store.
    *
-   * @return A unique proposal ID.
+   * @param value The chosen value, encoded by {@link ProposalCodec}.
    */
-  private int generateProposalId() {
-    // Placeholder code to generate a unique proposal ID
-    int id = sequenceNum.incrementAndGet();
-    LOGGER.info("Generated sequence no: " + id);
-    return id;
+  private void applyValue(byte[] value) {
+    for (Operation operation : ProposalCodec.decode(value)) {
+      applyOperation(operation);
+    }
   }
 
   /**
@@ -236,12 +1650,32 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
 
     switch (operation.type) {
       case Constants.PUT:
-        kvStore.put(operation.key, operation.value);
-        LOGGER.info("Server" + serverId + " PUT successful!!!");
+        store.put(operation.key, operation.value);
+        if (operation.expiresAt > 0) {
+          deadlines.put(operation.key, operation.expiresAt);
+          expiryWheel.schedule(operation.key, operation.expiresAt);
+        } else {
+          deadlines.remove(operation.key);
+        }
+        invalidations.keyChanged(operation.key);
+        event(EventType.APPLIED_PUT, keyHash(operation.key), nextApplySlot);
         break;
       case Constants.DELETE:
-        kvStore.remove(operation.key);
-        LOGGER.info("Server" + serverId + " DELETE successful!!!");
+        store.remove(operation.key);
+        deadlines.remove(operation.key);
+        invalidations.keyChanged(operation.key);
+        event(EventType.APPLIED_DELETE, keyHash(operation.key), nextApplySlot);
+        break;
+      case Operation.EXPIRE:
+        // a key written again after the expiry was proposed has another deadline and is kept
+        Long deadline = deadlines.get(operation.key);
+        if (deadline != null && deadline == operation.expiresAt) {
+          // removed before its deadline, so that readers never see the value without it
+          store.remove(operation.key);
+          deadlines.remove(operation.key);
+          invalidations.keyChanged(operation.key);
+          event(EventType.APPLIED_EXPIRE, keyHash(operation.key), nextApplySlot);
+        }
         break;
       default:
         throw new IllegalArgumentException("Unknown operation type: " + operation.type);
@@ -249,22 +1683,10 @@ public class Server extends UnicastRemoteObject implements ProposerInterface, Ac
   }
 
   /**
-   * Static class representing an operation on the key-value store.
+   * Reads on the leader replica.
    */
-  private static class Operation {
-    String type;
-    String key;
-    String value;
-
-    Operation(String type, String key, String value) {
-      this.type = type;
-      this.key = key;
-      this.value = value;
-    }
-
-    Operation(String type, String key) {
-      this(type, key, null);
-    }
+  private interface LeaderRead<T> {
+    T read(ProposerInterface leader) throws RemoteException;
   }
 
   // Other methods as needed
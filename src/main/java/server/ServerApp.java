@@ -2,11 +2,24 @@ package server;
 
 import common.App;
 import common.Constants;
+import common.Membership;
+import common.NioClient;
+import common.NioServer;
+import common.SelectorLoop;
+import common.Transport;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
@@ -19,14 +32,13 @@ public class ServerApp implements App {
   private static final Logger LOGGER = Logger.getLogger(ServerApp.class.getName());
   private static final String SERVER_LOGGING_PROPERTIES = File.separator + "server-logging.properties";
   private final int port;
-  private boolean failure;
+  private final ServerConfig config;
 
   /**
    * Create the Server App object.
    */
   public ServerApp() {
-    this.port = Constants.DEFAULT_RMI_PORT;
-    this.failure = false;
+    this(Constants.DEFAULT_RMI_PORT);
   }
 
   /**
@@ -35,13 +47,36 @@ public class ServerApp implements App {
    * @param port server rmi port number.
    */
   public ServerApp(int port) {
-    this.port = port;
-    this.failure =false;
+    this(port, false);
   }
 
   public ServerApp(int port, boolean failure) {
+    this(port, failure, false);
+  }
+
+  /**
+   * Create the Server App object with given server rmi port number and consensus mode.
+   *
+   * @param port       server rmi port number.
+   * @param failure    true to simulate acceptor failures.
+   * @param multiPaxos true to let a stable leader skip the prepare phase.
+   */
+  public ServerApp(int port, boolean failure, boolean multiPaxos) {
+    this.port = port;
+    this.config = new ServerConfig();
+    this.config.setFailure(failure);
+    this.config.setMultiPaxos(multiPaxos);
+  }
+
+  /**
+   * Create the Server App object with given server rmi port number and replica settings.
+   *
+   * @param port   server rmi port number.
+   * @param config replica settings.
+   */
+  public ServerApp(int port, ServerConfig config) {
     this.port = port;
-    this.failure = failure;
+    this.config = config;
   }
 
   @Override
@@ -51,42 +86,192 @@ public class ServerApp implements App {
     } catch (IOException e) {
       System.err.println("Unable to read log properties file!!!");
     }
-    // Set the RMI server hostname to localhost
-    System.setProperty("java.rmi.server.hostname", Constants.LOCAL_HOST);
+    if (config.getEventLogDirectory() != null) {
+      try {
+        EventLog.start(eventLogDirectory());
+      } catch (IOException e) {
+        LOGGER.warning("Unable to record consensus events: " + e.getMessage());
+      }
+    }
     try {
-      // Total number of servers
-      int numServers = 5;
+      Membership membership = membership();
+      // voting servers have IDs 0 to numServers - 1, observers the IDs after them
+      int numServers = membership.getVoterCount();
+      int numReplicas = membership.size();
+      List<Integer> localIds = localServerIds(numReplicas);
+      // Stubs of the replicas of this process carry the host the other processes reach it at
+      System.setProperty("java.rmi.server.hostname", membership.getHost(localIds.get(0)));
 
-      Server[] servers = new Server[numServers];
+      int numShards = config.getShards();
+
+      // servers[serverId][shardId]: every server hosts a replica of every shard; null for the
+      // servers run by other processes
+      Server[][] servers = new Server[numReplicas][];
+      ShardRouter[] routers = new ShardRouter[numReplicas];
+      boolean nio = config.getTransport() == Transport.NIO;
+      NioServer[] nioServers = new NioServer[numReplicas];
 
       // Create and bind servers
-      for (int serverId = 0; serverId < numServers; serverId++) {
-        int port = this.port + serverId; // Increment port for each server
+      for (int serverId : localIds) {
+        int port = membership.getPort(serverId);
 
-        // Create server instance
-        servers[serverId] = new Server(serverId, numServers, this.failure);
+        // Create server instances, one per shard
+        servers[serverId] = new Server[numShards];
+        for (int shardId = 0; shardId < numShards; shardId++) {
+          servers[serverId][shardId] = new Server(serverId, numServers, this.config, shardId);
+        }
+        routers[serverId] = new ShardRouter(serverId, servers[serverId]);
 
-        // Create RMI Registry
-        Registry registry = LocateRegistry.createRegistry(port);
-        // Bind the server to the RMI registry
-        registry.rebind(Constants.REMOTE_OBJECT + serverId, servers[serverId]);
+        if (nio) {
+          nioServers[serverId] = new NioServer("Server" + serverId, new InetSocketAddress(membership.getHost(serverId), port),
+                  new ReplicaDispatcher(routers[serverId]));
+        } else {
+          // Create RMI Registry
+          Registry registry = LocateRegistry.createRegistry(port);
+          // Bind the server to the RMI registry, and each shard for the replicas of other processes
+          registry.rebind(Constants.REMOTE_OBJECT + serverId, routers[serverId]);
+          for (int shardId = 0; shardId < numShards; shardId++) {
+            registry.rebind(RmiPeer.objectName(serverId, shardId), servers[serverId][shardId]);
+          }
+        }
 
-        LOGGER.info("Server" + serverId + " is ready at port " + port);
+        LOGGER.info("Server" + serverId + " is ready at " + membership.getHost(serverId) + ":" + port + " (" +
+                config.getTransport() + ", " + numShards + " shards, " + numServers + " replicas" +
+                (membership.isObserver(serverId) ? ", observer" : "") + ")");
       }
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        for (int serverId : localIds) {
+          if (nioServers[serverId] != null) {
+            nioServers[serverId].close();
+          }
+          routers[serverId].shutdown();
+          for (Server server : servers[serverId]) {
+            server.shutdown();
+          }
+        }
+        EventLog.stop();
+      }));
 
-      // Set acceptors and learners for each server
-      for (int serverId = 0; serverId < numServers; serverId++) {
-        AcceptorInterface[] acceptors = new AcceptorInterface[numServers];
-        LearnerInterface[] learners = new LearnerInterface[numServers];
-        for (int i = 0; i < numServers; i++) {
-          acceptors[i] = servers[i];
-          learners[i] = servers[i];
+      // With the binary transport replicas call each other through their sockets, one connection
+      // per replica shared by every caller and shard. With RMI replicas of this process call each
+      // other directly and the others through the stubs of their shards.
+      NioClient[] nioClients = new NioClient[numReplicas];
+      if (nio) {
+        SelectorLoop replicaLoop = new SelectorLoop("replica-nio");
+        for (int i = 0; i < numReplicas; i++) {
+          nioClients[i] = new NioClient(membership.getHost(i), membership.getPort(i), replicaLoop);
+        }
+      }
+
+      // Set proposers, acceptors and learners of each shard for each server, and the observers the
+      // voting servers send chosen values to
+      for (int shardId = 0; shardId < numShards; shardId++) {
+        for (int serverId : localIds) {
+          ProposerInterface[] proposers = new ProposerInterface[numServers];
+          AcceptorInterface[] acceptors = new AcceptorInterface[numServers];
+          LearnerInterface[] learners = new LearnerInterface[numServers];
+          LearnerInterface[] observers = new LearnerInterface[numReplicas - numServers];
+          for (int i = 0; i < numReplicas; i++) {
+            ProposerInterface proposer;
+            AcceptorInterface acceptor;
+            LearnerInterface learner;
+            if (nio && i != serverId) {
+              NioReplica replica = new NioReplica(nioClients[i], shardId);
+              proposer = replica;
+              acceptor = replica;
+              learner = replica;
+            } else if (servers[i] == null) {
+              RmiPeer peer = new RmiPeer(membership.getHost(i), membership.getPort(i), i, shardId);
+              proposer = peer;
+              acceptor = peer;
+              learner = peer;
+            } else {
+              proposer = servers[i][shardId];
+              acceptor = servers[i][shardId];
+              learner = servers[i][shardId];
+            }
+            if (i < numServers) {
+              proposers[i] = proposer;
+              acceptors[i] = acceptor;
+              learners[i] = learner;
+            } else {
+              observers[i - numServers] = learner;
+            }
+          }
+          servers[serverId][shardId].setProposers(proposers);
+          servers[serverId][shardId].setAcceptors(acceptors);
+          servers[serverId][shardId].setLearners(learners);
+          if (!membership.isObserver(serverId)) {
+            servers[serverId][shardId].setObservers(observers);
+          }
+        }
+        // spread the leaders of the shards over the servers
+        if (servers[shardId % numServers] != null) {
+          servers[shardId % numServers][shardId].claimLeadership();
         }
-        servers[serverId].setAcceptors(acceptors);
-        servers[serverId].setLearners(learners);
+      }
+
+      long metricsInterval = config.getMetricsIntervalSeconds();
+      if (metricsInterval > 0) {
+        ScheduledExecutorService metricsExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "metrics");
+          thread.setDaemon(true);
+          return thread;
+        });
+        metricsExecutor.scheduleAtFixedRate(() -> {
+          for (int serverId : localIds) {
+            try {
+              LOGGER.info("Server" + serverId + " metrics:\n" + routers[serverId].getMetrics());
+            } catch (Exception e) {
+              LOGGER.warning("Server" + serverId + " metrics failed: " + e.getMessage());
+            }
+          }
+        }, metricsInterval, metricsInterval, TimeUnit.SECONDS);
       }
     } catch (Exception e) {
       LOGGER.severe(e.getMessage());
     }
   }
+
+  /**
+   * @return The replicas listed in the membership file, else the configured number of replicas and
+   *     observers on consecutive ports of the local host.
+   * @throws IOException If the membership file cannot be read.
+   */
+  private Membership membership() throws IOException {
+    if (config.getMembershipFile() != null) {
+      return Membership.load(Paths.get(config.getMembershipFile()));
+    }
+    return Membership.local(Constants.LOCAL_HOST, port, config.getReplicaCount(), config.getObserverCount());
+  }
+
+  /**
+   * @param numServers The number of replicas of the cluster, observers included.
+   * @return The IDs of the replicas run by this process.
+   */
+  private List<Integer> localServerIds(int numServers) {
+    List<Integer> localIds = config.getServerIds();
+    if (localIds == null) {
+      localIds = new ArrayList<>();
+      for (int serverId = 0; serverId < numServers; serverId++) {
+        localIds.add(serverId);
+      }
+    }
+    for (int serverId : localIds) {
+      if (serverId >= numServers) {
+        throw new IllegalArgumentException("Server" + serverId + " is not a member of the " + numServers + " replicas");
+      }
+    }
+    return localIds;
+  }
+
+  /**
+   * @return The configured event directory; a subdirectory of it for a process running one replica
+   *     of a cluster, as such processes may share the directory.
+   */
+  private Path eventLogDirectory() {
+    Path directory = Paths.get(config.getEventLogDirectory());
+    List<Integer> localIds = config.getServerIds();
+    return localIds == null ? directory : directory.resolve("server" + localIds.get(0));
+  }
 }
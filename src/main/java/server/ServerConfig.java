@@ -0,0 +1,356 @@
+package server;
+
+import common.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code ServerConfig} class holds the tunable settings of a {@link Server} replica.
+ */
+public class ServerConfig {
+
+  private boolean failure;
+  private boolean multiPaxos;
+  private int maxBatchSize = 1;
+  private long batchWindowMillis = 2;
+  private int maxBatchesInFlight = 4;
+  private long leaseMillis = 2000;
+  private String dataDirectory;
+  private String eventLogDirectory;
+  private long metricsIntervalSeconds = 60;
+  private Durability durability = Durability.BATCH;
+  private long syncIntervalMillis = 50;
+  private long snapshotIntervalSlots = 10000;
+  private Transport transport = Transport.RMI;
+  private int shards = 1;
+  private Engine engine = Engine.HASH;
+  private int replicaCount = 5;
+  private int observerCount = 0;
+  private String membershipFile;
+  private List<Integer> serverIds;
+
+  /**
+   * @return true if acceptors simulate failures.
+   */
+  public boolean isFailure() {
+    return failure;
+  }
+
+  /**
+   * @param failure true to simulate acceptor failures.
+   */
+  public void setFailure(boolean failure) {
+    this.failure = failure;
+  }
+
+  /**
+   * @return true if a stable leader skips the prepare phase.
+   */
+  public boolean isMultiPaxos() {
+    return multiPaxos;
+  }
+
+  /**
+   * @param multiPaxos true to let a stable leader skip the prepare phase.
+   */
+  public void setMultiPaxos(boolean multiPaxos) {
+    this.multiPaxos = multiPaxos;
+  }
+
+  /**
+   * @return The maximum number of client writes proposed as one value; 1 disables batching.
+   */
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * @param maxBatchSize The maximum number of client writes proposed as one value.
+   */
+  public void setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: " + maxBatchSize);
+    }
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * @return How long the batcher waits for more writes after the first one of a batch arrived.
+   */
+  public long getBatchWindowMillis() {
+    return batchWindowMillis;
+  }
+
+  /**
+   * @param batchWindowMillis How long the batcher waits for more writes after the first one.
+   */
+  public void setBatchWindowMillis(long batchWindowMillis) {
+    if (batchWindowMillis < 0) {
+      throw new IllegalArgumentException("Batch window must not be negative: " + batchWindowMillis);
+    }
+    this.batchWindowMillis = batchWindowMillis;
+  }
+
+  /**
+   * @return The maximum number of batches a server commits at once.
+   */
+  public int getMaxBatchesInFlight() {
+    return maxBatchesInFlight;
+  }
+
+  /**
+   * @param maxBatchesInFlight The maximum number of batches a server commits at once.
+   */
+  public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+    if (maxBatchesInFlight < 1) {
+      throw new IllegalArgumentException("Batches in flight must be at least 1: " + maxBatchesInFlight);
+    }
+    this.maxBatchesInFlight = maxBatchesInFlight;
+  }
+
+  /**
+   * @return true if client writes are batched.
+   */
+  public boolean isBatching() {
+    return maxBatchSize > 1;
+  }
+
+  /**
+   * @return How long a read lease granted by a majority of acceptors lasts; 0 disables leases.
+   */
+  public long getLeaseMillis() {
+    return leaseMillis;
+  }
+
+  /**
+   * @param leaseMillis How long a read lease granted by a majority of acceptors lasts.
+   */
+  public void setLeaseMillis(long leaseMillis) {
+    if (leaseMillis < 0) {
+      throw new IllegalArgumentException("Lease must not be negative: " + leaseMillis);
+    }
+    this.leaseMillis = leaseMillis;
+  }
+
+  /**
+   * @return true if the Multi-Paxos leader serves linearizable reads under a lease.
+   */
+  public boolean isLeaseReads() {
+    return multiPaxos && leaseMillis > 0;
+  }
+
+  /**
+   * @return The directory holding the replicas' write-ahead logs, null to keep state in memory only.
+   */
+  public String getDataDirectory() {
+    return dataDirectory;
+  }
+
+  /**
+   * @param dataDirectory The directory holding the replicas' write-ahead logs.
+   */
+  public void setDataDirectory(String dataDirectory) {
+    this.dataDirectory = dataDirectory;
+  }
+
+  /**
+   * @return The directory of the consensus event files, null to record no events.
+   */
+  public String getEventLogDirectory() {
+    return eventLogDirectory;
+  }
+
+  /**
+   * @param eventLogDirectory The directory of the consensus event files.
+   */
+  public void setEventLogDirectory(String eventLogDirectory) {
+    this.eventLogDirectory = eventLogDirectory;
+  }
+
+  /**
+   * @return Seconds between the metrics written to the server log, 0 to never write them.
+   */
+  public long getMetricsIntervalSeconds() {
+    return metricsIntervalSeconds;
+  }
+
+  /**
+   * @param metricsIntervalSeconds Seconds between the metrics written to the server log, 0 to never
+   *                               write them.
+   */
+  public void setMetricsIntervalSeconds(long metricsIntervalSeconds) {
+    if (metricsIntervalSeconds < 0) {
+      throw new IllegalArgumentException("Metrics interval must not be negative: " + metricsIntervalSeconds);
+    }
+    this.metricsIntervalSeconds = metricsIntervalSeconds;
+  }
+
+  /**
+   * @return When write-ahead log records are synced to disk.
+   */
+  public Durability getDurability() {
+    return durability;
+  }
+
+  /**
+   * @param durability When write-ahead log records are synced to disk.
+   */
+  public void setDurability(Durability durability) {
+    this.durability = durability;
+  }
+
+  /**
+   * @return The sync interval of the write-ahead log in {@link Durability#PERIODIC} mode.
+   */
+  public long getSyncIntervalMillis() {
+    return syncIntervalMillis;
+  }
+
+  /**
+   * @param syncIntervalMillis The sync interval of the write-ahead log in periodic mode.
+   */
+  public void setSyncIntervalMillis(long syncIntervalMillis) {
+    if (syncIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Sync interval must be positive: " + syncIntervalMillis);
+    }
+    this.syncIntervalMillis = syncIntervalMillis;
+  }
+
+  /**
+   * @return The number of applied slots between snapshots of a replica with a data directory;
+   *     0 disables snapshots.
+   */
+  public long getSnapshotIntervalSlots() {
+    return snapshotIntervalSlots;
+  }
+
+  /**
+   * @param snapshotIntervalSlots The number of applied slots between snapshots; 0 disables them.
+   */
+  public void setSnapshotIntervalSlots(long snapshotIntervalSlots) {
+    if (snapshotIntervalSlots < 0) {
+      throw new IllegalArgumentException("Snapshot interval must not be negative: " + snapshotIntervalSlots);
+    }
+    this.snapshotIntervalSlots = snapshotIntervalSlots;
+  }
+
+  /**
+   * @return The number of shards the keyspace is partitioned into, each an independent Paxos group.
+   */
+  public int getShards() {
+    return shards;
+  }
+
+  /**
+   * @param shards The number of shards the keyspace is partitioned into.
+   */
+  public void setShards(int shards) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("Shard count must be at least 1: " + shards);
+    }
+    this.shards = shards;
+  }
+
+  /**
+   * @return The storage engine holding the key-value state of each replica.
+   */
+  public Engine getEngine() {
+    return engine;
+  }
+
+  /**
+   * @param engine The storage engine holding the key-value state of each replica.
+   */
+  public void setEngine(Engine engine) {
+    this.engine = engine;
+  }
+
+  /**
+   * @return How clients and replicas call the replicas.
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * @param transport How clients and replicas call the replicas.
+   */
+  public void setTransport(Transport transport) {
+    this.transport = transport;
+  }
+
+  /**
+   * @return The number of replicas started on consecutive ports when there is no membership file.
+   */
+  public int getReplicaCount() {
+    return replicaCount;
+  }
+
+  /**
+   * @param replicaCount The number of replicas started on consecutive ports when there is no
+   *                     membership file.
+   */
+  public void setReplicaCount(int replicaCount) {
+    if (replicaCount < 1 || replicaCount > Ballot.MAX_SERVERS) {
+      throw new IllegalArgumentException("Replica count must be between 1 and " + Ballot.MAX_SERVERS + ": " + replicaCount);
+    }
+    this.replicaCount = replicaCount;
+  }
+
+  /**
+   * @return The number of non-voting observer replicas started on the ports after the replicas
+   *     when there is no membership file.
+   */
+  public int getObserverCount() {
+    return observerCount;
+  }
+
+  /**
+   * @param observerCount The number of non-voting observer replicas started on the ports after the
+   *                      replicas when there is no membership file.
+   */
+  public void setObserverCount(int observerCount) {
+    if (observerCount < 0 || observerCount > Ballot.MAX_SERVERS) {
+      throw new IllegalArgumentException("Observer count must be between 0 and " + Ballot.MAX_SERVERS + ": " + observerCount);
+    }
+    this.observerCount = observerCount;
+  }
+
+  /**
+   * @return The file listing the replicas of the cluster and their addresses, or null for
+   *     replicas on consecutive ports of the local host.
+   */
+  public String getMembershipFile() {
+    return membershipFile;
+  }
+
+  /**
+   * @param membershipFile The file listing the replicas of the cluster and their addresses.
+   */
+  public void setMembershipFile(String membershipFile) {
+    this.membershipFile = membershipFile;
+  }
+
+  /**
+   * @return The IDs of the replicas run by this process, or null to run every replica.
+   */
+  public List<Integer> getServerIds() {
+    return serverIds;
+  }
+
+  /**
+   * @param serverIds The IDs of the replicas run by this process, or null to run every replica.
+   */
+  public void setServerIds(List<Integer> serverIds) {
+    if (serverIds != null) {
+      for (int serverId : serverIds) {
+        if (serverId < 0) {
+          throw new IllegalArgumentException("Server ID must not be negative: " + serverId);
+        }
+      }
+      serverIds = new ArrayList<>(serverIds);
+    }
+    this.serverIds = serverIds;
+  }
+}
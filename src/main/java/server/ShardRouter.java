@@ -0,0 +1,263 @@
+package server;
+
+import common.InvalidationListener;
+import common.KVStoreInterface;
+import common.KeyRanges;
+import common.MetricsInterface;
+import common.MetricsSnapshot;
+import common.ScanResult;
+import common.Shards;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code ShardRouter} class is the client entry point of one server that hosts a replica of
+ * every shard. Each key is handled by the {@link Server} instance of its shard; multi-key
+ * operations are split by shard and the parts run in parallel, each committed by its own group.
+ * The metrics of the server add up those of its shards.
+ */
+public class ShardRouter extends UnicastRemoteObject implements KVStoreInterface, MetricsInterface {
+
+  private static final long serialVersionUID = 1L;
+  private final int serverId;
+  private final Server[] shards;
+  private final ExecutorService executor;
+
+  /**
+   * Create the router of one server.
+   *
+   * @param serverId The unique ID of this server.
+   * @param shards   The Server instance of each shard on this server, by shard ID.
+   * @throws RemoteException If the router cannot be exported.
+   */
+  public ShardRouter(int serverId, Server[] shards) throws RemoteException {
+    this.serverId = serverId;
+    this.shards = shards;
+    this.executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "Server" + serverId + "-router");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param shardId The shard ID.
+   * @return The Server instance of the shard on this server.
+   */
+  Server getShard(int shardId) {
+    if (shardId < 0 || shardId >= shards.length) {
+      throw new IllegalArgumentException("Server" + serverId + " has no shard " + shardId);
+    }
+    return shards[shardId];
+  }
+
+  private Server shardOf(String key) {
+    return shards[key != null ? Shards.shardOf(key, shards.length) : 0];
+  }
+
+  @Override
+  public boolean put(String key, String value) throws RemoteException {
+    return shardOf(key).put(key, value);
+  }
+
+  @Override
+  public boolean put(String key, String value, long ttlMillis) throws RemoteException {
+    return shardOf(key).put(key, value, ttlMillis);
+  }
+
+  @Override
+  public String get(String key) throws RemoteException {
+    return shardOf(key).get(key);
+  }
+
+  @Override
+  public boolean delete(String key) throws RemoteException {
+    return shardOf(key).delete(key);
+  }
+
+  @Override
+  public Map<String, String> multiGet(List<String> keys) throws RemoteException {
+    return splitByShard(keys, (shard, shardKeys) -> shard.multiGet(shardKeys));
+  }
+
+  @Override
+  public Map<String, Boolean> multiPut(Map<String, String> pairs) throws RemoteException {
+    return splitByShard(pairs.keySet(), (shard, shardKeys) -> {
+      Map<String, String> shardPairs = new LinkedHashMap<>();
+      for (String key : shardKeys) {
+        shardPairs.put(key, pairs.get(key));
+      }
+      return shard.multiPut(shardPairs);
+    });
+  }
+
+  @Override
+  public Map<String, Boolean> multiDelete(List<String> keys) throws RemoteException {
+    return splitByShard(keys, (shard, shardKeys) -> shard.multiDelete(shardKeys));
+  }
+
+  /**
+   * Scans every shard for the range and merges the pages: each shard returns the smallest keys of
+   * its part of the range, so the smallest keys of all of them are the page of the whole keyspace,
+   * and the smallest key left over is where the next page starts.
+   */
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) throws RemoteException {
+    if (shards.length == 1 || limit < 1) {
+      return shards[0].scan(startKey, endKey, limit);
+    }
+    int pageSize = KeyRanges.pageSize(limit);
+    List<CompletableFuture<ScanResult>> parts = new ArrayList<>();
+    for (Server shard : shards) {
+      parts.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return shard.scan(startKey, endKey, pageSize);
+        } catch (RemoteException e) {
+          throw new CompletionException(e);
+        }
+      }, executor));
+    }
+    TreeMap<String, String> merged = new TreeMap<>();
+    String nextKey = null;
+    for (CompletableFuture<ScanResult> part : parts) {
+      ScanResult page = join(part);
+      merged.putAll(page.getEntries());
+      nextKey = min(nextKey, page.getNextKey());
+    }
+    Map<String, String> page = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : merged.entrySet()) {
+      if (page.size() == pageSize) {
+        nextKey = min(nextKey, entry.getKey());
+        break;
+      }
+      page.put(entry.getKey(), entry.getValue());
+    }
+    return new ScanResult(page, nextKey);
+  }
+
+  @Override
+  public int[] getLeaders() throws RemoteException {
+    int[] leaders = new int[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      leaders[i] = shards[i].getLeader();
+    }
+    return leaders;
+  }
+
+  /**
+   * @return The lag of the shard furthest behind.
+   */
+  @Override
+  public long getLagMillis() throws RemoteException {
+    long lag = 0;
+    for (Server shard : shards) {
+      lag = Math.max(lag, shard.getLagMillis());
+    }
+    return lag;
+  }
+
+  @Override
+  public MetricsSnapshot getMetrics() throws RemoteException {
+    MetricsSnapshot metrics = new MetricsSnapshot();
+    for (Server shard : shards) {
+      metrics.add(shard.getMetrics());
+    }
+    return metrics;
+  }
+
+  /**
+   * Subscribes the listener to the writes of every shard on this server.
+   *
+   * @return true if any shard did not have the listener yet.
+   */
+  @Override
+  public boolean subscribe(InvalidationListener listener) throws RemoteException {
+    boolean added = false;
+    for (Server shard : shards) {
+      added |= shard.subscribe(listener);
+    }
+    return added;
+  }
+
+  /**
+   * Runs a multi-key operation on every shard owning some of the keys, in parallel.
+   *
+   * @param keys The keys of the operation.
+   * @param call Runs the operation on one shard for its keys.
+   * @return The results of all shards, in the order of the keys.
+   * @throws RemoteException If the operation failed on any shard.
+   */
+  private <T> Map<String, T> splitByShard(Collection<String> keys, ShardCall<T> call) throws RemoteException {
+    Map<Server, List<String>> keysByShard = new LinkedHashMap<>();
+    for (String key : keys) {
+      keysByShard.computeIfAbsent(shardOf(key), shard -> new ArrayList<>()).add(key);
+    }
+    if (keysByShard.isEmpty()) {
+      return new LinkedHashMap<>();
+    }
+    if (keysByShard.size() == 1) {
+      Map.Entry<Server, List<String>> only = keysByShard.entrySet().iterator().next();
+      return call.apply(only.getKey(), only.getValue());
+    }
+    List<CompletableFuture<Map<String, T>>> parts = new ArrayList<>();
+    for (Map.Entry<Server, List<String>> entry : keysByShard.entrySet()) {
+      parts.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return call.apply(entry.getKey(), entry.getValue());
+        } catch (RemoteException e) {
+          throw new CompletionException(e);
+        }
+      }, executor));
+    }
+    Map<String, T> merged = new HashMap<>();
+    for (CompletableFuture<Map<String, T>> part : parts) {
+      merged.putAll(join(part));
+    }
+    Map<String, T> results = new LinkedHashMap<>();
+    for (String key : keys) {
+      results.put(key, merged.get(key));
+    }
+    return results;
+  }
+
+  private static String min(String a, String b) {
+    return a == null || (b != null && b.compareTo(a) < 0) ? b : a;
+  }
+
+  private <T> T join(CompletableFuture<T> part) throws RemoteException {
+    try {
+      return part.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RemoteException) {
+        throw (RemoteException) e.getCause();
+      }
+      throw new RemoteException("Server" + serverId + " multi-key operation failed", e.getCause());
+    }
+  }
+
+  /**
+   * Stops the threads running multi-key operations.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * A multi-key operation on the keys of one shard.
+   */
+  private interface ShardCall<T> {
+    Map<String, T> apply(Server shard, List<String> keys) throws RemoteException;
+  }
+}
@@ -0,0 +1,305 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code SnapshotStore} class writes point-in-time snapshots of the key-value store and loads
+ * the latest one on restart. A snapshot file holds a header with the last slot it covers, the
+ * entries as length-prefixed UTF-8 keys and values each followed by the time the key expires at,
+ * and a trailer with the entry count and a CRC32 of the entries. Snapshots are written to a
+ * temporary file and renamed once synced, and they are read back through memory-mapped windows of
+ * at most 1 GB, so a snapshot may be larger than one buffer can address. The log segments a
+ * snapshot replaces are deleted once it is written, so a corrupt latest snapshot fails recovery
+ * rather than falling back to an older one.
+ */
+class SnapshotStore {
+
+  /**
+   * Receives the entries of a snapshot.
+   */
+  interface EntryConsumer {
+
+    /**
+     * @param key       The key.
+     * @param value     The value.
+     * @param expiresAt The time the key expires at in milliseconds since the epoch, 0 if it does not.
+     */
+    void accept(String key, String value, long expiresAt);
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(SnapshotStore.class.getName());
+  private static final int MAGIC = 0x4b56534e;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 16;
+  private static final int TRAILER_BYTES = 12;
+  private static final String PREFIX = "snapshot-";
+  private static final String SUFFIX = ".snap";
+  private static final int WINDOW_BYTES = 1 << 30;
+  private final Path directory;
+  // the most bytes of a snapshot mapped at once, unless a single key or value is longer
+  private final int windowBytes;
+
+  /**
+   * Creates a snapshot store.
+   *
+   * @param directory The directory holding the snapshot files.
+   * @throws IOException If the directory cannot be created.
+   */
+  SnapshotStore(Path directory) throws IOException {
+    this(directory, WINDOW_BYTES);
+  }
+
+  /**
+   * Creates a snapshot store that maps snapshots in windows of the given size.
+   *
+   * @param directory   The directory holding the snapshot files.
+   * @param windowBytes The most bytes mapped at once.
+   * @throws IOException If the directory cannot be created.
+   */
+  SnapshotStore(Path directory, int windowBytes) throws IOException {
+    this.directory = directory;
+    this.windowBytes = windowBytes;
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * Writes a snapshot of the given store. The store may change while it is written, as long as the
+   * log from the slot after {@code lastSlot} is replayed on top of the snapshot.
+   *
+   * @param lastSlot The last slot applied to the store when the snapshot started.
+   * @param store    Hands every entry of the key-value store to a consumer.
+   * @return The number of entries written.
+   * @throws IOException If the snapshot cannot be written.
+   */
+  long write(long lastSlot, Consumer<EntryConsumer> store) throws IOException {
+    Path target = snapshotPath(lastSlot);
+    Path temporary = directory.resolve(target.getFileName() + ".tmp");
+    long count;
+    long[] counter = new long[1];
+    CRC32 crc = new CRC32();
+    byte[] expiry = new byte[8];
+    try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(lastSlot);
+      store.accept((key, value, expiresAt) -> {
+        try {
+          writeBytes(out, key.getBytes(StandardCharsets.UTF_8), crc);
+          writeBytes(out, value.getBytes(StandardCharsets.UTF_8), crc);
+          ByteBuffer.wrap(expiry).putLong(expiresAt);
+          out.write(expiry);
+          crc.update(expiry);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        counter[0]++;
+      });
+      count = counter[0];
+      out.writeLong(count);
+      out.writeInt((int) crc.getValue());
+      out.flush();
+      file.getFD().sync();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    // the rename must be durable before the caller deletes the log segments the snapshot replaces
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+    return count;
+  }
+
+  /**
+   * Loads the latest snapshot. An older snapshot is never used instead of a corrupt latest one,
+   * because the log segments between the two may already be deleted.
+   *
+   * @param consumer Receives every key and value of the snapshot.
+   * @return The last slot covered by the snapshot, -1 if there is no snapshot.
+   * @throws IOException If the latest snapshot is corrupt or cannot be read.
+   */
+  long loadLatest(EntryConsumer consumer) throws IOException {
+    List<Long> slots = listSnapshots();
+    if (slots.isEmpty()) {
+      return -1;
+    }
+    long slot = slots.get(slots.size() - 1);
+    Path path = snapshotPath(slot);
+    if (!read(path, consumer)) {
+      LOGGER.severe(path + " is corrupt, refusing to recover from an older snapshot!!!");
+      throw new IOException(path + " is corrupt");
+    }
+    return slot;
+  }
+
+  /**
+   * Deletes the snapshots older than the given one, and leftover temporary files.
+   *
+   * @param lastSlot The last slot of the snapshot to keep.
+   * @throws IOException If a file cannot be deleted.
+   */
+  void deleteOlderThan(long lastSlot) throws IOException {
+    for (long slot : listSnapshots()) {
+      if (slot < lastSlot) {
+        Files.deleteIfExists(snapshotPath(slot));
+      }
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + ".tmp")) {
+      for (Path path : files) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  /**
+   * Checks the snapshot in a first pass over the mapped file and hands its entries to the consumer
+   * in a second pass, so a corrupt snapshot is never partially loaded.
+   */
+  private boolean read(Path path, EntryConsumer consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES + TRAILER_BYTES) {
+        return false;
+      }
+      MappedInput input = new MappedInput(channel, size, windowBytes);
+      int magic = input.getInt();
+      int version = input.getInt();
+      if (magic != MAGIC || version != VERSION) {
+        return false;
+      }
+      long entriesEnd = size - TRAILER_BYTES;
+      input.seek(entriesEnd);
+      long expectedCount = input.getLong();
+      int expectedCrc = input.getInt();
+      CRC32 crc = new CRC32();
+      long count = 0;
+      input.seek(HEADER_BYTES);
+      while (input.position() < entriesEnd) {
+        for (int field = 0; field < 2; field++) {
+          if (input.position() + 4 > entriesEnd) {
+            return false;
+          }
+          int length = input.getInt();
+          if (length < 0 || length > entriesEnd - input.position()) {
+            return false;
+          }
+          crc.update(input.take(length));
+        }
+        if (input.position() + 8 > entriesEnd) {
+          return false;
+        }
+        crc.update(input.take(8));
+        count++;
+      }
+      if (count != expectedCount || (int) crc.getValue() != expectedCrc) {
+        return false;
+      }
+      input.seek(HEADER_BYTES);
+      while (input.position() < entriesEnd) {
+        String key = readString(input);
+        String value = readString(input);
+        consumer.accept(key, value, input.getLong());
+      }
+      return true;
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes, CRC32 crc) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    crc.update(bytes);
+  }
+
+  private static String readString(MappedInput input) throws IOException {
+    return StandardCharsets.UTF_8.decode(input.take(input.getInt())).toString();
+  }
+
+  private Path snapshotPath(long lastSlot) {
+    return directory.resolve(String.format("%s%020d%s", PREFIX, lastSlot, SUFFIX));
+  }
+
+  private List<Long> listSnapshots() throws IOException {
+    List<Long> slots = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+      for (Path path : files) {
+        String name = path.getFileName().toString();
+        slots.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+      }
+    }
+    Collections.sort(slots);
+    return slots;
+  }
+
+  /**
+   * Reads a file through a memory-mapped window that is moved along as the file is read. A read
+   * that runs past the window maps a new one starting at the read.
+   */
+  private static class MappedInput {
+    private final FileChannel channel;
+    private final long size;
+    private final int windowBytes;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    MappedInput(FileChannel channel, long size, int windowBytes) {
+      this.channel = channel;
+      this.size = size;
+      this.windowBytes = windowBytes;
+    }
+
+    long position() {
+      return position;
+    }
+
+    void seek(long position) {
+      this.position = position;
+    }
+
+    int getInt() throws IOException {
+      return take(4).getInt();
+    }
+
+    long getLong() throws IOException {
+      return take(8).getLong();
+    }
+
+    /**
+     * @param length The number of bytes to read, at most the bytes left in the file.
+     * @return A buffer over the next bytes of the file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    ByteBuffer take(int length) throws IOException {
+      if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+        windowStart = position;
+        long bytes = Math.min(size - position, Math.max(length, windowBytes));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+      }
+      ByteBuffer bytes = window.duplicate();
+      int offset = (int) (position - windowStart);
+      bytes.position(offset).limit(offset + length);
+      position += length;
+      return bytes;
+    }
+  }
+}
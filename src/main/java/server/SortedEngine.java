@@ -0,0 +1,53 @@
+package server;
+
+import common.ScanResult;
+
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code SortedEngine} class keeps the state in a concurrent skip list ordered by key. Point
+ * reads and writes take logarithmic time and a scan only visits the keys of its page.
+ */
+class SortedEngine implements StorageEngine {
+
+  private final ConcurrentSkipListMap<String, String> map = new ConcurrentSkipListMap<>();
+
+  @Override
+  public String get(String key) {
+    return map.get(key);
+  }
+
+  @Override
+  public void put(String key, String value) {
+    map.put(key, value);
+  }
+
+  @Override
+  public void remove(String key) {
+    map.remove(key);
+  }
+
+  @Override
+  public long size() {
+    return map.size();
+  }
+
+  @Override
+  public void forEach(BiConsumer<String, String> consumer) {
+    map.forEach(consumer);
+  }
+
+  @Override
+  public ScanResult scan(String startKey, String endKey, int limit) {
+    NavigableMap<String, String> range = map;
+    if (startKey != null) {
+      range = range.tailMap(startKey, true);
+    }
+    if (endKey != null) {
+      range = range.headMap(endKey, false);
+    }
+    return StorageEngine.page(range.entrySet().iterator(), limit);
+  }
+}
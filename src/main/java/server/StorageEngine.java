@@ -0,0 +1,81 @@
+package server;
+
+import common.ScanResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The {@code StorageEngine} interface is the key-value state a replica applies chosen operations to
+ * and serves reads from. Operations are applied by one learner thread at a time, while reads,
+ * scans and snapshots run concurrently with them.
+ */
+interface StorageEngine {
+
+  /**
+   * @param key The key to read.
+   * @return The value of the key, or null if it is absent.
+   */
+  String get(String key);
+
+  /**
+   * @param key   The key to write.
+   * @param value The value of the key.
+   */
+  void put(String key, String value);
+
+  /**
+   * @param key The key to remove.
+   */
+  void remove(String key);
+
+  /**
+   * @return The number of keys, or an estimate where counting them would mean reading them all.
+   */
+  long size();
+
+  /**
+   * Hands every entry to the consumer, in no particular order. Entries written during the pass may
+   * or may not be seen.
+   *
+   * @param consumer Receives every key and value.
+   */
+  void forEach(BiConsumer<String, String> consumer);
+
+  /**
+   * Returns the entries of a key range in key order.
+   *
+   * @param startKey The first key of the range, or null for the start of the keyspace.
+   * @param endKey   The key after the range, or null for the end of the keyspace.
+   * @param limit    The maximum number of entries, at least 1.
+   * @return The first entries of the range and the start key of the next page.
+   */
+  ScanResult scan(String startKey, String endKey, int limit);
+
+  /**
+   * Releases the memory, threads and files of the engine. The engine is not used afterwards.
+   */
+  default void close() {
+  }
+
+  /**
+   * Takes up to {@code limit} entries of a range as one page.
+   *
+   * @param entries The entries of the range, in key order.
+   * @param limit   The maximum number of entries of the page.
+   * @return The page, with the first key after it if the range has more entries.
+   */
+  static ScanResult page(Iterator<Map.Entry<String, String>> entries, int limit) {
+    Map<String, String> page = new LinkedHashMap<>();
+    while (entries.hasNext()) {
+      Map.Entry<String, String> entry = entries.next();
+      if (page.size() == limit) {
+        return new ScanResult(page, entry.getKey());
+      }
+      page.put(entry.getKey(), entry.getValue());
+    }
+    return new ScanResult(page, null);
+  }
+}
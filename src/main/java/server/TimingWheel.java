@@ -0,0 +1,135 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code TimingWheel} class is a hierarchical timing wheel: timers are kept in rings of 64
+ * buckets, where a bucket of the first ring spans one tick and a bucket of each further ring spans
+ * a whole turn of the ring below it. Scheduling a timer and firing it are O(1); a timer moves down
+ * one ring each time the ring below completes a turn, at most once per ring. Five rings of 10 ms
+ * ticks cover about four months, and later deadlines wait in the last ring until they come in
+ * range.
+ *
+ * <p>Timers cannot be cancelled; whoever fires them checks that they are still current, which
+ * costs less than tracking every timer that was replaced.
+ *
+ * @param <T> The type of the items timers fire with.
+ */
+class TimingWheel<T> {
+
+  private static final int WHEEL_BITS = 6;
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final int LEVELS = 5;
+  private final long tickMillis;
+  private final ArrayDeque<Timer<T>>[][] buckets;
+  // timers whose deadline had already passed when they were scheduled
+  private final List<T> due = new ArrayList<>();
+  private long currentTick;
+  private int size;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param tickMillis The length of a tick, the resolution of the deadlines.
+   * @param nowMillis  The current time.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimingWheel(long tickMillis, long nowMillis) {
+    this.tickMillis = tickMillis;
+    this.currentTick = nowMillis / tickMillis;
+    this.buckets = new ArrayDeque[LEVELS][WHEEL_SIZE];
+    for (int level = 0; level < LEVELS; level++) {
+      for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+        buckets[level][slot] = new ArrayDeque<>();
+      }
+    }
+  }
+
+  /**
+   * Schedules a timer.
+   *
+   * @param item           The item to fire the timer with.
+   * @param deadlineMillis The time the timer fires at, in the clock of {@link #advance(long)}.
+   */
+  synchronized void schedule(T item, long deadlineMillis) {
+    size++;
+    // rounded up, so that a timer never fires before its deadline, without overflowing near the
+    // largest deadline
+    long tick = deadlineMillis / tickMillis;
+    if (tick * tickMillis < deadlineMillis) {
+      tick++;
+    }
+    place(new Timer<>(item, tick));
+  }
+
+  private void place(Timer<T> timer) {
+    long delta = timer.tick - currentTick;
+    if (delta <= 0) {
+      due.add(timer.item);
+      return;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+      level++;
+    }
+    long tick = Math.min(timer.tick, currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1);
+    buckets[level][(int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(timer);
+  }
+
+  /**
+   * Moves the wheel to the given time.
+   *
+   * @param nowMillis The current time.
+   * @return The items of the timers whose deadline passed, in no particular order.
+   */
+  synchronized List<T> advance(long nowMillis) {
+    long targetTick = nowMillis / tickMillis;
+    List<T> fired = new ArrayList<>(due);
+    due.clear();
+    if (size == fired.size()) {
+      // nothing is waiting in the rings, so there is nothing to visit on the way
+      currentTick = Math.max(currentTick, targetTick);
+    }
+    while (currentTick < targetTick) {
+      currentTick++;
+      for (int level = 1; level < LEVELS; level++) {
+        if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+          break;
+        }
+        // a turn of the ring below is complete, bring down the timers of its next turn
+        ArrayDeque<Timer<T>> bucket = buckets[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+        while (!bucket.isEmpty()) {
+          place(bucket.poll());
+        }
+      }
+      fired.addAll(due);
+      due.clear();
+      ArrayDeque<Timer<T>> bucket = buckets[0][(int) currentTick & WHEEL_MASK];
+      while (!bucket.isEmpty()) {
+        fired.add(bucket.poll().item);
+      }
+    }
+    size -= fired.size();
+    return fired;
+  }
+
+  /**
+   * @return The number of scheduled timers that did not fire yet.
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  private static final class Timer<T> {
+    final T item;
+    final long tick;
+
+    Timer(T item, long tick) {
+      this.item = item;
+      this.tick = tick;
+    }
+  }
+}
@@ -0,0 +1,467 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code WriteAheadLog} class appends the acceptor promises, accepted values and learned values
+ * of a replica, and the ballot rounds reserved by its proposer, to segment files in a directory, so
+ * that the replica keeps its Paxos state across restarts. A single writer thread drains every
+ * record queued since its last write and covers them with one sync (group commit). Each record is
+ * framed as length, CRC32 and payload; replay stops at the first torn or corrupt record of the last
+ * segment and cuts the file there. Segments that only hold state covered by a snapshot are deleted
+ * after the log is rolled to a new segment. A failed write or sync fails the log for good: a record
+ * after a torn one would be lost on replay, so the replica must stop and restart from the files.
+ */
+class WriteAheadLog implements Closeable {
+
+  /**
+   * Receives the records of the log during replay.
+   */
+  interface Replayer {
+
+    /**
+     * @param proposalId The promised proposal ID.
+     */
+    void onPromise(long proposalId);
+
+    /**
+     * @param slot       The slot of the replicated log.
+     * @param proposalId The proposal ID the value was accepted with.
+     * @param value      The accepted value.
+     */
+    void onAccept(long slot, long proposalId, byte[] value);
+
+    /**
+     * @param round The highest round the proposer of the replica may have used.
+     */
+    void onBallot(long round);
+
+    /**
+     * @param slot  The slot of the replicated log.
+     * @param value The chosen value.
+     */
+    void onLearn(long slot, byte[] value);
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+  // types 1 and 2 were promises and accepts with int proposal IDs, and are no longer written or read
+  private static final byte LEARN = 3;
+  private static final byte PROMISE = 4;
+  private static final byte ACCEPT = 5;
+  private static final byte BALLOT = 6;
+  private static final int HEADER_BYTES = 8;
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  // upper bound on the records written with one system call
+  private static final int MAX_GROUP = 1024;
+  private static final long CLOSE_POLL_MILLIS = 100;
+  private final Path directory;
+  private final Durability durability;
+  private final long syncIntervalMillis;
+  private final AtomicLong lastSegment;
+  private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  // only used by the writer thread once it has started
+  private FileChannel channel;
+  private volatile boolean closed;
+  // the first write or sync that failed, after which nothing is written anymore
+  private volatile IOException failure;
+
+  /**
+   * Opens the log, creating the directory and a first segment if needed. The writer thread starts
+   * after {@link #replay}.
+   *
+   * @param directory          The directory holding the segment files.
+   * @param durability         When appended records are synced.
+   * @param syncIntervalMillis The sync interval for {@link Durability#PERIODIC}.
+   * @throws IOException If the directory or a segment cannot be opened.
+   */
+  WriteAheadLog(Path directory, Durability durability, long syncIntervalMillis) throws IOException {
+    this.directory = directory;
+    this.durability = durability;
+    this.syncIntervalMillis = syncIntervalMillis;
+    Files.createDirectories(directory);
+    List<Long> segments = listSegments();
+    this.lastSegment = new AtomicLong(segments.isEmpty() ? 0 : segments.get(segments.size() - 1));
+    this.channel = openSegment(lastSegment.get());
+    this.writer = new Thread(this::writeLoop, directory.getFileName() + "-wal-writer");
+    this.writer.setDaemon(true);
+  }
+
+  /**
+   * Reads every intact record in log order, cuts a torn tail of the last segment and starts
+   * accepting appends.
+   *
+   * @param replayer Receives the records.
+   * @return The number of records replayed.
+   * @throws IOException If a segment cannot be read or an older segment is corrupt.
+   */
+  int replay(Replayer replayer) throws IOException {
+    int count = 0;
+    for (long segment : listSegments()) {
+      boolean last = segment == lastSegment.get();
+      if (last) {
+        count += replaySegment(channel, segment, replayer, true);
+      } else {
+        try (FileChannel older = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+          count += replaySegment(older, segment, replayer, false);
+        }
+      }
+    }
+    writer.start();
+    return count;
+  }
+
+  private int replaySegment(FileChannel segmentChannel, long segment, Replayer replayer, boolean last) throws IOException {
+    long size = segmentChannel.size();
+    long position = 0;
+    int count = 0;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    CRC32 crc = new CRC32();
+    while (position + HEADER_BYTES <= size) {
+      header.clear();
+      segmentChannel.read(header, position);
+      header.flip();
+      int length = header.getInt();
+      int checksum = header.getInt();
+      if (length <= 0 || position + HEADER_BYTES + length > size) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      segmentChannel.read(payload, position + HEADER_BYTES);
+      crc.reset();
+      crc.update(payload.array(), 0, length);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      decode(payload.array(), replayer);
+      position += HEADER_BYTES + length;
+      count++;
+    }
+    if (position < size) {
+      if (!last) {
+        throw new IOException(segmentPath(segment) + " is corrupt at position " + position);
+      }
+      LOGGER.warning(segmentPath(segment) + " truncating " + (size - position) + " bytes of torn records!!!");
+      segmentChannel.truncate(position);
+    }
+    segmentChannel.position(position);
+    return count;
+  }
+
+  /**
+   * Starts a new segment. Records appended after this call are written to the new segment; the
+   * previous segment is synced and closed first.
+   *
+   * @return The number of the new segment.
+   * @throws IOException If an earlier write failed.
+   */
+  long roll() throws IOException {
+    checkFailure();
+    long segment = lastSegment.incrementAndGet();
+    queue.add(new PendingWrite(null, segment, new CompletableFuture<>()));
+    return segment;
+  }
+
+  /**
+   * Deletes the segments numbered below the given segment.
+   *
+   * @param segment The first segment to keep.
+   * @return The number of deleted segments.
+   * @throws IOException If a segment cannot be deleted.
+   */
+  int deleteSegmentsBefore(long segment) throws IOException {
+    int deleted = 0;
+    for (long older : listSegments()) {
+      if (older < segment && Files.deleteIfExists(segmentPath(older))) {
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Appends a promise record.
+   *
+   * @param proposalId The promised proposal ID.
+   * @return A future completed once the record is as durable as the configured mode guarantees.
+   */
+  CompletableFuture<Void> appendPromise(long proposalId) {
+    return append(out -> {
+      out.writeByte(PROMISE);
+      out.writeLong(proposalId);
+    });
+  }
+
+  /**
+   * Appends a ballot record.
+   *
+   * @param round The highest round the proposer may use before it appends another ballot record.
+   * @return A future completed once the record is as durable as the configured mode guarantees.
+   */
+  CompletableFuture<Void> appendBallot(long round) {
+    return append(out -> {
+      out.writeByte(BALLOT);
+      out.writeLong(round);
+    });
+  }
+
+  /**
+   * Appends an accept record.
+   *
+   * @param slot       The slot of the replicated log.
+   * @param proposalId The proposal ID the value was accepted with.
+   * @param value      The accepted value.
+   * @return A future completed once the record is as durable as the configured mode guarantees.
+   */
+  CompletableFuture<Void> appendAccept(long slot, long proposalId, byte[] value) {
+    return append(out -> {
+      out.writeByte(ACCEPT);
+      out.writeLong(slot);
+      out.writeLong(proposalId);
+      writeValue(out, value);
+    });
+  }
+
+  /**
+   * Appends a learn record.
+   *
+   * @param slot  The slot of the replicated log.
+   * @param value The chosen value.
+   * @return A future completed once the record is as durable as the configured mode guarantees.
+   */
+  CompletableFuture<Void> appendLearn(long slot, byte[] value) {
+    return append(out -> {
+      out.writeByte(LEARN);
+      out.writeLong(slot);
+      writeValue(out, value);
+    });
+  }
+
+  /**
+   * Writes and syncs every queued record, then closes the file.
+   *
+   * @throws IOException If the file cannot be synced or closed.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (channel != null && channel.isOpen()) {
+      if (failure == null) {
+        channel.force(false);
+      }
+      channel.close();
+    }
+  }
+
+  private interface RecordWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private CompletableFuture<Void> append(RecordWriter recordWriter) {
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    if (closed) {
+      result.completeExceptionally(new IOException(directory + " log is closed"));
+      return result;
+    }
+    try {
+      checkFailure();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeLong(0);
+      recordWriter.write(out);
+      out.flush();
+      ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+      int length = frame.limit() - HEADER_BYTES;
+      CRC32 crc = new CRC32();
+      crc.update(frame.array(), HEADER_BYTES, length);
+      frame.putInt(0, length);
+      frame.putInt(4, (int) crc.getValue());
+      queue.add(new PendingWrite(frame, -1, result));
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  private void writeLoop() {
+    List<PendingWrite> batch = new ArrayList<>(MAX_GROUP);
+    // the writer wakes up at least this often to sync periodically and to notice close
+    long pollMillis = durability == Durability.PERIODIC ? syncIntervalMillis : CLOSE_POLL_MILLIS;
+    long lastSyncNanos = System.nanoTime();
+    boolean dirty = false;
+    while (true) {
+      batch.clear();
+      try {
+        PendingWrite first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      queue.drainTo(batch, MAX_GROUP - batch.size());
+      if (failure != null) {
+        // appended before the failure was noticed
+        for (PendingWrite pending : batch) {
+          pending.result.completeExceptionally(failure);
+        }
+      } else {
+        try {
+          int groupStart = 0;
+          for (int i = 0; i <= batch.size(); i++) {
+            if (i < batch.size() && batch.get(i).frame != null) {
+              continue;
+            }
+            if (i > groupStart) {
+              write(batch.subList(groupStart, i));
+              dirty = true;
+            }
+            if (i < batch.size()) {
+              // roll marker: the records of the previous segment must be on disk before it is closed
+              channel.force(false);
+              channel.close();
+              channel = openSegment(batch.get(i).rollSegment);
+              dirty = false;
+            }
+            groupStart = i + 1;
+          }
+          if (dirty && (durability == Durability.BATCH
+                  || durability == Durability.PERIODIC
+                  && System.nanoTime() - lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis))) {
+            channel.force(false);
+            lastSyncNanos = System.nanoTime();
+            dirty = false;
+          }
+          for (PendingWrite pending : batch) {
+            pending.result.complete(null);
+          }
+        } catch (IOException e) {
+          LOGGER.severe(directory + " log write failed: " + e.getMessage() + ", no more records are written!!!");
+          failure = e;
+          for (PendingWrite pending : batch) {
+            pending.result.completeExceptionally(e);
+          }
+        }
+      }
+      if (closed && queue.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException(directory + " log failed earlier: " + failure.getMessage(), failure);
+    }
+  }
+
+  private void write(List<PendingWrite> group) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[group.size()];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = group.get(i).frame;
+    }
+    while (buffers[buffers.length - 1].hasRemaining()) {
+      channel.write(buffers);
+    }
+  }
+
+  private FileChannel openSegment(long segment) throws IOException {
+    FileChannel segmentChannel = FileChannel.open(segmentPath(segment),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    segmentChannel.position(segmentChannel.size());
+    return segmentChannel;
+  }
+
+  private Path segmentPath(long segment) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+  }
+
+  private List<Long> listSegments() throws IOException {
+    List<Long> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : files) {
+        String name = path.getFileName().toString();
+        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static void writeValue(DataOutputStream out, byte[] value) throws IOException {
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  private static byte[] readValue(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void decode(byte[] payload, Replayer replayer) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = in.readByte();
+    switch (type) {
+      case PROMISE:
+        replayer.onPromise(in.readLong());
+        break;
+      case ACCEPT:
+        long slot = in.readLong();
+        long proposalId = in.readLong();
+        replayer.onAccept(slot, proposalId, readValue(in));
+        break;
+      case BALLOT:
+        replayer.onBallot(in.readLong());
+        break;
+      case LEARN:
+        replayer.onLearn(in.readLong(), readValue(in));
+        break;
+      default:
+        throw new IOException("Unknown log record type: " + type);
+    }
+  }
+
+  /**
+   * A framed record waiting to be written, or a marker to roll to a new segment.
+   */
+  private static class PendingWrite {
+    final ByteBuffer frame;
+    final long rollSegment;
+    final CompletableFuture<Void> result;
+
+    PendingWrite(ByteBuffer frame, long rollSegment, CompletableFuture<Void> result) {
+      this.frame = frame;
+      this.rollSegment = rollSegment;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NearCacheTest {
+
+  @Test
+  public void cachesAFetchThatNoInvalidationRaced() {
+    NearCache cache = new NearCache(10, 60000);
+    assertNull(cache.get("key"));
+    Object token = cache.startFetch("key");
+    cache.completeFetch("key", token, "value");
+    assertEquals("value", cache.get("key"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void dropsAFetchInvalidatedWhileInFlight() {
+    NearCache cache = new NearCache(10, 60000);
+    Object token = cache.startFetch("key");
+    cache.invalidate("key");
+    cache.completeFetch("key", token, "stale");
+    assertNull(cache.get("key"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void keepsTheNewerFetchWhenAnOlderOneCompletesLast() {
+    NearCache cache = new NearCache(10, 60000);
+    Object older = cache.startFetch("key");
+    cache.invalidate("key");
+    Object newer = cache.startFetch("key");
+    cache.completeFetch("key", newer, "new");
+    cache.completeFetch("key", older, "old");
+    assertEquals("new", cache.get("key"));
+  }
+
+  @Test
+  public void dropsFetchesInFlightOnClearAndCancel() {
+    NearCache cache = new NearCache(10, 60000);
+    Object cleared = cache.startFetch("a");
+    cache.clear();
+    cache.completeFetch("a", cleared, "value");
+    Object cancelled = cache.startFetch("b");
+    cache.cancelFetch("b", cancelled);
+    cache.completeFetch("b", cancelled, "value");
+    assertEquals(0, cache.size());
+    // an invalidation of a key with no fetch in flight leaves other fetches alone
+    Object token = cache.startFetch("c");
+    cache.invalidate("d");
+    cache.completeFetch("c", token, "value");
+    assertEquals("value", cache.get("c"));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedKey() {
+    NearCache cache = new NearCache(2, 60000);
+    put(cache, "a", "1");
+    put(cache, "b", "2");
+    cache.get("a");
+    put(cache, "c", "3");
+    assertNull(cache.get("b"));
+    assertEquals("1", cache.get("a"));
+    assertEquals("3", cache.get("c"));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void expiresValuesAfterTheirTimeToLive() throws Exception {
+    NearCache cache = new NearCache(10, 20);
+    put(cache, "key", "value");
+    Thread.sleep(50);
+    assertNull(cache.get("key"));
+    assertEquals(1, cache.getExpirations());
+  }
+
+  /**
+   * Readers fetch a key while a writer keeps changing it and invalidating the cache after each
+   * write, as the servers do. Once a write is invalidated, the cache may only hold its value.
+   */
+  @Test
+  public void neverKeepsAValueOlderThanTheLastInvalidation() throws Exception {
+    NearCache cache = new NearCache(10, 60000);
+    AtomicLong store = new AtomicLong();
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread reader = new Thread(() -> {
+        while (writing.get()) {
+          if (cache.get("key") == null) {
+            Object token = cache.startFetch("key");
+            String value = Long.toString(store.get());
+            Thread.yield();
+            cache.completeFetch("key", token, value);
+          }
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+    String stale = null;
+    for (long version = 1; version <= 20000 && stale == null; version++) {
+      store.set(version);
+      cache.invalidate("key");
+      Thread.yield();
+      String cached = cache.get("key");
+      if (cached != null && !cached.equals(Long.toString(version))) {
+        stale = cached + " after the invalidation of " + version;
+      }
+    }
+    writing.set(false);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertNull("cached a stale value", stale);
+  }
+
+  private static void put(NearCache cache, String key, String value) {
+    cache.completeFetch(key, cache.startFetch(key), value);
+  }
+}
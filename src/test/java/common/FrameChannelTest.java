@@ -0,0 +1,163 @@
+package common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frames written by a plain blocking socket, in pieces and in bulk, read by a {@link FrameChannel}
+ * of a {@link SelectorLoop}.
+ */
+public class FrameChannelTest {
+
+  private SelectorLoop loop;
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private final BlockingQueue<ByteBuffer> frames = new LinkedBlockingQueue<>();
+  private final BlockingQueue<IOException> closes = new LinkedBlockingQueue<>();
+
+  @Before
+  public void connect() throws Exception {
+    loop = new SelectorLoop("test-nio");
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    loop.listen(server, channel -> {
+      try {
+        loop.open(channel, new FrameChannel.Listener() {
+          @Override
+          public void onFrame(FrameChannel frameChannel, ByteBuffer frame) {
+            frames.add(frame);
+          }
+
+          @Override
+          public void onClose(FrameChannel frameChannel, IOException cause) {
+            closes.add(cause);
+          }
+        });
+      } catch (IOException e) {
+        closes.add(e);
+      }
+    });
+    client = SocketChannel.open(server.getLocalAddress());
+    client.socket().setTcpNoDelay(true);
+  }
+
+  @After
+  public void close() throws Exception {
+    client.close();
+    server.close();
+    loop.close();
+  }
+
+  @Test
+  public void roundTripsEveryWireType() {
+    Map<String, String> strings = new LinkedHashMap<>();
+    strings.put("a", "1");
+    strings.put("\u043a\u043b\u044e\u0447", "");
+    Map<String, Boolean> booleans = Collections.singletonMap("b", true);
+    Wire.Writer out = new Wire.Writer();
+    out.putByte(-3).putBoolean(false).putInt(Integer.MIN_VALUE).putLong(Long.MAX_VALUE)
+            .putBytes(new byte[] {1, 2}).putBytes(null).putString("v\u00e4rde").putString(null)
+            .putInts(new int[] {4, -5}).putStrings(Arrays.asList("x", "y")).putStringMap(strings)
+            .putBooleanMap(booleans);
+
+    Wire.Reader in = new Wire.Reader(out.toByteBuffer());
+    assertEquals(-3, in.getByte());
+    assertFalse(in.getBoolean());
+    assertEquals(Integer.MIN_VALUE, in.getInt());
+    assertEquals(Long.MAX_VALUE, in.getLong());
+    assertArrayEquals(new byte[] {1, 2}, in.getBytes());
+    assertNull(in.getBytes());
+    assertEquals("v\u00e4rde", in.getString());
+    assertNull(in.getString());
+    assertArrayEquals(new int[] {4, -5}, in.getInts());
+    assertEquals(Arrays.asList("x", "y"), in.getStrings());
+    assertEquals(strings, in.getStringMap());
+    assertEquals(booleans, in.getBooleanMap());
+    assertFalse(in.hasRemaining());
+  }
+
+  @Test(timeout = 10000)
+  public void readsFramesSplitAcrossReads() throws Exception {
+    byte[] first = frame(1, "first");
+    // the length prefix, then the request ID and the rest of the frame each arrive on their own
+    write(Arrays.copyOfRange(first, 0, 2));
+    Thread.sleep(50);
+    write(Arrays.copyOfRange(first, 2, 9));
+    Thread.sleep(50);
+    assertTrue(frames.isEmpty());
+    write(Arrays.copyOfRange(first, 9, first.length));
+    assertFrame(1, "first", frames.poll(5, TimeUnit.SECONDS));
+
+    // two frames with one write, and a frame larger than the read buffer
+    byte[] second = frame(2, "second");
+    byte[] third = frame(3, "third");
+    ByteBuffer both = ByteBuffer.allocate(second.length + third.length).put(second).put(third);
+    write(both.array());
+    assertFrame(2, "second", frames.poll(5, TimeUnit.SECONDS));
+    assertFrame(3, "third", frames.poll(5, TimeUnit.SECONDS));
+    char[] large = new char[200_000];
+    Arrays.fill(large, 'l');
+    write(frame(4, new String(large)));
+    assertFrame(4, new String(large), frames.poll(5, TimeUnit.SECONDS));
+    assertTrue(closes.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void closesAChannelOnAFrameTooShortForARequest() throws Exception {
+    // a length of 4 cannot hold a request ID and a method code
+    write(ByteBuffer.allocate(8).putInt(4).putInt(42).array());
+    IOException cause = closes.poll(5, TimeUnit.SECONDS);
+    assertNotNull("the channel was not closed", cause);
+    assertEquals("Invalid frame length: 4", cause.getMessage());
+    assertTrue(frames.isEmpty());
+    assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+  }
+
+  private void write(byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      client.write(buffer);
+    }
+  }
+
+  private static byte[] frame(long requestId, String payload) {
+    Wire.Writer out = new Wire.Writer();
+    out.putInt(0).putLong(requestId).putByte(7).putString(payload);
+    out.setInt(0, out.size() - 4);
+    ByteBuffer frame = out.toByteBuffer();
+    byte[] bytes = new byte[frame.remaining()];
+    frame.get(bytes);
+    return bytes;
+  }
+
+  private static void assertFrame(long requestId, String payload, ByteBuffer frame) {
+    assertNotNull("no frame arrived", frame);
+    Wire.Reader in = new Wire.Reader(frame);
+    assertEquals(requestId, in.getLong());
+    assertEquals(7, in.getByte());
+    assertEquals(payload, in.getString());
+    assertFalse(in.hasRemaining());
+  }
+}
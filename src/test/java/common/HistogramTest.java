@@ -0,0 +1,120 @@
+package common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+  private static final double[] PERCENTILES = {0, 1, 50, 90, 99, 99.9, 100};
+
+  @Test
+  public void givesValuesBelowEightABucketEach() {
+    for (int v = 0; v < 8; v++) {
+      assertEquals(v, Histogram.bucketOf(v));
+      assertEquals(v, Histogram.upperBoundOf(v));
+    }
+    assertEquals(8, Histogram.bucketOf(8));
+  }
+
+  @Test
+  public void startsEightBucketsAtEveryPowerOfTwo() {
+    for (int k = 3; k < 63; k++) {
+      long power = 1L << k;
+      int bucket = Histogram.bucketOf(power);
+      assertEquals("2^" + k, (k - 2) * 8, bucket);
+      assertEquals("2^" + k, bucket - 1, Histogram.bucketOf(power - 1));
+      assertEquals("2^" + k, power - 1, Histogram.upperBoundOf(bucket - 1));
+      // the first of the eight buckets spans an eighth of the power of two
+      assertEquals("2^" + k, power + (power >>> 3) - 1, Histogram.upperBoundOf(bucket));
+    }
+  }
+
+  @Test
+  public void boundsEveryBucketWithinAnEighth() {
+    int last = Histogram.bucketOf(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(last));
+    long lowerBound = 0;
+    for (int bucket = 0; bucket <= last; bucket++) {
+      long upperBound = Histogram.upperBoundOf(bucket);
+      assertEquals(bucket, Histogram.bucketOf(lowerBound));
+      assertEquals(bucket, Histogram.bucketOf(upperBound));
+      assertTrue("bucket " + bucket, upperBound - lowerBound <= lowerBound / 8);
+      lowerBound = upperBound + 1;
+    }
+  }
+
+  @Test
+  public void reportsPercentilesWithinAnEighth() {
+    Histogram histogram = new Histogram();
+    for (long v = 1; v <= 100_000; v++) {
+      histogram.record(v);
+    }
+    for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+      long exact = (long) Math.ceil(100_000 * percentile / 100);
+      long reported = histogram.getPercentile(percentile);
+      assertTrue(percentile + ": " + reported, reported >= exact && reported <= exact + exact / 8);
+    }
+    assertEquals(100_000, histogram.getPercentile(100));
+    assertEquals(100_000, histogram.getMax());
+    assertEquals(50_000.5, histogram.getMean(), 1e-9);
+  }
+
+  @Test
+  public void recordsNegativeValuesAsZero() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(100));
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  public void roundTripsThroughTheWire() {
+    Histogram histogram = randomHistogram(new Random(3), 10_000);
+    histogram.record(Long.MAX_VALUE);
+    Wire.Writer out = new Wire.Writer();
+    histogram.write(out);
+    assertSameValues(histogram, Histogram.read(new Wire.Reader(out.toByteBuffer())));
+    Wire.Writer empty = new Wire.Writer();
+    new Histogram().write(empty);
+    assertSameValues(new Histogram(), Histogram.read(new Wire.Reader(empty.toByteBuffer())));
+  }
+
+  @Test
+  public void addsUpToTheHistogramOfAllValues() {
+    Random random = new Random(5);
+    Histogram all = new Histogram();
+    Histogram sum = new Histogram();
+    for (int part = 0; part < 3; part++) {
+      Histogram histogram = new Histogram();
+      for (int i = 0; i < 1000; i++) {
+        long v = random.nextInt(1 << (8 * part + 4));
+        histogram.record(v);
+        all.record(v);
+      }
+      sum.add(histogram);
+    }
+    assertSameValues(all, sum);
+  }
+
+  private static Histogram randomHistogram(Random random, int count) {
+    Histogram histogram = new Histogram();
+    for (int i = 0; i < count; i++) {
+      histogram.record((long) Math.exp(random.nextDouble() * 30));
+    }
+    return histogram;
+  }
+
+  private static void assertSameValues(Histogram expected, Histogram actual) {
+    assertEquals(expected.getCount(), actual.getCount());
+    assertEquals(expected.getMean(), actual.getMean(), 0);
+    assertEquals(expected.getMax(), actual.getMax());
+    for (double percentile : PERCENTILES) {
+      assertEquals("p" + percentile, expected.getPercentile(percentile), actual.getPercentile(percentile));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.rmi.server.UnicastRemoteObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BallotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void roundTripsRoundAndServer() {
+    long[] rounds = {1, 2, 1000, 1L << 40, Long.MAX_VALUE >>> Ballot.SERVER_BITS};
+    int[] servers = {0, 1, 7, Ballot.MAX_SERVERS - 1};
+    for (long round : rounds) {
+      for (int server : servers) {
+        long ballot = Ballot.of(round, server);
+        assertEquals(round, Ballot.round(ballot));
+        assertEquals(server, Ballot.serverId(ballot));
+        assertEquals(round + "." + server, Ballot.toString(ballot));
+      }
+    }
+    assertEquals(0, Ballot.round(-1));
+    assertEquals("none", Ballot.toString(-1));
+  }
+
+  @Test
+  public void comparesByRoundFirst() {
+    assertTrue(Ballot.of(2, 0) > Ballot.of(1, Ballot.MAX_SERVERS - 1));
+    assertTrue(Ballot.of(2, 1) > Ballot.of(2, 0));
+  }
+
+  @Test
+  public void rejectsServerIdsOutOfRange() {
+    for (int server : new int[] {-1, Ballot.MAX_SERVERS, Integer.MAX_VALUE}) {
+      try {
+        Ballot.of(1, server);
+        fail("built a ballot for server " + server);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage().contains(Integer.toString(server)));
+      }
+    }
+  }
+
+  /**
+   * A restarted server cannot know which of its reserved rounds it used before, so it skips them
+   * all, even where its acceptor promised a lower ballot.
+   */
+  @Test(timeout = 30000)
+  public void skipsTheReservedRoundsAfterARestart() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setDataDirectory(folder.getRoot().getPath());
+    long first = proposeAndRestart(config, "a");
+    long second = proposeAndRestart(config, "b");
+    assertEquals(0, Ballot.serverId(second));
+    assertTrue(Ballot.toString(second) + " after " + Ballot.toString(first),
+            Ballot.round(second) > Ballot.round(first) + Server.BALLOT_RESERVE_ROUNDS);
+  }
+
+  /**
+   * Starts a single server on the data directory and commits one put.
+   *
+   * @return The ballot the put was chosen with.
+   */
+  private static long proposeAndRestart(ServerConfig config, String key) throws Exception {
+    Server server = new Server(0, 1, config);
+    try {
+      server.setProposers(new ProposerInterface[] {server});
+      server.setAcceptors(new AcceptorInterface[] {server});
+      server.setLearners(new LearnerInterface[] {server});
+      assertTrue(server.put(key, "value"));
+      assertEquals("value", server.get(key));
+      // a ballot below the promise is rejected with the promise, the ballot of the put
+      return server.prepare(0, 0).getPromiseId();
+    } finally {
+      server.shutdown();
+      UnicastRemoteObject.unexportObject(server, true);
+    }
+  }
+}
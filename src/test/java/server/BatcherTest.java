@@ -0,0 +1,126 @@
+package server;
+
+import org.junit.Test;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatcherTest {
+
+  @Test
+  public void commitsItemsOfABatchTogether() throws Exception {
+    List<List<Integer>> batches = new ArrayList<>();
+    Batcher<Integer> batcher = new Batcher<>("test", 10, 50, 1, batch -> {
+      synchronized (batches) {
+        batches.add(batch);
+      }
+      return true;
+    });
+    try {
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        results.add(batcher.submit(i));
+      }
+      for (CompletableFuture<Boolean> result : results) {
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+      }
+      int committed = 0;
+      synchronized (batches) {
+        for (List<Integer> batch : batches) {
+          committed += batch.size();
+        }
+      }
+      assertEquals(5, committed);
+    } finally {
+      batcher.shutdown();
+    }
+  }
+
+  @Test
+  public void commitsUpToMaxInFlightBatchesAtOnce() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch twoRunning = new CountDownLatch(2);
+    Batcher<Integer> batcher = new Batcher<>("test", 1, 0, 2, batch -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      twoRunning.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      running.decrementAndGet();
+      return true;
+    });
+    try {
+      List<CompletableFuture<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(batcher.submit(i));
+      }
+      assertTrue("batches were not committed concurrently", twoRunning.await(5, TimeUnit.SECONDS));
+      // give a third commit the chance to start if the bound were not enforced
+      Thread.sleep(100);
+      assertEquals(2, running.get());
+      release.countDown();
+      for (CompletableFuture<Boolean> result : results) {
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(2, maxRunning.get());
+    } finally {
+      batcher.shutdown();
+    }
+  }
+
+  @Test
+  public void completesEveryItemAcrossShutdown() throws Exception {
+    Batcher<Integer> batcher = new Batcher<>("test", 4, 1, 1, batch -> true);
+    List<CompletableFuture<Boolean>> results = new ArrayList<>();
+    Thread submitter = new Thread(() -> {
+      for (int i = 0; i < 10000; i++) {
+        CompletableFuture<Boolean> result = batcher.submit(i);
+        synchronized (results) {
+          results.add(result);
+        }
+      }
+    });
+    submitter.start();
+    Thread.sleep(5);
+    batcher.shutdown();
+    submitter.join();
+    synchronized (results) {
+      for (CompletableFuture<Boolean> result : results) {
+        try {
+          result.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+          // failed because of the shutdown, which is fine as long as it completed
+        } catch (TimeoutException e) {
+          fail("an item submitted around shutdown never completed");
+        }
+      }
+    }
+  }
+
+  @Test
+  public void failsItemsSubmittedAfterShutdown() throws Exception {
+    Batcher<Integer> batcher = new Batcher<>("test", 4, 1, 1, batch -> true);
+    batcher.shutdown();
+    try {
+      batcher.submit(1).get(5, TimeUnit.SECONDS);
+      fail("submit after shutdown succeeded");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RemoteException);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+  private static final int KEYS = 10000;
+
+  @Test
+  public void hasNoFalseNegatives() {
+    BloomFilter filter = filled();
+    for (int i = 0; i < KEYS; i++) {
+      assertTrue(filter.mightContain("key" + i));
+    }
+  }
+
+  @Test
+  public void rulesOutMostAbsentKeys() {
+    BloomFilter filter = filled();
+    int falsePositives = 0;
+    for (int i = 0; i < KEYS; i++) {
+      if (filter.mightContain("absent" + i)) {
+        falsePositives++;
+      }
+    }
+    // about 1% at ten bits per key
+    assertTrue("false positives: " + falsePositives, falsePositives < KEYS * 3 / 100);
+  }
+
+  @Test
+  public void answersTheSameWhenRebuiltFromItsBits() {
+    BloomFilter filter = filled();
+    BloomFilter copy = new BloomFilter(filter.getWords().clone(), filter.getHashes());
+    for (int i = 0; i < KEYS; i++) {
+      assertTrue(copy.mightContain("key" + i));
+      assertTrue(filter.mightContain("absent" + i) == copy.mightContain("absent" + i));
+    }
+  }
+
+  @Test
+  public void emptyFilterContainsNothing() {
+    BloomFilter filter = new BloomFilter(0);
+    assertFalse(filter.mightContain(""));
+    assertFalse(filter.mightContain("key"));
+  }
+
+  private static BloomFilter filled() {
+    BloomFilter filter = new BloomFilter(KEYS);
+    for (int i = 0; i < KEYS; i++) {
+      filter.add("key" + i);
+    }
+    return filter;
+  }
+}
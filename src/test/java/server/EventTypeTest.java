@@ -0,0 +1,36 @@
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EventTypeTest {
+
+  @Test
+  public void formatsBallotsAsRoundAndServer() {
+    assertEquals("Acceptor1: Proposal id 3.2 < Promise id 4.0",
+            EventType.PREPARE_REJECTED.format(1, Ballot.of(3, 2), Ballot.of(4, 0)));
+    assertEquals("Acceptor1 accepted proposal id: 3.2 for slot: 17",
+            EventType.ACCEPTED.format(1, Ballot.of(3, 2), 17));
+    assertEquals("Proposer0 call to Replica2 failed for proposal id: 7.0",
+            EventType.CALL_FAILED.format(0, 2, Ballot.of(7, 0)));
+    assertEquals("Acceptor1: Proposal id 3.2 rejected during lease of none",
+            EventType.PREPARE_REJECTED_LEASE.format(1, Ballot.of(3, 2), -1));
+  }
+
+  @Test
+  public void formatsOtherNumbersAsTheyAre() {
+    assertEquals("Server4 PUT key#0000abcd successful at slot: 9", EventType.APPLIED_PUT.format(4, 0xabcd, 9));
+  }
+
+  @Test
+  public void looksTypesUpByCode() {
+    for (EventType type : EventType.values()) {
+      assertSame(type, EventType.ofCode(type.getCode()));
+    }
+    assertNull(EventType.ofCode(-1));
+    assertNull(EventType.ofCode(31));
+  }
+}
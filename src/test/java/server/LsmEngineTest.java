@@ -0,0 +1,157 @@
+package server;
+
+import common.ScanResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LsmEngineTest {
+
+  // a filler entry costs about 2 KB of memtable, so a memtable holds about 2000 of them
+  private static final int FILLERS_PER_MEMTABLE = 2017;
+  private static final String FILLER_VALUE = repeat('f', 1000);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void newestValueWinsAcrossMemtableAndTables() throws Exception {
+    Path directory = folder.getRoot().toPath().resolve("lsm");
+    LsmEngine engine = new LsmEngine(directory, "test");
+    try {
+      engine.put("key", "old");
+      engine.put("gone", "old");
+      fill(engine, 0, FILLERS_PER_MEMTABLE + 10);
+      awaitTables(directory, Collections.singletonList("table-00000001.sst"));
+      assertEquals("old", engine.get("key"));
+      engine.put("key", "new");
+      engine.remove("gone");
+      assertEquals("new", engine.get("key"));
+      assertNull(engine.get("gone"));
+      assertNull(engine.get("never"));
+      ScanResult page = engine.scan("g", null, 100);
+      assertEquals(Collections.singletonList("key"), new ArrayList<>(page.getEntries().keySet()));
+      assertEquals("new", page.getEntries().get("key"));
+    } finally {
+      engine.close();
+    }
+  }
+
+  @Test
+  public void compactionKeepsNewestValuesAndDropsTombstones() throws Exception {
+    Path directory = folder.getRoot().toPath().resolve("lsm");
+    LsmEngine engine = new LsmEngine(directory, "test");
+    try {
+      for (int i = 0; i < 100; i++) {
+        engine.put(key(i), "first");
+      }
+      // overwrites land in the second table and deletes in the third, above the first values
+      fill(engine, 0, FILLERS_PER_MEMTABLE + 500);
+      for (int i = 50; i < 75; i++) {
+        engine.put(key(i), "second");
+      }
+      fill(engine, FILLERS_PER_MEMTABLE + 500, 2 * FILLERS_PER_MEMTABLE + 500);
+      for (int i = 0; i < 50; i++) {
+        engine.remove(key(i));
+      }
+      int fillers = 4 * FILLERS_PER_MEMTABLE + 40;
+      fill(engine, 2 * FILLERS_PER_MEMTABLE + 500, fillers);
+      // four flushed tables of the same tier merged into a fifth
+      awaitTables(directory, Collections.singletonList("table-00000005.sst"));
+
+      for (int i = 0; i < 100; i++) {
+        assertEquals(key(i), i < 50 ? null : i < 75 ? "second" : "first", engine.get(key(i)));
+      }
+      assertEquals(FILLER_VALUE, engine.get(filler(0)));
+      assertEquals(FILLER_VALUE, engine.get(filler(fillers - 1)));
+      // the merge reached the oldest table, so the deletes are gone rather than kept as tombstones
+      assertEquals(50 + fillers, engine.size());
+
+      List<String> keys = new ArrayList<>();
+      String start = "a";
+      ScanResult page;
+      do {
+        page = engine.scan(start, "b", 7);
+        keys.addAll(page.getEntries().keySet());
+        start = page.getNextKey();
+      } while (page.hasMore());
+      List<String> expected = new ArrayList<>();
+      for (int i = 50; i < 100; i++) {
+        expected.add(key(i));
+      }
+      assertEquals(expected, keys);
+    } finally {
+      engine.close();
+    }
+  }
+
+  @Test
+  public void startsEmptyOverTablesOfAPreviousRun() throws Exception {
+    Path directory = folder.getRoot().toPath().resolve("lsm");
+    Files.createDirectories(directory);
+    Files.write(directory.resolve("table-00000001.sst"), new byte[] {1, 2, 3});
+    LsmEngine engine = new LsmEngine(directory, "test");
+    try {
+      assertEquals(0, engine.size());
+      assertTrue(tables(directory).isEmpty());
+    } finally {
+      engine.close();
+    }
+    assertFalse(Files.exists(directory));
+  }
+
+  private static void fill(LsmEngine engine, int from, int to) {
+    for (int i = from; i < to; i++) {
+      engine.put(filler(i), FILLER_VALUE);
+    }
+  }
+
+  private static String key(int i) {
+    return String.format("a%04d", i);
+  }
+
+  private static String filler(int i) {
+    return String.format("f%06d", i);
+  }
+
+  private static void awaitTables(Path directory, List<String> expected) throws Exception {
+    long deadline = System.currentTimeMillis() + 60_000;
+    List<String> tables = tables(directory);
+    while (!tables.equals(expected) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+      tables = tables(directory);
+    }
+    assertEquals(expected, tables);
+  }
+
+  private static List<String> tables(Path directory) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "table-*.sst")) {
+      for (Path file : files) {
+        names.add(file.getFileName().toString());
+      }
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
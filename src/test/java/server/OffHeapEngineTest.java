@@ -0,0 +1,138 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapEngineTest {
+
+  @Test
+  public void findsEveryKeyLeftAfterRemovingFromProbeRuns() {
+    OffHeapEngine engine = new OffHeapEngine();
+    Map<String, String> expected = new HashMap<>();
+    Random random = new Random(42);
+    // enough keys to resize the index and fill it to its load limit, so probe runs are long and
+    // wrap around the end of the table
+    for (int i = 0; i < 20000; i++) {
+      String key = "key" + i;
+      engine.put(key, "value" + i);
+      expected.put(key, "value" + i);
+    }
+    for (int round = 0; round < 5; round++) {
+      List<String> keys = new ArrayList<>(expected.keySet());
+      for (String key : keys) {
+        if (random.nextInt(3) == 0) {
+          engine.remove(key);
+          expected.remove(key);
+        }
+      }
+      for (int i = 0; i < 2000; i++) {
+        String key = "more" + round + "-" + i;
+        engine.put(key, key);
+        expected.put(key, key);
+      }
+      assertEquals(expected.size(), engine.size());
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), engine.get(entry.getKey()));
+      }
+      for (String key : keys) {
+        if (!expected.containsKey(key)) {
+          assertNull(engine.get(key));
+        }
+      }
+    }
+    Map<String, String> visited = new HashMap<>();
+    engine.forEach(visited::put);
+    assertEquals(expected, visited);
+    engine.close();
+  }
+
+  @Test
+  public void reusesFreedBlocksOfTheSameClass() {
+    OffHeapEngine engine = new OffHeapEngine();
+    String value = repeat('v', 100);
+    engine.put("a", value);
+    long allocated = engine.allocatedBytes();
+    engine.remove("a");
+    engine.put("b", value);
+    assertEquals("a freed block was not reused", allocated, engine.allocatedBytes());
+    // an overwrite with a value of the same size is done in place
+    engine.put("b", repeat('w', 100));
+    assertEquals(allocated, engine.allocatedBytes());
+    // a larger value moves to a new block, and the next record of the old class takes the old one
+    engine.put("b", repeat('x', 500));
+    long grown = engine.allocatedBytes();
+    assertTrue(grown > allocated);
+    engine.put("c", value);
+    assertEquals(grown, engine.allocatedBytes());
+    assertEquals(repeat('x', 500), engine.get("b"));
+    assertEquals(value, engine.get("c"));
+    engine.close();
+  }
+
+  @Test
+  public void keepsBlocksFreedDuringAPassUntilItEnds() {
+    OffHeapEngine engine = new OffHeapEngine();
+    String value = repeat('v', 100);
+    engine.put("a", value);
+    engine.put("b", value);
+    long[] duringPass = new long[1];
+    Map<String, String> visited = new TreeMap<>();
+    engine.forEach((key, v) -> {
+      if (key.equals("a")) {
+        // the pass copied the address of b, so its block must not be reused while the pass runs
+        Thread writer = new Thread(() -> {
+          engine.remove("b");
+          engine.put("c", value);
+          duringPass[0] = engine.allocatedBytes();
+        });
+        writer.start();
+        try {
+          writer.join();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      visited.put(key, v);
+    });
+    long afterPass = engine.allocatedBytes();
+    assertEquals(value, visited.get("a"));
+    assertEquals(value, visited.get("b"));
+    assertEquals(duringPass[0], afterPass);
+    // the block of b went back to its free list when the pass ended
+    engine.put("d", value);
+    assertEquals(afterPass, engine.allocatedBytes());
+    assertNull(engine.get("b"));
+    assertEquals(value, engine.get("c"));
+    assertEquals(value, engine.get("d"));
+    engine.close();
+  }
+
+  @Test
+  public void storesNonAsciiKeysAndValues() {
+    OffHeapEngine engine = new OffHeapEngine();
+    engine.put("\u043a\u043b\u044e\u0447", "v\u00e4rde\ud83d\ude00");
+    assertEquals("v\u00e4rde\ud83d\ude00", engine.get("\u043a\u043b\u044e\u0447"));
+    engine.remove("\u043a\u043b\u044e\u0447");
+    assertNull(engine.get("\u043a\u043b\u044e\u0447"));
+    assertEquals(0, engine.size());
+    engine.close();
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder builder = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+}
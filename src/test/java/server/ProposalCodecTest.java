@@ -0,0 +1,137 @@
+package server;
+
+import common.Constants;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips and rejections of {@link ProposalCodec}. The throughput of the codec is measured by
+ * {@code CodecBenchmark} in the benchmarks module; the timed check here only guards against an
+ * order-of-magnitude regression.
+ */
+public class ProposalCodecTest {
+
+  @Test
+  public void roundTripsEveryOperationType() {
+    assertRoundTrip(new Operation(Constants.PUT, "key", "value"));
+    assertRoundTrip(new Operation(Constants.DELETE, "key"));
+    assertRoundTrip(new Operation(Constants.PUT, "key", "value", 1_700_000_000_000L));
+    assertRoundTrip(new Operation(Operation.EXPIRE, "key", null, 1_700_000_000_000L));
+  }
+
+  @Test
+  public void roundTripsABatchInOrder() {
+    List<Operation> batch = Arrays.asList(
+            new Operation(Constants.PUT, "a", "1"),
+            new Operation(Constants.DELETE, "b"),
+            new Operation(Constants.PUT, "c", "", 42),
+            new Operation(Operation.EXPIRE, "d", null, Long.MAX_VALUE),
+            new Operation(Constants.PUT, "", "empty key"));
+    assertEquals(describe(batch), describe(ProposalCodec.decode(ProposalCodec.encode(batch))));
+  }
+
+  @Test
+  public void roundTripsTheEmptyNoOpBatch() {
+    byte[] value = ProposalCodec.encode(Collections.emptyList());
+    assertEquals(2, value.length);
+    assertTrue(ProposalCodec.decode(value).isEmpty());
+  }
+
+  @Test
+  public void roundTripsNonAsciiKeysAndValues() {
+    assertRoundTrip(new Operation(Constants.PUT, "cl\u00e9", "\u5024\ud83d\ude00"));
+    assertRoundTrip(new Operation(Constants.DELETE, "\u043a\u043b\u044e\u0447"));
+    char[] chars = new char[300];
+    Arrays.fill(chars, '\u00fc');
+    // longer than one varint byte once encoded, and longer than the initial encoder buffer
+    assertRoundTrip(new Operation(Constants.PUT, new String(chars), new String(chars), 7));
+  }
+
+  @Test
+  public void rejectsTruncatedValues() {
+    byte[] value = ProposalCodec.encode(Arrays.asList(
+            new Operation(Constants.PUT, "key", "value", 1_700_000_000_000L),
+            new Operation(Constants.DELETE, "other")));
+    for (int length = 0; length < value.length; length++) {
+      assertRejected(Arrays.copyOf(value, length));
+    }
+  }
+
+  @Test
+  public void rejectsTrailingBytes() {
+    byte[] value = ProposalCodec.encode(new Operation(Constants.DELETE, "key"));
+    assertRejected(Arrays.copyOf(value, value.length + 1));
+  }
+
+  @Test
+  public void rejectsUnknownTagsAndVersions() {
+    byte[] value = ProposalCodec.encode(new Operation(Constants.DELETE, "key"));
+    byte[] unknownTag = value.clone();
+    unknownTag[2] = 9;
+    assertRejected(unknownTag);
+    byte[] unknownVersion = value.clone();
+    unknownVersion[0] = ProposalCodec.VERSION + 1;
+    assertRejected(unknownVersion);
+    // a count larger than the value can hold
+    assertRejected(new byte[] {ProposalCodec.VERSION, 100, 2, 0});
+  }
+
+  @Test
+  public void rejectsOperationsItCannotEncode() {
+    try {
+      ProposalCodec.encode(new Operation("GET", "key"));
+      fail("encoded an unknown operation type");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      ProposalCodec.encode(new Operation(Constants.PUT, "key"));
+      fail("encoded a put without a value");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void encodesAndDecodesQuickly() {
+    List<Operation> batch = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      batch.add(new Operation(Constants.PUT, "key" + i, "value-of-key-" + i));
+    }
+    int decoded = 0;
+    for (int i = 0; i < 20_000; i++) {
+      decoded += ProposalCodec.decode(ProposalCodec.encode(batch)).size();
+    }
+    assertEquals(64 * 20_000, decoded);
+  }
+
+  private static void assertRoundTrip(Operation operation) {
+    List<Operation> decoded = ProposalCodec.decode(ProposalCodec.encode(operation));
+    assertEquals(describe(Collections.singletonList(operation)), describe(decoded));
+  }
+
+  private static void assertRejected(byte[] value) {
+    try {
+      ProposalCodec.decode(value);
+      fail("decoded " + Arrays.toString(value));
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static List<String> describe(List<Operation> operations) {
+    List<String> descriptions = new ArrayList<>();
+    for (Operation operation : operations) {
+      descriptions.add(operation.type + " " + operation.key + " " + operation.value + " " + operation.expiresAt);
+    }
+    return descriptions;
+  }
+}
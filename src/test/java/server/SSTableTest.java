@@ -0,0 +1,103 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SSTableTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsValuesAndTombstonesAcrossBlocks() throws Exception {
+    TreeMap<String, String> entries = entries();
+    SSTable table = SSTable.write(folder.getRoot().toPath().resolve("t.sst"), entries.entrySet().iterator(),
+            entries.size(), false);
+    table.retain();
+    try {
+      assertEquals(entries.size(), table.getEntryCount());
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        if (entry.getValue() == LsmEngine.TOMBSTONE) {
+          assertSame(LsmEngine.TOMBSTONE, table.get(entry.getKey()));
+        } else {
+          assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+      }
+      // before, between and after the keys of the table
+      assertNull(table.get("a"));
+      assertNull(table.get("k00100x"));
+      assertNull(table.get("z"));
+      List<String> keys = new ArrayList<>();
+      Iterator<Map.Entry<String, String>> iterator = table.iterator("k00500");
+      while (iterator.hasNext()) {
+        keys.add(iterator.next().getKey());
+      }
+      assertEquals(new ArrayList<>(entries.tailMap("k00500").keySet()), keys);
+    } finally {
+      table.release();
+    }
+  }
+
+  @Test
+  public void dropsTombstonesWhenAsked() throws Exception {
+    TreeMap<String, String> entries = entries();
+    SSTable table = SSTable.write(folder.getRoot().toPath().resolve("t.sst"), entries.entrySet().iterator(),
+            entries.size(), true);
+    table.retain();
+    try {
+      long live = entries.values().stream().filter(value -> value != LsmEngine.TOMBSTONE).count();
+      assertEquals(live, table.getEntryCount());
+      assertNull(table.get("k00003"));
+      assertEquals("v1", table.get("k00001"));
+    } finally {
+      table.release();
+    }
+  }
+
+  @Test
+  public void writesNoTableForOnlyTombstones() throws Exception {
+    TreeMap<String, String> entries = new TreeMap<>();
+    entries.put("k", LsmEngine.TOMBSTONE);
+    Path path = folder.getRoot().toPath().resolve("t.sst");
+    assertNull(SSTable.write(path, entries.entrySet().iterator(), 1, true));
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  public void deletesItsFileWithTheLastReference() throws Exception {
+    TreeMap<String, String> entries = entries();
+    Path path = folder.getRoot().toPath().resolve("t.sst");
+    SSTable table = SSTable.write(path, entries.entrySet().iterator(), entries.size(), false);
+    table.retain();
+    table.retain();
+    table.release();
+    assertEquals("v1", table.get("k00001"));
+    table.release();
+    assertFalse(Files.exists(path));
+  }
+
+  /**
+   * Enough entries for several blocks, every third one a tombstone.
+   */
+  private static TreeMap<String, String> entries() {
+    TreeMap<String, String> entries = new TreeMap<>();
+    for (int i = 0; i < 1000; i++) {
+      entries.put(String.format("k%05d", i), i % 3 == 0 ? LsmEngine.TOMBSTONE : "v" + i);
+    }
+    return entries;
+  }
+}
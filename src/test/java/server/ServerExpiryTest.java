@@ -0,0 +1,51 @@
+package server;
+
+import common.Constants;
+import org.junit.Test;
+
+import java.rmi.server.UnicastRemoteObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ServerExpiryTest {
+
+  private static final String NOT_FOUND = "Key Not found";
+
+  @Test
+  public void rejectsTtlsWhoseDeadlineOverflows() throws Exception {
+    Server server = new Server(0, 1, new ServerConfig());
+    try {
+      assertFalse(server.put("key", "value", Long.MAX_VALUE));
+      assertFalse(server.put("key", "value", Long.MAX_VALUE - System.currentTimeMillis() + 1000));
+      assertFalse(server.put("key", "value", 0));
+    } finally {
+      close(server);
+    }
+  }
+
+  @Test
+  public void hidesAKeyOnceItsDeadlinePassed() throws Exception {
+    Server server = new Server(0, 1, new ServerConfig());
+    try {
+      long now = System.currentTimeMillis();
+      server.learn(0, Ballot.of(1, 0), put("soon", now + 100));
+      server.learn(1, Ballot.of(1, 0), put("never", Long.MAX_VALUE));
+      assertEquals("value", server.get("soon"));
+      Thread.sleep(200);
+      assertEquals(NOT_FOUND, server.get("soon"));
+      assertEquals("value", server.get("never"));
+    } finally {
+      close(server);
+    }
+  }
+
+  private static byte[] put(String key, long expiresAt) {
+    return ProposalCodec.encode(new Operation(Constants.PUT, key, "value", expiresAt));
+  }
+
+  private static void close(Server server) throws Exception {
+    server.shutdown();
+    UnicastRemoteObject.unexportObject(server, true);
+  }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import common.Constants;
+import org.junit.Test;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The learner side of the slot log of a {@link Server}: values are learned directly, without
+ * proposers, and the state is checked through local reads, the chosen values and the promise.
+ */
+public class ServerLogTest {
+
+  private static final String NOT_FOUND = "Key Not found";
+
+  @Test
+  public void appliesOutOfOrderLearnsInSlotOrder() throws Exception {
+    Server server = new Server(0, 1, new ServerConfig());
+    try {
+      server.learn(2, Ballot.of(1, 0), put("key", "2"));
+      server.learn(1, Ballot.of(1, 0), put("key", "1"));
+      assertEquals(NOT_FOUND, server.get("key"));
+      assertTrue(server.getChosen(0, 10).isEmpty());
+      server.learn(0, Ballot.of(1, 0), put("key", "0"));
+      assertEquals("2", server.get("key"));
+      assertEquals(Arrays.asList(0L, 1L, 2L), new ArrayList<>(server.getChosen(0, 10).keySet()));
+      // a slot learned again after it was applied changes nothing
+      server.learn(1, Ballot.of(1, 0), put("key", "again"));
+      assertEquals("2", server.get("key"));
+    } finally {
+      close(server);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void fillsAGapFromAnotherLearner() throws Exception {
+    Server complete = new Server(0, 2, new ServerConfig());
+    Server lagging = new Server(1, 2, new ServerConfig());
+    try {
+      LearnerInterface[] learners = {complete, lagging};
+      complete.setLearners(learners);
+      lagging.setLearners(learners);
+      for (int slot = 0; slot < 3; slot++) {
+        complete.learn(slot, Ballot.of(1, 0), put("key" + slot, "value" + slot));
+        if (slot != 1) {
+          lagging.learn(slot, Ballot.of(1, 0), put("key" + slot, "value" + slot));
+        }
+      }
+      assertEquals("value0", lagging.get("key0"));
+      assertEquals(NOT_FOUND, lagging.get("key2"));
+      // the gap is fetched once it outlasts a catch-up interval
+      while (NOT_FOUND.equals(lagging.get("key1"))) {
+        Thread.sleep(20);
+      }
+      assertEquals("value1", lagging.get("key1"));
+      assertEquals("value2", lagging.get("key2"));
+    } finally {
+      close(complete);
+      close(lagging);
+    }
+  }
+
+  @Test
+  public void discardsTheValuesOfOldSlotsWithoutSnapshots() throws Exception {
+    Server server = new Server(0, 1, new ServerConfig());
+    try {
+      long slots = Server.LOG_RETAIN_SLOTS + Server.COMPACT_INTERVAL_SLOTS;
+      for (long slot = 0; slot < slots - 1; slot++) {
+        server.accept(slot, Ballot.of(1, 0), put("key", Long.toString(slot)));
+        server.learn(slot, Ballot.of(1, 0), put("key", Long.toString(slot)));
+      }
+      assertEquals(-1, server.prepare(Ballot.of(2, 0), 0).getCompactedThrough());
+      assertEquals(Long.valueOf(0), server.getChosen(0, 1).keySet().iterator().next());
+
+      server.learn(slots - 1, Ballot.of(2, 0), put("key", "last"));
+      long compacted = slots - 1 - Server.LOG_RETAIN_SLOTS;
+      Promise promise = server.prepare(Ballot.of(3, 0), 0);
+      assertEquals(compacted, promise.getCompactedThrough());
+      assertEquals(Long.valueOf(compacted + 1), promise.getAcceptedValues().keySet().iterator().next());
+      Map<Long, byte[]> chosen = server.getChosen(0, 1);
+      assertEquals(Long.valueOf(compacted + 1), chosen.keySet().iterator().next());
+      assertEquals("last", server.get("key"));
+    } finally {
+      close(server);
+    }
+  }
+
+  private static byte[] put(String key, String value) {
+    return ProposalCodec.encode(new Operation(Constants.PUT, key, value));
+  }
+
+  private static void close(Server server) throws Exception {
+    server.shutdown();
+    UnicastRemoteObject.unexportObject(server, true);
+  }
+}
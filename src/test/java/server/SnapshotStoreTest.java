@@ -0,0 +1,115 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void loadsTheLatestSnapshot() throws Exception {
+    SnapshotStore snapshots = new SnapshotStore(folder.getRoot().toPath());
+    assertEquals(-1, snapshots.loadLatest((key, value, expiresAt) -> fail("loaded an entry")));
+    snapshots.write(5, entries -> entries.accept("a", "1", 0));
+    assertEquals(2, snapshots.write(9, entries -> {
+      entries.accept("a", "2", 0);
+      entries.accept("\u043a\u043b\u044e\u0447", "v\u00e4rde", 1234);
+    }));
+
+    List<String> loaded = new ArrayList<>();
+    assertEquals(9, snapshots.loadLatest((key, value, expiresAt) -> loaded.add(key + "=" + value + "@" + expiresAt)));
+    assertEquals(Arrays.asList("a=2@0", "\u043a\u043b\u044e\u0447=v\u00e4rde@1234"), loaded);
+  }
+
+  @Test
+  public void readsEntriesAcrossMappedWindows() throws Exception {
+    // windows far smaller than the entries stand in for a snapshot larger than one buffer
+    SnapshotStore snapshots = new SnapshotStore(folder.getRoot().toPath(), 16);
+    List<String> written = new ArrayList<>();
+    snapshots.write(3, entries -> {
+      StringBuilder value = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+        value.append(i % 2 == 0 ? "x" : "\u00e4");
+        entries.accept("key" + i, value.toString(), i);
+        written.add("key" + i + "=" + value + "@" + i);
+      }
+    });
+
+    List<String> loaded = new ArrayList<>();
+    assertEquals(3, snapshots.loadLatest((key, value, expiresAt) -> loaded.add(key + "=" + value + "@" + expiresAt)));
+    assertEquals(written, loaded);
+  }
+
+  @Test
+  public void failsOnACorruptLatestSnapshotInsteadOfFallingBack() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SnapshotStore snapshots = new SnapshotStore(directory);
+    snapshots.write(5, entries -> entries.accept("a", "1", 0));
+    snapshots.write(9, entries -> entries.accept("a", "2", 0));
+    Path latest = directory.resolve(String.format("snapshot-%020d.snap", 9));
+    byte[] bytes = Files.readAllBytes(latest);
+    bytes[bytes.length - 1] ^= 0x5a;
+    Files.write(latest, bytes);
+
+    List<String> loaded = new ArrayList<>();
+    try {
+      snapshots.loadLatest((key, value, expiresAt) -> loaded.add(key));
+      fail("recovered from an older snapshot");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("is corrupt"));
+    }
+    assertTrue("a corrupt snapshot was partially loaded", loaded.isEmpty());
+  }
+
+  @Test
+  public void refusesSnapshotsOfAnotherVersion() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SnapshotStore snapshots = new SnapshotStore(directory);
+    // an empty snapshot of version 1, which had no expiry times
+    ByteBuffer bytes = ByteBuffer.allocate(28);
+    bytes.putInt(0x4b56534e).putInt(1).putLong(5).putLong(0).putInt((int) new CRC32().getValue());
+    Files.write(directory.resolve(String.format("snapshot-%020d.snap", 5)), bytes.array());
+    try {
+      snapshots.loadLatest((key, value, expiresAt) -> fail("loaded an entry"));
+      fail("loaded a snapshot of version 1");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("is corrupt"));
+    }
+  }
+
+  @Test
+  public void deletesOlderSnapshotsAndTemporaryFiles() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    SnapshotStore snapshots = new SnapshotStore(directory);
+    snapshots.write(5, entries -> entries.accept("a", "1", 0));
+    snapshots.write(9, entries -> entries.accept("a", "2", 0));
+    Files.write(directory.resolve(String.format("snapshot-%020d.snap.tmp", 12)), new byte[] {1, 2, 3});
+    snapshots.deleteOlderThan(9);
+
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        names.add(file.getFileName().toString());
+      }
+    }
+    assertEquals(Collections.singletonList(String.format("snapshot-%020d.snap", 9)), names);
+  }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+  @Test
+  public void firesEachTimerOnItsTickAcrossEveryRing() {
+    TimingWheel<Long> wheel = new TimingWheel<>(1, 0);
+    // the edges of the first, second and third rings
+    List<Long> deadlines = Arrays.asList(1L, 63L, 64L, 65L, 4095L, 4096L, 4097L, 262143L, 262144L, 262145L);
+    for (long deadline : deadlines) {
+      wheel.schedule(deadline, deadline);
+    }
+    List<Long> fired = new ArrayList<>();
+    for (long now = 1; now <= 262145; now++) {
+      for (long deadline : wheel.advance(now)) {
+        assertEquals("fired at the wrong time", deadline, now);
+        fired.add(deadline);
+      }
+    }
+    assertEquals(deadlines, fired);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void firesTimersInDeadlineOrderWhateverTheSteps() {
+    TimingWheel<Long> wheel = new TimingWheel<>(1, 1000);
+    Random random = new Random(7);
+    List<Long> deadlines = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      long deadline = 1000 + 1 + random.nextInt(2_000_000);
+      deadlines.add(deadline);
+      wheel.schedule(deadline, deadline);
+    }
+    List<Long> fired = new ArrayList<>();
+    long previous = 1000;
+    while (wheel.size() > 0) {
+      long now = previous + 1 + random.nextInt(20_000);
+      for (long deadline : wheel.advance(now)) {
+        assertTrue("fired " + deadline + " late at " + now + " or early", deadline > previous && deadline <= now);
+        fired.add(deadline);
+      }
+      previous = now;
+    }
+    Collections.sort(deadlines);
+    Collections.sort(fired);
+    assertEquals(deadlines, fired);
+  }
+
+  @Test
+  public void roundsDeadlinesUpToTheNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+    wheel.schedule("a", 1011);
+    assertTrue(wheel.advance(1019).isEmpty());
+    assertEquals(Collections.singletonList("a"), wheel.advance(1020));
+  }
+
+  @Test
+  public void roundsTheLargestDeadlinesWithoutOverflowing() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+    wheel.schedule("max", Long.MAX_VALUE);
+    wheel.schedule("almost", Long.MAX_VALUE - 9);
+    assertTrue(wheel.advance(1_000_000_000L).isEmpty());
+    assertEquals(2, wheel.size());
+  }
+
+  @Test
+  public void firesPastDeadlinesOnTheNextAdvance() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+    wheel.schedule("late", 500);
+    assertEquals(1, wheel.size());
+    assertEquals(Collections.singletonList("late"), wheel.advance(1000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void schedulesAfterAJumpRelativeToTheNewTime() {
+    TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+    assertTrue(wheel.advance(1_000_000).isEmpty());
+    wheel.schedule("a", 1_000_100);
+    assertTrue(wheel.advance(1_000_099).isEmpty());
+    assertEquals(Collections.singletonList("a"), wheel.advance(1_000_100));
+  }
+}
@@ -0,0 +1,235 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteAheadLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void replaysEveryRecordInOrder() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    assertEquals(0, wal.replay(new Recorder()));
+    wal.appendPromise(Ballot.of(3, 1)).join();
+    wal.appendBallot(1000).join();
+    wal.appendAccept(7, Ballot.of(3, 1), new byte[] {1, 2, 3}).join();
+    wal.appendLearn(7, new byte[] {1, 2, 3}).join();
+    wal.appendLearn(8, new byte[0]).join();
+    wal.close();
+
+    Recorder recorder = new Recorder();
+    WriteAheadLog reopened = open(directory);
+    assertEquals(5, reopened.replay(recorder));
+    reopened.close();
+    assertEquals(Arrays.asList(
+            "promise " + Ballot.of(3, 1),
+            "ballot 1000",
+            "accept 7 " + Ballot.of(3, 1) + " [1, 2, 3]",
+            "learn 7 [1, 2, 3]",
+            "learn 8 []"), recorder.records);
+  }
+
+  @Test
+  public void cutsATornTailAndAppendsAfterIt() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    wal.replay(new Recorder());
+    wal.appendLearn(0, new byte[] {10}).join();
+    wal.appendLearn(1, new byte[] {11}).join();
+    wal.close();
+    Path segment = onlySegment(directory);
+    long intact = Files.size(segment);
+    // a crash in the middle of the third record leaves part of it behind
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3}));
+    }
+
+    Recorder recorder = new Recorder();
+    WriteAheadLog reopened = open(directory);
+    assertEquals(2, reopened.replay(recorder));
+    assertEquals(intact, Files.size(segment));
+    reopened.appendLearn(2, new byte[] {12}).join();
+    reopened.close();
+
+    recorder = new Recorder();
+    WriteAheadLog again = open(directory);
+    assertEquals(3, again.replay(recorder));
+    again.close();
+    assertEquals(Arrays.asList("learn 0 [10]", "learn 1 [11]", "learn 2 [12]"), recorder.records);
+  }
+
+  @Test
+  public void dropsALastRecordThatFailsItsChecksum() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    wal.replay(new Recorder());
+    wal.appendLearn(0, new byte[] {10}).join();
+    wal.appendLearn(1, new byte[] {11}).join();
+    wal.close();
+    Path segment = onlySegment(directory);
+    flipLastByte(segment);
+
+    Recorder recorder = new Recorder();
+    WriteAheadLog reopened = open(directory);
+    assertEquals(1, reopened.replay(recorder));
+    reopened.close();
+    assertEquals(Collections.singletonList("learn 0 [10]"), recorder.records);
+  }
+
+  @Test
+  public void failsOnACorruptOlderSegment() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    wal.replay(new Recorder());
+    wal.appendLearn(0, new byte[] {10}).join();
+    long second = wal.roll();
+    wal.appendLearn(1, new byte[] {11}).join();
+    wal.close();
+    List<Path> segments = segments(directory);
+    assertEquals(2, segments.size());
+    assertEquals(1, second);
+    flipLastByte(segments.get(0));
+
+    WriteAheadLog reopened = open(directory);
+    try {
+      reopened.replay(new Recorder());
+      fail("replayed a corrupt older segment");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("is corrupt"));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void deletesSegmentsBeforeARoll() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    wal.replay(new Recorder());
+    wal.appendLearn(0, new byte[] {10}).join();
+    long segment = wal.roll();
+    wal.appendLearn(1, new byte[] {11}).join();
+    assertEquals(1, wal.deleteSegmentsBefore(segment));
+    wal.close();
+
+    Recorder recorder = new Recorder();
+    WriteAheadLog reopened = open(directory);
+    assertEquals(1, reopened.replay(recorder));
+    reopened.close();
+    assertEquals(Collections.singletonList("learn 1 [11]"), recorder.records);
+  }
+
+  @Test
+  public void failsEveryWriteAfterAFailedOne() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    WriteAheadLog wal = open(directory);
+    wal.replay(new Recorder());
+    wal.appendLearn(0, new byte[] {10}).join();
+    // the next segment cannot be opened, so the roll fails in the writer
+    Path blocked = Files.createDirectory(directory.resolve(String.format("wal-%020d.log", 1)));
+    wal.roll();
+    assertFailed(wal.appendLearn(1, new byte[] {11}));
+    assertFailed(wal.appendPromise(Ballot.of(4, 0)));
+    assertFailed(wal.appendAccept(2, Ballot.of(4, 0), new byte[] {12}));
+    assertFailed(wal.appendBallot(2000));
+    try {
+      wal.roll();
+      fail("rolled a failed log");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("failed earlier"));
+    }
+    wal.close();
+
+    Files.delete(blocked);
+    Recorder recorder = new Recorder();
+    WriteAheadLog reopened = open(directory);
+    assertEquals(1, reopened.replay(recorder));
+    reopened.close();
+    assertEquals(Collections.singletonList("learn 0 [10]"), recorder.records);
+  }
+
+  private static void assertFailed(CompletableFuture<Void> write) {
+    try {
+      write.join();
+      fail("wrote to a failed log");
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  private static WriteAheadLog open(Path directory) throws IOException {
+    return new WriteAheadLog(directory, Durability.BATCH, 50);
+  }
+
+  private static Path onlySegment(Path directory) throws IOException {
+    List<Path> segments = segments(directory);
+    assertEquals(1, segments.size());
+    return segments.get(0);
+  }
+
+  private static List<Path> segments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+      for (Path file : files) {
+        segments.add(file);
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static void flipLastByte(Path file) throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 1] ^= 0x5a;
+    Files.write(file, bytes);
+  }
+
+  /**
+   * Records the replayed records as text.
+   */
+  private static class Recorder implements WriteAheadLog.Replayer {
+    final List<String> records = new ArrayList<>();
+
+    @Override
+    public void onPromise(long proposalId) {
+      records.add("promise " + proposalId);
+    }
+
+    @Override
+    public void onAccept(long slot, long proposalId, byte[] value) {
+      records.add("accept " + slot + " " + proposalId + " " + Arrays.toString(value));
+    }
+
+    @Override
+    public void onBallot(long round) {
+      records.add("ballot " + round);
+    }
+
+    @Override
+    public void onLearn(long slot, byte[] value) {
+      records.add("learn " + slot + " " + Arrays.toString(value));
+    }
+  }
+}